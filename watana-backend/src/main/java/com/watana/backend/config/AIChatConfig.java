@@ -7,7 +7,14 @@ import org.springframework.ai.openai.OpenAiChatOptions; // Importa las opciones
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-
+import org.springframework.context.annotation.Lazy;
+
+/**
+ * Cliente de chat (Gemini a través de la API compatible con OpenAI).
+ * <p>
+ * Los beans son {@code @Lazy}: el cliente HTTP y el modelo se construyen con la primera llamada de
+ * {@code AIService}, no durante el arranque.
+ */
 @Configuration // Indica que esta clase contiene definiciones de beans de Spring
 public class AIChatConfig {
 
@@ -27,12 +34,14 @@ public class AIChatConfig {
     private String geminiModelName;
 
     @Bean // Marca este método como un productor de un bean de Spring
+    @Lazy
     public OpenAiApi openAiApi() {
         // Crea una instancia de la API de OpenAI con la URL base de Google
         return new OpenAiApi(openAiBaseUrl, openAiApiKey);
     }
 
     @Bean // Marca este método como un productor de un bean de Spring
+    @Lazy
     public OpenAiChatModel openAiChatModel(OpenAiApi openAiApi) {
         // Crea las opciones de chat con el modelo Gemini
         OpenAiChatOptions chatOptions = OpenAiChatOptions.builder()
@@ -46,6 +55,7 @@ public class AIChatConfig {
     }
 
     @Bean // Marca este método como un productor de un bean de Spring
+    @Lazy
     public ChatClient chatClient(OpenAiChatModel openAiChatModel) {
         // Construye el ChatClient utilizando el OpenAiChatModel configurado
         return ChatClient.builder(openAiChatModel).build();
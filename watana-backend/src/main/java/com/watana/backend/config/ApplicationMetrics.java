@@ -0,0 +1,220 @@
+package com.watana.backend.config;
+
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.ingest.SensorDataIngestPipeline;
+import com.watana.backend.ingest.SensorDataWriteAheadLog;
+import com.watana.backend.rules.AlertRuleEngine;
+import com.watana.backend.rules.SensorAnomalyMonitor;
+import com.watana.backend.security.CachingFirebaseTokenVerifier;
+import com.watana.backend.service.AIRequestLimiter;
+import com.watana.backend.service.AIResultCache;
+import com.watana.backend.service.DeviceCache;
+import com.watana.backend.service.DeviceLivenessTracker;
+import com.watana.backend.service.NotificationBroadcaster;
+import com.watana.backend.service.SensorDataBroadcaster;
+import com.watana.backend.service.SensorRollupAggregator;
+import com.watana.backend.service.WildfireRiskAssessmentJob;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publica como métricas de Micrometer los contadores que cada componente ya lleva (colas, cachés, SSE, WAL...).
+ * <p>
+ * Los valores se leen de los getters existentes al momento de cada scrape, así que no se agrega trabajo a la ruta
+ * de ingesta. Los componentes que no existen en el contexto (por ejemplo, el WAL desactivado) se omiten.
+ * Las latencias de las rutas críticas (MQTT, Firestore, autenticación, IA) las registra cada clase con su Timer.
+ */
+@Component
+public class ApplicationMetrics implements SmartInitializingSingleton {
+
+    private final MeterRegistry registry;
+    private final ObjectProvider<SensorDataIngestPipeline> ingestPipeline;
+    private final ObjectProvider<PartitionedExecutor> ingestLanes;
+    private final ObjectProvider<SensorDataWriteAheadLog> writeAheadLog;
+    private final ObjectProvider<SensorRollupAggregator> rollupAggregator;
+    private final ObjectProvider<DeviceLivenessTracker> livenessTracker;
+    private final ObjectProvider<DeviceCache> deviceCache;
+    private final ObjectProvider<SensorDataBroadcaster> sensorDataBroadcaster;
+    private final ObjectProvider<NotificationBroadcaster> notificationBroadcaster;
+    private final ObjectProvider<AlertRuleEngine> alertRuleEngine;
+    private final ObjectProvider<SensorAnomalyMonitor> anomalyMonitor;
+    private final ObjectProvider<CachingFirebaseTokenVerifier> tokenVerifier;
+    private final ObjectProvider<AIResultCache> aiResultCache;
+    private final ObjectProvider<AIRequestLimiter> aiRequestLimiter;
+    private final ObjectProvider<WildfireRiskAssessmentJob> wildfireJob;
+
+    public ApplicationMetrics(MeterRegistry registry,
+                              ObjectProvider<SensorDataIngestPipeline> ingestPipeline,
+                              ObjectProvider<PartitionedExecutor> ingestLanes,
+                              ObjectProvider<SensorDataWriteAheadLog> writeAheadLog,
+                              ObjectProvider<SensorRollupAggregator> rollupAggregator,
+                              ObjectProvider<DeviceLivenessTracker> livenessTracker,
+                              ObjectProvider<DeviceCache> deviceCache,
+                              ObjectProvider<SensorDataBroadcaster> sensorDataBroadcaster,
+                              ObjectProvider<NotificationBroadcaster> notificationBroadcaster,
+                              ObjectProvider<AlertRuleEngine> alertRuleEngine,
+                              ObjectProvider<SensorAnomalyMonitor> anomalyMonitor,
+                              ObjectProvider<CachingFirebaseTokenVerifier> tokenVerifier,
+                              ObjectProvider<AIResultCache> aiResultCache,
+                              ObjectProvider<AIRequestLimiter> aiRequestLimiter,
+                              ObjectProvider<WildfireRiskAssessmentJob> wildfireJob) {
+        this.registry = registry;
+        this.ingestPipeline = ingestPipeline;
+        this.ingestLanes = ingestLanes;
+        this.writeAheadLog = writeAheadLog;
+        this.rollupAggregator = rollupAggregator;
+        this.livenessTracker = livenessTracker;
+        this.deviceCache = deviceCache;
+        this.sensorDataBroadcaster = sensorDataBroadcaster;
+        this.notificationBroadcaster = notificationBroadcaster;
+        this.alertRuleEngine = alertRuleEngine;
+        this.anomalyMonitor = anomalyMonitor;
+        this.tokenVerifier = tokenVerifier;
+        this.aiResultCache = aiResultCache;
+        this.aiRequestLimiter = aiRequestLimiter;
+        this.wildfireJob = wildfireJob;
+    }
+
+    // Se registra cuando todos los singletons existen, así ningún componente se crea antes de tiempo por las métricas
+    @Override
+    public void afterSingletonsInstantiated() {
+        ingestPipeline.ifAvailable(pipeline -> {
+            gauge("watana.ingest.queue.depth", "Lecturas en la cola de escritura por lotes", pipeline,
+                    SensorDataIngestPipeline::getQueueDepth);
+            counter("watana.ingest.batches", "Lotes escritos en el repositorio", pipeline,
+                    p -> p.getStats().batchesFlushed(), "outcome", "success");
+            counter("watana.ingest.batches", "Lotes escritos en el repositorio", pipeline,
+                    p -> p.getStats().batchesFailed(), "outcome", "error");
+            counter("watana.ingest.readings.flushed", "Lecturas escritas por la etapa de lotes", pipeline,
+                    p -> p.getStats().readingsFlushed());
+            counter("watana.ingest.readings.rejected", "Lecturas descartadas con la cola llena", pipeline,
+                    p -> p.getStats().readingsRejected());
+        });
+        ingestLanes.ifAvailable(lanes -> {
+            gauge("watana.ingest.lanes.queue.depth", "Lecturas esperando en los carriles por dispositivo", lanes,
+                    PartitionedExecutor::getQueueDepth);
+            counter("watana.ingest.lanes.processed", "Lecturas procesadas por los carriles", lanes,
+                    PartitionedExecutor::getCompletedTaskCount);
+        });
+        writeAheadLog.ifAvailable(wal -> {
+            gauge("watana.wal.pending.bytes", "Bytes del WAL aún no escritos en el repositorio", wal,
+                    SensorDataWriteAheadLog::getPendingBytes);
+            counter("watana.wal.appended", "Lecturas anexadas al WAL", wal, SensorDataWriteAheadLog::getAppendedCount);
+            counter("watana.wal.replayed", "Lecturas del WAL escritas en el repositorio", wal,
+                    SensorDataWriteAheadLog::getReplayedCount);
+            counter("watana.wal.retries", "Reintentos de escritura del WAL", wal, SensorDataWriteAheadLog::getRetryCount);
+            counter("watana.wal.skipped", "Registros del WAL ilegibles omitidos", wal, SensorDataWriteAheadLog::getSkippedCount);
+            counter("watana.wal.forces", "msync del WAL (uno por grupo de lecturas)", wal,
+                    SensorDataWriteAheadLog::getForceCount);
+        });
+        rollupAggregator.ifAvailable(rollups -> {
+            gauge("watana.rollup.series", "Series dispositivo + tipo agregadas", rollups, r -> r.getStats().series());
+            gauge("watana.rollup.windows.pending", "Ventanas cerradas esperando escritura", rollups,
+                    r -> r.getStats().pendingWindows());
+            counter("watana.rollup.readings", "Lecturas agregadas en su ventana", rollups,
+                    r -> r.getStats().readingsAggregated(), "outcome", "aggregated");
+            counter("watana.rollup.readings", "Lecturas agregadas en su ventana", rollups,
+                    r -> r.getStats().lateReadings(), "outcome", "late");
+            counter("watana.rollup.readings", "Lecturas agregadas en su ventana", rollups,
+                    r -> r.getStats().futureReadings(), "outcome", "future");
+            counter("watana.rollup.windows.flushed", "Ventanas escritas en sensor_rollups", rollups,
+                    r -> r.getStats().windowsFlushed());
+        });
+        livenessTracker.ifAvailable(liveness -> {
+            gauge("watana.devices.online", "Dispositivos con lecturas recientes", liveness,
+                    DeviceLivenessTracker::getOnlineCount);
+            gauge("watana.devices.tracked", "Dispositivos vistos desde el arranque", liveness,
+                    DeviceLivenessTracker::getTrackedCount);
+            counter("watana.devices.went-offline", "Transiciones a offline", liveness,
+                    DeviceLivenessTracker::getWentOfflineCount);
+        });
+        deviceCache.ifAvailable(cache -> {
+            counter("watana.device.cache.requests", "Lecturas de la caché de dispositivos", cache,
+                    DeviceCache::getHitCount, "result", "hit");
+            counter("watana.device.cache.requests", "Lecturas de la caché de dispositivos", cache,
+                    DeviceCache::getMissCount, "result", "miss");
+        });
+        sensorDataBroadcaster.ifAvailable(broadcaster -> {
+            gauge("watana.sse.subscribers", "Clientes SSE conectados", broadcaster,
+                    SensorDataBroadcaster::getSubscriberCount, "stream", "sensor-data");
+            counter("watana.sse.events.published", "Eventos SSE publicados", broadcaster,
+                    SensorDataBroadcaster::getPublishedCount, "stream", "sensor-data");
+            counter("watana.sse.events.dropped", "Eventos SSE descartados por clientes lentos", broadcaster,
+                    SensorDataBroadcaster::getDroppedCount, "stream", "sensor-data");
+        });
+        notificationBroadcaster.ifAvailable(broadcaster -> {
+            gauge("watana.sse.subscribers", "Clientes SSE conectados", broadcaster,
+                    NotificationBroadcaster::getSubscriberCount, "stream", "notifications");
+            counter("watana.sse.events.published", "Eventos SSE publicados", broadcaster,
+                    NotificationBroadcaster::getPublishedCount, "stream", "notifications");
+            counter("watana.sse.events.dropped", "Eventos SSE descartados por clientes lentos", broadcaster,
+                    NotificationBroadcaster::getDroppedCount, "stream", "notifications");
+        });
+        alertRuleEngine.ifAvailable(engine -> {
+            counter("watana.rules.readings.evaluated", "Lecturas evaluadas por las reglas de alerta", engine,
+                    AlertRuleEngine::getReadingsEvaluatedCount);
+            counter("watana.rules.alerts", "Alertas de las reglas", engine,
+                    AlertRuleEngine::getAlertsFiredCount, "outcome", "fired");
+            counter("watana.rules.alerts", "Alertas de las reglas", engine,
+                    AlertRuleEngine::getAlertsDebouncedCount, "outcome", "debounced");
+        });
+        anomalyMonitor.ifAvailable(monitor -> {
+            gauge("watana.anomaly.series", "Series dispositivo + tipo evaluadas por el detector", monitor,
+                    m -> m.getStats().series());
+            counter("watana.anomaly.detected", "Lecturas anotadas como anómalas", monitor,
+                    m -> m.getStats().spikes(), "kind", "spike");
+            counter("watana.anomaly.detected", "Lecturas anotadas como anómalas", monitor,
+                    m -> m.getStats().seasonal(), "kind", "seasonal");
+            counter("watana.anomaly.detected", "Lecturas anotadas como anómalas", monitor,
+                    m -> m.getStats().flatlines(), "kind", "flatline");
+            gauge("watana.anomaly.pending", "Anotaciones esperando escritura", monitor,
+                    m -> m.getStats().pendingAnomalies());
+            counter("watana.anomaly.queries", "Consultas de anomalías por dispositivo", monitor,
+                    m -> m.getStats().queryCacheHits(), "source", "cache");
+            counter("watana.anomaly.queries", "Consultas de anomalías por dispositivo", monitor,
+                    m -> m.getStats().repositoryQueries(), "source", "repository");
+        });
+        tokenVerifier.ifAvailable(verifier -> {
+            gauge("watana.auth.token-cache.size", "Tokens verificados en caché", verifier,
+                    CachingFirebaseTokenVerifier::size);
+            counter("watana.auth.token-cache.evictions", "Tokens expulsados de la caché", verifier,
+                    CachingFirebaseTokenVerifier::getEvictionCount);
+        });
+        aiResultCache.ifAvailable(cache -> {
+            counter("watana.ai.cache.requests", "Consultas a la caché de respuestas de IA", cache,
+                    AIResultCache::getHitCount, "result", "hit");
+            counter("watana.ai.cache.requests", "Consultas a la caché de respuestas de IA", cache,
+                    AIResultCache::getMissCount, "result", "miss");
+            counter("watana.ai.cache.requests", "Consultas a la caché de respuestas de IA", cache,
+                    AIResultCache::getCoalescedCount, "result", "coalesced");
+        });
+        aiRequestLimiter.ifAvailable(limiter -> {
+            gauge("watana.ai.streams.active", "Llamadas de streaming al modelo en curso", limiter,
+                    AIRequestLimiter::getActiveCount);
+            gauge("watana.ai.streams.queued", "Llamadas de streaming esperando turno", limiter,
+                    AIRequestLimiter::getQueueDepth);
+            counter("watana.ai.streams.rejected", "Llamadas de streaming rechazadas con la cola llena", limiter,
+                    AIRequestLimiter::getRejectedCount);
+        });
+        wildfireJob.ifAvailable(job -> {
+            counter("watana.wildfire.runs", "Ejecuciones de la evaluación de riesgo de incendio", job,
+                    WildfireRiskAssessmentJob::getRunCount);
+            counter("watana.wildfire.candidates", "Dispositivos enviados al modelo", job,
+                    WildfireRiskAssessmentJob::getCandidatesSentCount);
+        });
+    }
+
+    private <T> void gauge(String name, String description, T source, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, source, value).description(description).tags(tags).register(registry);
+    }
+
+    private <T> void counter(String name, String description, T source, ToDoubleFunction<T> value, String... tags) {
+        FunctionCounter.builder(name, source, value).description(description).tags(tags).register(registry);
+    }
+}
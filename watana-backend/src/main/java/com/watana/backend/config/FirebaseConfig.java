@@ -5,58 +5,67 @@ import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
 import com.google.cloud.firestore.Firestore; // Importa Firestore de google.cloud
 import com.google.firebase.auth.FirebaseAuth;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.beans.factory.annotation.Value;
 
-import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.io.InputStream;
 
 // Importa FirestoreClient para interactuar con Firestore desde Firebase Admin SDK
 import com.google.firebase.cloud.FirestoreClient;
 
+/**
+ * Clientes de Firebase Admin SDK.
+ * <p>
+ * Nada se inicializa al arrancar: las credenciales se cargan y el SDK se inicializa la primera vez que alguien usa
+ * {@link Firestore} o {@link FirebaseAuth} (los beans son {@code @Lazy} y quienes los inyectan reciben un proxy o un
+ * {@code ObjectProvider}). {@link StartupDependencies} decide si eso ocurre durante el arranque, justo después o
+ * recién con la primera petición.
+ */
 @Configuration // Indica que esta clase contiene definiciones de beans de Spring
 public class FirebaseConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(FirebaseConfig.class);
+
     @Value("${firebase.project-id}")
     private String firebaseProjectId;
 
-    @PostConstruct
-    public void initializeFirebaseApp() {
-        try {
-            // Carga el archivo de clave de cuenta de servicio desde los recursos
-            InputStream serviceAccount = new ClassPathResource("serviceAccountKey.json").getInputStream();
-
+    // Inicializa Firebase Admin SDK una sola vez; si falla se reintenta en el próximo uso
+    synchronized FirebaseApp firebaseApp() {
+        if (!FirebaseApp.getApps().isEmpty()) {
+            return FirebaseApp.getInstance();
+        }
+        // Carga el archivo de clave de cuenta de servicio desde los recursos
+        try (InputStream serviceAccount = new ClassPathResource("serviceAccountKey.json").getInputStream()) {
             FirebaseOptions options = FirebaseOptions.builder()
                     .setCredentials(GoogleCredentials.fromStream(serviceAccount))
                     .setProjectId(firebaseProjectId)
                     .build();
-
-            if (FirebaseApp.getApps().isEmpty()) {
-                FirebaseApp.initializeApp(options);
-                System.out.println("Firebase Admin SDK inicializado exitosamente.");
-            } else {
-                System.out.println("Firebase Admin SDK ya está inicializado.");
-            }
-
+            FirebaseApp app = FirebaseApp.initializeApp(options);
+            log.info("Firebase Admin SDK inicializado exitosamente.");
+            return app;
         } catch (IOException e) {
-            System.err.println("Error al inicializar Firebase Admin SDK: " + e.getMessage());
-            e.printStackTrace();
+            throw new IllegalStateException("Error al inicializar Firebase Admin SDK: " + e.getMessage(), e);
         }
     }
 
-    // Bean para obtener la instancia de Firestore
+    // Bean para obtener la instancia de Firestore (se crea con el primer uso)
     @Bean
+    @Lazy
     public Firestore getFirestore() {
         // Usa FirestoreClient para obtener la instancia de Firestore
-        return FirestoreClient.getFirestore();
+        return FirestoreClient.getFirestore(firebaseApp());
     }
 
-    // Bean para obtener la instancia de FirebaseAuth
+    // Bean para obtener la instancia de FirebaseAuth (se crea con el primer uso)
     @Bean
+    @Lazy
     public FirebaseAuth getFirebaseAuth() {
-        return FirebaseAuth.getInstance(FirebaseApp.getInstance());
+        return FirebaseAuth.getInstance(firebaseApp());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,308 @@
+package com.watana.backend.config;
+
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttClient;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
+import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
+import org.springframework.integration.mqtt.support.DefaultPahoMessageConverter;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Grupo de conexiones MQTT de entrada de esta instancia, todas entregando al mismo canal.
+ * <p>
+ * Con {@code sharedGroup}, cada conexión se suscribe a {@code $share/<grupo>/<filtro>} para todos los filtros y
+ * el broker reparte los mensajes entre todas las conexiones del grupo, sean de esta instancia o de otras
+ * réplicas. Sin grupo, cada filtro se asigna a una sola conexión para que ningún mensaje llegue dos veces.
+ * Los mensajes se entregan con ACK manual: quien los procesa debe llamar a {@code acknowledge()}.
+ * <p>
+ * Con {@code connectAsync}, {@link #start()} no espera al broker: las conexiones se abren en un hilo aparte y el
+ * arranque de la aplicación no depende de que el broker responda. {@link #getConnectedCount()} indica cuántas
+ * están conectadas en cada momento (lo usa la sonda de readiness).
+ */
+public class MqttInboundConnections implements SmartLifecycle, BeanFactoryAware {
+
+    private static final Logger log = LoggerFactory.getLogger(MqttInboundConnections.class);
+
+    static final String SHARED_PREFIX = "$share/";
+
+    // Al detener no se espera a los mensajes en vuelo: los que no tienen ACK el broker los vuelve a entregar.
+    // Con los 30 s por defecto de Paho, cerrar el contexto (o la JVM de las pruebas) quedaba colgado ese tiempo
+    static final long QUIESCENT_TIMEOUT_MS = 500;
+    static final long DISCONNECT_COMPLETION_TIMEOUT_MS = 1000;
+
+    // Lo mismo que MqttUtils.stopClientReconnectCycle, que no se puede usar sin el cliente MQTT v5 en el classpath:
+    // Paho no expone cómo cancelar el temporizador de reconexión automática
+    private static final Method STOP_RECONNECT_CYCLE = stopReconnectCycleMethod();
+
+    private final String clientId;
+    private final MqttPahoClientFactory clientFactory;
+    private final MessageChannel outputChannel;
+    private final List<List<String>> topicsPerConnection;
+    private final boolean connectAsync;
+    private final List<MqttPahoMessageDrivenChannelAdapter> adapters = new ArrayList<>(); // Guardada por sí misma
+    private final AtomicInteger connected = new AtomicInteger();
+    private BeanFactory beanFactory;
+    private volatile boolean running;
+    // Cambia en cada start()/stop(): una ronda de conexión de un ciclo anterior se detiene al verlo cambiar
+    private volatile int generation;
+
+    public MqttInboundConnections(String clientId, MqttPahoClientFactory clientFactory, MessageChannel outputChannel,
+                                  List<String> topicFilters, String sharedGroup, int poolSize) {
+        this(clientId, clientFactory, outputChannel, topicFilters, sharedGroup, poolSize, false);
+    }
+
+    public MqttInboundConnections(String clientId, MqttPahoClientFactory clientFactory, MessageChannel outputChannel,
+                                  List<String> topicFilters, String sharedGroup, int poolSize, boolean connectAsync) {
+        this.clientId = clientId;
+        this.clientFactory = clientFactory;
+        this.outputChannel = outputChannel;
+        this.topicsPerConnection = assignTopics(topicFilters, sharedGroup, poolSize);
+        this.connectAsync = connectAsync;
+    }
+
+    /**
+     * Reparte los filtros entre las conexiones.
+     *
+     * @return Los filtros de cada conexión; nunca más listas que filtros cuando no hay suscripción compartida.
+     */
+    static List<List<String>> assignTopics(List<String> topicFilters, String sharedGroup, int poolSize) {
+        List<String> filters = topicFilters.stream().map(String::trim).filter(f -> !f.isEmpty()).distinct().toList();
+        if (filters.isEmpty() || poolSize <= 0) {
+            throw new IllegalArgumentException("Se necesita al menos un tópico y una conexión: topics=" + topicFilters
+                    + ", poolSize=" + poolSize);
+        }
+        List<List<String>> assignment = new ArrayList<>();
+        if (sharedGroup != null && !sharedGroup.isBlank()) {
+            List<String> shared = filters.stream()
+                    .map(f -> f.startsWith(SHARED_PREFIX) ? f : SHARED_PREFIX + sharedGroup.trim() + "/" + f)
+                    .toList();
+            for (int i = 0; i < poolSize; i++) {
+                assignment.add(shared);
+            }
+            return assignment;
+        }
+        int connections = Math.min(poolSize, filters.size()); // Una conexión sin filtros no recibiría nada
+        for (int i = 0; i < connections; i++) {
+            assignment.add(new ArrayList<>());
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            assignment.get(i % connections).add(filters.get(i));
+        }
+        return assignment;
+    }
+
+    private static Method stopReconnectCycleMethod() {
+        Method method = ReflectionUtils.findMethod(MqttAsyncClient.class, "stopReconnectCycle");
+        if (method != null) {
+            ReflectionUtils.makeAccessible(method);
+        }
+        return method;
+    }
+
+    // Con una sola conexión se conserva el clientId configurado (y su sesión persistente en el broker)
+    String clientIdFor(int connection) {
+        return topicsPerConnection.size() == 1 ? clientId : clientId + "-" + connection;
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public void start() {
+        int round;
+        synchronized (adapters) {
+            if (running) {
+                return;
+            }
+            running = true;
+            round = ++generation;
+        }
+        if (connectAsync) {
+            Thread connector = new Thread(() -> connectAll(round), "mqtt-inbound-connect");
+            connector.setDaemon(true);
+            connector.start();
+        } else {
+            connectAll(round);
+        }
+    }
+
+    // Cada adaptador se conecta de forma sincrónica (hasta completionTimeout si el broker no responde). No toma el
+    // lock mientras conecta: stop() no espera a que termine la ronda, y la ronda se detiene en el siguiente adaptador
+    private void connectAll(int round) {
+        for (int i = 0; i < topicsPerConnection.size(); i++) {
+            if (generation != round) {
+                return; // stop() llegó antes de terminar de conectar
+            }
+            List<String> topics = topicsPerConnection.get(i);
+            MqttPahoMessageDrivenChannelAdapter adapter =
+                    new TrackedAdapter(clientIdFor(i), clientFactory, topics.toArray(String[]::new), connected);
+            adapter.setCompletionTimeout(5000); // Tiempo de espera para operaciones
+            adapter.setDisconnectCompletionTimeout(DISCONNECT_COMPLETION_TIMEOUT_MS);
+            DefaultPahoMessageConverter converter = new DefaultPahoMessageConverter();
+            converter.setPayloadAsBytes(true); // Entrega el byte[] crudo; evita crear un String por mensaje
+            adapter.setConverter(converter);
+            adapter.setQos(1); // Calidad de servicio (QoS) 1: al menos una vez
+            adapter.setManualAcks(true); // El ACK se envía cuando un worker terminó de procesar el mensaje
+            adapter.setOutputChannel(outputChannel);
+            adapter.setBeanFactory(beanFactory);
+            adapter.afterPropertiesSet();
+            adapter.start();
+            synchronized (adapters) {
+                if (generation != round) {
+                    stopAdapter(adapter); // stop() ya cerró las demás mientras esta conectaba
+                    return;
+                }
+                adapters.add(adapter);
+            }
+            log.info("MQTT inbound connection {} subscribed to {}", clientIdFor(i), topics);
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (adapters) {
+            generation++;
+            for (MqttPahoMessageDrivenChannelAdapter adapter : adapters) {
+                stopAdapter(adapter);
+            }
+            adapters.clear();
+            running = false;
+        }
+    }
+
+    private static void stopAdapter(MqttPahoMessageDrivenChannelAdapter adapter) {
+        try {
+            adapter.stop();
+            adapter.destroy();
+        } catch (RuntimeException e) {
+            log.warn("Error stopping MQTT inbound connection: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getConnectionCount() {
+        return topicsPerConnection.size();
+    }
+
+    // Conexiones con el broker abiertas ahora (Paho reconecta solo; el contador sigue sus callbacks)
+    public int getConnectedCount() {
+        return connected.get();
+    }
+
+    public List<List<String>> getTopicsPerConnection() {
+        return topicsPerConnection;
+    }
+
+    // Adaptador que lleva la cuenta de conexiones abiertas con los callbacks de Paho
+    private static final class TrackedAdapter extends MqttPahoMessageDrivenChannelAdapter {
+
+        private final AtomicInteger connectedCount;
+        private final ClientCapturingFactory clientFactory;
+        private boolean connected; // Solo cambia en los callbacks de este cliente
+
+        TrackedAdapter(String clientId, MqttPahoClientFactory clientFactory, String[] topics,
+                       AtomicInteger connectedCount) {
+            this(clientId, new ClientCapturingFactory(clientFactory), topics, connectedCount);
+        }
+
+        private TrackedAdapter(String clientId, ClientCapturingFactory clientFactory, String[] topics,
+                               AtomicInteger connectedCount) {
+            super(clientId, clientFactory, topics);
+            this.clientFactory = clientFactory;
+            this.connectedCount = connectedCount;
+        }
+
+        @Override
+        public void connectComplete(boolean reconnect, String serverURI) {
+            markConnected(true);
+            super.connectComplete(reconnect, serverURI);
+        }
+
+        @Override
+        public void connectionLost(Throwable cause) {
+            markConnected(false);
+            super.connectionLost(cause);
+        }
+
+        // Reemplaza al doStop() del adaptador, que desconecta con el quiesce de 30 s de Paho y, si la desconexión
+        // falla (el cliente está reconectando), deja vivo el ciclo de reconexión automática
+        @Override
+        protected void doStop() {
+            markConnected(false);
+            IMqttAsyncClient client = clientFactory.client;
+            if (client == null) {
+                return; // Nunca llegó a crear el cliente
+            }
+            MqttConnectOptions options = getConnectionInfo();
+            try {
+                if (client.isConnected()) {
+                    if (options.isCleanSession()) {
+                        client.unsubscribe(getTopic());
+                    }
+                    client.disconnectForcibly(QUIESCENT_TIMEOUT_MS, getDisconnectCompletionTimeout());
+                }
+            } catch (MqttException e) {
+                log.warn("Error disconnecting MQTT inbound connection {}: {}", getClientId(), e.getMessage());
+            } finally {
+                if (options.isAutomaticReconnect() && STOP_RECONNECT_CYCLE != null && client instanceof MqttAsyncClient) {
+                    ReflectionUtils.invokeMethod(STOP_RECONNECT_CYCLE, null, client);
+                }
+            }
+        }
+
+        private synchronized void markConnected(boolean now) {
+            if (connected != now) {
+                connected = now;
+                connectedCount.addAndGet(now ? 1 : -1);
+            }
+        }
+    }
+
+    // Recuerda el último cliente asíncrono creado: el adaptador no lo expone y doStop() lo necesita
+    private static final class ClientCapturingFactory implements MqttPahoClientFactory {
+
+        private final MqttPahoClientFactory delegate;
+        private volatile IMqttAsyncClient client;
+
+        ClientCapturingFactory(MqttPahoClientFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public IMqttClient getClientInstance(String uri, String clientId) throws MqttException {
+            return delegate.getClientInstance(uri, clientId);
+        }
+
+        @Override
+        public IMqttAsyncClient getAsyncClientInstance(String uri, String clientId) throws MqttException {
+            IMqttAsyncClient created = delegate.getAsyncClientInstance(uri, clientId);
+            client = created;
+            return created;
+        }
+
+        @Override
+        public MqttConnectOptions getConnectionOptions() {
+            return delegate.getConnectionOptions();
+        }
+    }
+}
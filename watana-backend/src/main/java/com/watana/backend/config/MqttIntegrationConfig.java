@@ -1,49 +1,116 @@
 package com.watana.backend.config;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule; // Para soportar LocalDateTime
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.ingest.SensorDataDecoder;
+import com.watana.backend.ingest.SensorDataIngestPipeline;
+import com.watana.backend.ingest.SensorDataListener;
+import com.watana.backend.ingest.SensorDataWriteAheadLog;
 import com.watana.backend.model.SensorData;
-import com.watana.backend.service.SensorDataService;
+import com.watana.backend.service.SensorRollupAggregator;
+import com.watana.backend.util.SensorTimestamps;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.StaticMessageHeaderAccessor;
+import org.springframework.integration.acks.SimpleAcknowledgment;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.channel.DirectChannel;
 import org.springframework.integration.mqtt.core.DefaultMqttPahoClientFactory;
 import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
-import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
-import org.springframework.integration.mqtt.support.DefaultPahoMessageConverter; // ¡CORREGIDO AQUÍ!
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.handler.annotation.Payload; // Para extraer el payload del mensaje
-import java.io.IOException; // Necesario para el ObjectMapper
+import java.io.IOException; // Necesario para el decodificador
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutionException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration // Indica que esta clase contiene definiciones de beans de Spring
 public class MqttIntegrationConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(MqttIntegrationConfig.class);
+
     // Inyecta las propiedades de configuración de MQTT desde application.properties
     @Value("${mqtt.broker.url}")
     private String brokerUrl;
     @Value("${mqtt.client.id}")
     private String clientId;
-    @Value("${mqtt.topic.inbound}")
-    private String inboundTopic;
+    @Value("${mqtt.topic.inbound}") // Uno o más filtros separados por comas
+    private String[] inboundTopics;
+    @Value("${mqtt.shared-group:}") // Si se define, se usa $share/<grupo>/<filtro> para repartir entre réplicas
+    private String sharedGroup;
+    @Value("${mqtt.client.pool-size:1}") // Conexiones MQTT de entrada por instancia
+    private int clientPoolSize;
     @Value("${mqtt.username:}") // Valor por defecto vacío si no está definida
     private String mqttUsername;
     @Value("${mqtt.password:}") // Valor por defecto vacío si no está definida
     private String mqttPassword;
+    @Value("${mqtt.clean-session:true}") // Con false, el broker guarda los mensajes QoS 1 mientras estamos desconectados
+    private boolean cleanSession;
+    @Value("${mqtt.connect-async:true}") // Conecta en otro hilo: el arranque no espera al broker
+    private boolean connectAsync;
+
+    private final SensorDataIngestPipeline ingestPipeline; // Etapa asíncrona que agrupa las escrituras a Firestore
+    private final SensorDataDecoder sensorDataDecoder; // Decodifica JSON, CBOR o Protobuf desde los bytes del mensaje
+    private final List<SensorDataListener> sensorDataListeners; // Consumidores en vivo (SSE, etc.)
+    private final SensorDataWriteAheadLog writeAheadLog; // null si watana.wal.enabled=false
+    private final SensorRollupAggregator rollupAggregator; // Decide si la lectura cruda también se guarda
+    // Se crea una vez aquí: el handler lo usa en cada lectura sin pasar por el proxy de la configuración
+    private final PartitionedExecutor ingestLanes;
 
-    private final SensorDataService sensorDataService;
-    private final ObjectMapper objectMapper; // Para (des)serializar JSON
+    // Métricas de la ruta de ingesta
+    private final Timer decodeTimer; // Decodificación del payload en el hilo de Paho
+    private final Timer ingestTimer; // Desde que llega el mensaje hasta que sus lecturas quedan en el WAL o en la cola
+    private final Counter malformedMessages;
+    private final Counter unprocessedMessages;
+    private final DistributionSummary readingsPerMessage;
 
     // Constructor para inyección de dependencia
-    public MqttIntegrationConfig(SensorDataService sensorDataService) {
-        this.sensorDataService = sensorDataService;
-        this.objectMapper = new ObjectMapper();
-        // Registra el módulo para LocalDateTime (java.time)
-        this.objectMapper.registerModule(new JavaTimeModule());
+    public MqttIntegrationConfig(SensorDataIngestPipeline ingestPipeline, SensorDataDecoder sensorDataDecoder,
+                                 List<SensorDataListener> sensorDataListeners,
+                                 ObjectProvider<SensorDataWriteAheadLog> writeAheadLog,
+                                 SensorRollupAggregator rollupAggregator,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${watana.ingest.lanes:0}") int laneCount, // 0 = uno por núcleo
+                                 // Lecturas en espera por carril antes de frenar al cliente MQTT
+                                 @Value("${watana.ingest.lane-queue-capacity:1000}") int laneQueueCapacity) {
+        this.ingestPipeline = ingestPipeline;
+        this.sensorDataDecoder = sensorDataDecoder;
+        this.sensorDataListeners = sensorDataListeners;
+        this.writeAheadLog = writeAheadLog.getIfAvailable();
+        this.rollupAggregator = rollupAggregator;
+        this.ingestLanes = new PartitionedExecutor("ingest-lane", PartitionedExecutor.laneCount(laneCount),
+                laneQueueCapacity);
+        this.decodeTimer = Timer.builder("watana.mqtt.decode")
+                .description("Decodificación del payload MQTT")
+                .register(meterRegistry);
+        this.ingestTimer = Timer.builder("watana.ingest.latency")
+                .description("Desde la recepción MQTT hasta que las lecturas del mensaje son persistidas en el WAL o encoladas")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.malformedMessages = Counter.builder("watana.mqtt.messages")
+                .description("Mensajes MQTT recibidos")
+                .tag("outcome", "malformed")
+                .register(meterRegistry);
+        this.unprocessedMessages = Counter.builder("watana.mqtt.messages")
+                .description("Mensajes MQTT recibidos")
+                .tag("outcome", "rejected")
+                .register(meterRegistry);
+        this.readingsPerMessage = DistributionSummary.builder("watana.mqtt.readings-per-message")
+                .description("Lecturas por mensaje MQTT (los lotes llevan varias)")
+                .register(meterRegistry);
     }
 
     // Configuración de fábrica del cliente MQTT Paho
@@ -52,7 +119,7 @@ public class MqttIntegrationConfig {
         DefaultMqttPahoClientFactory factory = new DefaultMqttPahoClientFactory();
         MqttConnectOptions options = new MqttConnectOptions();
         options.setServerURIs(new String[] { brokerUrl });
-        options.setCleanSession(true); // Una sesión limpia no persiste mensajes entre desconexiones
+        options.setCleanSession(cleanSession); // Una sesión limpia no persiste mensajes entre desconexiones
         options.setAutomaticReconnect(true); // Intenta reconectar automáticamente
         if (!mqttUsername.isEmpty()) {
             options.setUserName(mqttUsername);
@@ -70,44 +137,150 @@ public class MqttIntegrationConfig {
         return new DirectChannel();
     }
 
-    // Adaptador de entrada MQTT: configura cómo se reciben los mensajes del broker
+    // Conexiones de entrada MQTT: configura cómo se reciben los mensajes del broker
     @Bean
-    public MqttPahoMessageDrivenChannelAdapter inbound() {
-        MqttPahoMessageDrivenChannelAdapter adapter =
-                new MqttPahoMessageDrivenChannelAdapter(clientId, mqttClientFactory(), inboundTopic);
-        adapter.setCompletionTimeout(5000); // Tiempo de espera para operaciones
-        adapter.setConverter(new DefaultPahoMessageConverter()); // Convertidor de mensajes MQTT
-        adapter.setQos(1); // Calidad de servicio (QoS) 1: al menos una vez
-        adapter.setOutputChannel(mqttInputChannel()); // Envía los mensajes al canal definido
-        return adapter;
+    public MqttInboundConnections inbound() {
+        return new MqttInboundConnections(clientId, mqttClientFactory(), mqttInputChannel(),
+                Arrays.asList(inboundTopics), sharedGroup, clientPoolSize, connectAsync);
+    }
+
+    // Carriles que procesan las lecturas fuera de los hilos de Paho: un mismo dispositivo siempre va al mismo
+    // carril (orden por dispositivo) y dispositivos distintos se procesan en paralelo
+    @Bean(destroyMethod = "shutdown")
+    public PartitionedExecutor ingestLanes() {
+        return ingestLanes;
     }
 
-    // Receptor de mensajes: este método se activará cuando llegue un mensaje al mqttInputChannel
+    // Receptor de mensajes: este método se activará cuando llegue un mensaje al mqttInputChannel.
+    // Decodifica en el hilo de Paho (necesita el deviceId), pasa cada lectura al carril de su dispositivo
+    // y envía el ACK cuando los carriles terminaron de procesar todas las lecturas del mensaje. Si alguna no
+    // quedó persistida (ni en el WAL ni en la cola), no hay ACK y el broker vuelve a entregar el mensaje.
     @ServiceActivator(inputChannel = "mqttInputChannel")
-    public void handleMqttMessage(@Payload String payload) {
-        System.out.println("MQTT Message Received: " + payload);
+    public void handleMqttMessage(Message<byte[]> message) {
+        SimpleAcknowledgment ack = StaticMessageHeaderAccessor.getAcknowledgment(message);
+        long receivedAt = System.nanoTime();
+        List<SensorData> readings;
         try {
-            // Convierte el payload JSON en un objeto SensorData
-            SensorData sensorData = objectMapper.readValue(payload, SensorData.class);
-            // Si el timestamp no viene en el payload, asigna el tiempo actual
+            // JSON, CBOR o Protobuf según el sufijo del tópico o el primer byte; una lectura o un lote
+            readings = sensorDataDecoder.decodeAll(
+                    message.getHeaders().get(MqttHeaders.RECEIVED_TOPIC, String.class), message.getPayload());
+        } catch (IOException e) {
+            malformedMessages.increment();
+            log.debug("Error parsing MQTT payload to SensorData: {}", e.getMessage());
+            acknowledge(ack); // Un payload inválido no mejora con reintentos
+            return;
+        } catch (RuntimeException e) {
+            // Un error inesperado del decodificador tampoco debe cortar la conexión: Paho no enviaría el ACK y
+            // el broker volvería a entregar el mismo mensaje indefinidamente
+            malformedMessages.increment();
+            log.warn("Unexpected error decoding MQTT payload, message discarded: {}", e.toString());
+            acknowledge(ack);
+            return;
+        } finally {
+            decodeTimer.record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS);
+        }
+        readingsPerMessage.record(readings.size());
+        if (readings.isEmpty()) {
+            acknowledge(ack);
+            return;
+        }
+        // Si el timestamp no viene en el payload, asigna el tiempo actual
+        LocalDateTime now = SensorTimestamps.now();
+        AtomicInteger pending = new AtomicInteger(readings.size());
+        AtomicBoolean failed = new AtomicBoolean();
+        for (SensorData sensorData : readings) {
             if (sensorData.getTimestamp() == null) {
-                sensorData.setTimestamp(LocalDateTime.now());
+                sensorData.setTimestamp(now);
             }
+            try {
+                ingestLanes.execute(sensorData.getDeviceId(), () -> {
+                    boolean persisted = false;
+                    try {
+                        persisted = process(sensorData);
+                    } catch (RuntimeException e) {
+                        log.error("Error processing reading from {}", sensorData.getDeviceId(), e);
+                    } finally {
+                        if (!persisted) {
+                            failed.set(true);
+                        }
+                        if (pending.decrementAndGet() == 0) {
+                            ingestTimer.record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS);
+                            if (failed.get()) {
+                                // Sin ACK: el broker vuelve a entregar el mensaje completo (sesión persistente o
+                                // suscripción compartida); las lecturas que sí se guardaron se repiten
+                                unprocessedMessages.increment();
+                                log.warn("MQTT message from {} not acknowledged: a reading could not be persisted",
+                                        sensorData.getDeviceId());
+                            } else {
+                                acknowledge(ack);
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Apagando: sin ACK, el broker vuelve a entregar el mensaje (sesión persistente o suscripción
+                // compartida). Las lecturas del lote ya encoladas se procesan y se volverán a recibir.
+                unprocessedMessages.increment();
+                log.warn("MQTT message from {} not processed: {}", sensorData.getDeviceId(), e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // Devuelve false si la lectura debía guardarse cruda y no quedó ni en el WAL ni en la cola
+    private boolean process(SensorData sensorData) {
+        // Si watana.rollup.keep-raw la excluye, la lectura solo llega al agregado por ventana (un listener más)
+        boolean keepRaw = rollupAggregator.keepRaw(sensorData);
+
+        // Con WAL, la lectura queda en disco antes de volver (y de que se envíe el ACK);
+        // el hilo de replay del WAL se encarga de escribirla en el repositorio.
+        boolean logged = keepRaw && appendToWriteAheadLog(sensorData);
+
+        // Entrega la lectura a los consumidores en vivo (por ejemplo, el stream SSE del dashboard)
+        dispatchToListeners(sensorData);
 
-            // Guarda los datos del sensor en Firestore a través del servicio
-            SensorData savedSensorData = sensorDataService.saveSensorData(sensorData);
-            System.out.println("SensorData saved to Firestore: " + savedSensorData.getId());
+        if (keepRaw && !logged) {
+            // Encola la lectura; la escritura a Firestore ocurre en lotes en otro hilo.
+            // Si la cola está llena, submit() frena este carril hasta offer-timeout-ms y luego la rechaza.
+            return ingestPipeline.submit(sensorData);
+        }
+        return true;
+    }
+
+    private static void acknowledge(SimpleAcknowledgment ack) {
+        if (ack == null) {
+            return;
+        }
+        try {
+            ack.acknowledge();
+        } catch (RuntimeException e) {
+            // La conexión se cerró antes del ACK; el broker volverá a entregar el mensaje
+            log.warn("Could not acknowledge MQTT message: {}", e.getMessage());
+        }
+    }
 
-            // Aquí podrías añadir lógica para enviar estos datos al frontend vía SSE
-            // (esto ya lo tenemos con SseController, que simula datos, pero podrías
-            // adaptarlo para usar datos reales de aquí).
+    // Si el WAL falla (por ejemplo, disco lleno), la lectura sigue por la cola en memoria
+    private boolean appendToWriteAheadLog(SensorData sensorData) {
+        if (writeAheadLog == null) {
+            return false;
+        }
+        try {
+            writeAheadLog.append(sensorData);
+            return true;
         } catch (IOException e) {
-            System.err.println("Error parsing MQTT payload to SensorData: " + e.getMessage());
-            e.printStackTrace();
-        } catch (ExecutionException | InterruptedException e) {
-            System.err.println("Error saving SensorData to Firestore: " + e.getMessage());
-            Thread.currentThread().interrupt(); // Restaura el estado interrumpido
-            e.printStackTrace();
+            log.error("Error appending reading to WAL, falling back to the in-memory queue: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // Un consumidor que falla no debe impedir la persistencia ni afectar a los demás
+    private void dispatchToListeners(SensorData sensorData) {
+        for (SensorDataListener listener : sensorDataListeners) {
+            try {
+                listener.onSensorData(sensorData);
+            } catch (RuntimeException e) {
+                log.error("Error in SensorData listener {}", listener.getClass().getSimpleName(), e);
+            }
         }
     }
 }
\ No newline at end of file
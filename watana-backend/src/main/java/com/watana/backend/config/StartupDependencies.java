@@ -0,0 +1,302 @@
+package com.watana.backend.config;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.auth.FirebaseAuth;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Inicialización de las dependencias externas (Firebase, Firestore, MQTT, cliente de chat) y su estado para la
+ * sonda de readiness.
+ * <p>
+ * Los clientes de Firebase, Firestore y chat son beans {@code @Lazy}; {@code watana.startup.clients} decide cuándo
+ * se crean:
+ * <ul>
+ *   <li>{@code eager}: durante el arranque, antes de aceptar tráfico (el comportamiento anterior),</li>
+ *   <li>{@code background} (por defecto): en un hilo aparte apenas la aplicación está lista; la readiness espera a
+ *       que las dependencias requeridas estén conectadas,</li>
+ *   <li>{@code lazy}: con la primera petición que los usa; la readiness solo se niega si una dependencia falló.</li>
+ * </ul>
+ * Una dependencia está {@code UP} cuando respondió de verdad: Firestore con una consulta de prueba, MQTT con todas
+ * sus conexiones abiertas. Cada {@code watana.startup.readiness.check-interval-ms} se reevalúa el estado, se
+ * reintentan las que fallaron y se publica {@link ReadinessState} (se ve en {@code /actuator/health/readiness} y en
+ * {@code GET /api/public/health/readiness}).
+ */
+@Component
+public class StartupDependencies implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupDependencies.class);
+
+    public static final String FIREBASE = "firebase";
+    public static final String FIRESTORE = "firestore";
+    public static final String MQTT = "mqtt";
+    public static final String AI = "ai";
+
+    private static final String PROBE_COLLECTION = "devices"; // Consulta de prueba: un documento como máximo
+    // Nombres de los beans de FirebaseConfig y AIChatConfig, para saber si la aplicación ya los creó al usarlos
+    private static final String FIRESTORE_BEAN = "getFirestore";
+    private static final String CHAT_CLIENT_BEAN = "chatClient";
+
+    public enum Mode { EAGER, BACKGROUND, LAZY }
+
+    public enum Status { PENDING, CONNECTING, UP, DOWN, DISABLED }
+
+    private final ObjectProvider<FirebaseAuth> firebaseAuth;
+    private final ObjectProvider<Firestore> firestore;
+    private final ObjectProvider<ChatClient> chatClient;
+    private final ObjectProvider<MqttInboundConnections> mqttConnections;
+    private final ConfigurableListableBeanFactory beanFactory;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Mode mode;
+    private final Set<String> required;
+    private final long checkIntervalMs;
+    private final long probeTimeoutMs;
+
+    private final Map<String, Dependency> dependencies = new LinkedHashMap<>();
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "startup-dependencies");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long startupMillis = -1;
+    private volatile ReadinessState publishedState;
+
+    public StartupDependencies(ObjectProvider<FirebaseAuth> firebaseAuth, ObjectProvider<Firestore> firestore,
+                               ObjectProvider<ChatClient> chatClient,
+                               ObjectProvider<MqttInboundConnections> mqttConnections,
+                               ConfigurableListableBeanFactory beanFactory, ApplicationEventPublisher eventPublisher,
+                               @Value("${watana.startup.clients:background}") String mode,
+                               @Value("${watana.startup.readiness.required:firebase,firestore,mqtt}") String[] required,
+                               @Value("${watana.startup.readiness.check-interval-ms:5000}") long checkIntervalMs,
+                               @Value("${watana.startup.readiness.probe-timeout-ms:5000}") long probeTimeoutMs,
+                               @Value("${watana.storage.devices:firestore}") String deviceStorage,
+                               @Value("${watana.storage.sensor-data:firestore}") String sensorDataStorage) {
+        if (checkIntervalMs <= 0 || probeTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Configuración de readiness inválida: checkInterval=" + checkIntervalMs
+                    + "ms, probeTimeout=" + probeTimeoutMs + "ms");
+        }
+        this.firebaseAuth = firebaseAuth;
+        this.firestore = firestore;
+        this.chatClient = chatClient;
+        this.mqttConnections = mqttConnections;
+        this.beanFactory = beanFactory;
+        this.eventPublisher = eventPublisher;
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        this.required = Arrays.stream(required).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toSet());
+        this.checkIntervalMs = checkIntervalMs;
+        this.probeTimeoutMs = probeTimeoutMs;
+
+        boolean firestoreUsed = "firestore".equals(deviceStorage) || "firestore".equals(sensorDataStorage);
+        dependencies.put(FIREBASE, new Dependency(FIREBASE, this::connectFirebase));
+        dependencies.put(FIRESTORE, new Dependency(FIRESTORE, this::connectFirestore));
+        dependencies.put(MQTT, new Dependency(MQTT, null)); // Lo conecta MqttInboundConnections; solo se observa
+        dependencies.put(AI, new Dependency(AI, () -> chatClient.getObject()));
+        if (!firestoreUsed) {
+            dependencies.get(FIRESTORE).status = Status.DISABLED;
+        }
+    }
+
+    // Modo eager: todo se conecta aquí, en el hilo de arranque, antes de que la aplicación acepte tráfico
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (mode == Mode.EAGER) {
+            dependencies.values().forEach(Dependency::connect);
+        }
+    }
+
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        startupMillis = event.getTimeTaken() != null ? event.getTimeTaken().toMillis() : -1;
+        log.info("Application ready in {} ms (clients={})", startupMillis, mode.name().toLowerCase(Locale.ROOT));
+        if (mode == Mode.BACKGROUND) {
+            worker.execute(() -> dependencies.values().forEach(Dependency::connect));
+        }
+        worker.scheduleWithFixedDelay(this::refreshSafely, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Spring Boot publica ACCEPTING_TRAFFIC al terminar el arranque; si faltan dependencias, se corrige
+    @EventListener
+    public void onReadinessChange(AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getSource() != this && event.getState() == ReadinessState.ACCEPTING_TRAFFIC && !isReady()) {
+            publish(ReadinessState.REFUSING_TRAFFIC);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Estado actual de cada dependencia. Con {@code connectPending}, las que nunca se intentaron (modo lazy) se
+     * empiezan a conectar en segundo plano; la respuesta no espera a que terminen.
+     */
+    public Report getReport(boolean connectPending) {
+        refresh(connectPending);
+        Map<String, DependencyStatus> statuses = new LinkedHashMap<>();
+        for (Dependency dependency : dependencies.values()) {
+            statuses.put(dependency.name, dependency.toStatus(required.contains(dependency.name)));
+        }
+        return new Report(isReady(), mode.name().toLowerCase(Locale.ROOT), startupMillis, statuses);
+    }
+
+    /**
+     * Lista para recibir tráfico: ninguna dependencia requerida falló y, salvo en modo lazy, todas respondieron.
+     */
+    public boolean isReady() {
+        for (Dependency dependency : dependencies.values()) {
+            if (!required.contains(dependency.name)) {
+                continue;
+            }
+            Status status = dependency.status;
+            boolean acceptable = status == Status.UP || status == Status.DISABLED
+                    || (mode == Mode.LAZY && status == Status.PENDING);
+            if (!acceptable) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void refreshSafely() {
+        try {
+            refresh(false);
+        } catch (RuntimeException e) {
+            log.error("Error checking startup dependencies", e);
+        }
+    }
+
+    private void refresh(boolean connectPending) {
+        Dependency mqtt = dependencies.get(MQTT);
+        MqttInboundConnections connections = mqttConnections.getIfAvailable();
+        if (connections == null) {
+            mqtt.status = Status.DISABLED;
+        } else {
+            int open = connections.getConnectedCount();
+            mqtt.status = open >= connections.getConnectionCount() ? Status.UP : Status.DOWN;
+            mqtt.error = mqtt.status == Status.UP ? null
+                    : open + "/" + connections.getConnectionCount() + " connections open";
+        }
+
+        for (Dependency dependency : dependencies.values()) {
+            if (dependency.connector == null) {
+                continue;
+            }
+            boolean retry = dependency.status == Status.DOWN
+                    && System.currentTimeMillis() - dependency.lastAttemptMs >= checkIntervalMs;
+            boolean pending = dependency.status == Status.PENDING
+                    && (mode != Mode.LAZY || connectPending || createdByApplication(dependency.name));
+            if (retry || pending) {
+                worker.execute(dependency::connect);
+            }
+        }
+        publish(isReady() ? ReadinessState.ACCEPTING_TRAFFIC : ReadinessState.REFUSING_TRAFFIC);
+    }
+
+    // En modo lazy, el primer uso real crea el bean; entonces se verifica la conexión
+    private boolean createdByApplication(String name) {
+        return switch (name) {
+            case FIREBASE -> !FirebaseApp.getApps().isEmpty();
+            case FIRESTORE -> beanFactory.containsSingleton(FIRESTORE_BEAN);
+            case AI -> beanFactory.containsSingleton(CHAT_CLIENT_BEAN);
+            default -> false;
+        };
+    }
+
+    private synchronized void publish(ReadinessState state) {
+        if (state != publishedState) {
+            publishedState = state;
+            AvailabilityChangeEvent.publish(eventPublisher, this, state);
+        }
+    }
+
+    private void connectFirebase() {
+        firebaseAuth.getObject(); // Carga las credenciales e inicializa FirebaseApp
+    }
+
+    private void connectFirestore() throws Exception {
+        firestore.getObject().collection(PROBE_COLLECTION).limit(1).get().get(probeTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    @FunctionalInterface
+    private interface Connector {
+        void connect() throws Exception;
+    }
+
+    private final class Dependency {
+        final String name;
+        final Connector connector; // null: el estado se observa, no se conecta desde aquí
+        final AtomicBoolean connecting = new AtomicBoolean();
+        volatile Status status = Status.PENDING;
+        volatile long connectMillis = -1;
+        volatile long lastAttemptMs;
+        volatile String error;
+
+        Dependency(String name, Connector connector) {
+            this.name = name;
+            this.connector = connector;
+        }
+
+        void connect() {
+            if (connector == null || status == Status.UP || status == Status.DISABLED
+                    || !connecting.compareAndSet(false, true)) {
+                return;
+            }
+            status = Status.CONNECTING;
+            long start = System.nanoTime();
+            try {
+                connector.connect();
+                connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                error = null;
+                status = Status.UP;
+                log.info("Dependency {} connected in {} ms", name, connectMillis);
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                Throwable cause = NestedExceptionUtils.getMostSpecificCause(e);
+                error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+                status = Status.DOWN;
+                log.warn("Dependency {} unavailable: {}", name, error);
+            } finally {
+                lastAttemptMs = System.currentTimeMillis();
+                connecting.set(false);
+            }
+        }
+
+        DependencyStatus toStatus(boolean isRequired) {
+            return new DependencyStatus(status, isRequired, connectMillis >= 0 ? connectMillis : null, error);
+        }
+    }
+
+    public record DependencyStatus(Status status, boolean required, Long connectMillis, String error) {
+    }
+
+    public record Report(boolean ready, String mode, long startupMillis, Map<String, DependencyStatus> dependencies) {
+    }
+}
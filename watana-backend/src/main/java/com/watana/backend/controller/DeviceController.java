@@ -1,122 +1,332 @@
 package com.watana.backend.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.watana.backend.model.Device;
-import com.google.cloud.firestore.Firestore;
-import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.DocumentReference;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
-import com.google.cloud.firestore.QuerySnapshot;
-import com.google.cloud.firestore.WriteResult;
+import com.watana.backend.model.DeviceDistance;
+import com.watana.backend.model.DeviceImportResult;
+import com.watana.backend.model.DeviceLiveness;
+import com.watana.backend.model.DevicePage;
+import com.watana.backend.model.DeviceQuery;
+import com.watana.backend.model.SensorAnomaly;
+import com.watana.backend.rules.SensorAnomalyMonitor;
+import com.watana.backend.service.DeviceBulkService;
+import com.watana.backend.service.DeviceCache;
+import com.watana.backend.service.DeviceLivenessTracker;
+import com.watana.backend.service.DeviceService;
+import com.watana.backend.util.GeoHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @RestController
 @RequestMapping("/api/devices")
 public class DeviceController {
 
-    private final Firestore firestore; // Inyecta la instancia de Firestore
+    private static final Logger log = LoggerFactory.getLogger(DeviceController.class);
 
-    // Inyección de dependencia del bean de Firestore
+    private static final int MAX_PAGE_SIZE = 1000; // Tamaño máximo de página permitido
+    private static final double MAX_RADIUS_KM = 20_000; // Media circunferencia terrestre: cubre todo el planeta
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final MediaType NDJSON_MEDIA_TYPE = MediaType.parseMediaType(NDJSON_VALUE);
+    private static final MediaType CSV_MEDIA_TYPE = new MediaType("text", "csv", StandardCharsets.UTF_8);
+    private static final List<String> PAGE_ONLY_PARAMS = List.of("startAfter", "fields", "type", "location", "active");
+
+    private final DeviceService deviceService; // Las lecturas se sirven desde la caché en memoria del servicio
+    private final ObjectMapper objectMapper; // Para escribir el streaming NDJSON
+    private final DeviceLivenessTracker livenessTracker; // Estado online/offline en memoria
+    private final DeviceBulkService bulkService; // Importación/exportación masiva
+    private final SensorAnomalyMonitor anomalyMonitor; // Últimas anomalías detectadas por dispositivo
+
+    // Inyección de dependencia del servicio de dispositivos
     @Autowired
-    public DeviceController(Firestore firestore) {
-        this.firestore = firestore;
+    public DeviceController(DeviceService deviceService, ObjectMapper objectMapper,
+                            DeviceLivenessTracker livenessTracker, DeviceBulkService bulkService,
+                            SensorAnomalyMonitor anomalyMonitor) {
+        this.deviceService = deviceService;
+        this.objectMapper = objectMapper;
+        this.livenessTracker = livenessTracker;
+        this.bulkService = bulkService;
+        this.anomalyMonitor = anomalyMonitor;
     }
 
-    // Endpoint para crear un nuevo dispositivo en Firestore
+    // Endpoint para crear un nuevo dispositivo en Firestore.
+    // Devuelve un CompletableFuture: el hilo de Tomcat queda libre mientras Firestore confirma la escritura.
     @PostMapping
-    public ResponseEntity<Device> createDevice(@RequestBody Device device) {
+    public CompletableFuture<ResponseEntity<Device>> createDevice(@RequestBody Device device) {
+        // Si el ID del dispositivo no viene, Firestore generará uno.
+        // Para mantener la consistencia, si el ID ya existe, lo usamos.
+        return deviceService.saveDeviceAsync(device) // Guarda el objeto Device en Firestore
+                .thenApply(saved -> {
+                    log.debug("Dispositivo creado/actualizado con ID: {}", saved.getId());
+                    return new ResponseEntity<>(saved, HttpStatus.CREATED); // Devuelve el dispositivo creado con un código 201
+                })
+                .exceptionally(e -> {
+                    log.error("Error al crear dispositivo", e);
+                    return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
+                });
+    }
+
+    // Endpoint para obtener todos los dispositivos (desde la caché; responde 304 si el ETag no cambió).
+    // Filtros, proyección y cursor solo se aplican en la versión paginada: sin 'limit' se responde 400
+    // en lugar de devolver la lista completa sin filtrar.
+    @GetMapping
+    public ResponseEntity<List<Device>> getAllDevices(WebRequest request) {
+        for (String param : PAGE_ONLY_PARAMS) {
+            if (request.getParameter(param) != null) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
         try {
-            // Si el ID del dispositivo no viene, Firestore generará uno.
-            // Para mantener la consistencia, si el ID ya existe, lo usamos.
-            // Si quieres que siempre se genere un nuevo ID, ignora device.getId() aquí.
-            DocumentReference docRef;
-            if (device.getId() != null && !device.getId().isEmpty()) {
-                docRef = firestore.collection("devices").document(device.getId());
-            } else {
-                docRef = firestore.collection("devices").document();
-                device.setId(docRef.getId()); // Asigna el ID generado por Firestore al objeto Device
+            DeviceCache.Versioned<List<Device>> devices = deviceService.getAllDevicesWithETag();
+            if (devices.etag() != null && request.checkNotModified(devices.etag())) {
+                return null; // Spring ya preparó la respuesta 304 Not Modified
             }
-
-            ApiFuture<WriteResult> result = docRef.set(device); // Guarda el objeto Device en Firestore
-            result.get(); // Espera a que la operación se complete
-
-            System.out.println("Dispositivo creado/actualizado con ID: " + device.getId());
-            return new ResponseEntity<>(device, HttpStatus.CREATED); // Devuelve el dispositivo creado con un código 201
+            return ResponseEntity.ok().eTag(devices.etag()).body(devices.value()); // Devuelve la lista de dispositivos con un código 200 OK
         } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error al crear dispositivo: " + e.getMessage());
-            return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
+            log.error("Error al obtener dispositivos", e);
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    // Endpoint para obtener todos los dispositivos de Firestore
-    @GetMapping
-    public ResponseEntity<List<Device>> getAllDevices() {
-        List<Device> devices = new ArrayList<>();
-        ApiFuture<QuerySnapshot> future = firestore.collection("devices").get(); // Obtiene todos los documentos de la colección "devices"
+    // Endpoint paginado: GET /api/devices?limit=50&startAfter=<cursor>&fields=name,type&type=drone&location=Cusco&active=true
+    // Filtros, proyección y cursor se resuelven en Firestore; solo se leen los documentos de la página.
+    @GetMapping(params = { "limit", "!format" })
+    public ResponseEntity<DevicePage> getDevicePage(@RequestParam int limit,
+                                                    @RequestParam(required = false) String startAfter,
+                                                    @RequestParam(required = false) List<String> fields,
+                                                    @RequestParam(required = false) String type,
+                                                    @RequestParam(required = false) String location,
+                                                    @RequestParam(required = false) Boolean active) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE || !isValidProjection(fields)) {
+            return ResponseEntity.badRequest().build(); // Devuelve 400 si el límite o los campos no son válidos
+        }
         try {
-            List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-            for (QueryDocumentSnapshot document : documents) {
-                // Convierte cada documento de Firestore a un objeto Device
-                devices.add(document.toObject(Device.class));
-            }
-            return ResponseEntity.ok(devices); // Devuelve la lista de dispositivos con un código 200 OK
+            DeviceQuery query = new DeviceQuery(limit, startAfter, fields, type, location, active);
+            return ResponseEntity.ok(deviceService.getDevicePage(query));
         } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error al obtener dispositivos: " + e.getMessage());
+            log.error("Error al obtener página de dispositivos", e);
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    // Endpoint para obtener un dispositivo por su ID
-    @GetMapping("/{id}")
-    public ResponseEntity<Device> getDeviceById(@PathVariable String id) {
-        DocumentReference docRef = firestore.collection("devices").document(id);
-        ApiFuture<com.google.cloud.firestore.DocumentSnapshot> future = docRef.get();
+    // Endpoint de streaming NDJSON: GET /api/devices?format=ndjson (acepta los mismos filtros y 'fields').
+    // Escribe cada dispositivo (una línea JSON) a medida que se lee de Firestore, sin armar la lista completa.
+    @GetMapping(params = "format=ndjson", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamDevices(@RequestParam(required = false) List<String> fields,
+                                                               @RequestParam(required = false) String type,
+                                                               @RequestParam(required = false) String location,
+                                                               @RequestParam(required = false) Boolean active) {
+        if (!isValidProjection(fields)) {
+            return ResponseEntity.badRequest().build();
+        }
+        DeviceQuery query = new DeviceQuery(0, null, fields, type, location, active);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+                deviceService.streamDevices(query, item -> {
+                    try {
+                        generator.writeObject(item);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeRaw('\n');
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Streaming de dispositivos interrumpido", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error al leer dispositivos de Firestore", e);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
+    }
+
+    private static boolean isValidProjection(List<String> fields) {
+        return fields == null || DeviceQuery.SELECTABLE_FIELDS.containsAll(fields);
+    }
+
+    // Endpoint de importación masiva: POST /api/devices/bulk con un array JSON, NDJSON (una línea por dispositivo)
+    // o CSV con cabecera. Valida cada elemento, escribe los válidos por lotes y devuelve el resultado de cada uno.
+    @PostMapping(value = "/bulk", consumes = { MediaType.APPLICATION_JSON_VALUE, NDJSON_VALUE, "text/csv" })
+    public ResponseEntity<DeviceImportResult> importDevices(InputStream body,
+                                                            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType) {
+        DeviceBulkService.Format format = NDJSON_MEDIA_TYPE.isCompatibleWith(contentType) ? DeviceBulkService.Format.NDJSON
+                : CSV_MEDIA_TYPE.isCompatibleWith(contentType) ? DeviceBulkService.Format.CSV
+                : DeviceBulkService.Format.JSON;
         try {
-            com.google.cloud.firestore.DocumentSnapshot document = future.get();
-            if (document.exists()) {
-                return ResponseEntity.ok(document.toObject(Device.class)); // Devuelve el dispositivo encontrado
-            } else {
-                return new ResponseEntity<>(HttpStatus.NOT_FOUND); // Devuelve un código 404 si no se encuentra
+            DeviceImportResult result = bulkService.importDevices(body, format);
+            log.info("Importación masiva: {} guardados, {} inválidos, {} con error",
+                    result.saved(), result.invalid(), result.failed());
+            return ResponseEntity.ok(result);
+        } catch (IOException e) {
+            log.warn("Error al leer la importación masiva: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // Endpoint de exportación: GET /api/devices/export?format=ndjson|csv|json (por defecto ndjson), desde la caché
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportDevices(@RequestParam(defaultValue = "ndjson") String format) {
+        DeviceBulkService.Format exportFormat;
+        try {
+            exportFormat = DeviceBulkService.Format.fromName(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        StreamingResponseBody body = outputStream -> {
+            try {
+                bulkService.exportDevices(exportFormat, outputStream);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Exportación de dispositivos interrumpida", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error al leer dispositivos", e);
             }
+        };
+        MediaType mediaType = switch (exportFormat) {
+            case JSON -> MediaType.APPLICATION_JSON;
+            case NDJSON -> NDJSON_MEDIA_TYPE;
+            case CSV -> CSV_MEDIA_TYPE;
+        };
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"devices." + exportFormat.name().toLowerCase() + "\"")
+                .body(body);
+    }
+
+    // Endpoint de búsqueda por rectángulo: GET /api/devices/within?minLat=-16.5&minLon=-71.6&maxLat=-16.3&maxLon=-71.4
+    // Usa el índice geohash en memoria; si minLon > maxLon el rectángulo cruza el antimeridiano.
+    @GetMapping("/within")
+    public ResponseEntity<List<Device>> getDevicesWithin(@RequestParam double minLat, @RequestParam double minLon,
+                                                         @RequestParam double maxLat, @RequestParam double maxLon) {
+        if (!GeoHash.isValid(minLat, minLon) || !GeoHash.isValid(maxLat, maxLon) || minLat > maxLat) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(deviceService.findDevicesWithin(minLat, minLon, maxLat, maxLon));
         } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error al obtener dispositivo por ID: " + e.getMessage());
+            log.error("Error al buscar dispositivos por rectángulo", e);
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    // Endpoint para actualizar un dispositivo existente
-    @PutMapping("/{id}")
-    public ResponseEntity<Device> updateDevice(@PathVariable String id, @RequestBody Device device) {
-        DocumentReference docRef = firestore.collection("devices").document(id);
-        ApiFuture<WriteResult> result = docRef.set(device); // 'set' con el objeto completo sobrescribirá el documento
+    // Endpoint de búsqueda por radio: GET /api/devices/near?lat=-16.4&lon=-71.5&radiusKm=10&limit=20
+    // Devuelve los dispositivos más cercanos con su distancia en km, ordenados de menor a mayor.
+    @GetMapping("/near")
+    public ResponseEntity<List<DeviceDistance>> getDevicesNear(@RequestParam double lat, @RequestParam double lon,
+                                                               @RequestParam double radiusKm,
+                                                               @RequestParam(defaultValue = "50") int limit) {
+        if (!GeoHash.isValid(lat, lon) || !(radiusKm > 0 && radiusKm <= MAX_RADIUS_KM)
+                || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            result.get();
-            System.out.println("Dispositivo actualizado con ID: " + id);
-            return ResponseEntity.ok(device); // Devuelve el dispositivo actualizado
+            return ResponseEntity.ok(deviceService.findDevicesNear(lat, lon, radiusKm, limit));
         } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error al actualizar dispositivo: " + e.getMessage());
+            log.error("Error al buscar dispositivos cercanos", e);
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    // Endpoint para eliminar un dispositivo
-    @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteDevice(@PathVariable String id) {
-        DocumentReference docRef = firestore.collection("devices").document(id);
-        ApiFuture<WriteResult> result = docRef.delete(); // Elimina el documento
+    // Endpoint para obtener lastSeen/batería/online de todos los dispositivos activos desde el arranque
+    @GetMapping("/liveness")
+    public ResponseEntity<List<DeviceLiveness>> getAllLiveness() {
+        return ResponseEntity.ok(livenessTracker.getAll());
+    }
+
+    // Endpoint para obtener el estado de actividad de un dispositivo (sin consultar Firestore)
+    @GetMapping("/{id}/liveness")
+    public ResponseEntity<DeviceLiveness> getLiveness(@PathVariable String id) {
+        return livenessTracker.getLiveness(id)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    // Endpoint para obtener las últimas anomalías de un dispositivo (más recientes primero), opcionalmente de un tipo.
+    // Se leen de la colección sensor_anomalies; las últimas de cada dispositivo se sirven desde la caché en memoria.
+    @GetMapping("/{id}/anomalies")
+    public ResponseEntity<List<SensorAnomaly>> getAnomalies(@PathVariable String id,
+                                                            @RequestParam(required = false) String type,
+                                                            @RequestParam(defaultValue = "50") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            result.get();
-            System.out.println("Dispositivo eliminado con ID: " + id);
-            return new ResponseEntity<>(HttpStatus.NO_CONTENT); // Devuelve un código 204 (sin contenido)
+            return ResponseEntity.ok(anomalyMonitor.getRecent(id, type, limit));
         } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error al eliminar dispositivo: " + e.getMessage());
+            log.error("Error al obtener anomalías del dispositivo {}", id, e);
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+
+    // Endpoint para obtener un dispositivo por su ID
+    @GetMapping("/{id}")
+    // Con la caché lista responde en el mismo hilo; si no, consulta Firestore sin bloquear el hilo de Tomcat
+    public CompletableFuture<ResponseEntity<Device>> getDeviceById(@PathVariable String id, WebRequest request) {
+        return deviceService.getDeviceWithETagAsync(id)
+                .thenApply(device -> {
+                    if (device.isEmpty()) {
+                        return new ResponseEntity<Device>(HttpStatus.NOT_FOUND); // Devuelve un código 404 si no se encuentra
+                    }
+                    // Solo hay ETag si vino de la caché, es decir, si seguimos en el hilo de la petición
+                    String etag = device.get().etag();
+                    if (etag != null && request.checkNotModified(etag)) {
+                        return null; // Spring ya preparó la respuesta 304 Not Modified
+                    }
+                    return ResponseEntity.ok().eTag(etag).body(device.get().value()); // Devuelve el dispositivo encontrado
+                })
+                .exceptionally(e -> {
+                    log.error("Error al obtener dispositivo por ID {}", id, e);
+                    return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+                });
+    }
+
+    // Endpoint para actualizar un dispositivo existente
+    @PutMapping("/{id}")
+    public CompletableFuture<ResponseEntity<Device>> updateDevice(@PathVariable String id, @RequestBody Device device) {
+        device.setId(id); // 'set' con el objeto completo sobrescribirá el documento con este ID
+        return deviceService.saveDeviceAsync(device)
+                .thenApply(saved -> {
+                    log.debug("Dispositivo actualizado con ID: {}", id);
+                    return ResponseEntity.ok(saved); // Devuelve el dispositivo actualizado
+                })
+                .exceptionally(e -> {
+                    log.error("Error al actualizar dispositivo {}", id, e);
+                    return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+                });
+    }
+
+    // Endpoint para eliminar un dispositivo
+    @DeleteMapping("/{id}")
+    public CompletableFuture<ResponseEntity<Void>> deleteDevice(@PathVariable String id) {
+        return deviceService.deleteDeviceAsync(id) // Elimina el documento
+                .thenApply(done -> {
+                    log.debug("Dispositivo eliminado con ID: {}", id);
+                    return new ResponseEntity<Void>(HttpStatus.NO_CONTENT); // Devuelve un código 204 (sin contenido)
+                })
+                .exceptionally(e -> {
+                    log.error("Error al eliminar dispositivo {}", id, e);
+                    return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+                });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.watana.backend.controller;
+
+import com.watana.backend.config.StartupDependencies;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Sondas para el orquestador (Kubernetes, Cloud Run...), sin autenticación y sin depender de actuator.
+ * <p>
+ * {@code liveness} solo indica que el proceso responde; {@code readiness} devuelve 503 hasta que las dependencias
+ * requeridas están conectadas, con el detalle de cada una.
+ */
+@RestController
+@RequestMapping("/api/public/health")
+public class HealthController {
+
+    private final StartupDependencies startupDependencies;
+
+    public HealthController(StartupDependencies startupDependencies) {
+        this.startupDependencies = startupDependencies;
+    }
+
+    @GetMapping("/liveness")
+    public ResponseEntity<Map<String, String>> liveness() {
+        return ResponseEntity.ok(Map.of("status", "UP"));
+    }
+
+    // En modo lazy, la primera consulta empieza a conectar lo pendiente en segundo plano
+    @GetMapping("/readiness")
+    public ResponseEntity<StartupDependencies.Report> readiness() {
+        StartupDependencies.Report report = startupDependencies.getReport(true);
+        return ResponseEntity.status(report.ready() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(report);
+    }
+}
@@ -0,0 +1,141 @@
+package com.watana.backend.controller;
+
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.rules.SensorAnomalyMonitor;
+import com.watana.backend.util.GeoHash;
+import com.watana.backend.service.SensorHeatmap;
+import com.watana.backend.service.SensorRollupAggregator;
+import com.watana.backend.service.SensorTimeSeriesStore;
+import com.watana.backend.util.SensorTimestamps;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+@RequestMapping("/api/sensor-data")
+public class SensorDataController {
+
+    private final SensorTimeSeriesStore timeSeriesStore; // Historial reciente en memoria (no consulta Firestore)
+    private final PartitionedExecutor ingestLanes; // Carriles de procesamiento de la ingesta MQTT
+    private final SensorRollupAggregator rollupAggregator; // Agregados por ventana que se escriben en sensor_rollups
+    private final SensorHeatmap heatmap; // Últimas lecturas agregadas por celda geohash
+    private final SensorAnomalyMonitor anomalyMonitor; // Detector de anomalías en línea
+
+    public SensorDataController(SensorTimeSeriesStore timeSeriesStore, PartitionedExecutor ingestLanes,
+                                SensorRollupAggregator rollupAggregator, SensorHeatmap heatmap,
+                                SensorAnomalyMonitor anomalyMonitor) {
+        this.timeSeriesStore = timeSeriesStore;
+        this.ingestLanes = ingestLanes;
+        this.rollupAggregator = rollupAggregator;
+        this.heatmap = heatmap;
+        this.anomalyMonitor = anomalyMonitor;
+    }
+
+    // Profundidad de la cola de cada carril de ingesta: un carril mucho más cargado indica un dispositivo caliente
+    @GetMapping("/ingest/lanes")
+    public ResponseEntity<LaneStats> getIngestLanes() {
+        int[] depths = ingestLanes.getQueueDepths();
+        return ResponseEntity.ok(new LaneStats(depths.length, depths, Arrays.stream(depths).sum(),
+                ingestLanes.getCompletedTaskCount()));
+    }
+
+    // Estado de los agregados por ventana: series, ventanas abiertas/pendientes y lecturas que llegaron tarde
+    @GetMapping("/rollups/stats")
+    public ResponseEntity<SensorRollupAggregator.Stats> getRollupStats() {
+        return ResponseEntity.ok(rollupAggregator.getStats());
+    }
+
+    // Estado del detector de anomalías: series evaluadas, anomalías por tipo y anotaciones pendientes de escribir
+    @GetMapping("/anomalies/stats")
+    public ResponseEntity<SensorAnomalyMonitor.Stats> getAnomalyStats() {
+        return ResponseEntity.ok(anomalyMonitor.getStats());
+    }
+
+    // Mapa de calor de las últimas lecturas de un tipo: GET /api/sensor-data/heatmap?type=temperature&precision=4
+    // Opcionalmente solo las celdas que se cruzan con minLat/minLon/maxLat/maxLon (minLon > maxLon cruza el antimeridiano).
+    @GetMapping("/heatmap")
+    public ResponseEntity<List<SensorHeatmap.HeatmapCell>> getHeatmap(
+            @RequestParam String type,
+            @RequestParam(required = false) Integer precision,
+            @RequestParam(required = false) Double minLat,
+            @RequestParam(required = false) Double minLon,
+            @RequestParam(required = false) Double maxLat,
+            @RequestParam(required = false) Double maxLon) {
+        int cellPrecision = precision != null ? precision : heatmap.getPrecision();
+        if (cellPrecision < 1 || cellPrecision > heatmap.getPrecision()) {
+            return ResponseEntity.badRequest().build(); // Devuelve 400 si la precisión supera la del mapa
+        }
+        double[] bounds = null;
+        if (minLat != null || minLon != null || maxLat != null || maxLon != null) {
+            if (minLat == null || minLon == null || maxLat == null || maxLon == null
+                    || !GeoHash.isValid(minLat, minLon) || !GeoHash.isValid(maxLat, maxLon) || minLat > maxLat) {
+                return ResponseEntity.badRequest().build(); // El rectángulo va completo y con coordenadas válidas
+            }
+            bounds = new double[] { minLat, minLon, maxLat, maxLon };
+        }
+        return ResponseEntity.ok(heatmap.query(type, cellPrecision, bounds));
+    }
+
+    // Estado del mapa de calor: series y celdas activas, lecturas sin posición o desordenadas
+    @GetMapping("/heatmap/stats")
+    public ResponseEntity<SensorHeatmap.Stats> getHeatmapStats() {
+        return ResponseEntity.ok(heatmap.getStats());
+    }
+
+    // Lista los tipos de lectura con historial disponible para cada dispositivo
+    @GetMapping("/series")
+    public ResponseEntity<Map<String, List<String>>> getSeries() {
+        Map<String, List<String>> series = new TreeMap<>();
+        for (String deviceId : timeSeriesStore.deviceIds()) {
+            series.put(deviceId, timeSeriesStore.typesFor(deviceId));
+        }
+        return ResponseEntity.ok(series);
+    }
+
+    // Lecturas crudas en formato columnar. Sin 'from' devuelve la última hora; sin 'to', hasta ahora.
+    @GetMapping("/history")
+    public ResponseEntity<SensorTimeSeriesStore.RawSeries> getHistory(
+            @RequestParam String deviceId,
+            @RequestParam String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        long[] range = resolveRange(from, to);
+        return ResponseEntity.ok(timeSeriesStore.queryRaw(deviceId, type, range[0], range[1]));
+    }
+
+    // Agregados min/max/avg/last por ventana de 1m, 5m o 1h
+    @GetMapping("/history/aggregate")
+    public ResponseEntity<List<SensorTimeSeriesStore.Bucket>> getAggregatedHistory(
+            @RequestParam String deviceId,
+            @RequestParam String type,
+            @RequestParam(defaultValue = "5m") String bucket,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        SensorTimeSeriesStore.Resolution resolution;
+        try {
+            resolution = SensorTimeSeriesStore.Resolution.fromLabel(bucket);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build(); // Devuelve 400 si la resolución no es válida
+        }
+        long[] range = resolveRange(from, to);
+        return ResponseEntity.ok(timeSeriesStore.queryAggregates(deviceId, type, resolution, range[0], range[1]));
+    }
+
+    private long[] resolveRange(LocalDateTime from, LocalDateTime to) {
+        LocalDateTime end = to != null ? to : SensorTimestamps.now();
+        LocalDateTime start = from != null ? from : end.minusHours(1);
+        return new long[] { timeSeriesStore.toEpochMillis(start), timeSeriesStore.toEpochMillis(end) };
+    }
+
+    public record LaneStats(int lanes, int[] queueDepths, int totalQueueDepth, long processed) {
+    }
+}
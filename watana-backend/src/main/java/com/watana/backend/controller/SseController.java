@@ -1,73 +1,125 @@
 package com.watana.backend.controller;
 
+import com.watana.backend.service.AIService;
+import com.watana.backend.service.NotificationBroadcaster;
+import com.watana.backend.service.SensorDataBroadcaster;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux; // Required for Spring WebFlux (Reactive Web)
 import java.time.Duration;
-import java.time.LocalTime;
-import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController // Marks this class as a Spring REST Controller
 @RequestMapping("/api/sse") // Base path for all endpoints in this controller
 public class SseController {
 
-    private final Random random = new Random(); // For simulating random values
+    private static final ServerSentEvent<String> HEARTBEAT = ServerSentEvent.<String>builder().comment("heartbeat").build();
+
+    private final SensorDataBroadcaster sensorDataBroadcaster; // Shared hot publisher fed by the MQTT ingest path
+    private final AIService aiService; // Streaming LLM answers, bounded by a concurrency limiter
+    private final NotificationBroadcaster notificationBroadcaster; // Alerts from the rule engine and wildfire risk assessments
+    private final int clientBufferSize;
+    private final Duration heartbeatInterval;
+    private final ServerSentEvent<String> connected; // First event: tells the browser how soon to reconnect
+
+    public SseController(SensorDataBroadcaster sensorDataBroadcaster, AIService aiService,
+                         NotificationBroadcaster notificationBroadcaster,
+                         @Value("${watana.sse.client-buffer-size:256}") int clientBufferSize,
+                         @Value("${watana.sse.heartbeat-seconds:15}") long heartbeatSeconds,
+                         @Value("${watana.sse.retry-ms:3000}") long retryMillis) {
+        this.sensorDataBroadcaster = sensorDataBroadcaster;
+        this.aiService = aiService;
+        this.notificationBroadcaster = notificationBroadcaster;
+        this.clientBufferSize = clientBufferSize;
+        this.heartbeatInterval = Duration.ofSeconds(heartbeatSeconds);
+        this.connected = ServerSentEvent.<String>builder().comment("connected").retry(Duration.ofMillis(retryMillis)).build();
+    }
 
     // Endpoint for real-time sensor data using Server-Sent Events (SSE)
-    // Produces MediaType.TEXT_EVENT_STREAM_VALUE to indicate SSE
+    // Produces MediaType.TEXT_EVENT_STREAM_VALUE to indicate SSE.
+    // Each event is a real reading received over MQTT, serialized once and shared by all clients.
+    // Optional filters: deviceId, type and location.
+    // Events carry an id; a client reconnecting with Last-Event-ID (or ?lastEventId=, since a new EventSource
+    // cannot set headers) first gets the events it missed, or a "reset" event if they are no longer buffered.
     @GetMapping(path = "/realtime-data", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> sendRealtimeData() {
-        return Flux.interval(Duration.ofSeconds(2)) // Emit an event every 2 seconds
-                .map(sequence -> {
-                    // Simulate a temperature reading between 20.0 and 28.0 degrees Celsius
-                    double temperature = 20.0 + (random.nextDouble() * 8.0);
-                    // Get current time formatted as HH:mm:ss
-                    String timestamp = LocalTime.now().format(java.time.format.DateTimeFormatter.ofPattern("HH:mm:ss"));
-
-                    // Format the event data as a JSON string.
-                    // SSE requires "data: " prefix and two newlines at the end "\n\n".
-                    String jsonData = String.format("{\"time\":\"%s\",\"value\":%.1f, \"deviceId\":\"temp-sensor-%03d\"}",
-                                                    timestamp, temperature, random.nextInt(100)); // Added deviceId
-                    return "data: " + jsonData + "\n\n";
-                });
+    public Flux<ServerSentEvent<String>> sendRealtimeData(@RequestParam(required = false) String deviceId,
+                                                          @RequestParam(required = false) String type,
+                                                          @RequestParam(required = false) String location,
+                                                          @RequestHeader(name = "Last-Event-ID", required = false) String lastEventIdHeader,
+                                                          @RequestParam(required = false) String lastEventId) {
+        return withHeartbeat(sensorDataBroadcaster.stream(deviceId, type, location,
+                lastEventIdHeader != null ? lastEventIdHeader : lastEventId));
     }
 
-    // NEW Endpoint for real-time notifications using Server-Sent Events (SSE)
+    // Endpoint for real-time notifications using Server-Sent Events (SSE)
+    // Notifications are generated from real readings (alert rules, device offline, wildfire risk).
+    // Resumable like /realtime-data.
     @GetMapping(path = "/notifications", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> sendRealtimeNotifications() {
-        return Flux.interval(Duration.ofSeconds(5)) // Emit a notification every 5 seconds
-                .map(sequence -> {
-                    String deviceId = "device-" + String.format("%03d", random.nextInt(100)); // Simulate device ID
-                    String timestamp = LocalTime.now().format(java.time.format.DateTimeFormatter.ofPattern("HH:mm:ss"));
+    public Flux<ServerSentEvent<String>> sendRealtimeNotifications(
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventIdHeader,
+            @RequestParam(required = false) String lastEventId) {
+        // Bounded per-client buffer: a slow browser drops its oldest notifications instead of stalling the stream
+        return withHeartbeat(notificationBroadcaster.stream(clientBufferSize,
+                lastEventIdHeader != null ? lastEventIdHeader : lastEventId));
+    }
 
-                    String title;
-                    String message;
-                    String type; // "alert" or "info"
+    // Comment lines every heartbeat interval keep idle connections open through proxies and load balancers;
+    // EventSource ignores them, so the dashboard sees no extra events
+    private Flux<ServerSentEvent<String>> withHeartbeat(Flux<ServerSentEvent<String>> events) {
+        Flux<ServerSentEvent<String>> heartbeats = Flux.interval(heartbeatInterval, heartbeatInterval)
+                .map(tick -> HEARTBEAT);
+        return Flux.merge(events, heartbeats).startWith(connected);
+    }
 
-                    // Simulate different types of notifications
-                    int notificationType = random.nextInt(3); // 0, 1, or 2
-                    if (notificationType == 0) {
-                        title = "Alerta de Dispositivo Offline";
-                        message = String.format("El dispositivo %s ha perdido la conexión.", deviceId);
-                        type = "alert";
-                    } else if (notificationType == 1) {
-                        title = "Nivel de Batería Bajo";
-                        message = String.format("El dron %s tiene la batería por debajo del 20%%.", deviceId);
-                        type = "alert";
-                    } else {
-                        title = "Actualización de Estado de Sensor";
-                        message = String.format("El sensor %s ha enviado una nueva lectura de datos.", deviceId);
-                        type = "info";
-                    }
+    // Streaming AI endpoints: each chunk of the model's answer is sent as a "token" event as soon as it arrives,
+    // followed by a "done" event. No servlet thread is held while the model generates.
+    // They require authentication (see SecurityConfig), unlike the other SSE endpoints.
+    @GetMapping(path = "/ai/sensor-analysis", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamSensorAnalysis(@RequestParam double temperature,
+                                                             @RequestParam double humidity,
+                                                             @RequestParam String location,
+                                                             @RequestParam String deviceType) {
+        return toEvents(aiService.streamAnalyzeSensorData(temperature, humidity, location, deviceType));
+    }
+
+    @GetMapping(path = "/ai/wildfire", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamWildfirePrediction(@RequestParam double temperature,
+                                                                 @RequestParam double humidity,
+                                                                 @RequestParam String location,
+                                                                 @RequestParam String recentRainfall,
+                                                                 @RequestParam String windConditions) {
+        return toEvents(aiService.streamPredictWildfire(temperature, humidity, location, recentRainfall, windConditions));
+    }
+
+    @GetMapping(path = "/ai/environmental-impact", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamEnvironmentalImpact(@RequestParam String deviceType,
+                                                                  @RequestParam String droneImageryAnalysis,
+                                                                  @RequestParam String sensorData,
+                                                                  @RequestParam String location) {
+        return toEvents(aiService.streamDetectEnvironmentalImpact(deviceType, droneImageryAnalysis, sensorData, location));
+    }
+
+    @GetMapping(path = "/ai/reforestation", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamReforestationGuidance(@RequestParam String location,
+                                                                    @RequestParam String soilType,
+                                                                    @RequestParam String waterAvailability,
+                                                                    @RequestParam String climateData,
+                                                                    @RequestParam String currentVegetation) {
+        return toEvents(aiService.streamReforestationGuidance(location, soilType, waterAvailability, climateData, currentVegetation));
+    }
 
-                    // Format the event data as an SSE message with an explicit 'event' type.
-                    // It requires "event: <type>\n", then "data: <JSON>\n\n".
-                    String jsonData = String.format("{\"title\":\"%s\",\"message\":\"%s\",\"type\":\"%s\",\"deviceId\":\"%s\",\"timestamp\":\"%s\"}",
-                                                    title, message, type, deviceId, timestamp);
-                    // LÍNEA CRÍTICA: Añade el tipo de evento explícito
-                    return "event: notification\ndata: " + jsonData + "\n\n";
-                });
+    // Wraps answer chunks as SSE events; a full queue or a model failure ends the stream with an "error" event
+    private Flux<ServerSentEvent<String>> toEvents(Flux<String> chunks) {
+        return chunks
+                .map(chunk -> ServerSentEvent.builder(chunk).event("token").build())
+                .concatWith(Flux.just(ServerSentEvent.builder("").event("done").build()))
+                .onErrorResume(error -> Flux.just(ServerSentEvent.builder(
+                        error instanceof RejectedExecutionException ? "busy" : "failed").event("error").build()));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package com.watana.backend.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ejecutor particionado en N carriles de un solo hilo: cada clave (el deviceId de la lectura) siempre cae en el
+ * mismo carril.
+ * <p>
+ * Las tareas de un mismo dispositivo se ejecutan en el orden en que llegaron; las de dispositivos distintos se
+ * procesan en paralelo en carriles diferentes. Cada carril tiene su propia cola acotada: cuando está llena,
+ * {@link #execute(Object, Runnable)} bloquea al productor, de modo que la contrapresión llega hasta el cliente
+ * MQTT en lugar de acumular memoria. Un dispositivo lento o muy activo solo retrasa a los de su carril.
+ */
+public final class PartitionedExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedExecutor.class);
+
+    private static final long SHUTDOWN_CHECK_MS = 100;
+
+    private final ThreadPoolExecutor[] lanes;
+
+    public PartitionedExecutor(String name, int laneCount, int queueCapacityPerLane) {
+        if (laneCount <= 0 || queueCapacityPerLane <= 0) {
+            throw new IllegalArgumentException("Configuración de carriles inválida: lanes=" + laneCount
+                    + ", queueCapacity=" + queueCapacityPerLane);
+        }
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String threadName = name + "-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacityPerLane),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    PartitionedExecutor::waitForSpace);
+        }
+    }
+
+    /**
+     * Encola la tarea en el carril asignado a la clave, esperando si su cola está llena.
+     *
+     * @throws RejectedExecutionException Si el ejecutor ya se detuvo o el hilo que espera es interrumpido.
+     */
+    public void execute(Object key, Runnable task) {
+        lanes[laneFor(key)].execute(task);
+    }
+
+    public int laneFor(Object key) {
+        return partitionFor(key, lanes.length);
+    }
+
+    /**
+     * Partición de la clave entre {@code partitions}, con el mismo reparto que los carriles: el estado por
+     * dispositivo de un listener particionado con el número de carriles solo lo toca el hilo de un carril.
+     */
+    public static int partitionFor(Object key, int partitions) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16; // Mezcla los bits altos: los IDs suelen diferir solo en los últimos caracteres
+        return Math.floorMod(hash, partitions);
+    }
+
+    // Número de carriles para el valor de watana.ingest.lanes: 0 (o negativo) significa uno por núcleo
+    public static int laneCount(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    // Espera por tramos para notar un shutdown() mientras la cola sigue llena; si la tarea entra justo después de
+    // que el carril se detuvo, se retira (como hace ThreadPoolExecutor) para que no quede en una cola sin hilo
+    private static void waitForSpace(Runnable task, ThreadPoolExecutor executor) {
+        try {
+            while (!executor.getQueue().offer(task, SHUTDOWN_CHECK_MS, TimeUnit.MILLISECONDS)) {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("El ejecutor particionado está detenido");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrumpido esperando espacio en la cola del carril", e);
+        }
+        if (executor.isShutdown() && executor.remove(task)) {
+            throw new RejectedExecutionException("El ejecutor particionado está detenido");
+        }
+    }
+
+    /**
+     * Deja de aceptar tareas y espera a que se ejecuten las que quedan en las colas.
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor lane : lanes) {
+                if (!lane.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("Lane did not drain its queue in time, {} tasks left", lane.getQueue().size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    // Tareas en espera en cada carril (sin contar la que se está ejecutando)
+    public int[] getQueueDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].getQueue().size();
+        }
+        return depths;
+    }
+
+    // Tareas en espera sumando todos los carriles
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    public long getCompletedTaskCount() {
+        long completed = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            completed += lane.getCompletedTaskCount();
+        }
+        return completed;
+    }
+}
@@ -0,0 +1,80 @@
+package com.watana.backend.ingest;
+
+import com.watana.backend.ingest.proto.SensorMessage;
+import com.watana.backend.ingest.proto.SensorReading;
+import com.watana.backend.model.SensorData;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * Lee el mensaje {@code SensorMessage} de {@code src/main/proto/sensor_data.proto} con las clases que genera el
+ * build ({@code com.watana.backend.ingest.proto}).
+ * <p>
+ * En proto3 la cadena vacía y el 0 son los valores por defecto: un campo con ese valor se trata como ausente
+ * (hereda el del lote). Las coordenadas son {@code optional}, así que 0.0 sí es un valor. Las cadenas pasan por
+ * las tablas de internado, como en JSON y CBOR. Los campos desconocidos se ignoran, así el esquema puede crecer
+ * sin romper a los dispositivos viejos.
+ */
+final class ProtobufSensorDataReader {
+
+    private final StringInterner deviceIds;
+    private final StringInterner types;
+    private final StringInterner units;
+    private final StringInterner locations;
+
+    ProtobufSensorDataReader(StringInterner deviceIds, StringInterner types, StringInterner units,
+                             StringInterner locations) {
+        this.deviceIds = deviceIds;
+        this.types = types;
+        this.units = units;
+        this.locations = locations;
+    }
+
+    void read(byte[] payload, int offset, int length, SensorDataBatch batch) throws IOException {
+        SensorMessage message = SensorMessage.parser().parseFrom(payload, offset, length);
+        SensorData envelope = batch.envelope();
+        envelope.setId(emptyToNull(message.getId()));
+        envelope.setDeviceId(intern(message.getDeviceId(), deviceIds));
+        envelope.setType(intern(message.getType(), types));
+        envelope.setValue(message.getValue());
+        envelope.setUnit(intern(message.getUnit(), units));
+        envelope.setLocation(intern(message.getLocation(), locations));
+        envelope.setTimestamp(timestamp(message.getTimestampMs()));
+        if (message.hasLatitude()) {
+            envelope.setLatitude(message.getLatitude());
+        }
+        if (message.hasLongitude()) {
+            envelope.setLongitude(message.getLongitude());
+        }
+        for (SensorReading source : message.getReadingsList()) {
+            SensorData reading = new SensorData();
+            reading.setId(emptyToNull(source.getId()));
+            reading.setDeviceId(intern(source.getDeviceId(), deviceIds));
+            reading.setType(intern(source.getType(), types));
+            reading.setValue(source.getValue());
+            reading.setUnit(intern(source.getUnit(), units));
+            reading.setLocation(intern(source.getLocation(), locations));
+            reading.setTimestamp(timestamp(source.getTimestampMs()));
+            if (source.hasLatitude()) {
+                reading.setLatitude(source.getLatitude());
+            }
+            if (source.hasLongitude()) {
+                reading.setLongitude(source.getLongitude());
+            }
+            batch.add(reading, source.getTimestampOffsetMs());
+        }
+    }
+
+    private static String intern(String value, StringInterner interner) {
+        return value.isEmpty() ? null : interner.intern(value);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static LocalDateTime timestamp(long epochMillis) throws IOException {
+        return epochMillis == 0 ? null : SensorDataDecoder.fromEpochMillis(epochMillis);
+    }
+}
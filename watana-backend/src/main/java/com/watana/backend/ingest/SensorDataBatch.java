@@ -0,0 +1,94 @@
+package com.watana.backend.ingest;
+
+import com.watana.backend.model.SensorData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resultado de decodificar un mensaje, en cualquiera de los formatos.
+ * <p>
+ * Un mensaje es una lectura, o un lote: un encabezado con los valores comunes ({@code deviceId}, {@code type},
+ * {@code unit}, {@code location}, coordenadas, {@code timestamp}) y una lista de lecturas que los heredan cuando
+ * no los traen.
+ * En un lote, {@code timestampOffset} (milisegundos) de cada lectura se suma al {@code timestamp} del encabezado,
+ * así un dispositivo envía una sola fecha por mensaje. Los campos pueden llegar en cualquier orden, por eso la
+ * herencia se resuelve al final, en {@link #resolve()}.
+ */
+final class SensorDataBatch {
+
+    private final int maxReadings;
+    private final SensorData envelope = new SensorData();
+    private final List<SensorData> readings = new ArrayList<>();
+    private long[] offsets = new long[8];
+    private boolean batch;
+
+    SensorDataBatch(int maxReadings) {
+        this.maxReadings = maxReadings;
+    }
+
+    /** La lectura (mensaje simple) o el encabezado del lote. */
+    SensorData envelope() {
+        return envelope;
+    }
+
+    /** Marca el mensaje como lote, aunque la lista de lecturas venga vacía. */
+    void markBatch() {
+        batch = true;
+    }
+
+    void add(SensorData reading, long timestampOffsetMillis) throws IOException {
+        if (readings.size() == maxReadings) {
+            throw new IOException("El lote supera el máximo de " + maxReadings + " lecturas por mensaje");
+        }
+        if (readings.size() == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[readings.size()] = timestampOffsetMillis;
+        readings.add(reading);
+        batch = true;
+    }
+
+    /** Las lecturas del mensaje, con los valores del encabezado ya heredados. */
+    List<SensorData> resolve() throws IOException {
+        if (!batch) {
+            return List.of(envelope);
+        }
+        for (int i = 0; i < readings.size(); i++) {
+            SensorData reading = readings.get(i);
+            if (reading.getDeviceId() == null) {
+                reading.setDeviceId(envelope.getDeviceId());
+            }
+            if (reading.getType() == null) {
+                reading.setType(envelope.getType());
+            }
+            if (reading.getUnit() == null) {
+                reading.setUnit(envelope.getUnit());
+            }
+            if (reading.getLocation() == null) {
+                reading.setLocation(envelope.getLocation());
+            }
+            if (reading.getLatitude() == null && reading.getLongitude() == null) {
+                // Las coordenadas se heredan juntas: una lectura con una sola no mezcla la del encabezado
+                reading.setLatitude(envelope.getLatitude());
+                reading.setLongitude(envelope.getLongitude());
+            }
+            if (reading.getTimestamp() == null && envelope.getTimestamp() != null) {
+                reading.setTimestamp(offsets[i] == 0
+                        ? envelope.getTimestamp()
+                        : SensorDataDecoder.checkRange(envelope.getTimestamp().plusNanos(offsetNanos(offsets[i]))));
+            }
+        }
+        return readings;
+    }
+
+    private static long offsetNanos(long offsetMillis) throws IOException {
+        try {
+            return Math.multiplyExact(offsetMillis, 1_000_000L);
+        } catch (ArithmeticException e) {
+            throw new IOException("timestampOffset fuera de rango: " + offsetMillis, e);
+        }
+    }
+}
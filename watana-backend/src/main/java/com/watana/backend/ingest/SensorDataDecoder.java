@@ -0,0 +1,388 @@
+package com.watana.backend.ingest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORParser;
+import com.watana.backend.ingest.proto.SensorMessage;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.util.SensorTimestamps;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodificador de payloads MQTT a {@link SensorData} que trabaja sobre el {@code byte[]} crudo.
+ * <p>
+ * JSON usa el parser streaming de Jackson (sin reflexión ni {@code String} intermedio), interna los
+ * vocabularios pequeños ({@code deviceId}, {@code type}, {@code unit}, {@code location}) y
+ * parsea el timestamp ISO-8601 directamente desde el buffer de caracteres del parser.
+ * Acepta los mismos formatos que el {@code ObjectMapper} con {@code JavaTimeModule} que se usaba antes:
+ * fecha ISO local (opcionalmente con {@code Z}) o arreglo {@code [año, mes, día, hora, minuto, segundo, nanos]};
+ * además admite epoch en milisegundos. Los campos desconocidos se ignoran. Un valor que no se puede convertir
+ * (texto no numérico, fecha inexistente o fuera de los años 1 a 9999) hace inválido el payload.
+ * <p>
+ * {@link #decodeAll(String, byte[])} además acepta CBOR y Protobuf ({@link SensorPayloadFormat}) y mensajes con
+ * varias lecturas ({@link SensorDataBatch}): un arreglo de lecturas, o un objeto con {@code readings} cuyos demás
+ * campos son los valores comunes del lote. Los tres formatos comparten las tablas de internado.
+ * <p>
+ * CBOR usa el mismo recorrido que JSON con el parser de {@code jackson-dataformat-cbor}. Las claves pueden ser
+ * los nombres del JSON o los números de campo del esquema Protobuf, que ocupan un byte; {@code timestamp} además
+ * admite las etiquetas estándar 0 (texto RFC 3339) y 1 (epoch en segundos).
+ */
+@Component
+public class SensorDataDecoder {
+
+    private static final int MIN_YEAR = 1;
+    private static final int MAX_YEAR = 9999;
+    private static final long MIN_EPOCH_MILLIS =
+            LocalDateTime.of(MIN_YEAR, 1, 1, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+    private static final long MAX_EPOCH_MILLIS =
+            LocalDateTime.of(MAX_YEAR + 1, 1, 1, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli() - 1;
+
+    private static final int TAG_EPOCH_SECONDS = 1;
+
+    // Claves enteras de CBOR: números de campo de sensor_data.proto, que CBORParser entrega como texto
+    private static final Map<String, String> FIELD_NAMES_BY_NUMBER = Map.ofEntries(
+            fieldName(SensorMessage.DEVICE_ID_FIELD_NUMBER, "deviceId"),
+            fieldName(SensorMessage.TYPE_FIELD_NUMBER, "type"),
+            fieldName(SensorMessage.VALUE_FIELD_NUMBER, "value"),
+            fieldName(SensorMessage.UNIT_FIELD_NUMBER, "unit"),
+            fieldName(SensorMessage.LOCATION_FIELD_NUMBER, "location"),
+            fieldName(SensorMessage.TIMESTAMP_MS_FIELD_NUMBER, "timestamp"),
+            fieldName(SensorMessage.TIMESTAMP_OFFSET_MS_FIELD_NUMBER, "timestampOffset"),
+            fieldName(SensorMessage.ID_FIELD_NUMBER, "id"),
+            fieldName(SensorMessage.LATITUDE_FIELD_NUMBER, "latitude"),
+            fieldName(SensorMessage.LONGITUDE_FIELD_NUMBER, "longitude"),
+            fieldName(SensorMessage.READINGS_FIELD_NUMBER, "readings"));
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final CBORFactory cborFactory = new CBORFactory();
+    private final StringInterner deviceIds;
+    private final StringInterner types;
+    private final StringInterner units;
+    private final StringInterner locations;
+    private final ProtobufSensorDataReader protobufReader;
+    private final int maxBatchSize;
+
+    public SensorDataDecoder(@Value("${watana.ingest.decoder.max-vocabulary:4096}") int maxVocabulary,
+                             @Value("${watana.ingest.decoder.max-batch-size:1000}") int maxBatchSize) {
+        this.deviceIds = new StringInterner(maxVocabulary);
+        this.types = new StringInterner(maxVocabulary);
+        this.units = new StringInterner(maxVocabulary);
+        this.locations = new StringInterner(maxVocabulary);
+        this.protobufReader = new ProtobufSensorDataReader(deviceIds, types, units, locations);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Decodifica un payload JSON (UTF-8) con un único objeto de lectura.
+     *
+     * @param payload Bytes del mensaje MQTT.
+     * @return La lectura decodificada; {@code timestamp} es {@code null} si el payload no lo trae.
+     * @throws IOException Si el payload no es un objeto JSON válido o trae valores fuera de rango.
+     */
+    public SensorData decode(byte[] payload) throws IOException {
+        return decode(payload, 0, payload.length);
+    }
+
+    public SensorData decode(byte[] payload, int offset, int length) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Se esperaba un objeto JSON de SensorData");
+            }
+            return readObject(parser);
+        }
+    }
+
+    /**
+     * Decodifica un mensaje MQTT en cualquiera de los formatos, con una o varias lecturas.
+     *
+     * @param topic   Tópico del mensaje; su último segmento puede indicar el formato ({@code null} si no se conoce).
+     * @param payload Bytes del mensaje MQTT.
+     * @return Las lecturas del mensaje, en orden; {@code timestamp} es {@code null} en las que no lo traen.
+     * @throws IOException Si el payload no es válido en su formato (valores fuera de rango incluidos) o supera
+     *                     {@code max-batch-size} lecturas.
+     */
+    public List<SensorData> decodeAll(String topic, byte[] payload) throws IOException {
+        if (payload.length == 0) {
+            throw new IOException("Payload vacío");
+        }
+        SensorPayloadFormat format = SensorPayloadFormat.fromTopic(topic);
+        if (format == null) {
+            format = SensorPayloadFormat.fromFirstByte(payload[0]);
+        }
+        // El byte de formato es opcional cuando el tópico ya indica el formato
+        int offset = format != SensorPayloadFormat.JSON && payload[0] == format.marker() ? 1 : 0;
+        return decodeAll(format, payload, offset, payload.length - offset);
+    }
+
+    public List<SensorData> decodeAll(SensorPayloadFormat format, byte[] payload, int offset, int length)
+            throws IOException {
+        SensorDataBatch batch = new SensorDataBatch(maxBatchSize);
+        switch (format) {
+            case JSON -> readStreaming(jsonFactory, payload, offset, length, batch);
+            case CBOR -> readStreaming(cborFactory, payload, offset, length, batch);
+            case PROTOBUF -> protobufReader.read(payload, offset, length, batch);
+        }
+        return batch.resolve();
+    }
+
+    // JSON y CBOR: un objeto (lectura, o lote con "readings") o un arreglo de lecturas
+    private void readStreaming(JsonFactory factory, byte[] payload, int offset, int length, SensorDataBatch batch)
+            throws IOException {
+        try (JsonParser parser = factory.createParser(payload, offset, length)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                readReadings(parser, batch);
+            } else if (token == JsonToken.START_OBJECT) {
+                readFields(parser, batch.envelope(), batch);
+            } else {
+                throw new JsonParseException(parser, "Se esperaba un objeto o un arreglo de SensorData");
+            }
+        }
+    }
+
+    // Lee un objeto SensorData; el parser debe estar posicionado en START_OBJECT
+    SensorData readObject(JsonParser parser) throws IOException {
+        SensorData sensorData = new SensorData();
+        readFields(parser, sensorData, null);
+        return sensorData;
+    }
+
+    // Lee los campos hasta el fin del objeto. Devuelve timestampOffset (0 si no viene); con batch != null, los
+    // elementos de "readings" se agregan al lote.
+    private long readFields(JsonParser parser, SensorData sensorData, SensorDataBatch batch) throws IOException {
+        long timestampOffset = 0;
+        boolean fieldNumbers = parser instanceof CBORParser;
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            if (fieldNumbers) {
+                field = FIELD_NAMES_BY_NUMBER.getOrDefault(field, field);
+            }
+            JsonToken token = parser.nextToken();
+            // Los nombres de campo vienen canonicalizados por Jackson, el switch usa su hash cacheado
+            switch (field) {
+                case "id" -> sensorData.setId(token == JsonToken.VALUE_NULL ? null : parser.getText());
+                case "deviceId" -> sensorData.setDeviceId(internText(parser, token, deviceIds));
+                case "type" -> sensorData.setType(internText(parser, token, types));
+                case "unit" -> sensorData.setUnit(internText(parser, token, units));
+                case "location" -> sensorData.setLocation(internText(parser, token, locations));
+                case "value" -> sensorData.setValue(readDouble(parser, token));
+                case "latitude" -> sensorData.setLatitude(readCoordinate(parser, token));
+                case "longitude" -> sensorData.setLongitude(readCoordinate(parser, token));
+                case "timestamp" -> sensorData.setTimestamp(readTimestamp(parser, token));
+                case "timestampOffset" -> timestampOffset = (long) readDouble(parser, token);
+                case "readings" -> {
+                    if (batch != null && token == JsonToken.START_ARRAY) {
+                        readReadings(parser, batch);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return timestampOffset;
+    }
+
+    // El parser debe estar posicionado en START_ARRAY
+    private void readReadings(JsonParser parser, SensorDataBatch batch) throws IOException {
+        batch.markBatch();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Cada lectura del lote debe ser un objeto");
+            }
+            SensorData reading = new SensorData();
+            long timestampOffset = readFields(parser, reading, null);
+            batch.add(reading, timestampOffset);
+        }
+    }
+
+    private static String internText(JsonParser parser, JsonToken token, StringInterner interner) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_STRING) {
+            return parser.getText(); // Números u otros escalares: caso raro, sin internar
+        }
+        return interner.intern(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+
+    private static double readDouble(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_NUMBER_FLOAT, VALUE_NUMBER_INT -> parser.getDoubleValue();
+            case VALUE_STRING -> parseDouble(parser);
+            case VALUE_NULL -> 0.0;
+            default -> throw new JsonParseException(parser, "Valor numérico inválido para 'value'");
+        };
+    }
+
+    private static double parseDouble(JsonParser parser) throws IOException {
+        try {
+            return Double.parseDouble(parser.getText().trim());
+        } catch (NumberFormatException e) {
+            throw new JsonParseException(parser, "Valor numérico inválido: " + parser.getText(), e);
+        }
+    }
+
+    private static Double readCoordinate(JsonParser parser, JsonToken token) throws IOException {
+        return token == JsonToken.VALUE_NULL ? null : readDouble(parser, token);
+    }
+
+    private static LocalDateTime readTimestamp(JsonParser parser, JsonToken token) throws IOException {
+        LocalDateTime timestamp = readTimestampValue(parser, token);
+        return timestamp == null ? null : checkRange(timestamp);
+    }
+
+    private static LocalDateTime readTimestampValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token.isNumeric() && parser instanceof CBORParser cbor && cbor.getCurrentTag() == TAG_EPOCH_SECONDS) {
+            return fromEpochMillis(Math.round(parser.getDoubleValue() * 1000));
+        }
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return fromEpochMillis(parser.getLongValue());
+            case VALUE_STRING:
+                char[] chars = parser.getTextCharacters();
+                int offset = parser.getTextOffset();
+                int length = parser.getTextLength();
+                LocalDateTime parsed = parseIsoLocalDateTime(chars, offset, length);
+                if (parsed != null) {
+                    return parsed;
+                }
+                return parseTimestampFallback(new String(chars, offset, length));
+            case START_ARRAY:
+                return readTimestampArray(parser);
+            default:
+                throw new JsonParseException(parser, "Formato de timestamp no soportado: " + token);
+        }
+    }
+
+    // Formato de arreglo que escribe JavaTimeModule: [año, mes, día, hora, minuto, (segundo), (nanos)]
+    private static LocalDateTime readTimestampArray(JsonParser parser) throws IOException {
+        int[] parts = new int[7];
+        int count = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_INT || count == parts.length) {
+                throw new JsonParseException(parser, "Arreglo de timestamp inválido");
+            }
+            parts[count++] = parser.getIntValue();
+        }
+        if (count < 5) {
+            throw new JsonParseException(parser, "Arreglo de timestamp incompleto");
+        }
+        try {
+            return LocalDateTime.of(parts[0], parts[1], parts[2], parts[3], parts[4], parts[5], parts[6]);
+        } catch (DateTimeException e) {
+            throw new JsonParseException(parser, "Arreglo de timestamp fuera de rango", e);
+        }
+    }
+
+    private static Map.Entry<String, String> fieldName(int number, String name) {
+        return Map.entry(Integer.toString(number), name);
+    }
+
+    /**
+     * Parsea {@code yyyy-MM-ddTHH:mm[:ss[.fffffffff]][Z]} sin crear objetos intermedios. Con {@code Z} la hora es
+     * UTC y se pasa a la zona de {@link SensorTimestamps}; sin ella ya es hora local.
+     *
+     * @return La fecha, o {@code null} si el texto no sigue exactamente ese formato.
+     */
+    static LocalDateTime parseIsoLocalDateTime(char[] c, int off, int len) {
+        int end = off + len;
+        boolean utc = len > 0 && c[end - 1] == 'Z';
+        if (utc) {
+            end--;
+        }
+        if (end - off < 16 || c[off + 4] != '-' || c[off + 7] != '-' || c[off + 10] != 'T' || c[off + 13] != ':') {
+            return null;
+        }
+        int year = digits(c, off, 4);
+        int month = digits(c, off + 5, 2);
+        int day = digits(c, off + 8, 2);
+        int hour = digits(c, off + 11, 2);
+        int minute = digits(c, off + 14, 2);
+        int second = 0;
+        int nanos = 0;
+        int pos = off + 16;
+        if (pos < end) {
+            if (c[pos] != ':' || pos + 3 > end) {
+                return null;
+            }
+            second = digits(c, pos + 1, 2);
+            pos += 3;
+            if (pos < end) {
+                if (c[pos] != '.' || pos + 1 == end || end - pos - 1 > 9) {
+                    return null;
+                }
+                int fractionDigits = end - pos - 1;
+                nanos = digits(c, pos + 1, fractionDigits);
+                for (int i = fractionDigits; i < 9; i++) {
+                    nanos *= 10;
+                }
+            }
+        }
+        if ((year | month | day | hour | minute | second | nanos) < 0) {
+            return null; // Algún carácter no era dígito
+        }
+        try {
+            LocalDateTime parsed = LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+            return utc ? SensorTimestamps.fromInstant(parsed.toInstant(ZoneOffset.UTC)) : parsed;
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    // Devuelve -1 si algún carácter no es dígito
+    private static int digits(char[] c, int off, int count) {
+        int value = 0;
+        for (int i = off; i < off + count; i++) {
+            int d = c[i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    // También lo usa Protobuf
+    static LocalDateTime fromEpochMillis(long epochMillis) throws IOException {
+        if (epochMillis < MIN_EPOCH_MILLIS || epochMillis > MAX_EPOCH_MILLIS) {
+            throw new IOException("Timestamp fuera de rango: " + epochMillis);
+        }
+        return checkRange(SensorTimestamps.fromEpochMillis(epochMillis)); // En la zona local puede cruzar el año 1 o 9999
+    }
+
+    // Años 1 a 9999, los que admite Firestore: una fecha fuera de ese rango haría fallar la escritura del lote
+    static LocalDateTime checkRange(LocalDateTime timestamp) throws IOException {
+        if (timestamp.getYear() < MIN_YEAR || timestamp.getYear() > MAX_YEAR) {
+            throw new IOException("Timestamp fuera de rango: " + timestamp);
+        }
+        return timestamp;
+    }
+
+    private static LocalDateTime parseTimestampFallback(String text) throws IOException {
+        try {
+            if (text.endsWith("Z")) {
+                return SensorTimestamps.fromInstant(Instant.parse(text));
+            }
+            return LocalDateTime.parse(text);
+        } catch (DateTimeException e) {
+            throw new IOException("Timestamp inválido: " + text, e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.watana.backend.ingest;
+
+import com.watana.backend.model.SensorData;
+import com.watana.backend.service.SensorDataService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Etapa asíncrona entre el manejador MQTT y Firestore.
+ * <p>
+ * El hilo de Paho solo encola la lectura decodificada; un hilo dedicado agrupa las lecturas
+ * (hasta {@code batchSize} o hasta que expire {@code lingerMs}) y las escribe con un único
+ * {@code WriteBatch}. Mientras un lote se escribe, los mensajes siguientes siguen llegando a la cola.
+ * Cuando la cola está llena, {@link #submit(SensorData)} bloquea al productor hasta {@code offerTimeoutMs},
+ * lo que frena al cliente MQTT en lugar de acumular memoria sin límite.
+ */
+@Component
+public class SensorDataIngestPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorDataIngestPipeline.class);
+
+    private static final long IDLE_POLL_MS = 100; // Cada cuánto revisa el hilo si debe detenerse cuando no hay datos
+
+    private final SensorDataService sensorDataService;
+    private final BlockingQueue<SensorData> queue;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final long offerTimeoutMs;
+
+    private final Thread flusher;
+    private volatile boolean running;
+
+    // Estadísticas de la etapa
+    private final AtomicLong batchesFlushed = new AtomicLong();
+    private final AtomicLong readingsFlushed = new AtomicLong();
+    private final AtomicLong batchesFailed = new AtomicLong();
+    private final AtomicLong readingsRejected = new AtomicLong();
+    private final AtomicLong totalBatchLatencyNanos = new AtomicLong();
+    private volatile long lastBatchLatencyNanos;
+    private volatile long maxBatchLatencyNanos;
+
+    public SensorDataIngestPipeline(SensorDataService sensorDataService,
+                                    @Value("${watana.ingest.queue-capacity:10000}") int queueCapacity,
+                                    @Value("${watana.ingest.batch-size:200}") int batchSize,
+                                    @Value("${watana.ingest.linger-ms:50}") long lingerMs,
+                                    @Value("${watana.ingest.offer-timeout-ms:5000}") long offerTimeoutMs) {
+        if (queueCapacity <= 0 || batchSize <= 0 || lingerMs < 0 || offerTimeoutMs < 0) {
+            throw new IllegalArgumentException("Configuración de ingesta inválida: capacity=" + queueCapacity
+                    + ", batchSize=" + batchSize + ", lingerMs=" + lingerMs + ", offerTimeoutMs=" + offerTimeoutMs);
+        }
+        this.sensorDataService = sensorDataService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.flusher = new Thread(this::runFlushLoop, "sensor-ingest-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        flusher.start();
+    }
+
+    /**
+     * Detiene la etapa: deja de aceptar nuevas lecturas y espera a que se escriba lo que queda en la cola.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        if (!queue.isEmpty()) {
+            log.warn("Ingest pipeline stopped with {} readings still queued", queue.size());
+        }
+    }
+
+    /**
+     * Encola una lectura para su escritura asíncrona.
+     *
+     * @param sensorData La lectura ya decodificada.
+     * @return {@code true} si se encoló; {@code false} si la cola siguió llena durante {@code offerTimeoutMs}
+     *         o la etapa está detenida.
+     */
+    public boolean submit(SensorData sensorData) {
+        if (!running) {
+            readingsRejected.incrementAndGet();
+            return false;
+        }
+        try {
+            if (queue.offer(sensorData, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Restaura el estado interrumpido
+        }
+        readingsRejected.incrementAndGet();
+        log.warn("Ingest queue full, dropping reading from device {}", sensorData.getDeviceId());
+        return false;
+    }
+
+    private void runFlushLoop() {
+        List<SensorData> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                SensorData first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Completa el lote con lo que haya en cola, esperando como máximo lingerNanos desde la primera lectura
+    private void fillBatch(List<SensorData> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.size() >= batchSize) {
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            SensorData next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<SensorData> batch) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            sensorDataService.saveAllSensorData(batch);
+            long latency = System.nanoTime() - start;
+            recordBatch(batch.size(), latency);
+            log.debug("Flushed {} readings to Firestore in {} ms", batch.size(), TimeUnit.NANOSECONDS.toMillis(latency));
+        } catch (ExecutionException | RuntimeException e) {
+            batchesFailed.incrementAndGet();
+            log.error("Error saving batch of {} readings to Firestore", batch.size(), e);
+        }
+    }
+
+    private void recordBatch(int size, long latencyNanos) {
+        batchesFlushed.incrementAndGet();
+        readingsFlushed.addAndGet(size);
+        totalBatchLatencyNanos.addAndGet(latencyNanos);
+        lastBatchLatencyNanos = latencyNanos;
+        if (latencyNanos > maxBatchLatencyNanos) {
+            maxBatchLatencyNanos = latencyNanos; // Solo lo escribe el hilo flusher
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public Stats getStats() {
+        long batches = batchesFlushed.get();
+        return new Stats(
+                queue.size(),
+                batches,
+                readingsFlushed.get(),
+                batchesFailed.get(),
+                readingsRejected.get(),
+                TimeUnit.NANOSECONDS.toMillis(lastBatchLatencyNanos),
+                batches == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalBatchLatencyNanos.get() / batches),
+                TimeUnit.NANOSECONDS.toMillis(maxBatchLatencyNanos));
+    }
+
+    // Instantánea de las estadísticas de la etapa de ingesta
+    public record Stats(int queueDepth, long batchesFlushed, long readingsFlushed, long batchesFailed,
+                        long readingsRejected, long lastBatchLatencyMs, long avgBatchLatencyMs,
+                        long maxBatchLatencyMs) {
+    }
+}
@@ -0,0 +1,14 @@
+package com.watana.backend.ingest;
+
+import com.watana.backend.model.SensorData;
+
+/**
+ * Consumidor en proceso de cada lectura ingerida por MQTT, ya decodificada y con timestamp.
+ * <p>
+ * Se invoca en el hilo de ingesta, por lo que las implementaciones deben ser rápidas y no bloquear
+ * (nada de llamadas a Firestore por lectura).
+ */
+public interface SensorDataListener {
+
+    void onSensorData(SensorData sensorData);
+}
@@ -0,0 +1,275 @@
+package com.watana.backend.ingest;
+
+import com.watana.backend.model.SensorData;
+import com.watana.backend.repository.MappedSegmentLog;
+import com.watana.backend.repository.SensorDataRecordCodec;
+import com.watana.backend.service.SensorDataService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-ahead log de las lecturas recibidas por MQTT, sobre un {@link MappedSegmentLog}.
+ * <p>
+ * El manejador MQTT llama a {@link #append(SensorData)} antes de devolver el control a Paho, así que el
+ * ACK de QoS 1 solo se envía cuando la lectura ya está en disco. Un hilo dedicado lee el log desde el
+ * último offset confirmado, escribe las lecturas en lotes con reintentos (backoff exponencial) y solo
+ * entonces avanza y persiste el offset. Si Firestore no responde, las lecturas se acumulan en el log en
+ * lugar de perderse; al reiniciar se retoma desde el offset confirmado.
+ * <p>
+ * Cada lectura recibe un ID derivado del log y su offset, de modo que reintentar un lote que sí llegó a
+ * escribirse sobrescribe los mismos documentos en lugar de duplicarlos.
+ * <p>
+ * El forzado a disco es por grupos: cada carril anexa bajo un lock corto y luego espera un msync que cubra su
+ * registro. Un solo hilo fuerza a la vez, y el siguiente msync cubre todo lo anexado mientras tanto, así que con
+ * varios carriles hay un msync por grupo de lecturas y no uno por lectura.
+ */
+@Component
+@ConditionalOnProperty(name = "watana.wal.enabled", havingValue = "true")
+public class SensorDataWriteAheadLog {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorDataWriteAheadLog.class);
+
+    private static final String OFFSET_FILE = "committed.offset";
+    private static final String ID_FILE = "wal.id";
+    private static final int MAX_RECORD_SIZE = 4096;
+
+    private final SensorDataService sensorDataService;
+    private final Path directory;
+    private final MappedSegmentLog segmentLog;
+    private final String walId;
+    private final boolean forceOnAppend;
+    private final int batchSize;
+    private final long idleNanos;
+    private final long retryInitialMs;
+    private final long retryMaxMs;
+    private final ByteBuffer encodeBuffer = ByteBuffer.allocate(MAX_RECORD_SIZE); // Protegido por this
+    private final Object forceLock = new Object(); // Un msync a la vez; los demás esperan a que los cubra
+    private volatile long forcedOffset; // Todo lo anterior ya está en disco
+
+    private final Thread replayer;
+    private volatile boolean running;
+    private volatile long committedOffset;
+
+    // Estadísticas del log
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+
+    public SensorDataWriteAheadLog(SensorDataService sensorDataService,
+                                   @Value("${watana.wal.directory:data/wal}") String directory,
+                                   @Value("${watana.wal.segment-size-mb:64}") int segmentSizeMb,
+                                   @Value("${watana.wal.force-on-append:true}") boolean forceOnAppend,
+                                   @Value("${watana.ingest.batch-size:200}") int batchSize,
+                                   @Value("${watana.ingest.linger-ms:50}") long lingerMs,
+                                   @Value("${watana.wal.retry-initial-ms:500}") long retryInitialMs,
+                                   @Value("${watana.wal.retry-max-ms:30000}") long retryMaxMs) throws IOException {
+        this.sensorDataService = sensorDataService;
+        this.directory = Path.of(directory);
+        this.segmentLog = new MappedSegmentLog(this.directory, segmentSizeMb * 1024 * 1024);
+        this.walId = readOrCreateId();
+        this.committedOffset = readCommittedOffset();
+        this.forcedOffset = segmentLog.endOffset(); // Lo que ya estaba en el log al abrir
+        this.forceOnAppend = forceOnAppend;
+        this.batchSize = batchSize;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, lingerMs));
+        this.retryInitialMs = retryInitialMs;
+        this.retryMaxMs = retryMaxMs;
+        this.replayer = new Thread(this::runReplayLoop, "sensor-wal-replayer");
+        this.replayer.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        long pending = segmentLog.endOffset() - committedOffset;
+        if (pending > 0) {
+            log.info("Resuming WAL replay from offset {} ({} bytes pending)", committedOffset, pending);
+        }
+        running = true;
+        replayer.start();
+    }
+
+    /**
+     * Detiene el hilo de replay. Lo que no se haya confirmado queda en el log y se retoma al arrancar.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        running = false;
+        LockSupport.unpark(replayer);
+        replayer.join(TimeUnit.SECONDS.toMillis(30));
+        segmentLog.close();
+    }
+
+    /**
+     * Anexa una lectura al log y, si {@code watana.wal.force-on-append}, vuelve cuando un msync ya la cubrió.
+     *
+     * @throws IOException Si no se pudo escribir; la lectura no quedó registrada.
+     */
+    public void append(SensorData sensorData) throws IOException {
+        long end;
+        synchronized (this) {
+            encodeBuffer.clear();
+            try {
+                SensorDataRecordCodec.encode(sensorData, encodeBuffer);
+            } catch (BufferOverflowException e) {
+                throw new IOException("Lectura demasiado grande para el WAL (máximo " + MAX_RECORD_SIZE + " bytes)", e);
+            }
+            segmentLog.append(encodeBuffer.array(), 0, encodeBuffer.position());
+            end = segmentLog.endOffset();
+        }
+        appended.incrementAndGet();
+        LockSupport.unpark(replayer);
+        if (forceOnAppend) {
+            awaitForced(end);
+        }
+    }
+
+    // Espera a que un msync cubra hasta end; si nadie lo hizo, fuerza también lo que anexaron los demás carriles
+    private void awaitForced(long end) {
+        if (forcedOffset >= end) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (forcedOffset < end) {
+                forcedOffset = segmentLog.force();
+                forces.incrementAndGet();
+            }
+        }
+    }
+
+    private void runReplayLoop() {
+        List<SensorData> batch = new ArrayList<>(batchSize);
+        long[] next = new long[1];
+        while (running) {
+            try {
+                batch.clear();
+                next[0] = committedOffset;
+                readBatch(batch, next);
+                if (batch.isEmpty()) {
+                    if (next[0] != committedOffset) {
+                        commit(next[0]); // Solo había registros ilegibles
+                    }
+                    LockSupport.parkNanos(idleNanos);
+                    continue;
+                }
+                if (persistWithRetries(batch)) {
+                    replayed.addAndGet(batch.size());
+                    commit(next[0]);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("WAL replay failed at offset {}", committedOffset, e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryInitialMs));
+            }
+        }
+    }
+
+    // Lee hasta batchSize lecturas desde el offset confirmado; deja en next[0] el offset siguiente al último leído
+    private void readBatch(List<SensorData> batch, long[] next) throws IOException {
+        segmentLog.read(committedOffset, (offset, nextOffset, record) -> {
+            try {
+                SensorData sensorData = SensorDataRecordCodec.decode(record);
+                sensorData.setId(walId + "-" + Long.toHexString(offset));
+                batch.add(sensorData);
+            } catch (RuntimeException e) {
+                skipped.incrementAndGet();
+                log.error("Skipping unreadable WAL record at offset {}", offset, e);
+            }
+            next[0] = nextOffset;
+            return batch.size() < batchSize;
+        });
+    }
+
+    // Reintenta el lote hasta que se escriba o se detenga el servicio
+    private boolean persistWithRetries(List<SensorData> batch) {
+        long delayMs = retryInitialMs;
+        while (running) {
+            try {
+                sensorDataService.saveAllSensorData(batch);
+                return true;
+            } catch (ExecutionException | RuntimeException e) {
+                retries.incrementAndGet();
+                log.warn("Error saving {} WAL readings, retrying in {} ms: {}", batch.size(), delayMs, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(delayMs));
+            delayMs = Math.min(delayMs * 2, retryMaxMs);
+        }
+        return false;
+    }
+
+    private void commit(long offset) throws IOException {
+        Path temp = directory.resolve(OFFSET_FILE + ".tmp");
+        Files.writeString(temp, Long.toString(offset));
+        Files.move(temp, directory.resolve(OFFSET_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committedOffset = offset;
+        segmentLog.deleteSegmentsBefore(offset);
+    }
+
+    private long readCommittedOffset() throws IOException {
+        Path file = directory.resolve(OFFSET_FILE);
+        return Files.exists(file) ? Long.parseLong(Files.readString(file).trim()) : 0L;
+    }
+
+    // Identificador estable del log, para que los IDs de documento no choquen si se borra el directorio
+    private String readOrCreateId() throws IOException {
+        Path file = directory.resolve(ID_FILE);
+        if (Files.exists(file)) {
+            return Files.readString(file).trim();
+        }
+        String id = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+        Files.writeString(file, id);
+        return id;
+    }
+
+    // Bytes escritos en el log que aún no se han confirmado en el repositorio
+    public long getPendingBytes() {
+        return segmentLog.endOffset() - committedOffset;
+    }
+
+    public long getCommittedOffset() {
+        return committedOffset;
+    }
+
+    public long getAppendedCount() {
+        return appended.get();
+    }
+
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    // msync del log; con varios carriles anexando a la vez es menor que las lecturas anexadas
+    public long getForceCount() {
+        return forces.get();
+    }
+}
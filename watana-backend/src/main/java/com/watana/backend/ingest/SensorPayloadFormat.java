@@ -0,0 +1,56 @@
+package com.watana.backend.ingest;
+
+/**
+ * Formatos de payload MQTT que acepta {@link SensorDataDecoder}.
+ * <p>
+ * El formato se toma del último segmento del tópico ({@code watana/sensor/data/cbor}, {@code .../pb},
+ * {@code .../json}). Si el tópico no lo indica, el primer byte del payload decide: {@code 0x01} (CBOR) o
+ * {@code 0x02} (Protobuf) marcan el formato y no forman parte del mensaje, la etiqueta CBOR auto-descriptiva
+ * ({@code 0xD9 0xD9 0xF7}) indica CBOR, y cualquier otro byte se trata como JSON, como hasta ahora.
+ */
+public enum SensorPayloadFormat {
+
+    JSON((byte) 0),
+    CBOR((byte) 0x01),
+    PROTOBUF((byte) 0x02);
+
+    // Primer byte de la etiqueta 55799 (RFC 8949 §3.4.6), que los codificadores CBOR pueden anteponer al mensaje
+    private static final byte CBOR_SELF_DESCRIBE = (byte) 0xD9;
+
+    private final byte marker;
+
+    SensorPayloadFormat(byte marker) {
+        this.marker = marker;
+    }
+
+    /** Byte de formato que se antepone al payload cuando el tópico no indica el formato. */
+    public byte marker() {
+        return marker;
+    }
+
+    /**
+     * @return El formato indicado por el último segmento del tópico, o {@code null} si no indica ninguno.
+     */
+    public static SensorPayloadFormat fromTopic(String topic) {
+        if (topic == null) {
+            return null;
+        }
+        String suffix = topic.substring(topic.lastIndexOf('/') + 1);
+        return switch (suffix) {
+            case "json" -> JSON;
+            case "cbor" -> CBOR;
+            case "pb", "proto", "protobuf" -> PROTOBUF;
+            default -> null;
+        };
+    }
+
+    /**
+     * @return El formato indicado por el primer byte del payload; JSON si no es un byte de formato.
+     */
+    static SensorPayloadFormat fromFirstByte(byte first) {
+        if (first == CBOR.marker || first == CBOR_SELF_DESCRIBE) {
+            return CBOR;
+        }
+        return first == PROTOBUF.marker ? PROTOBUF : JSON;
+    }
+}
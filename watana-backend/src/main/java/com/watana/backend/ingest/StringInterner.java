@@ -0,0 +1,186 @@
+package com.watana.backend.ingest;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tabla de internado para vocabularios pequeños (deviceId, type, unit, location).
+ * <p>
+ * Busca directamente sobre el buffer de caracteres del parser (o sobre los bytes UTF-8 del payload, en los
+ * formatos binarios), así que un valor ya visto no crea un {@code String} nuevo. Las lecturas no toman locks; las
+ * inserciones escriben en la tabla bajo lock y solo la copian cuando crece. Al llegar a {@code maxEntries}
+ * deja de internar y devuelve cadenas nuevas para no crecer sin límite; desde ese momento un valor desconocido
+ * (por ejemplo, un {@code deviceId} en una flota de más de {@code maxEntries} dispositivos) ya no toma el lock.
+ */
+final class StringInterner {
+
+    private final int maxEntries;
+    private volatile String[] table; // Direccionamiento abierto, tamaño potencia de dos
+    private int size; // Protegido por this
+    private volatile boolean saturated;
+
+    StringInterner(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.table = new String[tableSizeFor(Math.min(maxEntries, 64))];
+    }
+
+    String intern(char[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        String found = lookup(table, hash, buffer, offset, length);
+        if (found != null) {
+            return found;
+        }
+        if (saturated) {
+            return new String(buffer, offset, length);
+        }
+        return insert(hash, buffer, offset, length);
+    }
+
+    /**
+     * Igual que {@link #intern(char[], int, int)} pero sobre bytes UTF-8. Los valores ASCII (el caso normal) se
+     * buscan sin decodificar; los demás se decodifican antes de buscarlos.
+     */
+    String intern(byte[] utf8, int offset, int length) {
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int b = utf8[i];
+            if (b < 0) {
+                char[] chars = new String(utf8, offset, length, StandardCharsets.UTF_8).toCharArray();
+                return intern(chars, 0, chars.length);
+            }
+            hash = 31 * hash + b;
+        }
+        String[] t = table;
+        int mask = t.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            String s = t[i];
+            if (s == null) {
+                break;
+            }
+            if (s.hashCode() == hash && matchesAscii(s, utf8, offset, length)) {
+                return s;
+            }
+        }
+        if (saturated) {
+            return new String(utf8, offset, length, StandardCharsets.US_ASCII);
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) utf8[offset + i];
+        }
+        return insert(hash, chars, 0, length);
+    }
+
+    /**
+     * Devuelve la instancia internada de una cadena ya decodificada (por ejemplo, por las clases generadas de
+     * Protobuf), o la misma cadena si el vocabulario está saturado.
+     */
+    String intern(String value) {
+        int hash = value.hashCode();
+        String[] t = table;
+        int mask = t.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            String s = t[i];
+            if (s == null) {
+                break;
+            }
+            if (s.hashCode() == hash && s.equals(value)) {
+                return s;
+            }
+        }
+        if (saturated) {
+            return value;
+        }
+        char[] chars = value.toCharArray();
+        return insert(hash, chars, 0, chars.length);
+    }
+
+    private synchronized String insert(int hash, char[] buffer, int offset, int length) {
+        String found = lookup(table, hash, buffer, offset, length); // Otro hilo pudo insertarla
+        if (found != null) {
+            return found;
+        }
+        String value = new String(buffer, offset, length);
+        if (size >= maxEntries) {
+            saturated = true;
+            return value; // Vocabulario saturado: no se interna
+        }
+        String[] current = table;
+        if ((size + 1) * 2 > current.length) {
+            String[] next = new String[current.length * 2];
+            for (String s : current) {
+                if (s != null) {
+                    place(next, s);
+                }
+            }
+            current = next;
+        }
+        // Un lector concurrente ve la ranura vacía (y pasa por aquí) o la cadena ya construida: String es inmutable
+        place(current, value);
+        size++;
+        table = current; // Publicación vía escritura volátil
+        if (size >= maxEntries) {
+            saturated = true;
+        }
+        return value;
+    }
+
+    private static String lookup(String[] t, int hash, char[] buffer, int offset, int length) {
+        int mask = t.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            String s = t[i];
+            if (s == null) {
+                return null;
+            }
+            if (s.hashCode() == hash && matches(s, buffer, offset, length)) {
+                return s;
+            }
+        }
+    }
+
+    private static void place(String[] t, String value) {
+        int mask = t.length - 1;
+        int i = value.hashCode() & mask;
+        while (t[i] != null) {
+            i = (i + 1) & mask;
+        }
+        t[i] = value;
+    }
+
+    // Mismo algoritmo que String.hashCode() para poder comparar con el hash cacheado de la cadena
+    private static int hash(char[] buffer, int offset, int length) {
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + buffer[i];
+        }
+        return h;
+    }
+
+    private static boolean matches(String s, char[] buffer, int offset, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesAscii(String s, byte[] utf8, int offset, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != utf8[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int tableSizeFor(int entries) {
+        int n = Integer.highestOneBit(Math.max(entries * 2, 2) - 1) << 1;
+        return Math.max(n, 4);
+    }
+}
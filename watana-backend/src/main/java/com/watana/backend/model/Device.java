@@ -1,6 +1,8 @@
 package com.watana.backend.model;
 
 import com.google.cloud.firestore.annotation.DocumentId;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotBlank; // Importa para validar que no esté vacío y no sea solo espacios
 import jakarta.validation.constraints.Size;    // Importa para validar el tamaño de las cadenas
 import jakarta.validation.constraints.NotNull; // Importa para validar que no sea nulo
@@ -8,6 +10,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Date;
+
 @Data // Genera getters, setters, toString, equals, hashCode
 @NoArgsConstructor // Genera un constructor sin argumentos
 @AllArgsConstructor // Genera un constructor con todos los argumentos
@@ -30,6 +34,15 @@ public class Device {
     @NotNull(message = "El estado 'activo' del dispositivo es requerido.") // 'active' no puede ser nulo
     private boolean active;
 
-    // Puedes añadir más campos según tus necesidades (ej., batteryLevel, lastSeen, etc.)
-    // Y añadirles anotaciones de validación si es necesario.
+    private Date lastSeen;       // Última lectura recibida del dispositivo; se persiste de forma agrupada, no en cada mensaje
+    private Double batteryLevel; // Último nivel de batería reportado (%), o null si el dispositivo no lo informa
+
+    // Posición fija del dispositivo (grados WGS84), opcional; la usan el índice espacial y el mapa de calor
+    @DecimalMin(value = "-90.0", message = "La latitud debe estar entre -90 y 90.")
+    @DecimalMax(value = "90.0", message = "La latitud debe estar entre -90 y 90.")
+    private Double latitude;
+
+    @DecimalMin(value = "-180.0", message = "La longitud debe estar entre -180 y 180.")
+    @DecimalMax(value = "180.0", message = "La longitud debe estar entre -180 y 180.")
+    private Double longitude;
 }
@@ -0,0 +1,10 @@
+package com.watana.backend.model;
+
+/**
+ * Dispositivo encontrado en una búsqueda por radio.
+ *
+ * @param device     El dispositivo.
+ * @param distanceKm Distancia de círculo máximo al punto consultado, en kilómetros.
+ */
+public record DeviceDistance(Device device, double distanceKm) {
+}
@@ -0,0 +1,18 @@
+package com.watana.backend.model;
+
+import java.util.List;
+
+/**
+ * Resultado de un elemento de una importación masiva.
+ *
+ * @param index  Posición del elemento en la entrada (desde 0; en CSV no cuenta la cabecera).
+ * @param id     ID del dispositivo guardado (o el que traía la entrada), o {@code null}.
+ * @param status {@code saved}, {@code invalid} (no se intentó guardar) o {@code failed} (falló la escritura).
+ * @param errors Mensajes de validación o de error; vacío si se guardó.
+ */
+public record DeviceImportItem(int index, String id, String status, List<String> errors) {
+
+    public static final String SAVED = "saved";
+    public static final String INVALID = "invalid";
+    public static final String FAILED = "failed";
+}
@@ -0,0 +1,12 @@
+package com.watana.backend.model;
+
+import java.util.List;
+
+/**
+ * Resumen de una importación masiva de dispositivos, con el resultado de cada elemento.
+ *
+ * @param truncated {@code true} si la entrada superaba el máximo de elementos y el resto se ignoró.
+ */
+public record DeviceImportResult(int received, int saved, int invalid, int failed, boolean truncated,
+                                 List<DeviceImportItem> items) {
+}
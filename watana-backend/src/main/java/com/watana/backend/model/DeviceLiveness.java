@@ -0,0 +1,13 @@
+package com.watana.backend.model;
+
+import java.util.Date;
+
+/**
+ * Estado de vida de un dispositivo según las lecturas recibidas.
+ *
+ * @param lastSeen     Hora de la última lectura recibida.
+ * @param batteryLevel Último nivel de batería reportado (%), o {@code null}.
+ * @param online       {@code false} si no llegan lecturas desde hace más del tiempo de espera configurado.
+ */
+public record DeviceLiveness(String deviceId, Date lastSeen, Double batteryLevel, boolean online) {
+}
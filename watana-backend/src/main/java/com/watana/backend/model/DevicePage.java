@@ -0,0 +1,13 @@
+package com.watana.backend.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Página de dispositivos. Cada elemento contiene {@code id} y los campos pedidos.
+ *
+ * @param items      Dispositivos de la página.
+ * @param nextCursor Valor para {@code startAfter} de la siguiente página, o {@code null} si no hay más.
+ */
+public record DevicePage(List<Map<String, Object>> items, String nextCursor) {
+}
@@ -0,0 +1,20 @@
+package com.watana.backend.model;
+
+import java.util.List;
+
+/**
+ * Consulta paginada de dispositivos que se traduce directamente a una consulta de Firestore.
+ *
+ * @param limit      Máximo de dispositivos por página.
+ * @param startAfter ID del último dispositivo de la página anterior (cursor), o {@code null} para la primera.
+ * @param fields     Campos a devolver ({@code select}); vacío devuelve todos.
+ * @param type       Filtro por tipo, o {@code null}.
+ * @param location   Filtro por ubicación, o {@code null}.
+ * @param active     Filtro por estado activo, o {@code null}.
+ */
+public record DeviceQuery(int limit, String startAfter, List<String> fields, String type, String location, Boolean active) {
+
+    // Campos de Device que se pueden proyectar o filtrar
+    public static final List<String> SELECTABLE_FIELDS = List.of("name", "type", "location", "active", "lastSeen", "batteryLevel",
+            "latitude", "longitude");
+}
@@ -0,0 +1,16 @@
+package com.watana.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data // Genera getters, setters, toString, equals, hashCode
+@NoArgsConstructor
+@AllArgsConstructor
+public class Notification {
+    private String title;     // Título corto mostrado en el panel
+    private String message;   // Detalle de la notificación
+    private String type;      // "alert" o "info"
+    private String deviceId;  // Dispositivo relacionado
+    private String timestamp; // Hora de la notificación (HH:mm:ss)
+}
@@ -0,0 +1,33 @@
+package com.watana.backend.model;
+
+import com.google.cloud.firestore.annotation.DocumentId;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * Anotación de una lectura que el detector en línea marcó como anómala; se guarda en {@code sensor_anomalies}
+ * junto a las lecturas de {@code sensor_data}, con el mismo dispositivo, tipo y timestamp.
+ */
+@Data
+@NoArgsConstructor
+public class SensorAnomaly {
+    @DocumentId
+    private String id;              // deviceId_type_timestampMillis: reintentar la escritura no la duplica
+    private String deviceId;
+    private String type;
+    private Kind kind;
+    private double value;           // Valor de la lectura
+    private double expected;        // Media de la serie (SPIKE, FLATLINE) o de su franja horaria (SEASONAL)
+    private double score;           // z-score; en FLATLINE, la cantidad de repeticiones
+    private String unit;
+    private String location;
+    private Date timestamp;         // Timestamp de la lectura anotada
+
+    public enum Kind {
+        SPIKE,     // Cambio brusco respecto de la media reciente
+        SEASONAL,  // Fuera de lo habitual para esa hora
+        FLATLINE   // Mismo valor repetido: sensor trabado
+    }
+}
@@ -19,6 +19,8 @@ public class SensorData {
     private String unit;            // Unidad del valor (ej: "C", "%", "battery_percent", "m/s", "m")
     private String location;        // Ubicación de la lectura (ej: "Arequipa", "Cusco")
     private LocalDateTime timestamp; // Marca de tiempo de la lectura (se usará LocalDateTime)
+    private Double latitude;        // Posición de la lectura (grados WGS84), opcional; si falta se usa la del dispositivo
+    private Double longitude;
 
     // Constructor para cuando se recibe un mensaje MQTT simple sin ID (Firestore lo generará)
     // Útil si la entrada JSON de MQTT no incluye un ID y quieres crear un objeto SensorData
@@ -0,0 +1,33 @@
+package com.watana.backend.model;
+
+import com.google.cloud.firestore.annotation.DocumentId;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * Agregado de las lecturas de un dispositivo y tipo en una ventana fija {@code [windowStart, windowEnd)}.
+ * <p>
+ * Guarda sumas en lugar de promedios para poder combinar ventanas: media = sum / count y
+ * varianza = sumOfSquares / count - media².
+ */
+@Data
+@NoArgsConstructor
+public class SensorRollup {
+    @DocumentId
+    private String id;              // deviceId_type_windowStartMillis: reescribir la misma ventana no la duplica
+    private String deviceId;
+    private String type;
+    private String unit;            // Unidad y ubicación de la última lectura de la ventana
+    private String location;
+    private Date windowStart;
+    private Date windowEnd;
+    private long count;
+    private double min;
+    private double max;
+    private double sum;
+    private double sumOfSquares;
+    private double last;            // Valor de la lectura más reciente (por timestamp) de la ventana
+    private Date lastTimestamp;
+}
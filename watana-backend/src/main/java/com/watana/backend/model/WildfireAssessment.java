@@ -0,0 +1,9 @@
+package com.watana.backend.model;
+
+/**
+ * Evaluación de riesgo de incendio devuelta por el modelo para un dispositivo.
+ *
+ * @param riskLevel Bajo, Moderado, Alto o Crítico.
+ */
+public record WildfireAssessment(String deviceId, String riskLevel, String reason, String recommendedActions) {
+}
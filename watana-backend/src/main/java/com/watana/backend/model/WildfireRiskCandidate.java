@@ -0,0 +1,10 @@
+package com.watana.backend.model;
+
+/**
+ * Ubicación que superó el índice local de riesgo y se enviará al modelo para su evaluación.
+ *
+ * @param localIndex Índice de riesgo calculado localmente (Chandler Burning Index).
+ */
+public record WildfireRiskCandidate(String deviceId, String location, double temperature, double humidity,
+                                    double localIndex) {
+}
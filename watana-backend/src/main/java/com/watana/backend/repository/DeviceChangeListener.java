@@ -0,0 +1,16 @@
+package com.watana.backend.repository;
+
+import com.watana.backend.model.Device;
+
+import java.util.List;
+
+/**
+ * Recibe los cambios de la colección de dispositivos a medida que ocurren.
+ * La primera notificación ({@code initialLoad = true}) trae la colección completa.
+ */
+public interface DeviceChangeListener {
+
+    void onDeviceChanges(List<Device> upserted, List<String> removedIds, boolean initialLoad);
+
+    void onError(Exception error);
+}
@@ -1,78 +1,102 @@
 package com.watana.backend.repository;
 
-import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.DocumentReference;
-import com.google.cloud.firestore.DocumentSnapshot;
-import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QuerySnapshot; // Importar QuerySnapshot
-import com.google.cloud.firestore.WriteResult;
 import com.watana.backend.model.Device;
-import org.springframework.stereotype.Repository;
+import com.watana.backend.model.DeviceLiveness;
+import com.watana.backend.model.DevicePage;
+import com.watana.backend.model.DeviceQuery;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
-@Repository // Marca esta clase como un componente de Spring para la capa de persistencia
-public class DeviceRepository {
+/**
+ * Almacenamiento de dispositivos.
+ * <p>
+ * Implementaciones: {@link FirestoreDeviceRepository} (por defecto) y {@link LocalDeviceRepository},
+ * que guarda en archivos locales mapeados en memoria. Se elige con {@code watana.storage.devices=firestore|local}.
+ */
+public interface DeviceRepository {
 
-    private final Firestore firestore; // Inyecta la instancia de Firestore
+    // Guarda un nuevo dispositivo (o actualiza si el ID ya existe); genera el ID si no viene
+    Device save(Device device) throws ExecutionException, InterruptedException;
 
-    // Constructor para inyección de dependencia
-    public DeviceRepository(Firestore firestore) {
-        this.firestore = firestore;
+    Optional<Device> findById(String id) throws ExecutionException, InterruptedException;
+
+    List<Device> findAll() throws ExecutionException, InterruptedException;
+
+    void deleteById(String id) throws ExecutionException, InterruptedException;
+
+    /*
+     * Versiones asíncronas para los endpoints que no deben ocupar un hilo de Tomcat mientras esperan al
+     * almacenamiento. Por defecto ejecutan la operación bloqueante en el hilo que llama (el almacenamiento
+     * local es un append a disco); FirestoreDeviceRepository las implementa sin bloquear ningún hilo.
+     */
+
+    default CompletableFuture<Device> saveAsync(Device device) {
+        return completed(() -> save(device));
     }
 
-    private static final String COLLECTION_NAME = "devices"; // Nombre de la colección en Firestore
-
-    // Guarda un nuevo dispositivo en Firestore (o actualiza si el ID ya existe)
-    public Device save(Device device) throws ExecutionException, InterruptedException {
-        DocumentReference docRef;
-        if (device.getId() == null || device.getId().isEmpty()) {
-            // Si el ID es nulo o vacío, Firestore generará uno nuevo
-            docRef = firestore.collection(COLLECTION_NAME).document();
-            device.setId(docRef.getId()); // Asigna el ID generado al objeto Device
-        } else {
-            // Si el ID ya existe, actualiza el documento con ese ID
-            docRef = firestore.collection(COLLECTION_NAME).document(device.getId());
-        }
-        ApiFuture<WriteResult> result = docRef.set(device); // Usa set() para crear o sobrescribir
-        result.get(); // Espera a que la operación se complete
-        return device; // Retorna el dispositivo con su ID (si fue generado)
+    default CompletableFuture<Optional<Device>> findByIdAsync(String id) {
+        return completed(() -> findById(id));
     }
 
-    // Encuentra un dispositivo por su ID
-    public Optional<Device> findById(String id) throws ExecutionException, InterruptedException {
-        DocumentReference documentReference = firestore.collection(COLLECTION_NAME).document(id);
-        ApiFuture<DocumentSnapshot> future = documentReference.get();
-        DocumentSnapshot document = future.get(); // Espera a que la operación se complete
-        if (document.exists()) {
-            // Mapea el DocumentSnapshot a un objeto Device
-            return Optional.ofNullable(document.toObject(Device.class));
-        } else {
-            return Optional.empty(); // No se encontró el documento
-        }
+    default CompletableFuture<Void> deleteByIdAsync(String id) {
+        return completed(() -> {
+            deleteById(id);
+            return null;
+        });
     }
 
-    // Obtiene todos los dispositivos de la colección
-    public List<Device> findAll() throws ExecutionException, InterruptedException {
-    ApiFuture<QuerySnapshot> future = firestore.collection(COLLECTION_NAME).get(); // Solicita todos los documentos
-    QuerySnapshot querySnapshot = future.get(); // Espera y obtiene el resultado de la consulta
-    List<Device> devices = new ArrayList<>();
-    for (DocumentSnapshot document : querySnapshot.getDocuments()) {
-        Device device = document.toObject(Device.class);
-        if (device != null) {
-            device.setId(document.getId()); // Asegura que el ID del documento también se asigne al objeto
-            devices.add(device);
+    /**
+     * Guarda muchos dispositivos con la escritura masiva del almacenamiento (en Firestore, {@code BulkWriter}).
+     * Los dispositivos sin ID reciben uno generado.
+     *
+     * @return Un futuro por dispositivo, en el mismo orden, que falla solo si falló la escritura de ese dispositivo.
+     */
+    List<CompletableFuture<Device>> saveAll(List<Device> devices);
+
+    /**
+     * Obtiene una página de dispositivos ordenada por ID, con filtros y proyección aplicados en el almacenamiento.
+     */
+    DevicePage findPage(DeviceQuery query) throws ExecutionException, InterruptedException;
+
+    /**
+     * Recorre todos los dispositivos que cumplen la consulta, entregando cada uno a medida que se lee.
+     * Se ignoran {@code limit} y {@code startAfter}.
+     */
+    void streamAll(DeviceQuery query, Consumer<Map<String, Object>> consumer) throws ExecutionException, InterruptedException;
+
+    /**
+     * Actualiza solo {@code lastSeen} y {@code batteryLevel} (si no es null) de dispositivos que ya existen.
+     */
+    void updateLiveness(List<DeviceLiveness> updates) throws ExecutionException, InterruptedException;
+
+    /**
+     * Escucha los cambios de la colección. La primera notificación trae todos los dispositivos.
+     *
+     * @return Registro para dejar de escuchar.
+     */
+    Registration watchAll(DeviceChangeListener listener);
+
+    private static <T> CompletableFuture<T> completed(Callable<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call.call());
+        } catch (ExecutionException e) {
+            return CompletableFuture.failedFuture(e.getCause() != null ? e.getCause() : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
-    return devices;
-}
 
-    // Elimina un dispositivo por su ID
-    public void deleteById(String id) throws ExecutionException, InterruptedException {
-        ApiFuture<WriteResult> result = firestore.collection(COLLECTION_NAME).document(id).delete();
-        result.get(); // Espera a que la operación se complete
+    // Suscripción activa a los cambios de la colección
+    interface Registration {
+        void remove();
     }
-}
\ No newline at end of file
+}
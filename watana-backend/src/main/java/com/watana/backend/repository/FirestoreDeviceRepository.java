@@ -0,0 +1,299 @@
+package com.watana.backend.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.BulkWriterOptions;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot; // Importar QuerySnapshot
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.watana.backend.model.Device;
+import com.watana.backend.model.DeviceLiveness;
+import com.watana.backend.model.DevicePage;
+import com.watana.backend.model.DeviceQuery;
+import com.watana.backend.util.ApiFutureAdapter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+@Repository // Marca esta clase como un componente de Spring para la capa de persistencia
+@ConditionalOnProperty(name = "watana.storage.devices", havingValue = "firestore", matchIfMissing = true)
+public class FirestoreDeviceRepository implements DeviceRepository {
+
+    private final Firestore firestore; // Proxy: el cliente se crea con la primera llamada, no al arrancar
+    private final int bulkInitialOpsPerSecond; // Ritmo inicial del BulkWriter (Firestore recomienda empezar en 500/s)
+    private final int bulkMaxOpsPerSecond; // Tope de escrituras por segundo de las importaciones masivas
+    private final FirestoreMetrics metrics; // Latencia de cada llamada por operación
+
+    // Constructor para inyección de dependencia
+    public FirestoreDeviceRepository(@Lazy Firestore firestore,
+                                     @Value("${watana.devices.bulk.initial-ops-per-second:500}") int bulkInitialOpsPerSecond,
+                                     @Value("${watana.devices.bulk.max-ops-per-second:2000}") int bulkMaxOpsPerSecond,
+                                     MeterRegistry meterRegistry) {
+        this.firestore = firestore;
+        this.bulkInitialOpsPerSecond = bulkInitialOpsPerSecond;
+        this.bulkMaxOpsPerSecond = bulkMaxOpsPerSecond;
+        this.metrics = new FirestoreMetrics(meterRegistry);
+    }
+
+    private static final String COLLECTION_NAME = "devices"; // Nombre de la colección en Firestore
+    private static final int STREAM_PAGE_SIZE = 500; // Documentos por consulta al recorrer la colección en streaming
+    private static final int MAX_WRITES_PER_BATCH = 500; // Límite de operaciones por WriteBatch impuesto por Firestore
+
+    // Guarda un nuevo dispositivo en Firestore (o actualiza si el ID ya existe)
+    @Override
+    public Device save(Device device) throws ExecutionException, InterruptedException {
+        ApiFuture<WriteResult> result = metrics.time("devices.save", documentFor(device).set(device)); // Usa set() para crear o sobrescribir
+        result.get(); // Espera a que la operación se complete
+        return device; // Retorna el dispositivo con su ID (si fue generado)
+    }
+
+    // Igual que save(), pero sin bloquear: el futuro se completa cuando Firestore confirma la escritura
+    @Override
+    public CompletableFuture<Device> saveAsync(Device device) {
+        return ApiFutureAdapter.toCompletableFuture(metrics.time("devices.save", documentFor(device).set(device)))
+                .thenApply(result -> device);
+    }
+
+    private DocumentReference documentFor(Device device) {
+        if (device.getId() == null || device.getId().isEmpty()) {
+            // Si el ID es nulo o vacío, Firestore generará uno nuevo
+            DocumentReference docRef = firestore.collection(COLLECTION_NAME).document();
+            device.setId(docRef.getId()); // Asigna el ID generado al objeto Device
+            return docRef;
+        }
+        // Si el ID ya existe, actualiza el documento con ese ID
+        return firestore.collection(COLLECTION_NAME).document(device.getId());
+    }
+
+    // Encuentra un dispositivo por su ID
+    @Override
+    public Optional<Device> findById(String id) throws ExecutionException, InterruptedException {
+        DocumentReference documentReference = firestore.collection(COLLECTION_NAME).document(id);
+        ApiFuture<DocumentSnapshot> future = metrics.time("devices.get", documentReference.get());
+        DocumentSnapshot document = future.get(); // Espera a que la operación se complete
+        if (document.exists()) {
+            // Mapea el DocumentSnapshot a un objeto Device
+            return Optional.ofNullable(document.toObject(Device.class));
+        } else {
+            return Optional.empty(); // No se encontró el documento
+        }
+    }
+
+    /**
+     * Escribe los dispositivos con un {@link BulkWriter}: agrupa las escrituras en lotes enviados en paralelo,
+     * reintenta los fallos transitorios y limita el ritmo a {@code watana.devices.bulk.max-ops-per-second}
+     * (con el arranque gradual que recomienda Firestore). No bloquea: cada futuro se completa con su escritura.
+     */
+    @Override
+    public List<CompletableFuture<Device>> saveAll(List<Device> devices) {
+        BulkWriter writer = firestore.bulkWriter(BulkWriterOptions.builder()
+                .setInitialOpsPerSecond(Math.min(bulkInitialOpsPerSecond, bulkMaxOpsPerSecond))
+                .setMaxOpsPerSecond(bulkMaxOpsPerSecond)
+                .build());
+        List<CompletableFuture<Device>> results = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            results.add(ApiFutureAdapter.toCompletableFuture(metrics.time("devices.bulk-set", writer.set(documentFor(device), device)))
+                    .thenApply(result -> device));
+        }
+        writer.flush(); // Envía el último lote incompleto sin esperar
+        // Cerrar cuando todo terminó no bloquea: solo libera el writer
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).whenComplete((ignored, error) -> {
+            try {
+                writer.close();
+            } catch (ExecutionException | InterruptedException | RuntimeException e) {
+                // Los errores de cada escritura ya están en su futuro
+            }
+        });
+        return results;
+    }
+
+    @Override
+    public CompletableFuture<Optional<Device>> findByIdAsync(String id) {
+        return ApiFutureAdapter.toCompletableFuture(
+                        metrics.time("devices.get", firestore.collection(COLLECTION_NAME).document(id).get()))
+                .thenApply(document -> document.exists()
+                        ? Optional.ofNullable(document.toObject(Device.class))
+                        : Optional.empty());
+    }
+
+    // Obtiene todos los dispositivos de la colección
+    @Override
+    public List<Device> findAll() throws ExecutionException, InterruptedException {
+    ApiFuture<QuerySnapshot> future = metrics.time("devices.list", firestore.collection(COLLECTION_NAME).get()); // Solicita todos los documentos
+    QuerySnapshot querySnapshot = future.get(); // Espera y obtiene el resultado de la consulta
+    List<Device> devices = new ArrayList<>();
+    for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+        Device device = document.toObject(Device.class);
+        if (device != null) {
+            device.setId(document.getId()); // Asegura que el ID del documento también se asigne al objeto
+            devices.add(device);
+        }
+    }
+    return devices;
+}
+
+    /**
+     * Obtiene una página de dispositivos. Los filtros, la proyección ({@code select}) y el cursor
+     * ({@code startAfter} sobre el ID del documento) se resuelven en Firestore, así que solo viajan
+     * los documentos y campos pedidos.
+     *
+     * @param query Filtros, campos y cursor de la página.
+     * @return Los dispositivos como mapas (id + campos pedidos) y el cursor de la siguiente página.
+     */
+    @Override
+    public DevicePage findPage(DeviceQuery query) throws ExecutionException, InterruptedException {
+        Query firestoreQuery = buildQuery(query, query.startAfter()).limit(query.limit());
+        List<QueryDocumentSnapshot> documents = metrics.time("devices.page", firestoreQuery.get()).get().getDocuments();
+        List<Map<String, Object>> items = new ArrayList<>(documents.size());
+        for (QueryDocumentSnapshot document : documents) {
+            items.add(toItem(document));
+        }
+        String nextCursor = documents.size() == query.limit() ? documents.get(documents.size() - 1).getId() : null;
+        return new DevicePage(items, nextCursor);
+    }
+
+    /**
+     * Recorre todos los dispositivos que cumplen la consulta, en páginas de {@value #STREAM_PAGE_SIZE},
+     * entregando cada uno al consumidor a medida que llega. Se ignoran {@code limit} y {@code startAfter}.
+     */
+    @Override
+    public void streamAll(DeviceQuery query, Consumer<Map<String, Object>> consumer)
+            throws ExecutionException, InterruptedException {
+        String cursor = null;
+        while (true) {
+            List<QueryDocumentSnapshot> documents = metrics.time("devices.stream-page",
+                    buildQuery(query, cursor).limit(STREAM_PAGE_SIZE).get()).get().getDocuments();
+            for (QueryDocumentSnapshot document : documents) {
+                consumer.accept(toItem(document));
+            }
+            if (documents.size() < STREAM_PAGE_SIZE) {
+                return;
+            }
+            cursor = documents.get(documents.size() - 1).getId();
+        }
+    }
+
+    // Traduce la consulta a Firestore, ordenada por ID de documento para que el cursor sea estable
+    private Query buildQuery(DeviceQuery query, String startAfter) {
+        Query firestoreQuery = firestore.collection(COLLECTION_NAME).orderBy(FieldPath.documentId());
+        if (query.type() != null) {
+            firestoreQuery = firestoreQuery.whereEqualTo("type", query.type());
+        }
+        if (query.location() != null) {
+            firestoreQuery = firestoreQuery.whereEqualTo("location", query.location());
+        }
+        if (query.active() != null) {
+            firestoreQuery = firestoreQuery.whereEqualTo("active", query.active());
+        }
+        if (query.fields() != null && !query.fields().isEmpty()) {
+            firestoreQuery = firestoreQuery.select(query.fields().toArray(new String[0]));
+        }
+        if (startAfter != null) {
+            firestoreQuery = firestoreQuery.startAfter(startAfter);
+        }
+        return firestoreQuery;
+    }
+
+    // Usa el mapa de datos del documento directamente, sin mapear por reflexión a Device
+    private static Map<String, Object> toItem(DocumentSnapshot document) {
+        Map<String, Object> data = document.getData();
+        Map<String, Object> item = new LinkedHashMap<>((data == null ? 0 : data.size()) + 2);
+        item.put("id", document.getId());
+        if (data != null) {
+            item.putAll(data);
+        }
+        return item;
+    }
+
+    // Elimina un dispositivo por su ID
+    @Override
+    public void deleteById(String id) throws ExecutionException, InterruptedException {
+        ApiFuture<WriteResult> result = metrics.time("devices.delete", firestore.collection(COLLECTION_NAME).document(id).delete());
+        result.get(); // Espera a que la operación se complete
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteByIdAsync(String id) {
+        return ApiFutureAdapter.toCompletableFuture(
+                        metrics.time("devices.delete", firestore.collection(COLLECTION_NAME).document(id).delete()))
+                .thenApply(result -> null);
+    }
+
+    /**
+     * Actualiza {@code lastSeen} y {@code batteryLevel} con {@code update()} en lotes de como máximo 500,
+     * sin reescribir el resto del documento. Falla si algún dispositivo no existe.
+     */
+    @Override
+    public void updateLiveness(List<DeviceLiveness> updates) throws ExecutionException, InterruptedException {
+        for (int from = 0; from < updates.size(); from += MAX_WRITES_PER_BATCH) {
+            WriteBatch batch = firestore.batch();
+            for (DeviceLiveness update : updates.subList(from, Math.min(from + MAX_WRITES_PER_BATCH, updates.size()))) {
+                Map<String, Object> fields = new HashMap<>(2);
+                fields.put("lastSeen", update.lastSeen());
+                if (update.batteryLevel() != null) {
+                    fields.put("batteryLevel", update.batteryLevel());
+                }
+                batch.update(firestore.collection(COLLECTION_NAME).document(update.deviceId()), fields);
+            }
+            metrics.time("devices.liveness-batch", batch.commit()).get(); // Un único round-trip por trozo
+        }
+    }
+
+    /**
+     * Escucha los cambios de la colección con un snapshot listener de Firestore.
+     * La primera notificación trae todos los documentos; las siguientes, solo los que cambiaron.
+     *
+     * @param listener Receptor de los cambios.
+     * @return Registro para dejar de escuchar.
+     */
+    @Override
+    public Registration watchAll(DeviceChangeListener listener) {
+        boolean[] first = { true }; // Solo lo modifica el hilo de callbacks de Firestore
+        ListenerRegistration registration = firestore.collection(COLLECTION_NAME).addSnapshotListener((snapshots, error) -> {
+            if (error != null) {
+                listener.onError(error);
+                return;
+            }
+            if (snapshots == null) {
+                return;
+            }
+            List<Device> upserted = new ArrayList<>();
+            List<String> removedIds = new ArrayList<>();
+            for (DocumentChange change : snapshots.getDocumentChanges()) {
+                DocumentSnapshot document = change.getDocument();
+                if (change.getType() == DocumentChange.Type.REMOVED) {
+                    removedIds.add(document.getId());
+                } else {
+                    Device device = document.toObject(Device.class);
+                    if (device != null) {
+                        device.setId(document.getId());
+                        upserted.add(device);
+                    }
+                }
+            }
+            listener.onDeviceChanges(upserted, removedIds, first[0]);
+            first[0] = false;
+        });
+        return registration::remove;
+    }
+}
\ No newline at end of file
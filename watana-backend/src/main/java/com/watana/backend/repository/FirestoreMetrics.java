@@ -0,0 +1,56 @@
+package com.watana.backend.repository;
+
+import com.google.api.core.ApiFuture;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencia de las llamadas a Firestore por operación: timer {@code watana.firestore.requests} con las etiquetas
+ * {@code operation} y {@code outcome} (success / error).
+ * <p>
+ * Se mide desde que se envía la llamada hasta que su {@link ApiFuture} se completa, con un listener: no bloquea
+ * y sirve igual para las llamadas síncronas que para las asíncronas.
+ */
+final class FirestoreMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> successTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> errorTimers = new ConcurrentHashMap<>();
+
+    FirestoreMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    <T> ApiFuture<T> time(String operation, ApiFuture<T> future) {
+        long start = System.nanoTime();
+        future.addListener(() -> timer(operation, succeeded(future))
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS), Runnable::run);
+        return future;
+    }
+
+    private static boolean succeeded(ApiFuture<?> future) {
+        try {
+            future.get(); // Ya terminó: get() no espera
+            return true;
+        } catch (ExecutionException | CancellationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Timer timer(String operation, boolean success) {
+        return (success ? successTimers : errorTimers).computeIfAbsent(operation, op -> Timer.builder("watana.firestore.requests")
+                .description("Llamadas a Firestore")
+                .tag("operation", op)
+                .tag("outcome", success ? "success" : "error")
+                .register(registry));
+    }
+}
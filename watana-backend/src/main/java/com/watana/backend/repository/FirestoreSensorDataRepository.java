@@ -0,0 +1,144 @@
+package com.watana.backend.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.watana.backend.model.SensorAnomaly;
+import com.watana.backend.model.SensorData; // Asegúrate de que SensorData.java exista
+import com.watana.backend.model.SensorRollup;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+@Repository // Marca esta clase como un componente de Spring para la capa de persistencia
+@ConditionalOnProperty(name = "watana.storage.sensor-data", havingValue = "firestore", matchIfMissing = true)
+public class FirestoreSensorDataRepository implements SensorDataRepository {
+
+    private final Firestore firestore; // Proxy: el cliente se crea con la primera llamada, no al arrancar
+    private final FirestoreMetrics metrics; // Latencia de cada llamada por operación
+
+    // Constructor para inyección de dependencia
+    public FirestoreSensorDataRepository(@Lazy Firestore firestore, MeterRegistry meterRegistry) {
+        this.firestore = firestore;
+        this.metrics = new FirestoreMetrics(meterRegistry);
+    }
+
+    private static final String COLLECTION_NAME = "sensor_data"; // Nombre de la colección en Firestore para los datos de sensores
+    private static final String ROLLUPS_COLLECTION_NAME = "sensor_rollups"; // Agregados por ventana
+    private static final String ANOMALIES_COLLECTION_NAME = "sensor_anomalies"; // Anotaciones del detector de anomalías
+    private static final int MAX_WRITES_PER_BATCH = 500; // Límite de operaciones por WriteBatch impuesto por Firestore
+
+    /**
+     * Guarda una nueva entrada de datos de sensor en Firestore.
+     * Firestore generará automáticamente un ID para el documento.
+     *
+     * @param sensorData El objeto SensorData a guardar.
+     * @return El objeto SensorData guardado, incluyendo el ID generado por Firestore.
+     * @throws ExecutionException Si la operación asíncrona falla.
+     * @throws InterruptedException Si el hilo actual es interrumpido mientras espera.
+     */
+    @Override
+    public SensorData save(SensorData sensorData) throws ExecutionException, InterruptedException {
+        // Firestore generará automáticamente un ID único para los nuevos documentos.
+        DocumentReference docRef = firestore.collection(COLLECTION_NAME).document();
+        sensorData.setId(docRef.getId()); // Asigna el ID generado al objeto SensorData
+
+        // Utiliza set() para crear el documento con los datos proporcionados.
+        ApiFuture<WriteResult> result = metrics.time("sensor-data.save", docRef.set(sensorData));
+        result.get(); // Espera de forma síncrona a que la operación se complete.
+        return sensorData; // Retorna el objeto SensorData con su nuevo ID.
+    }
+
+    /**
+     * Guarda varias lecturas usando {@link WriteBatch}, en trozos de como máximo 500 escrituras.
+     * Las lecturas sin ID reciben uno generado por Firestore; si ya traen ID se reutiliza, así reintentar
+     * el mismo lote sobrescribe los documentos en lugar de duplicarlos.
+     *
+     * @param sensorDataList Las lecturas a guardar.
+     * @throws ExecutionException Si alguno de los commits falla.
+     * @throws InterruptedException Si el hilo actual es interrumpido mientras espera.
+     */
+    @Override
+    public void saveAll(List<SensorData> sensorDataList) throws ExecutionException, InterruptedException {
+        for (int from = 0; from < sensorDataList.size(); from += MAX_WRITES_PER_BATCH) {
+            int to = Math.min(from + MAX_WRITES_PER_BATCH, sensorDataList.size());
+            WriteBatch batch = firestore.batch();
+            for (SensorData sensorData : sensorDataList.subList(from, to)) {
+                DocumentReference docRef = sensorData.getId() == null
+                        ? firestore.collection(COLLECTION_NAME).document()
+                        : firestore.collection(COLLECTION_NAME).document(sensorData.getId());
+                sensorData.setId(docRef.getId());
+                batch.set(docRef, sensorData);
+            }
+            metrics.time("sensor-data.batch", batch.commit()).get(); // Un único round-trip por trozo
+        }
+    }
+
+    /**
+     * Guarda los agregados por ventana con {@link WriteBatch}, en trozos de como máximo 500 escrituras.
+     *
+     * @param rollups Los agregados a guardar, con su ID ya asignado.
+     * @throws ExecutionException Si alguno de los commits falla.
+     * @throws InterruptedException Si el hilo actual es interrumpido mientras espera.
+     */
+    @Override
+    public void saveRollups(List<SensorRollup> rollups) throws ExecutionException, InterruptedException {
+        for (int from = 0; from < rollups.size(); from += MAX_WRITES_PER_BATCH) {
+            int to = Math.min(from + MAX_WRITES_PER_BATCH, rollups.size());
+            WriteBatch batch = firestore.batch();
+            for (SensorRollup rollup : rollups.subList(from, to)) {
+                batch.set(firestore.collection(ROLLUPS_COLLECTION_NAME).document(rollup.getId()), rollup);
+            }
+            metrics.time("sensor-rollups.batch", batch.commit()).get();
+        }
+    }
+
+    /**
+     * Guarda las anotaciones de anomalías con {@link WriteBatch}, en trozos de como máximo 500 escrituras.
+     *
+     * @param anomalies Las anotaciones a guardar, con su ID ya asignado.
+     * @throws ExecutionException Si alguno de los commits falla.
+     * @throws InterruptedException Si el hilo actual es interrumpido mientras espera.
+     */
+    @Override
+    public void saveAnomalies(List<SensorAnomaly> anomalies) throws ExecutionException, InterruptedException {
+        for (int from = 0; from < anomalies.size(); from += MAX_WRITES_PER_BATCH) {
+            int to = Math.min(from + MAX_WRITES_PER_BATCH, anomalies.size());
+            WriteBatch batch = firestore.batch();
+            for (SensorAnomaly anomaly : anomalies.subList(from, to)) {
+                batch.set(firestore.collection(ANOMALIES_COLLECTION_NAME).document(anomaly.getId()), anomaly);
+            }
+            metrics.time("sensor-anomalies.batch", batch.commit()).get();
+        }
+    }
+
+    /**
+     * Consulta {@code sensor_anomalies} por dispositivo (y tipo), ordenada por timestamp descendente. Necesita los
+     * índices compuestos {@code deviceId + timestamp desc} y {@code deviceId + type + timestamp desc}; la primera
+     * consulta sin ellos falla con el enlace para crearlos en la consola de Firebase.
+     *
+     * @throws ExecutionException Si la consulta falla.
+     * @throws InterruptedException Si el hilo actual es interrumpido mientras espera.
+     */
+    @Override
+    public List<SensorAnomaly> findAnomalies(String deviceId, String type, int limit)
+            throws ExecutionException, InterruptedException {
+        Query query = firestore.collection(ANOMALIES_COLLECTION_NAME).whereEqualTo("deviceId", deviceId);
+        if (type != null) {
+            query = query.whereEqualTo("type", type);
+        }
+        query = query.orderBy("timestamp", Query.Direction.DESCENDING).limit(limit);
+        return metrics.time("sensor-anomalies.query", query.get()).get().toObjects(SensorAnomaly.class);
+    }
+
+    // Aquí podrías añadir otros métodos para consultar datos de sensores si tu aplicación los necesita,
+    // como findById, findAll, findByDeviceId, o consultas por rango de tiempo.
+    // Sin embargo, para la ingesta de datos en tiempo real, el método 'save' es el principal.
+}
@@ -0,0 +1,364 @@
+package com.watana.backend.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watana.backend.model.Device;
+import com.watana.backend.model.DeviceLiveness;
+import com.watana.backend.model.DevicePage;
+import com.watana.backend.model.DeviceQuery;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Guarda los dispositivos en un log local ({@link MappedSegmentLog}) y los mantiene en memoria ordenados por ID.
+ * <p>
+ * Cada escritura anexa un registro {@code U} (dispositivo en JSON) o {@code D} (ID borrado); al arrancar se
+ * reproduce el log para reconstruir el estado y, si hay demasiados registros obsoletos, se compacta.
+ * La compactación escribe el log nuevo aparte ({@code devices.compact}), aparta el vigente ({@code devices.old}),
+ * pone el nuevo en su lugar y recién entonces borra el anterior; al arrancar se termina o deshace un cambio que
+ * quedó a medias.
+ * Se activa con {@code watana.storage.devices=local}.
+ */
+@Repository
+@ConditionalOnProperty(name = "watana.storage.devices", havingValue = "local")
+public class LocalDeviceRepository implements DeviceRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalDeviceRepository.class);
+
+    private static final byte UPSERT = 'U';
+    private static final byte DELETE = 'D';
+    private static final int MIN_RECORDS_TO_COMPACT = 1000;
+    private static final String ID_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final int segmentSize;
+    private MappedSegmentLog segmentLog; // Protegido por this
+    private final ConcurrentSkipListMap<String, Device> devices = new ConcurrentSkipListMap<>();
+    private final List<DeviceChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final SecureRandom random = new SecureRandom();
+
+    public LocalDeviceRepository(ObjectMapper objectMapper,
+                                 @Value("${watana.storage.local.directory:data/storage}") String directory,
+                                 @Value("${watana.storage.local.segment-size-mb:64}") int segmentSizeMb) throws IOException {
+        this.objectMapper = objectMapper;
+        this.directory = Path.of(directory, "devices");
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        recoverCompaction();
+        this.segmentLog = new MappedSegmentLog(this.directory, segmentSize);
+        long records = replay();
+        if (records >= MIN_RECORDS_TO_COMPACT && records > 2L * devices.size()) {
+            compact(records);
+        }
+    }
+
+    // Reconstruye el estado en memoria; devuelve cuántos registros tiene el log
+    private long replay() throws IOException {
+        long[] records = { 0 };
+        segmentLog.read(0, (offset, next, record) -> {
+            byte kind = record.get();
+            if (kind == UPSERT) {
+                byte[] json = new byte[record.remaining()];
+                record.get(json);
+                Device device = objectMapper.readValue(json, Device.class);
+                devices.put(device.getId(), device);
+            } else if (kind == DELETE) {
+                devices.remove(StandardCharsets.UTF_8.decode(record).toString());
+            }
+            records[0]++;
+            return true;
+        });
+        return records[0];
+    }
+
+    // Reescribe el log con solo el estado vigente y reemplaza el anterior. En cada paso queda en disco un log
+    // completo (el vigente, el apartado o el nuevo), así que una caída no pierde dispositivos.
+    private void compact(long records) throws IOException {
+        Path compacted = compactedDirectory();
+        Path backup = backupDirectory();
+        deleteDirectory(compacted);
+        try (MappedSegmentLog target = new MappedSegmentLog(compacted, segmentSize)) {
+            for (Device device : devices.values()) {
+                target.append(encodeUpsert(device));
+            }
+        }
+        segmentLog.close();
+        Files.move(directory, backup, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(compacted, directory, StandardCopyOption.ATOMIC_MOVE);
+        deleteDirectory(backup);
+        segmentLog = new MappedSegmentLog(directory, segmentSize);
+        log.info("Compacted local device log from {} to {} records", records, devices.size());
+    }
+
+    // Termina o deshace una compactación interrumpida antes de abrir el log
+    private void recoverCompaction() throws IOException {
+        Path compacted = compactedDirectory();
+        Path backup = backupDirectory();
+        if (Files.isDirectory(backup)) {
+            if (Files.isDirectory(directory)) {
+                // El log nuevo ya estaba en su lugar: solo faltaba borrar el anterior
+                log.warn("Removing device log left over from an interrupted compaction: {}", backup);
+                deleteDirectory(backup);
+            } else {
+                // Caída entre los dos movimientos: se vuelve al log anterior y la compactación se repite al arrancar
+                log.warn("Restoring device log from an interrupted compaction: {}", backup);
+                Files.move(backup, directory, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        if (Files.isDirectory(compacted)) {
+            log.warn("Discarding incomplete compacted device log: {}", compacted);
+            deleteDirectory(compacted); // El log vigente sigue intacto
+        }
+    }
+
+    private Path compactedDirectory() {
+        return directory.resolveSibling(directory.getFileName() + ".compact");
+    }
+
+    private Path backupDirectory() {
+        return directory.resolveSibling(directory.getFileName() + ".old");
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        segmentLog.close();
+    }
+
+    @Override
+    public Device save(Device device) throws ExecutionException {
+        synchronized (this) {
+            if (device.getId() == null || device.getId().isEmpty()) {
+                device.setId(generateId()); // Mismo formato que los IDs automáticos de Firestore
+            }
+            try {
+                segmentLog.append(encodeUpsert(device));
+                segmentLog.force();
+            } catch (IOException e) {
+                throw new ExecutionException("Error al guardar el dispositivo en el almacenamiento local", e);
+            }
+            devices.put(device.getId(), copyOf(device));
+        }
+        notifyListeners(List.of(copyOf(device)), List.of());
+        return device;
+    }
+
+    // Un solo msync para todo el lote; si el append falla, fallan todos los dispositivos del lote
+    @Override
+    public List<CompletableFuture<Device>> saveAll(List<Device> devicesToSave) {
+        List<Device> saved = new ArrayList<>(devicesToSave.size());
+        synchronized (this) {
+            try {
+                for (Device device : devicesToSave) {
+                    if (device.getId() == null || device.getId().isEmpty()) {
+                        device.setId(generateId());
+                    }
+                    segmentLog.append(encodeUpsert(device));
+                }
+                segmentLog.force();
+            } catch (IOException e) {
+                ExecutionException error = new ExecutionException("Error al guardar los dispositivos en el almacenamiento local", e);
+                return devicesToSave.stream().map(device -> CompletableFuture.<Device>failedFuture(error)).toList();
+            }
+            for (Device device : devicesToSave) {
+                devices.put(device.getId(), copyOf(device));
+                saved.add(copyOf(device));
+            }
+        }
+        notifyListeners(saved, List.of());
+        return devicesToSave.stream().map(CompletableFuture::completedFuture).toList();
+    }
+
+    @Override
+    public Optional<Device> findById(String id) {
+        return Optional.ofNullable(devices.get(id)).map(this::copyOf);
+    }
+
+    @Override
+    public List<Device> findAll() {
+        List<Device> result = new ArrayList<>(devices.size());
+        for (Device device : devices.values()) {
+            result.add(copyOf(device));
+        }
+        return result;
+    }
+
+    @Override
+    public void deleteById(String id) throws ExecutionException {
+        synchronized (this) {
+            try {
+                segmentLog.append(encodeDelete(id));
+                segmentLog.force();
+            } catch (IOException e) {
+                throw new ExecutionException("Error al eliminar el dispositivo del almacenamiento local", e);
+            }
+            if (devices.remove(id) == null) {
+                return;
+            }
+        }
+        notifyListeners(List.of(), List.of(id));
+    }
+
+    // Los dispositivos que ya no existen se ignoran
+    @Override
+    public void updateLiveness(List<DeviceLiveness> updates) throws ExecutionException {
+        List<Device> changed = new ArrayList<>(updates.size());
+        synchronized (this) {
+            try {
+                for (DeviceLiveness update : updates) {
+                    Device current = devices.get(update.deviceId());
+                    if (current == null) {
+                        continue;
+                    }
+                    Device device = copyOf(current);
+                    device.setLastSeen(update.lastSeen());
+                    if (update.batteryLevel() != null) {
+                        device.setBatteryLevel(update.batteryLevel());
+                    }
+                    segmentLog.append(encodeUpsert(device));
+                    devices.put(device.getId(), device);
+                    changed.add(copyOf(device));
+                }
+                segmentLog.force();
+            } catch (IOException e) {
+                throw new ExecutionException("Error al actualizar la actividad de los dispositivos", e);
+            }
+        }
+        if (!changed.isEmpty()) {
+            notifyListeners(changed, List.of());
+        }
+    }
+
+    @Override
+    public DevicePage findPage(DeviceQuery query) {
+        Map<String, Device> candidates = query.startAfter() == null ? devices : devices.tailMap(query.startAfter(), false);
+        List<Map<String, Object>> items = new ArrayList<>(Math.min(query.limit(), devices.size()));
+        String lastId = null;
+        for (Device device : candidates.values()) {
+            if (!matches(query, device)) {
+                continue;
+            }
+            items.add(toItem(device, query.fields()));
+            lastId = device.getId();
+            if (items.size() == query.limit()) {
+                break;
+            }
+        }
+        return new DevicePage(items, items.size() == query.limit() ? lastId : null);
+    }
+
+    @Override
+    public void streamAll(DeviceQuery query, Consumer<Map<String, Object>> consumer) {
+        for (Device device : devices.values()) {
+            if (matches(query, device)) {
+                consumer.accept(toItem(device, query.fields()));
+            }
+        }
+    }
+
+    private static boolean matches(DeviceQuery query, Device device) {
+        return (query.type() == null || query.type().equals(device.getType()))
+                && (query.location() == null || query.location().equals(device.getLocation()))
+                && (query.active() == null || query.active() == device.isActive());
+    }
+
+    // Mismo formato que el repositorio de Firestore: id + campos pedidos (todos si no se piden)
+    private Map<String, Object> toItem(Device device, List<String> fields) {
+        Map<String, Object> data = objectMapper.convertValue(device, MAP_TYPE);
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("id", device.getId());
+        if (fields == null || fields.isEmpty()) {
+            data.remove("id");
+            item.putAll(data);
+        } else {
+            for (String field : fields) {
+                if (data.containsKey(field)) {
+                    item.put(field, data.get(field));
+                }
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Registra el listener y le entrega de inmediato el estado actual como carga inicial.
+     * Los cambios posteriores se notifican en el hilo que hace la escritura.
+     */
+    @Override
+    public Registration watchAll(DeviceChangeListener listener) {
+        listeners.add(listener);
+        listener.onDeviceChanges(findAll(), List.of(), true);
+        return () -> listeners.remove(listener);
+    }
+
+    private void notifyListeners(List<Device> upserted, List<String> removedIds) {
+        for (DeviceChangeListener listener : listeners) {
+            listener.onDeviceChanges(upserted, removedIds, false);
+        }
+    }
+
+    private byte[] encodeUpsert(Device device) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(device);
+        byte[] record = new byte[json.length + 1];
+        record[0] = UPSERT;
+        System.arraycopy(json, 0, record, 1, json.length);
+        return record;
+    }
+
+    private static byte[] encodeDelete(String id) {
+        byte[] bytes = Objects.requireNonNull(id).getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(bytes.length + 1).put(DELETE).put(bytes).array();
+    }
+
+    // Los dispositivos guardados no se comparten con quien llama para que no se modifiquen desde fuera
+    private Device copyOf(Device device) {
+        return new Device(device.getId(), device.getName(), device.getType(), device.getLocation(), device.isActive(),
+                device.getLastSeen() == null ? null : new Date(device.getLastSeen().getTime()), device.getBatteryLevel(),
+                device.getLatitude(), device.getLongitude());
+    }
+
+    private String generateId() {
+        char[] id = new char[20];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = ID_ALPHABET.charAt(random.nextInt(ID_ALPHABET.length()));
+        }
+        return new String(id);
+    }
+}
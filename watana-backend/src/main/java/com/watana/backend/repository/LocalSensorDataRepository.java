@@ -0,0 +1,194 @@
+package com.watana.backend.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.watana.backend.model.SensorAnomaly;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.model.SensorRollup;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Guarda las lecturas en un log local de solo anexado ({@link MappedSegmentLog}), sin depender de Firestore.
+ * <p>
+ * Pensado para telemetría de alta frecuencia: cada lectura ocupa unas decenas de bytes ({@link SensorDataRecordCodec})
+ * y escribir es copiar a memoria mapeada. Una lectura con ID (por ejemplo, las que reenvía el WAL de ingesta) lo
+ * conserva y se guarda con él; las demás reciben su offset en el log (hexadecimal). Los IDs de las últimas
+ * {@code dedup-window} lecturas se recuerdan, también entre reinicios, para que el WAL al reenviar tras una caída
+ * no duplique lo que ya estaba guardado, igual que las escrituras por ID en Firestore.
+ * Los agregados por ventana van a un segundo log ({@code sensor-rollups}) como JSON, y las anotaciones de anomalías
+ * a un tercero ({@code sensor-anomalies}).
+ * Se activa con {@code watana.storage.sensor-data=local}.
+ */
+@Repository
+@ConditionalOnProperty(name = "watana.storage.sensor-data", havingValue = "local")
+public class LocalSensorDataRepository implements SensorDataRepository {
+
+    private final MappedSegmentLog log;
+    private final MappedSegmentLog rollupLog;
+    private final MappedSegmentLog anomalyLog;
+    private final ObjectMapper objectMapper;
+    private final boolean forceOnWrite;
+    private final ByteBuffer encodeBuffer = ByteBuffer.allocate(4096); // Protegido por this
+    private final Map<String, Boolean> recentIds; // IDs de las últimas lecturas, en orden de escritura; protegido por this
+
+    public LocalSensorDataRepository(ObjectMapper objectMapper,
+                                     @Value("${watana.storage.local.directory:data/storage}") String directory,
+                                     @Value("${watana.storage.local.segment-size-mb:64}") int segmentSizeMb,
+                                     @Value("${watana.storage.local.force-on-write:true}") boolean forceOnWrite,
+                                     @Value("${watana.storage.local.dedup-window:65536}") int dedupWindow) throws IOException {
+        int segmentSize = segmentSizeMb * 1024 * 1024;
+        this.log = new MappedSegmentLog(Path.of(directory, "sensor-data"), segmentSize);
+        this.rollupLog = new MappedSegmentLog(Path.of(directory, "sensor-rollups"), segmentSize);
+        this.anomalyLog = new MappedSegmentLog(Path.of(directory, "sensor-anomalies"), segmentSize);
+        this.objectMapper = objectMapper;
+        this.forceOnWrite = forceOnWrite;
+        this.recentIds = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > dedupWindow;
+            }
+        };
+        loadRecentIds(segmentSize);
+    }
+
+    // Lo que el WAL puede reenviar tras una caída es lo último escrito: basta con la cola del log
+    private void loadRecentIds(int segmentSize) throws IOException {
+        long from = log.segmentBase(Math.max(0, log.endOffset() - segmentSize));
+        log.read(from, (offset, next, record) -> {
+            String id = SensorDataRecordCodec.decode(record).getId();
+            if (id != null) {
+                recentIds.put(id, Boolean.TRUE);
+            }
+            return true;
+        });
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        log.close();
+        rollupLog.close();
+        anomalyLog.close();
+    }
+
+    @Override
+    public synchronized SensorData save(SensorData sensorData) throws ExecutionException {
+        append(sensorData);
+        if (forceOnWrite) {
+            log.force();
+        }
+        return sensorData;
+    }
+
+    @Override
+    public synchronized void saveAll(List<SensorData> sensorDataList) throws ExecutionException {
+        for (SensorData sensorData : sensorDataList) {
+            append(sensorData);
+        }
+        if (forceOnWrite) {
+            log.force(); // Un único msync por lote
+        }
+    }
+
+    @Override
+    public synchronized void saveRollups(List<SensorRollup> rollups) throws ExecutionException {
+        try {
+            for (SensorRollup rollup : rollups) {
+                byte[] json = objectMapper.writeValueAsBytes(rollup);
+                rollupLog.append(json, 0, json.length);
+            }
+            if (forceOnWrite) {
+                rollupLog.force();
+            }
+        } catch (IOException e) {
+            throw new ExecutionException("Error al guardar los agregados en el almacenamiento local", e);
+        }
+    }
+
+    @Override
+    public synchronized void saveAnomalies(List<SensorAnomaly> anomalies) throws ExecutionException {
+        try {
+            for (SensorAnomaly anomaly : anomalies) {
+                byte[] json = objectMapper.writeValueAsBytes(anomaly);
+                anomalyLog.append(json, 0, json.length);
+            }
+            if (forceOnWrite) {
+                anomalyLog.force();
+            }
+        } catch (IOException e) {
+            throw new ExecutionException("Error al guardar las anomalías en el almacenamiento local", e);
+        }
+    }
+
+    /**
+     * Recorre el log de anomalías completo: las anotaciones son pocas comparadas con las lecturas, y
+     * {@code SensorAnomalyMonitor} guarda en memoria las últimas de cada dispositivo.
+     */
+    @Override
+    public synchronized List<SensorAnomaly> findAnomalies(String deviceId, String type, int limit)
+            throws ExecutionException {
+        Map<String, SensorAnomaly> matches = new HashMap<>(); // Por ID: un lote reintentado puede estar dos veces
+        try {
+            anomalyLog.read(0, (offset, next, record) -> {
+                SensorAnomaly anomaly = objectMapper.readValue(new ByteBufferBackedInputStream(record), SensorAnomaly.class);
+                if (deviceId.equals(anomaly.getDeviceId()) && (type == null || type.equals(anomaly.getType()))) {
+                    matches.put(anomaly.getId(), anomaly);
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            throw new ExecutionException("Error al leer las anomalías del almacenamiento local", e);
+        }
+        List<SensorAnomaly> result = new ArrayList<>(matches.values());
+        result.sort(Comparator.comparing(SensorAnomaly::getTimestamp).reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private void append(SensorData sensorData) throws ExecutionException {
+        String id = sensorData.getId();
+        if (id != null && recentIds.containsKey(id)) {
+            return; // Ya guardada: el WAL la reenvió después de una caída
+        }
+        try {
+            encodeBuffer.clear();
+            SensorDataRecordCodec.encode(sensorData, encodeBuffer, true);
+            long offset = log.append(encodeBuffer.array(), 0, encodeBuffer.position());
+            if (id == null) {
+                sensorData.setId(Long.toHexString(offset));
+            } else {
+                recentIds.put(id, Boolean.TRUE);
+            }
+        } catch (IOException | BufferOverflowException e) {
+            throw new ExecutionException("Error al guardar la lectura en el almacenamiento local", e);
+        }
+    }
+
+    /**
+     * Recorre todas las lecturas guardadas, en orden de escritura.
+     */
+    public void forEach(Consumer<SensorData> consumer) throws IOException {
+        log.read(0, (offset, next, record) -> {
+            SensorData sensorData = SensorDataRecordCodec.decode(record);
+            if (sensorData.getId() == null) {
+                sensorData.setId(Long.toHexString(offset));
+            }
+            consumer.accept(sensorData);
+            return true;
+        });
+    }
+}
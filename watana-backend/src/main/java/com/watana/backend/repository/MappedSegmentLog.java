@@ -0,0 +1,226 @@
+package com.watana.backend.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Log de solo anexado sobre archivos de segmento mapeados en memoria.
+ * <p>
+ * Cada registro es {@code [longitud int][crc32c int][bytes]}. Los segmentos tienen tamaño fijo y se
+ * nombran por su offset base, así que un offset lógico ({@code base + posición}) identifica un registro
+ * de forma única y crece de forma monótona. Un registro con longitud 0 marca el final de los datos del
+ * segmento (el archivo nuevo está lleno de ceros). Al abrir, el último segmento se recorre validando el
+ * CRC para descartar una escritura incompleta.
+ */
+public final class MappedSegmentLog implements Closeable {
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Long, Path> segments = new TreeMap<>(); // Offset base -> archivo
+
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;
+    private long activeBase;
+    private final CRC32C crc = new CRC32C();
+
+    public MappedSegmentLog(Path directory, int segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Tamaño de segmento inválido: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), file);
+            }
+        }
+        if (segments.isEmpty()) {
+            openActive(0L);
+        } else {
+            openActive(segments.lastKey());
+            active.position(scanEnd(active));
+        }
+    }
+
+    private void openActive(long base) throws IOException {
+        Path file = segments.computeIfAbsent(base, this::segmentPath);
+        activeChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        activeBase = base;
+    }
+
+    private Path segmentPath(long base) {
+        return directory.resolve(String.format("%020d%s", base, SUFFIX));
+    }
+
+    // Posición siguiente al último registro válido del segmento
+    private int scanEnd(ByteBuffer segment) {
+        int pos = 0;
+        CRC32C check = new CRC32C();
+        while (pos + HEADER_SIZE <= segment.limit()) {
+            int length = segment.getInt(pos);
+            if (length <= 0 || pos + HEADER_SIZE + length > segment.limit()) {
+                break;
+            }
+            ByteBuffer body = segment.duplicate().position(pos + HEADER_SIZE).limit(pos + HEADER_SIZE + length);
+            check.reset();
+            check.update(body);
+            if ((int) check.getValue() != segment.getInt(pos + 4)) {
+                break; // Escritura incompleta: aquí termina el log
+            }
+            pos += HEADER_SIZE + length;
+        }
+        return pos;
+    }
+
+    /**
+     * Anexa un registro.
+     *
+     * @return El offset lógico del registro.
+     */
+    public synchronized long append(byte[] data, int offset, int length) throws IOException {
+        if (length <= 0 || HEADER_SIZE + length > segmentSize) {
+            throw new IllegalArgumentException("Tamaño de registro inválido: " + length);
+        }
+        if (active.remaining() < HEADER_SIZE + length) {
+            roll();
+        }
+        int position = active.position();
+        crc.reset();
+        crc.update(data, offset, length);
+        // La longitud se escribe al final: si el proceso muere a mitad, el registro queda con longitud 0 o CRC inválido
+        active.position(position + HEADER_SIZE);
+        active.put(data, offset, length);
+        active.putInt(position + 4, (int) crc.getValue());
+        active.putInt(position, length);
+        return activeBase + position;
+    }
+
+    public long append(byte[] data) throws IOException {
+        return append(data, 0, data.length);
+    }
+
+    private void roll() throws IOException {
+        active.force();
+        activeChannel.close();
+        openActive(activeBase + segmentSize);
+    }
+
+    /**
+     * Fuerza a disco lo escrito en el segmento activo. El msync ocurre fuera del lock, así que los
+     * {@link #append} concurrentes no lo esperan; los segmentos anteriores ya se forzaron al rotar.
+     *
+     * @return Offset hasta el que todo quedó en disco.
+     */
+    public long force() {
+        MappedByteBuffer segment;
+        long end;
+        synchronized (this) {
+            segment = active;
+            end = activeBase + active.position();
+        }
+        segment.force();
+        return end;
+    }
+
+    // Offset lógico donde se escribirá el siguiente registro
+    public synchronized long endOffset() {
+        return activeBase + active.position();
+    }
+
+    /**
+     * Offset base del segmento que contiene {@code offset} (o del primero, si es anterior), para recorrer solo
+     * la cola del log con {@link #read}.
+     */
+    public synchronized long segmentBase(long offset) {
+        Long base = segments.floorKey(offset);
+        return base != null ? base : segments.firstKey();
+    }
+
+    /**
+     * Recorre los registros desde {@code fromOffset} (inclusive) hasta el final actual del log.
+     * {@code fromOffset} debe ser 0, un offset devuelto por {@link #append} o un offset de fin devuelto
+     * por el propio recorrido.
+     */
+    public void read(long fromOffset, RecordVisitor visitor) throws IOException {
+        List<Map.Entry<Long, Path>> toRead;
+        long activeBaseSnapshot;
+        ByteBuffer activeSnapshot;
+        synchronized (this) {
+            Long firstBase = segments.floorKey(fromOffset);
+            toRead = new ArrayList<>(segments.tailMap(firstBase == null ? fromOffset : firstBase, true).entrySet());
+            activeBaseSnapshot = activeBase;
+            activeSnapshot = active.duplicate().flip(); // Limitado a lo escrito hasta ahora
+        }
+        for (Map.Entry<Long, Path> segment : toRead) {
+            long base = segment.getKey();
+            ByteBuffer buffer;
+            if (base == activeBaseSnapshot) {
+                buffer = activeSnapshot;
+            } else {
+                try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), segmentSize));
+                }
+            }
+            int pos = (int) Math.max(0, fromOffset - base);
+            while (pos + HEADER_SIZE <= buffer.limit()) {
+                int length = buffer.getInt(pos);
+                if (length <= 0 || pos + HEADER_SIZE + length > buffer.limit()) {
+                    break; // Fin de los datos de este segmento
+                }
+                ByteBuffer record = buffer.duplicate().position(pos + HEADER_SIZE).limit(pos + HEADER_SIZE + length).slice();
+                long next = base + pos + HEADER_SIZE + length;
+                if (!visitor.visit(base + pos, next, record)) {
+                    return;
+                }
+                pos += HEADER_SIZE + length;
+            }
+            if (base == activeBaseSnapshot) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Borra los segmentos cerrados cuyos registros están todos antes de {@code offset}.
+     */
+    public synchronized void deleteSegmentsBefore(long offset) throws IOException {
+        while (segments.size() > 1) {
+            Map.Entry<Long, Path> first = segments.firstEntry();
+            if (first.getKey() == activeBase || first.getKey() + segmentSize > offset) {
+                return;
+            }
+            Files.deleteIfExists(first.getValue());
+            segments.pollFirstEntry();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        active.force();
+        activeChannel.close();
+    }
+
+    // Visitante de registros: devuelve false para detener el recorrido
+    @FunctionalInterface
+    public interface RecordVisitor {
+        boolean visit(long offset, long nextOffset, ByteBuffer record) throws IOException;
+    }
+}
@@ -0,0 +1,120 @@
+package com.watana.backend.repository;
+
+import com.watana.backend.model.SensorData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Formato binario compacto de una lectura, usado por los logs locales (almacenamiento y WAL de ingesta).
+ * <p>
+ * {@code [versión][deviceId][type][value double][unit][location][segundos long][nanos int]}; las cadenas
+ * llevan un prefijo de longitud de 2 bytes y el timestamp se guarda como hora local sin zona.
+ * Las lecturas con coordenadas usan la versión 2, que agrega {@code [latitud double][longitud double]} al final;
+ * las demás siguen en la versión 1, así los registros ya escritos se leen igual.
+ * El ID solo se guarda si se pide ({@link #encode(SensorData, ByteBuffer, boolean)}): va al final y se marca con
+ * el bit {@code 0x10} de la versión.
+ */
+public final class SensorDataRecordCodec {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte FORMAT_VERSION_COORDINATES = 2;
+    private static final byte ID_FLAG = 0x10;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private SensorDataRecordCodec() {
+    }
+
+    /**
+     * Escribe la lectura en el buffer a partir de su posición actual.
+     *
+     * @throws java.nio.BufferOverflowException Si no cabe en el buffer.
+     */
+    public static void encode(SensorData sensorData, ByteBuffer buffer) {
+        encode(sensorData, buffer, false);
+    }
+
+    /**
+     * Igual que {@link #encode(SensorData, ByteBuffer)}; con {@code includeId}, guarda también el ID si la lectura
+     * lo trae.
+     */
+    public static void encode(SensorData sensorData, ByteBuffer buffer, boolean includeId) {
+        boolean located = sensorData.getLatitude() != null && sensorData.getLongitude() != null;
+        boolean withId = includeId && sensorData.getId() != null;
+        byte version = located ? FORMAT_VERSION_COORDINATES : FORMAT_VERSION;
+        buffer.put(withId ? (byte) (version | ID_FLAG) : version);
+        putString(buffer, sensorData.getDeviceId());
+        putString(buffer, sensorData.getType());
+        buffer.putDouble(sensorData.getValue());
+        putString(buffer, sensorData.getUnit());
+        putString(buffer, sensorData.getLocation());
+        LocalDateTime timestamp = sensorData.getTimestamp();
+        if (timestamp == null) {
+            buffer.putLong(NO_TIMESTAMP);
+            buffer.putInt(0);
+        } else {
+            buffer.putLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(timestamp.getNano());
+        }
+        if (located) {
+            buffer.putDouble(sensorData.getLatitude());
+            buffer.putDouble(sensorData.getLongitude());
+        }
+        if (withId) {
+            putString(buffer, sensorData.getId());
+        }
+    }
+
+    // El ID queda en null si el registro no lo guardó
+    public static SensorData decode(ByteBuffer buffer) {
+        byte flags = buffer.get();
+        byte version = (byte) (flags & ~ID_FLAG);
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_COORDINATES) {
+            throw new UncheckedIOException(new IOException("Versión de registro desconocida: " + version));
+        }
+        SensorData sensorData = new SensorData();
+        sensorData.setDeviceId(getString(buffer));
+        sensorData.setType(getString(buffer));
+        sensorData.setValue(buffer.getDouble());
+        sensorData.setUnit(getString(buffer));
+        sensorData.setLocation(getString(buffer));
+        long seconds = buffer.getLong();
+        int nanos = buffer.getInt();
+        if (seconds != NO_TIMESTAMP) {
+            sensorData.setTimestamp(LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC));
+        }
+        if (version == FORMAT_VERSION_COORDINATES) {
+            sensorData.setLatitude(buffer.getDouble());
+            sensorData.setLongitude(buffer.getDouble());
+        }
+        if ((flags & ID_FLAG) != 0) {
+            sensorData.setId(getString(buffer));
+        }
+        return sensorData;
+    }
+
+    // Cadena UTF-8 con prefijo de longitud de 2 bytes; -1 representa null
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes); // Los registros vienen de memoria mapeada, sin array accesible
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
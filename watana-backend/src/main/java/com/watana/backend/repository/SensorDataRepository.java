@@ -1,47 +1,50 @@
 package com.watana.backend.repository;
 
-import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.DocumentReference;
-import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.WriteResult;
-import com.watana.backend.model.SensorData; // Asegúrate de que SensorData.java exista
-import org.springframework.stereotype.Repository;
+import com.watana.backend.model.SensorAnomaly;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.model.SensorRollup;
 
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
-@Repository // Marca esta clase como un componente de Spring para la capa de persistencia
-public class SensorDataRepository {
+/**
+ * Almacenamiento de lecturas de sensores.
+ * <p>
+ * Implementaciones: {@link FirestoreSensorDataRepository} (por defecto) y {@link LocalSensorDataRepository},
+ * que guarda en archivos locales mapeados en memoria. Se elige con {@code watana.storage.sensor-data=firestore|local}.
+ */
+public interface SensorDataRepository {
 
-    private final Firestore firestore; // Inyecta la instancia de Firestore
+    /**
+     * Guarda una lectura y le asigna un ID.
+     *
+     * @return La misma lectura con su ID.
+     */
+    SensorData save(SensorData sensorData) throws ExecutionException, InterruptedException;
+
+    /**
+     * Guarda varias lecturas de una vez, asignando un ID a cada una.
+     */
+    void saveAll(List<SensorData> sensorDataList) throws ExecutionException, InterruptedException;
 
-    // Constructor para inyección de dependencia
-    public SensorDataRepository(Firestore firestore) {
-        this.firestore = firestore;
-    }
+    /**
+     * Guarda agregados por ventana (colección {@code sensor_rollups}). Cada agregado trae su ID determinista,
+     * así reintentar el mismo lote sobrescribe en lugar de duplicar.
+     */
+    void saveRollups(List<SensorRollup> rollups) throws ExecutionException, InterruptedException;
 
-    private static final String COLLECTION_NAME = "sensor_data"; // Nombre de la colección en Firestore para los datos de sensores
+    /**
+     * Guarda anotaciones de lecturas anómalas (colección {@code sensor_anomalies}), también con ID determinista.
+     */
+    void saveAnomalies(List<SensorAnomaly> anomalies) throws ExecutionException, InterruptedException;
 
     /**
-     * Guarda una nueva entrada de datos de sensor en Firestore.
-     * Firestore generará automáticamente un ID para el documento.
+     * Anotaciones de anomalías de un dispositivo guardadas en {@code sensor_anomalies}, de la más reciente a la
+     * más antigua.
      *
-     * @param sensorData El objeto SensorData a guardar.
-     * @return El objeto SensorData guardado, incluyendo el ID generado por Firestore.
-     * @throws ExecutionException Si la operación asíncrona falla.
-     * @throws InterruptedException Si el hilo actual es interrumpido mientras espera.
+     * @param type  Solo las de este tipo de lectura, o {@code null} para todas.
+     * @param limit Máximo de anotaciones.
      */
-    public SensorData save(SensorData sensorData) throws ExecutionException, InterruptedException {
-        // Firestore generará automáticamente un ID único para los nuevos documentos.
-        DocumentReference docRef = firestore.collection(COLLECTION_NAME).document();
-        sensorData.setId(docRef.getId()); // Asigna el ID generado al objeto SensorData
-
-        // Utiliza set() para crear el documento con los datos proporcionados.
-        ApiFuture<WriteResult> result = docRef.set(sensorData);
-        result.get(); // Espera de forma síncrona a que la operación se complete.
-        return sensorData; // Retorna el objeto SensorData con su nuevo ID.
-    }
-
-    // Aquí podrías añadir otros métodos para consultar datos de sensores si tu aplicación los necesita,
-    // como findById, findAll, findByDeviceId, o consultas por rango de tiempo.
-    // Sin embargo, para la ingesta de datos en tiempo real, el método 'save' es el principal.
+    List<SensorAnomaly> findAnomalies(String deviceId, String type, int limit)
+            throws ExecutionException, InterruptedException;
 }
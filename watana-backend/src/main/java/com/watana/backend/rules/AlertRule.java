@@ -0,0 +1,25 @@
+package com.watana.backend.rules;
+
+/**
+ * Definición de una regla de alerta, tal como se escribe en {@code alert-rules.json}.
+ *
+ * @param id              Identificador único de la regla.
+ * @param kind            Tipo de regla.
+ * @param type            Tipo de lectura al que aplica (ej. "temperature"); se ignora en {@link Kind#NO_DATA}.
+ * @param operator        {@code above} o {@code below}, para {@link Kind#THRESHOLD}.
+ * @param threshold       Umbral: valor de la lectura, o cambio por minuto (en valor absoluto) para {@link Kind#RATE_OF_CHANGE}.
+ * @param timeoutSeconds  Segundos sin lecturas para considerar el dispositivo offline ({@link Kind#NO_DATA}).
+ * @param debounceSeconds Tiempo mínimo entre dos alertas de la misma regla para el mismo dispositivo.
+ * @param severity        {@code alert} o {@code info}, como en el panel de notificaciones.
+ * @param title           Título de la notificación.
+ * @param message         Mensaje; admite {@code {deviceId}}, {@code {type}}, {@code {value}}, {@code {threshold}} y {@code {seconds}}.
+ */
+public record AlertRule(String id, Kind kind, String type, String operator, double threshold, long timeoutSeconds,
+                        long debounceSeconds, String severity, String title, String message) {
+
+    public enum Kind {
+        THRESHOLD,
+        RATE_OF_CHANGE,
+        NO_DATA
+    }
+}
@@ -0,0 +1,401 @@
+package com.watana.backend.rules;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.ingest.SensorDataListener;
+import com.watana.backend.model.Notification;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.service.NotificationBroadcaster;
+import com.watana.backend.util.DeviceIndex;
+import com.watana.backend.util.HashedTimerWheel;
+import com.watana.backend.util.SensorTimestamps;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evalúa cada lectura ingerida contra las reglas de {@code alert-rules.json} y publica las alertas como notificaciones.
+ * <p>
+ * Las reglas se compilan al arrancar en una tabla por tipo de lectura, así que cada lectura solo recorre las
+ * reglas de su tipo. El estado por dispositivo (último valor, último envío, offline) vive en arreglos
+ * primitivos indexados por {@link DeviceIndex}; no hay consultas a Firestore en el camino de evaluación.
+ * Las reglas de "sin datos" usan una {@link HashedTimerWheel} por regla, que avanza en un hilo aparte: cada
+ * revisión solo toca los dispositivos cuyo plazo vence en ese tick.
+ * <p>
+ * El estado se reparte en particiones por dispositivo, tantas como carriles de ingesta y con el mismo reparto
+ * ({@link PartitionedExecutor#partitionFor}), cada una con su propio lock: un carril no espera a los demás.
+ */
+@Component
+public class AlertRuleEngine implements SensorDataListener {
+
+    private static final Logger log = LoggerFactory.getLogger(AlertRuleEngine.class);
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final int INITIAL_DEVICES = 256;
+
+    private final NotificationBroadcaster notificationBroadcaster;
+    private final long offlineCheckIntervalMs;
+    private final Clock clock;
+    private final int ruleCount;
+    private final boolean hasNoDataRules;
+    private final Shard[] shards;
+
+    private final ScheduledExecutorService offlineChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "alert-rules-offline-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Estadísticas del motor
+    private final AtomicLong readingsEvaluated = new AtomicLong();
+    private final AtomicLong alertsFired = new AtomicLong();
+    private final AtomicLong alertsDebounced = new AtomicLong();
+
+    @Autowired
+    public AlertRuleEngine(NotificationBroadcaster notificationBroadcaster, ObjectMapper objectMapper,
+                           @Value("${watana.rules.location:classpath:alert-rules.json}") Resource rulesResource,
+                           @Value("${watana.rules.offline-check-interval-ms:1000}") long offlineCheckIntervalMs,
+                           @Value("${watana.ingest.lanes:0}") int lanes) throws IOException {
+        this(notificationBroadcaster, objectMapper, rulesResource, offlineCheckIntervalMs, lanes, Clock.systemUTC());
+    }
+
+    // Las pruebas pasan un reloj que pueden adelantar más allá del debounce y de los plazos de "sin datos"
+    AlertRuleEngine(NotificationBroadcaster notificationBroadcaster, ObjectMapper objectMapper, Resource rulesResource,
+                    long offlineCheckIntervalMs, int lanes, Clock clock) throws IOException {
+        this.notificationBroadcaster = notificationBroadcaster;
+        this.offlineCheckIntervalMs = offlineCheckIntervalMs;
+        this.clock = clock;
+        List<AlertRule> definitions;
+        try (InputStream in = rulesResource.getInputStream()) {
+            definitions = objectMapper.readValue(in, new TypeReference<List<AlertRule>>() {});
+        }
+        Set<String> ids = new HashSet<>();
+        for (AlertRule rule : definitions) {
+            if (rule.id() == null || !ids.add(rule.id())) {
+                throw new IllegalArgumentException("Regla sin id o con id duplicado: " + rule.id());
+            }
+        }
+        this.ruleCount = definitions.size();
+        // Cada partición compila sus propias reglas: el estado por dispositivo vive en ellas
+        this.shards = new Shard[PartitionedExecutor.laneCount(lanes)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(definitions, offlineCheckIntervalMs, clock.millis());
+        }
+        this.hasNoDataRules = shards[0].noDataRules.length > 0;
+        log.info("Loaded {} alert rules for reading types {} in {} partitions", ruleCount,
+                shards[0].rulesByType.keySet(), shards.length);
+    }
+
+    private static CompiledRule compile(AlertRule rule, long tickMs, long startMs) {
+        if (rule.kind() == null) {
+            throw new IllegalArgumentException("Regla " + rule.id() + " sin 'kind'");
+        }
+        if (rule.kind() != AlertRule.Kind.NO_DATA && rule.type() == null) {
+            throw new IllegalArgumentException("Regla " + rule.id() + " sin 'type'");
+        }
+        return switch (rule.kind()) {
+            case THRESHOLD -> {
+                if (!"above".equals(rule.operator()) && !"below".equals(rule.operator())) {
+                    throw new IllegalArgumentException("Regla " + rule.id() + ": 'operator' debe ser above o below");
+                }
+                yield new ThresholdRule(rule);
+            }
+            case RATE_OF_CHANGE -> new RateOfChangeRule(rule);
+            case NO_DATA -> {
+                if (rule.timeoutSeconds() <= 0) {
+                    throw new IllegalArgumentException("Regla " + rule.id() + " sin 'timeoutSeconds'");
+                }
+                yield new NoDataRule(rule, tickMs, startMs);
+            }
+        };
+    }
+
+    @PostConstruct
+    public void start() {
+        if (hasNoDataRules) {
+            offlineChecker.scheduleWithFixedDelay(this::checkOffline, offlineCheckIntervalMs, offlineCheckIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        offlineChecker.shutdownNow();
+    }
+
+    @Override
+    public void onSensorData(SensorData sensorData) {
+        if (sensorData.getDeviceId() == null) {
+            return;
+        }
+        long now = clock.millis();
+        long readingTime = sensorData.getTimestamp() != null
+                ? SensorTimestamps.toEpochMillis(sensorData.getTimestamp())
+                : now;
+        Shard shard = shards[PartitionedExecutor.partitionFor(sensorData.getDeviceId(), shards.length)];
+        synchronized (shard) {
+            shard.evaluate(sensorData, now, readingTime);
+        }
+        readingsEvaluated.incrementAndGet();
+    }
+
+    // Revisa los plazos vencidos; un dispositivo que envió datos después de programar su plazo se reprograma
+    void checkOffline() {
+        try {
+            long now = clock.millis();
+            for (Shard shard : shards) {
+                synchronized (shard) {
+                    shard.checkOffline(now);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Offline check failed", e); // Una excepción cancelaría la tarea programada
+        }
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    public long getReadingsEvaluatedCount() {
+        return readingsEvaluated.get();
+    }
+
+    public long getAlertsFiredCount() {
+        return alertsFired.get();
+    }
+
+    public long getAlertsDebouncedCount() {
+        return alertsDebounced.get();
+    }
+
+    /**
+     * Estado de las reglas para los dispositivos de una partición; guardado por el lock de la propia partición
+     * (el listener de ingesta y el hilo de revisión offline lo comparten).
+     */
+    private final class Shard {
+        private final DeviceIndex devices = new DeviceIndex(INITIAL_DEVICES);
+        private long[] lastSeenMs = new long[INITIAL_DEVICES];
+        private final Map<String, CompiledRule[]> rulesByType; // Tabla de despacho por tipo de lectura
+        private final NoDataRule[] noDataRules;
+        private final List<CompiledRule> allRules = new ArrayList<>();
+
+        Shard(List<AlertRule> definitions, long tickMs, long startMs) {
+            Map<String, List<CompiledRule>> byType = new HashMap<>();
+            List<NoDataRule> noData = new ArrayList<>();
+            for (AlertRule rule : definitions) {
+                CompiledRule compiled = compile(rule, tickMs, startMs);
+                allRules.add(compiled);
+                if (compiled instanceof NoDataRule noDataRule) {
+                    noData.add(noDataRule);
+                } else {
+                    byType.computeIfAbsent(rule.type(), type -> new ArrayList<>()).add(compiled);
+                }
+            }
+            Map<String, CompiledRule[]> table = new HashMap<>();
+            byType.forEach((type, rules) -> table.put(type, rules.toArray(new CompiledRule[0])));
+            this.rulesByType = Map.copyOf(table);
+            this.noDataRules = noData.toArray(new NoDataRule[0]);
+        }
+
+        void evaluate(SensorData sensorData, long now, long readingTime) {
+            CompiledRule[] rules = sensorData.getType() == null ? null : rulesByType.get(sensorData.getType());
+            int device = deviceSlot(sensorData.getDeviceId());
+            lastSeenMs[device] = now;
+            for (NoDataRule rule : noDataRules) {
+                if (rule.offline[device]) {
+                    rule.offline[device] = false;
+                    publish(rule, device, "Dispositivo de nuevo en línea", "info",
+                            "El dispositivo " + sensorData.getDeviceId() + " volvió a enviar datos.");
+                }
+                if (!rule.wheel.isScheduled(device)) {
+                    rule.wheel.schedule(device, now + rule.timeoutMs); // Si ya hay plazo, se corrige al vencer
+                }
+            }
+            if (rules != null) {
+                for (CompiledRule rule : rules) {
+                    double observed = rule.evaluate(device, sensorData.getValue(), readingTime);
+                    if (!Double.isNaN(observed)) {
+                        fire(rule, device, now, observed);
+                    }
+                }
+            }
+        }
+
+        void checkOffline(long now) {
+            for (NoDataRule rule : noDataRules) {
+                rule.wheel.advance(now, device -> {
+                    long deadline = lastSeenMs[device] + rule.timeoutMs;
+                    if (deadline > now) {
+                        rule.wheel.schedule(device, deadline);
+                    } else {
+                        rule.offline[device] = true;
+                        fire(rule, device, now, (now - lastSeenMs[device]) / 1000.0);
+                    }
+                });
+            }
+        }
+
+        private int deviceSlot(String deviceId) {
+            int device = devices.indexOf(deviceId);
+            if (devices.capacity() > lastSeenMs.length) {
+                int capacity = devices.capacity();
+                lastSeenMs = Arrays.copyOf(lastSeenMs, capacity);
+                for (CompiledRule rule : allRules) {
+                    rule.grow(capacity);
+                }
+            }
+            return device;
+        }
+
+        // Publica la alerta salvo que la misma regla ya haya avisado de este dispositivo dentro del debounce
+        private void fire(CompiledRule rule, int device, long now, double observed) {
+            long last = rule.lastFiredMs[device];
+            if (last != 0 && now - last < rule.debounceMs) {
+                alertsDebounced.incrementAndGet();
+                return;
+            }
+            rule.lastFiredMs[device] = now;
+            AlertRule definition = rule.definition;
+            String deviceId = devices.deviceId(device);
+            String message = definition.message() == null ? "" : definition.message()
+                    .replace("{deviceId}", deviceId)
+                    .replace("{type}", String.valueOf(definition.type()))
+                    .replace("{value}", String.format(Locale.ROOT, "%.1f", observed))
+                    .replace("{threshold}", String.format(Locale.ROOT, "%.1f", definition.threshold()))
+                    .replace("{seconds}", String.format(Locale.ROOT, "%.0f", observed));
+            publish(rule, device, definition.title(), definition.severity() == null ? "alert" : definition.severity(), message);
+            alertsFired.incrementAndGet();
+        }
+
+        private void publish(CompiledRule rule, int device, String title, String severity, String message) {
+            notificationBroadcaster.publish(new Notification(title, message, severity, devices.deviceId(device),
+                    LocalTime.now().format(TIME_FORMAT)));
+            log.debug("Rule {} fired for device {}", rule.definition.id(), devices.deviceId(device));
+        }
+    }
+
+    /**
+     * Regla compilada con su estado por dispositivo en arreglos primitivos (índice = {@link DeviceIndex}).
+     */
+    private abstract static class CompiledRule {
+        final AlertRule definition;
+        final long debounceMs;
+        long[] lastFiredMs = new long[INITIAL_DEVICES];
+
+        CompiledRule(AlertRule definition) {
+            this.definition = definition;
+            this.debounceMs = TimeUnit.SECONDS.toMillis(definition.debounceSeconds());
+        }
+
+        /**
+         * @return El valor observado que dispara la regla, o {@code NaN} si no se cumple.
+         */
+        abstract double evaluate(int device, double value, long timestampMs);
+
+        void grow(int capacity) {
+            lastFiredMs = Arrays.copyOf(lastFiredMs, capacity);
+        }
+    }
+
+    private static final class ThresholdRule extends CompiledRule {
+        private final boolean above;
+        private final double threshold;
+
+        ThresholdRule(AlertRule definition) {
+            super(definition);
+            this.above = "above".equals(definition.operator());
+            this.threshold = definition.threshold();
+        }
+
+        @Override
+        double evaluate(int device, double value, long timestampMs) {
+            boolean triggered = above ? value > threshold : value < threshold;
+            return triggered ? value : Double.NaN;
+        }
+    }
+
+    // Cambio por minuto entre dos lecturas consecutivas del mismo dispositivo
+    private static final class RateOfChangeRule extends CompiledRule {
+        private final double thresholdPerMinute;
+        private double[] lastValue = new double[INITIAL_DEVICES];
+        private long[] lastTimestampMs = new long[INITIAL_DEVICES];
+
+        RateOfChangeRule(AlertRule definition) {
+            super(definition);
+            this.thresholdPerMinute = Math.abs(definition.threshold());
+        }
+
+        @Override
+        double evaluate(int device, double value, long timestampMs) {
+            long previousTs = lastTimestampMs[device];
+            double previousValue = lastValue[device];
+            if (timestampMs < previousTs) {
+                return Double.NaN; // Lectura fuera de orden: no cambia la referencia
+            }
+            lastValue[device] = value;
+            lastTimestampMs[device] = timestampMs;
+            if (previousTs == 0 || timestampMs == previousTs) {
+                return Double.NaN;
+            }
+            double perMinute = (value - previousValue) * 60_000.0 / (timestampMs - previousTs);
+            return Math.abs(perMinute) >= thresholdPerMinute ? perMinute : Double.NaN;
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            lastValue = Arrays.copyOf(lastValue, capacity);
+            lastTimestampMs = Arrays.copyOf(lastTimestampMs, capacity);
+        }
+    }
+
+    private static final class NoDataRule extends CompiledRule {
+        private static final int WHEEL_SIZE = 512;
+
+        private final long timeoutMs;
+        private boolean[] offline = new boolean[INITIAL_DEVICES];
+        private final HashedTimerWheel wheel;
+
+        NoDataRule(AlertRule definition, long tickMs, long startMs) {
+            super(definition);
+            this.timeoutMs = TimeUnit.SECONDS.toMillis(definition.timeoutSeconds());
+            this.wheel = new HashedTimerWheel(tickMs, WHEEL_SIZE, INITIAL_DEVICES, startMs);
+        }
+
+        @Override
+        double evaluate(int device, double value, long timestampMs) {
+            return Double.NaN; // Se evalúa en checkOffline, no por lectura
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            offline = Arrays.copyOf(offline, capacity);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.watana.backend.rules;
+
+import java.util.Arrays;
+
+/**
+ * Detector de anomalías en línea para muchas series (dispositivo + tipo), con memoria constante por serie.
+ * <p>
+ * Cada serie mantiene una media y varianza exponenciales (EWMA) y una línea base estacional por franja del periodo
+ * (por defecto, 24 franjas de una hora de un día). La franja no aprende de cada lectura sino una vez por visita: al
+ * pasar a la franja siguiente, el nivel que dejó la EWMA entra a la franja que terminó. Así la línea base compara
+ * día contra día sin depender de cada cuánto reporta el sensor. Una lectura se marca como
+ * <ul>
+ *   <li>{@link #FLATLINE} si repite exactamente el mismo valor {@code flatlineReadings} veces seguidas siendo una
+ *       serie que variaba (sensor trabado),</li>
+ *   <li>{@link #SPIKE} si no, y su z-score contra la EWMA supera {@code zThreshold} (cambio brusco),</li>
+ *   <li>{@link #SEASONAL} si no, pero se aleja de lo habitual para esa franja más de {@code seasonalZThreshold}
+ *       (por ejemplo, calor a medianoche).</li>
+ * </ul>
+ * Las lecturas marcadas entran a la EWMA recortadas al umbral, así un valor aislado no infla la varianza pero un
+ * cambio de nivel sostenido termina formando parte de la base. La desviación tiene un mínimo relativo a la media
+ * para que una serie casi constante no marque cada pequeña variación.
+ * <p>
+ * El estado vive en arreglos primitivos indexados por serie (la línea base estacional en {@code float}); solo se
+ * reservan al crecer la cantidad de series, y {@link #update} no crea objetos. No es thread-safe.
+ */
+public final class AnomalyDetector {
+
+    public static final int NONE = 0;
+    public static final int SPIKE = 1;
+    public static final int SEASONAL = 2;
+    public static final int FLATLINE = 3;
+
+    /**
+     * @param alpha              Peso de cada lectura en la EWMA de la serie (0-1).
+     * @param seasonalAlpha      Peso de cada visita (un nivel por franja y periodo) en la EWMA de la franja.
+     * @param zThreshold         |z| a partir del cual una lectura es {@link #SPIKE}.
+     * @param seasonalZThreshold |z| contra la franja a partir del cual es {@link #SEASONAL}.
+     * @param warmupReadings     Lecturas antes de marcar nada.
+     * @param seasonalWarmup     Visitas (periodos) que necesita una franja antes de marcar {@link #SEASONAL}.
+     * @param seasonBuckets      Franjas del periodo estacional; 0 desactiva la línea base estacional.
+     * @param seasonPeriodMs     Duración del periodo estacional.
+     * @param flatlineReadings   Repeticiones exactas para {@link #FLATLINE}; 0 lo desactiva.
+     * @param minRelativeStddev  Desviación mínima, como fracción de |media|.
+     * @param cooldownMs         Tiempo mínimo entre dos anomalías de la misma serie.
+     */
+    public record Settings(double alpha, double seasonalAlpha, double zThreshold, double seasonalZThreshold,
+                           int warmupReadings, int seasonalWarmup, int seasonBuckets, long seasonPeriodMs, int flatlineReadings,
+                           double minRelativeStddev, long cooldownMs) {
+
+        public Settings {
+            if (!(alpha > 0 && alpha < 1) || !(seasonalAlpha > 0 && seasonalAlpha < 1) || zThreshold <= 0
+                    || seasonalZThreshold <= 0 || warmupReadings < 1 || seasonalWarmup < 1 || seasonBuckets < 0
+                    || (seasonBuckets > 0 && seasonPeriodMs < seasonBuckets) || flatlineReadings < 0
+                    || minRelativeStddev < 0 || cooldownMs < 0) {
+                throw new IllegalArgumentException("Configuración del detector de anomalías inválida: " + this);
+            }
+        }
+    }
+
+    private static final double MIN_STDDEV = 1e-6; // Piso absoluto, para series alrededor de cero
+    private static final byte MAX_BUCKET_COUNT = Byte.MAX_VALUE;
+
+    private final Settings settings;
+    private final int buckets;
+    private final long bucketMs;
+    private final int bucketWarmup;
+
+    private int capacity;
+    private int[] count = new int[0];
+    private double[] mean = new double[0];
+    private double[] variance = new double[0];
+    private double[] lastValue = new double[0];
+    private int[] repeats = new int[0];
+    private double[] runStartVariance = new double[0]; // Varianza al empezar la racha de valores repetidos
+    private long[] lastAnomalyMs = new long[0];
+    private int[] lastBucket = new int[0]; // Franja de la lectura anterior (0..buckets-1)
+    private float[] seasonalMean = new float[0]; // La serie s usa [s * buckets, (s + 1) * buckets)
+    private float[] seasonalVariance = new float[0];
+    private byte[] seasonalCount = new byte[0]; // Satura en MAX_BUCKET_COUNT
+
+    // Detalle de la última anomalía devuelta por update()
+    private double lastScore;
+    private double lastExpected;
+
+    public AnomalyDetector(Settings settings, int initialSeries) {
+        this.settings = settings;
+        this.buckets = settings.seasonBuckets();
+        this.bucketMs = buckets == 0 ? 1 : settings.seasonPeriodMs() / buckets;
+        this.bucketWarmup = Math.min(settings.seasonalWarmup(), MAX_BUCKET_COUNT);
+        ensureCapacity(Math.max(16, initialSeries));
+    }
+
+    /**
+     * Agrega una lectura a la serie.
+     *
+     * @param series          Índice denso de la serie (0, 1, 2...); las series nuevas se crean al vuelo.
+     * @param wallClockMillis Hora local de la lectura en milisegundos, para ubicar la franja estacional.
+     * @param value           Valor de la lectura.
+     * @return {@link #NONE} o el tipo de anomalía; el detalle queda en {@link #score()} y {@link #expected()}.
+     */
+    public int update(int series, long wallClockMillis, double value) {
+        if (series >= capacity) {
+            ensureCapacity(Math.max(series + 1, capacity * 2));
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return NONE;
+        }
+        int n = count[series];
+        int bucket = buckets == 0
+                ? -1
+                : (int) (Math.floorMod(wallClockMillis, settings.seasonPeriodMs()) / bucketMs) % buckets;
+        if (n == 0) {
+            count[series] = 1;
+            mean[series] = value;
+            variance[series] = 0;
+            lastValue[series] = value;
+            lastBucket[series] = bucket;
+            return NONE;
+        }
+
+        double previousMean = mean[series];
+        if (bucket >= 0 && bucket != lastBucket[series]) {
+            // Cambio de franja: el nivel actual de la serie es lo que se vio en la franja que terminó
+            updateSeasonal(series * buckets + lastBucket[series], previousMean, variance[series]);
+            lastBucket[series] = bucket;
+        }
+        double stddev = stddev(variance[series], previousMean);
+        double z = (value - previousMean) / stddev;
+        boolean warm = n >= settings.warmupReadings();
+
+        // Racha de valores idénticos: solo cuenta si la serie variaba al empezar
+        int kind = NONE;
+        if (value == lastValue[series]) {
+            if (repeats[series] == 0) {
+                runStartVariance[series] = variance[series];
+            }
+            if (repeats[series] < Integer.MAX_VALUE) {
+                repeats[series]++;
+            }
+            if (settings.flatlineReadings() > 0 && repeats[series] == settings.flatlineReadings()
+                    && Math.sqrt(runStartVariance[series]) > minStddev(previousMean)) {
+                kind = FLATLINE;
+                lastScore = repeats[series];
+                lastExpected = previousMean;
+            }
+        } else {
+            repeats[series] = 0;
+        }
+        lastValue[series] = value;
+
+        if (kind == NONE && warm && Math.abs(z) >= settings.zThreshold()) {
+            kind = SPIKE;
+            lastScore = z;
+            lastExpected = previousMean;
+        } else if (kind == NONE && warm && bucket >= 0) {
+            int slot = series * buckets + bucket;
+            if (seasonalCount[slot] >= bucketWarmup) {
+                double expected = seasonalMean[slot];
+                double seasonalZ = (value - expected) / stddev(seasonalVariance[slot], expected);
+                if (Math.abs(seasonalZ) >= settings.seasonalZThreshold()) {
+                    kind = SEASONAL;
+                    lastScore = seasonalZ;
+                    lastExpected = expected;
+                }
+            }
+        }
+
+        // EWMA con el valor recortado al umbral una vez pasado el calentamiento
+        double clipped = value;
+        if (warm) {
+            double limit = settings.zThreshold() * stddev;
+            clipped = Math.max(previousMean - limit, Math.min(previousMean + limit, value));
+        }
+        double alpha = settings.alpha();
+        double delta = clipped - previousMean;
+        mean[series] = previousMean + alpha * delta;
+        variance[series] = (1 - alpha) * (variance[series] + alpha * delta * delta);
+        if (n < Integer.MAX_VALUE) {
+            count[series] = n + 1;
+        }
+
+        if (kind != NONE) {
+            if (lastAnomalyMs[series] != Long.MIN_VALUE
+                    && wallClockMillis - lastAnomalyMs[series] < settings.cooldownMs()) {
+                return NONE;
+            }
+            lastAnomalyMs[series] = wallClockMillis;
+        }
+        return kind;
+    }
+
+    /**
+     * La varianza de la franja suma la variación del nivel entre visitas y el ruido que tenía la serie en cada una;
+     * se aprende del historial, así una deriva en curso (que infla la varianza de la EWMA) no se tapa a sí misma.
+     */
+    private void updateSeasonal(int slot, double level, double noiseVariance) {
+        int n = seasonalCount[slot];
+        if (n == 0) {
+            seasonalMean[slot] = (float) level;
+            seasonalVariance[slot] = (float) noiseVariance;
+            seasonalCount[slot] = 1;
+            return;
+        }
+        double previousMean = seasonalMean[slot];
+        // Mientras la franja tiene pocas visitas, promedio simple; después, EWMA
+        double alpha = Math.max(settings.seasonalAlpha(), 1.0 / (n + 1));
+        double delta = level - previousMean;
+        seasonalMean[slot] = (float) (previousMean + alpha * delta);
+        seasonalVariance[slot] = (float) ((1 - alpha) * (seasonalVariance[slot] + alpha * delta * delta)
+                + alpha * noiseVariance);
+        if (n < MAX_BUCKET_COUNT) {
+            seasonalCount[slot] = (byte) (n + 1);
+        }
+    }
+
+    private double stddev(double variance, double mean) {
+        return Math.max(Math.sqrt(variance), minStddev(mean));
+    }
+
+    private double minStddev(double mean) {
+        return Math.max(MIN_STDDEV, settings.minRelativeStddev() * Math.abs(mean));
+    }
+
+    /** z-score de la última anomalía (para {@link #FLATLINE}, la cantidad de repeticiones). */
+    public double score() {
+        return lastScore;
+    }
+
+    /** Valor esperado de la última anomalía: la media de la serie o la de su franja. */
+    public double expected() {
+        return lastExpected;
+    }
+
+    /** Olvida el estado de la serie (por ejemplo, al reutilizar su índice). */
+    public void reset(int series) {
+        if (series >= capacity) {
+            return;
+        }
+        count[series] = 0;
+        repeats[series] = 0;
+        lastAnomalyMs[series] = Long.MIN_VALUE;
+        if (buckets > 0) {
+            Arrays.fill(seasonalCount, series * buckets, (series + 1) * buckets, (byte) 0);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Bytes de estado por serie, sin contar la tabla de índices del llamador. */
+    public int bytesPerSeries() {
+        return 4 + 8 + 8 + 8 + 4 + 8 + 8 + 4 + buckets * (4 + 4 + 1);
+    }
+
+    private void ensureCapacity(int series) {
+        int old = capacity;
+        count = Arrays.copyOf(count, series);
+        mean = Arrays.copyOf(mean, series);
+        variance = Arrays.copyOf(variance, series);
+        lastValue = Arrays.copyOf(lastValue, series);
+        repeats = Arrays.copyOf(repeats, series);
+        runStartVariance = Arrays.copyOf(runStartVariance, series);
+        lastAnomalyMs = Arrays.copyOf(lastAnomalyMs, series);
+        lastBucket = Arrays.copyOf(lastBucket, series);
+        Arrays.fill(lastAnomalyMs, old, series, Long.MIN_VALUE);
+        seasonalMean = Arrays.copyOf(seasonalMean, series * buckets);
+        seasonalVariance = Arrays.copyOf(seasonalVariance, series * buckets);
+        seasonalCount = Arrays.copyOf(seasonalCount, series * buckets);
+        capacity = series;
+    }
+}
@@ -0,0 +1,47 @@
+package com.watana.backend.rules;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuración de {@link SensorAnomalyMonitor} ({@code watana.anomaly.*}). Los parámetros del detector se
+ * describen en {@link AnomalyDetector.Settings}.
+ *
+ * @param enabled         Si se evalúan las lecturas.
+ * @param maxSeries       Series (dispositivo + tipo) evaluadas como máximo; las nuevas se ignoran al llegar al tope.
+ * @param recentPerDevice Anomalías por dispositivo que quedan en memoria como caché de las consultas; 0 consulta
+ *                        siempre el repositorio.
+ * @param flushIntervalMs Cada cuánto se escriben en lote las anotaciones pendientes.
+ */
+@ConfigurationProperties("watana.anomaly")
+public record AnomalyProperties(@DefaultValue("true") boolean enabled,
+                                @DefaultValue("0.05") double alpha,
+                                @DefaultValue("0.2") double seasonalAlpha,
+                                @DefaultValue("4.0") double zThreshold,
+                                @DefaultValue("4.0") double seasonalZThreshold,
+                                @DefaultValue("30") int warmupReadings,
+                                @DefaultValue("3") int seasonalWarmupPeriods,
+                                @DefaultValue("24") int seasonBuckets,
+                                @DefaultValue("24") long seasonPeriodHours,
+                                @DefaultValue("60") int flatlineReadings,
+                                @DefaultValue("0.01") double minRelativeStddev,
+                                @DefaultValue("300") long cooldownSeconds,
+                                @DefaultValue("100000") int maxSeries,
+                                @DefaultValue("100") int recentPerDevice,
+                                @DefaultValue("5000") long flushIntervalMs) {
+
+    public AnomalyProperties {
+        if (flushIntervalMs <= 0 || recentPerDevice < 0 || maxSeries < 0) {
+            throw new IllegalArgumentException("Configuración de anomalías inválida: flushInterval=" + flushIntervalMs
+                    + "ms, recentPerDevice=" + recentPerDevice + ", maxSeries=" + maxSeries);
+        }
+    }
+
+    AnomalyDetector.Settings detectorSettings() {
+        return new AnomalyDetector.Settings(alpha, seasonalAlpha, zThreshold, seasonalZThreshold, warmupReadings,
+                seasonalWarmupPeriods, seasonBuckets, TimeUnit.HOURS.toMillis(seasonPeriodHours), flatlineReadings,
+                minRelativeStddev, TimeUnit.SECONDS.toMillis(cooldownSeconds));
+    }
+}
@@ -0,0 +1,392 @@
+package com.watana.backend.rules;
+
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.ingest.SensorDataListener;
+import com.watana.backend.model.SensorAnomaly;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.service.SensorDataService;
+import com.watana.backend.util.DeviceIndex;
+import com.watana.backend.util.SensorTimestamps;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pasa cada lectura ingerida por el {@link AnomalyDetector} de su serie (dispositivo + tipo) y anota las anómalas.
+ * <p>
+ * Las anotaciones ({@link SensorAnomaly}) se guardan en lotes en {@code sensor_anomalies}, junto a las lecturas.
+ * {@link #getRecent} las consulta en el repositorio y deja las últimas {@code watana.anomaly.recent-per-device} de
+ * cada dispositivo en memoria como caché, que las detectadas después mantienen al día. El detector, como el resto
+ * de los listeners, no consulta historial: su estado está en memoria y se reconstruye con las lecturas que van
+ * llegando tras un reinicio.
+ * <p>
+ * Las series se reparten en particiones por dispositivo, tantas como carriles de ingesta y con el mismo reparto
+ * ({@link PartitionedExecutor#partitionFor}); cada partición tiene su propio detector y su propio lock.
+ */
+@Component
+@EnableConfigurationProperties(AnomalyProperties.class)
+public class SensorAnomalyMonitor implements SensorDataListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorAnomalyMonitor.class);
+
+    private static final int INITIAL_SERIES = 1024; // Entre todas las particiones
+    private static final int MAX_PENDING_ANOMALIES = 10_000; // Anotaciones esperando escritura si el repositorio falla
+    private static final SensorAnomaly.Kind[] KINDS = {
+            null, SensorAnomaly.Kind.SPIKE, SensorAnomaly.Kind.SEASONAL, SensorAnomaly.Kind.FLATLINE
+    }; // Indexado por las constantes de AnomalyDetector
+    private static final Comparator<SensorAnomaly> NEWEST_FIRST =
+            Comparator.comparing(SensorAnomaly::getTimestamp).reversed();
+
+    private final SensorDataService sensorDataService;
+    private final boolean enabled;
+    private final int maxSeries;
+    private final int recentPerDevice;
+    private final long flushIntervalMs;
+
+    private final Shard[] shards;
+    private final AtomicInteger totalSeries = new AtomicInteger(); // Entre todas las particiones, hasta maxSeries
+
+    private final Map<String, RecentAnomalies> recentByDevice = new ConcurrentHashMap<>();
+    private List<SensorAnomaly> pending = new ArrayList<>(); // Guardada por pendingLock
+    private final Object pendingLock = new Object();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sensor-anomalies");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Estadísticas
+    private final AtomicLong readingsEvaluated = new AtomicLong();
+    private final AtomicLong rejectedSeries = new AtomicLong();
+    private final AtomicLong anomaliesSaved = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong droppedAnomalies = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong repositoryQueries = new AtomicLong();
+
+    public SensorAnomalyMonitor(SensorDataService sensorDataService, AnomalyProperties properties,
+                                @Value("${watana.ingest.lanes:0}") int lanes) {
+        this.sensorDataService = sensorDataService;
+        this.enabled = properties.enabled();
+        this.maxSeries = properties.maxSeries();
+        this.recentPerDevice = properties.recentPerDevice();
+        this.flushIntervalMs = properties.flushIntervalMs();
+        AnomalyDetector.Settings settings = properties.detectorSettings();
+        this.shards = new Shard[PartitionedExecutor.laneCount(lanes)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(settings, Math.max(16, INITIAL_SERIES / shards.length));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::flushPending, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+            log.info("Anomaly detection enabled for up to {} series ({} bytes of state per series)", maxSeries,
+                    shards[0].detector.bytesPerSeries());
+        }
+    }
+
+    /**
+     * Escribe las anotaciones pendientes antes de apagar.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        if (enabled) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onSensorData(SensorData sensorData) {
+        if (!enabled || sensorData.getDeviceId() == null || sensorData.getType() == null
+                || sensorData.getTimestamp() == null) {
+            return;
+        }
+        long timestampMillis = SensorTimestamps.toEpochMillis(sensorData.getTimestamp());
+        Shard shard = shards[PartitionedExecutor.partitionFor(sensorData.getDeviceId(), shards.length)];
+        int kind;
+        double score;
+        double expected;
+        synchronized (shard) {
+            int series = shard.seriesFor(sensorData.getDeviceId(), sensorData.getType());
+            if (series < 0) {
+                return;
+            }
+            kind = shard.detector.update(series, timestampMillis, sensorData.getValue());
+            if (kind == AnomalyDetector.NONE) {
+                readingsEvaluated.incrementAndGet();
+                return;
+            }
+            score = shard.detector.score();
+            expected = shard.detector.expected();
+            shard.anomaliesByKind[kind]++;
+        }
+        readingsEvaluated.incrementAndGet();
+        annotate(sensorData, KINDS[kind], score, expected);
+    }
+
+    private void annotate(SensorData sensorData, SensorAnomaly.Kind kind, double score, double expected) {
+        Date timestamp = Date.from(SensorTimestamps.toInstant(sensorData.getTimestamp()));
+        SensorAnomaly anomaly = new SensorAnomaly();
+        anomaly.setId((sensorData.getDeviceId() + "_" + sensorData.getType() + "_" + timestamp.getTime()).replace('/', '_'));
+        anomaly.setDeviceId(sensorData.getDeviceId());
+        anomaly.setType(sensorData.getType());
+        anomaly.setKind(kind);
+        anomaly.setValue(sensorData.getValue());
+        anomaly.setExpected(expected);
+        anomaly.setScore(score);
+        anomaly.setUnit(sensorData.getUnit());
+        anomaly.setLocation(sensorData.getLocation());
+        anomaly.setTimestamp(timestamp);
+        log.debug("Anomaly {} on {}/{}: value {} expected {} (score {})", kind, anomaly.getDeviceId(), anomaly.getType(),
+                anomaly.getValue(), expected, score);
+
+        if (recentPerDevice > 0) {
+            RecentAnomalies recent = recentByDevice.computeIfAbsent(sensorData.getDeviceId(), id -> new RecentAnomalies());
+            synchronized (recent) {
+                if (recent.anomalies.size() == recentPerDevice) {
+                    recent.anomalies.removeLast();
+                    recent.complete = false;
+                }
+                recent.anomalies.addFirst(anomaly);
+            }
+        }
+        synchronized (pendingLock) {
+            if (pending.size() >= MAX_PENDING_ANOMALIES) {
+                if (droppedAnomalies.getAndIncrement() == 0) {
+                    log.warn("{} anomalies pending; dropping new ones until the repository recovers", pending.size());
+                }
+                return;
+            }
+            pending.add(anomaly);
+        }
+    }
+
+    /**
+     * Últimas anomalías de un dispositivo, de la más reciente a la más antigua.
+     * <p>
+     * Responde desde la caché cuando tiene {@code limit} anomalías del tipo pedido, o cuando ya se cargó del
+     * repositorio y guarda todas las del dispositivo; si no, consulta {@code sensor_anomalies} y suma las de la caché
+     * que todavía esperan escritura. Una consulta sin tipo carga la caché del dispositivo.
+     *
+     * @param type  Solo las de este tipo de lectura, o {@code null} para todas.
+     * @param limit Máximo de anomalías.
+     * @throws ExecutionException Si falla la consulta al repositorio.
+     */
+    public List<SensorAnomaly> getRecent(String deviceId, String type, int limit)
+            throws ExecutionException, InterruptedException {
+        RecentAnomalies recent = recentByDevice.get(deviceId);
+        List<SensorAnomaly> cached = List.of();
+        if (recent != null) {
+            synchronized (recent) {
+                // Las detectadas desde el arranque son más recientes que todo lo guardado antes
+                List<SensorAnomaly> matching = matching(recent.anomalies, type, limit);
+                if (matching.size() == limit || recent.complete) {
+                    cacheHits.incrementAndGet();
+                    return matching;
+                }
+                cached = new ArrayList<>(recent.anomalies);
+            }
+        }
+
+        int fetchLimit = type == null ? Math.max(limit, recentPerDevice) : limit;
+        List<SensorAnomaly> stored = sensorDataService.findAnomalies(deviceId, type, fetchLimit);
+        repositoryQueries.incrementAndGet();
+        List<SensorAnomaly> merged = merge(cached, stored);
+        if (type == null && recentPerDevice > 0 && !merged.isEmpty()) {
+            RecentAnomalies entry = recentByDevice.computeIfAbsent(deviceId, id -> new RecentAnomalies());
+            synchronized (entry) {
+                if (!entry.loaded) {
+                    // Otra lectura pudo anotar algo durante la consulta: se mezcla con lo que haya en la caché
+                    List<SensorAnomaly> all = merge(entry.anomalies, stored);
+                    entry.anomalies.clear();
+                    entry.anomalies.addAll(all.subList(0, Math.min(all.size(), recentPerDevice)));
+                    entry.complete = stored.size() < fetchLimit && all.size() <= recentPerDevice;
+                    entry.loaded = true;
+                }
+            }
+        }
+        return matching(merged, type, limit);
+    }
+
+    private static List<SensorAnomaly> matching(Collection<SensorAnomaly> anomalies, String type, int limit) {
+        List<SensorAnomaly> result = new ArrayList<>();
+        for (SensorAnomaly anomaly : anomalies) {
+            if (result.size() == limit) {
+                break;
+            }
+            if (type == null || type.equals(anomaly.getType())) {
+                result.add(anomaly);
+            }
+        }
+        return result;
+    }
+
+    // Unión por ID (la de la caché gana: puede no estar guardada todavía), de la más reciente a la más antigua
+    private static List<SensorAnomaly> merge(Collection<SensorAnomaly> cached, List<SensorAnomaly> stored) {
+        Map<String, SensorAnomaly> byId = new HashMap<>();
+        for (SensorAnomaly anomaly : stored) {
+            byId.put(anomaly.getId(), anomaly);
+        }
+        for (SensorAnomaly anomaly : cached) {
+            byId.put(anomaly.getId(), anomaly);
+        }
+        List<SensorAnomaly> merged = new ArrayList<>(byId.values());
+        merged.sort(NEWEST_FIRST);
+        return merged;
+    }
+
+    private void flushPending() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Anomaly flush failed", e); // Una excepción cancelaría la tarea programada
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() throws InterruptedException {
+        List<SensorAnomaly> batch;
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        try {
+            sensorDataService.saveAnomalies(batch);
+            anomaliesSaved.addAndGet(batch.size());
+            log.debug("Saved {} sensor anomalies", batch.size());
+        } catch (ExecutionException | RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            log.error("Error saving {} sensor anomalies, retrying on the next flush", batch.size(), e);
+            requeue(batch);
+        } catch (InterruptedException e) {
+            requeue(batch);
+            throw e;
+        }
+    }
+
+    private void requeue(List<SensorAnomaly> batch) {
+        synchronized (pendingLock) {
+            int room = MAX_PENDING_ANOMALIES - pending.size();
+            if (room < batch.size()) {
+                droppedAnomalies.addAndGet(batch.size() - Math.max(room, 0));
+            }
+            if (room > 0) {
+                pending.addAll(0, batch.subList(0, Math.min(room, batch.size())));
+            }
+        }
+    }
+
+    public Stats getStats() {
+        long spikes = 0;
+        long seasonal = 0;
+        long flatlines = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                spikes += shard.anomaliesByKind[AnomalyDetector.SPIKE];
+                seasonal += shard.anomaliesByKind[AnomalyDetector.SEASONAL];
+                flatlines += shard.anomaliesByKind[AnomalyDetector.FLATLINE];
+            }
+        }
+        int pendingCount;
+        synchronized (pendingLock) {
+            pendingCount = pending.size();
+        }
+        return new Stats(enabled, totalSeries.get(), readingsEvaluated.get(), spikes, seasonal, flatlines, pendingCount,
+                anomaliesSaved.get(), failedFlushes.get(), droppedAnomalies.get(), rejectedSeries.get(),
+                cacheHits.get(), repositoryQueries.get());
+    }
+
+    // Instantánea de las estadísticas del detector y de las consultas de anomalías
+    public record Stats(boolean enabled, int series, long readingsEvaluated, long spikes, long seasonal, long flatlines,
+                        int pendingAnomalies, long anomaliesSaved, long failedFlushes, long droppedAnomalies,
+                        long rejectedSeries, long queryCacheHits, long repositoryQueries) {
+    }
+
+    /**
+     * Últimas anomalías de un dispositivo, de la más reciente a la más antigua (como máximo recentPerDevice);
+     * guardada por sí misma. Hasta que una consulta la carga del repositorio solo tiene las detectadas desde el
+     * arranque.
+     */
+    private static final class RecentAnomalies {
+        private final ArrayDeque<SensorAnomaly> anomalies = new ArrayDeque<>();
+        private boolean loaded;
+        private boolean complete; // Cargada y con todas las anomalías guardadas del dispositivo
+    }
+
+    /**
+     * Detector y series de los dispositivos de una partición; guardada por el lock de la propia partición.
+     */
+    private final class Shard {
+        private final AnomalyDetector detector;
+        private final DeviceIndex devices;
+        private final DeviceIndex types = new DeviceIndex(16);
+        private int[][] seriesByDeviceType; // [dispositivo][tipo] -> serie + 1 (0 = sin serie)
+        private int seriesCount;
+        private final long[] anomaliesByKind = new long[KINDS.length];
+
+        Shard(AnomalyDetector.Settings settings, int initialSeries) {
+            detector = new AnomalyDetector(settings, initialSeries);
+            devices = new DeviceIndex(initialSeries);
+            seriesByDeviceType = new int[initialSeries][];
+        }
+
+        // Índice de la serie dispositivo + tipo, creándola si no existe; -1 si se alcanzó maxSeries
+        int seriesFor(String deviceId, String type) {
+            int device = devices.indexOf(deviceId);
+            int typeIndex = types.indexOf(type);
+            if (device >= seriesByDeviceType.length) {
+                seriesByDeviceType = Arrays.copyOf(seriesByDeviceType, devices.capacity());
+            }
+            int[] byType = seriesByDeviceType[device];
+            if (byType == null || typeIndex >= byType.length) {
+                int length = Math.max(typeIndex + 1, byType == null ? 8 : byType.length * 2);
+                byType = byType == null ? new int[length] : Arrays.copyOf(byType, length);
+                seriesByDeviceType[device] = byType;
+            }
+            if (byType[typeIndex] != 0) {
+                return byType[typeIndex] - 1;
+            }
+            if (totalSeries.incrementAndGet() > maxSeries) {
+                totalSeries.decrementAndGet();
+                if (rejectedSeries.getAndIncrement() == 0) {
+                    log.warn("Anomaly detection reached {} series; new series are not evaluated", maxSeries);
+                }
+                return -1;
+            }
+            int series = seriesCount++;
+            byType[typeIndex] = series + 1;
+            return series;
+        }
+    }
+}
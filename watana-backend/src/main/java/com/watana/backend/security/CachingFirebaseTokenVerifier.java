@@ -0,0 +1,243 @@
+package com.watana.backend.security;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies Firebase ID tokens and remembers the result until the token's {@code exp} claim.
+ * <p>
+ * A dashboard sends the same token on every polling request, so only the first request pays for the
+ * signature check. Entries are keyed by the SHA-256 of the token (the raw token is never stored) and
+ * the cache is bounded by {@code watana.auth.token-cache.max-size}. When
+ * {@code watana.auth.token-cache.revocation-check-interval-seconds} is positive, a cached token is
+ * re-verified against Firebase with the revocation check once that interval has passed.
+ */
+@Component
+public class CachingFirebaseTokenVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingFirebaseTokenVerifier.class);
+
+    private static final int EVICTION_SAMPLE_SIZE = 16; // Entries inspected to pick an eviction victim
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ObjectProvider<FirebaseAuth> firebaseAuth; // Resolved on the first cache miss, not at startup
+    private final int maxSize;
+    private final long revocationCheckIntervalMs;
+    private final Clock clock;
+    private final Map<TokenKey, Entry> cache = new ConcurrentHashMap<>();
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong hitNanos = new AtomicLong();
+    private final AtomicLong verifyNanos = new AtomicLong();
+    private final Timer cachedTimer;
+    private final Timer verifiedTimer;
+    private final Timer rejectedTimer;
+
+    @Autowired
+    public CachingFirebaseTokenVerifier(ObjectProvider<FirebaseAuth> firebaseAuth,
+                                        @Value("${watana.auth.token-cache.max-size:10000}") int maxSize,
+                                        @Value("${watana.auth.token-cache.revocation-check-interval-seconds:0}") long revocationCheckIntervalSeconds,
+                                        MeterRegistry meterRegistry) {
+        this(firebaseAuth, maxSize, revocationCheckIntervalSeconds, meterRegistry, Clock.systemUTC());
+    }
+
+    // Tests pass a clock they can move past exp and the revocation interval
+    CachingFirebaseTokenVerifier(ObjectProvider<FirebaseAuth> firebaseAuth, int maxSize,
+                                 long revocationCheckIntervalSeconds, MeterRegistry meterRegistry, Clock clock) {
+        this.firebaseAuth = firebaseAuth;
+        this.clock = clock;
+        this.maxSize = maxSize;
+        this.revocationCheckIntervalMs = TimeUnit.SECONDS.toMillis(revocationCheckIntervalSeconds);
+        this.cachedTimer = verifyTimer(meterRegistry, "cached");
+        this.verifiedTimer = verifyTimer(meterRegistry, "verified");
+        this.rejectedTimer = verifyTimer(meterRegistry, "rejected");
+    }
+
+    // Time to authenticate a request, by result: served from the cache, verified with Firebase, or rejected
+    private static Timer verifyTimer(MeterRegistry registry, String result) {
+        return Timer.builder("watana.auth.verify")
+                .description("Firebase ID token verification")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * Returns the user for a valid token, from the cache when possible.
+     *
+     * @throws FirebaseAuthException If the token is invalid, expired or (when checked) revoked.
+     */
+    public UserDetails verify(String idToken) throws FirebaseAuthException {
+        long start = System.nanoTime();
+        long now = clock.millis();
+        TokenKey key = TokenKey.of(idToken);
+        Entry entry = cache.get(key);
+        if (entry != null && now < entry.expiresAtMs) {
+            if (revocationCheckIntervalMs <= 0 || now - entry.verifiedAtMs < revocationCheckIntervalMs) {
+                entry.lastAccessMs = now;
+                long elapsed = System.nanoTime() - start;
+                hits.incrementAndGet();
+                hitNanos.addAndGet(elapsed);
+                cachedTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                return entry.user;
+            }
+        } else if (entry != null) {
+            cache.remove(key, entry); // Expired
+        }
+
+        misses.incrementAndGet();
+        FirebaseToken decodedToken;
+        try {
+            decodedToken = firebaseAuth.getObject().verifyIdToken(idToken, revocationCheckIntervalMs > 0);
+        } catch (FirebaseAuthException e) {
+            rejectedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            cache.remove(key);
+            throw e;
+        } finally {
+            verifyNanos.addAndGet(System.nanoTime() - start);
+        }
+        verifiedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        UserDetails user = toUserDetails(decodedToken.getUid());
+        Object exp = decodedToken.getClaims().get("exp");
+        if (exp instanceof Number expSeconds) {
+            long expiresAtMs = TimeUnit.SECONDS.toMillis(expSeconds.longValue());
+            if (expiresAtMs > now) {
+                ensureCapacity(now);
+                cache.put(key, new Entry(user, expiresAtMs, now));
+            }
+        }
+        log.debug("User authenticated with Firebase UID: {}", user.getUsername());
+        return user;
+    }
+
+    // Firebase tokens have no password; every authenticated user gets ROLE_USER
+    private static UserDetails toUserDetails(String uid) {
+        return User.builder()
+                .username(uid)
+                .password("")
+                .authorities(Collections.singletonList(() -> "ROLE_USER"))
+                .build();
+    }
+
+    // Drops expired entries, then the least recently used of a small sample, until there is room
+    private void ensureCapacity(long now) {
+        if (cache.size() < maxSize) {
+            return;
+        }
+        cache.values().removeIf(entry -> entry.expiresAtMs <= now);
+        while (cache.size() >= maxSize) {
+            TokenKey victim = null;
+            long oldestAccess = Long.MAX_VALUE;
+            Iterator<Map.Entry<TokenKey, Entry>> it = cache.entrySet().iterator();
+            for (int i = 0; i < EVICTION_SAMPLE_SIZE && it.hasNext(); i++) {
+                Map.Entry<TokenKey, Entry> candidate = it.next();
+                if (candidate.getValue().lastAccessMs < oldestAccess) {
+                    oldestAccess = candidate.getValue().lastAccessMs;
+                    victim = candidate.getKey();
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            if (cache.remove(victim) != null) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    // Average time to authenticate a cached token, in microseconds
+    public double getAvgHitLatencyMicros() {
+        long h = hits.get();
+        return h == 0 ? 0.0 : hitNanos.get() / 1000.0 / h;
+    }
+
+    // Average time of a full Firebase verification, in microseconds
+    public double getAvgVerifyLatencyMicros() {
+        long m = misses.get();
+        return m == 0 ? 0.0 : verifyNanos.get() / 1000.0 / m;
+    }
+
+    // SHA-256 of the token as four longs: cheap equals/hashCode and no raw token kept in memory
+    private record TokenKey(long a, long b, long c, long d) {
+        static TokenKey of(String token) {
+            byte[] digest = SHA_256.get().digest(token.getBytes(StandardCharsets.US_ASCII));
+            return new TokenKey(toLong(digest, 0), toLong(digest, 8), toLong(digest, 16), toLong(digest, 24));
+        }
+
+        private static long toLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[offset + i] & 0xFF);
+            }
+            return value;
+        }
+    }
+
+    private static final class Entry {
+        final UserDetails user;
+        final long expiresAtMs;
+        final long verifiedAtMs;
+        volatile long lastAccessMs;
+
+        Entry(UserDetails user, long expiresAtMs, long verifiedAtMs) {
+            this.user = user;
+            this.expiresAtMs = expiresAtMs;
+            this.verifiedAtMs = verifiedAtMs;
+            this.lastAccessMs = verifiedAtMs;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.watana.backend.security;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
@@ -29,6 +30,9 @@ public class SecurityConfig {
                 .csrf(AbstractHttpConfigurer::disable)
                 .cors(cors -> cors.configurationSource(corsConfigurationSource())) // CORRECTO: Usa CorsConfigurationSource
                 .authorizeHttpRequests(authorize -> authorize
+                        .requestMatchers("/api/sse/ai/**").authenticated() // LLM streams cost money: no anonymous access
+                        // La importación masiva escribe miles de dispositivos por petición: no se permite sin sesión
+                        .requestMatchers(HttpMethod.POST, "/api/devices/bulk").authenticated()
                         .requestMatchers("/api/public/**", "/api/devices/**", "/api/sse/**", "/actuator/**", "/error").permitAll()
                         .anyRequest().authenticated()
                 )
@@ -49,7 +53,7 @@ public class SecurityConfig {
         config.addAllowedOriginPattern("http://localhost:3000");
         config.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS"));
         config.setAllowedHeaders(Arrays.asList("*"));
-        config.setExposedHeaders(Arrays.asList("Authorization", "Content-Type"));
+        config.setExposedHeaders(Arrays.asList("Authorization", "Content-Type", "ETag"));
 
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
         source.registerCorsConfiguration("/**", config);
@@ -0,0 +1,127 @@
+package com.watana.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of concurrent streaming model calls.
+ * <p>
+ * Up to {@code watana.ai.max-concurrent-streams} calls run at once; further requests wait in a FIFO queue of
+ * at most {@code watana.ai.max-queued-streams} and are rejected beyond that. Waiting does not hold any thread:
+ * the subscription simply starts when a permit is handed over. A client that disconnects while queued
+ * leaves the queue.
+ */
+@Component
+public class AIRequestLimiter {
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+
+    // Guarded by this
+    private int active;
+    private final ArrayDeque<Permit> waiting = new ArrayDeque<>();
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+
+    public AIRequestLimiter(@Value("${watana.ai.max-concurrent-streams:4}") int maxConcurrent,
+                            @Value("${watana.ai.max-queued-streams:32}") int maxQueued) {
+        if (maxConcurrent <= 0 || maxQueued < 0) {
+            throw new IllegalArgumentException("Invalid AI limiter settings: maxConcurrent=" + maxConcurrent
+                    + ", maxQueued=" + maxQueued);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Runs the call once a permit is available. The permit is released when the returned flux completes,
+     * fails or is cancelled.
+     *
+     * @return The call's output, or an error with {@link RejectedExecutionException} if the queue is full.
+     */
+    public <T> Flux<T> limit(Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            Permit permit = new Permit();
+            return Mono.<Void>create(sink -> acquire(permit, sink))
+                    .thenMany(Flux.defer(call))
+                    .doFinally(signal -> release(permit));
+        });
+    }
+
+    private void acquire(Permit permit, MonoSink<Void> sink) {
+        synchronized (this) {
+            if (active < maxConcurrent) {
+                active++;
+                permit.acquired = true;
+            } else if (waiting.size() < maxQueued) {
+                permit.sink = sink;
+                permit.queuedAtNanos = System.nanoTime();
+                waiting.addLast(permit);
+                queued.incrementAndGet();
+                return;
+            } else {
+                rejected.incrementAndGet();
+                sink.error(new RejectedExecutionException("Too many AI requests in progress, try again later"));
+                return;
+            }
+        }
+        sink.success();
+    }
+
+    private void release(Permit permit) {
+        Permit next;
+        synchronized (this) {
+            if (!permit.acquired) {
+                waiting.remove(permit); // Cancelled or failed while queued
+                return;
+            }
+            if (permit.released) {
+                return;
+            }
+            permit.released = true;
+            next = waiting.pollFirst();
+            if (next == null) {
+                active--;
+                return;
+            }
+            next.acquired = true; // The permit passes straight to the next caller
+        }
+        totalQueueWaitNanos.addAndGet(System.nanoTime() - next.queuedAtNanos);
+        next.sink.success();
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getQueueDepth() {
+        return waiting.size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    // Average time a queued request waited for a permit, in milliseconds
+    public double getAvgQueueWaitMs() {
+        long q = queued.get();
+        return q == 0 ? 0.0 : totalQueueWaitNanos.get() / 1_000_000.0 / q;
+    }
+
+    private static final class Permit {
+        MonoSink<Void> sink;
+        long queuedAtNanos;
+        boolean acquired; // Guarded by the limiter
+        boolean released;
+    }
+}
@@ -0,0 +1,164 @@
+package com.watana.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Result cache for LLM calls, keyed on normalized inputs.
+ * <p>
+ * Callers build the key from quantized numbers ({@link #quantize}) and normalized text ({@link #normalize}),
+ * so near-identical requests share one answer. Entries live for {@code watana.ai.cache.ttl-minutes} and the
+ * least recently used ones are dropped beyond {@code watana.ai.cache.max-entries}. Concurrent requests for a
+ * key that is not cached yet wait for a single in-flight call instead of each calling the model.
+ */
+@Component
+public class AIResultCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final long ttlMs;
+    private final Map<String, Entry> entries; // Guarded by itself; access-ordered for LRU eviction
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public AIResultCache(@Value("${watana.ai.cache.ttl-minutes:30}") long ttlMinutes,
+                         @Value("${watana.ai.cache.max-entries:1000}") int maxEntries) {
+        this.ttlMs = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the key, or computes it with {@code loader}. Only one loader runs per key
+     * at a time; failures are not cached and are rethrown to every caller waiting on that key.
+     */
+    public String get(String key, Supplier<String> loader) {
+        String cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            // Another call may have finished between the lookup above and registering this one
+            String value = lookup(key);
+            if (value != null) {
+                hits.incrementAndGet();
+                call.complete(value);
+                return value;
+            }
+            misses.incrementAndGet();
+            value = loader.get();
+            synchronized (entries) {
+                entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMs));
+            }
+            call.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    /**
+     * Returns the cached result without computing it, counting a hit if present.
+     *
+     * @return The cached value, or {@code null}.
+     */
+    public String peek(String key) {
+        String value = lookup(key);
+        if (value != null) {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    // Stores a result obtained outside get(), e.g. the full text of a streamed answer
+    public void put(String key, String value) {
+        synchronized (entries) {
+            entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMs));
+        }
+    }
+
+    private String lookup(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() < entry.expiresAtMs()) {
+                return entry.value();
+            }
+            entries.remove(key);
+            return null;
+        }
+    }
+
+    // Rounds a value to the nearest multiple of step (e.g. 0.5 °C), so tiny sensor jitter maps to the same key
+    public static double quantize(double value, double step) {
+        return step > 0 ? Math.round(value / step) * step : value;
+    }
+
+    // Case- and whitespace-insensitive form of a free-text input
+    public static String normalize(String text) {
+        return text == null ? "" : WHITESPACE.matcher(text.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // Requests that waited on an identical in-flight call instead of calling the model
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    // Model calls avoided thanks to the cache and to coalescing
+    public long getSavedCallCount() {
+        return hits.get() + coalesced.get();
+    }
+
+    private record Entry(String value, long expiresAtMs) {
+    }
+}
@@ -1,24 +1,68 @@
 package com.watana.backend.service;
 
+import com.watana.backend.model.WildfireAssessment;
+import com.watana.backend.model.WildfireRiskCandidate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ResponseEntity;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 @Service // Marks this class as a Spring service
 public class AIService {
 
+    private static final Logger log = LoggerFactory.getLogger(AIService.class);
+
     private final ChatClient chatClient; // Main Spring AI interface for interacting with chat models
+    private final AIResultCache resultCache; // Reuses answers for equivalent inputs and coalesces concurrent calls
+    private final AIRequestLimiter requestLimiter; // Bounds concurrent streaming calls to the model
+    private final MeterRegistry meterRegistry; // Model call latency and token usage
+
+    // Time-to-first-token of streaming calls
+    private final AtomicLong streamsStarted = new AtomicLong();
+    private final AtomicLong totalTimeToFirstTokenNanos = new AtomicLong();
+    private final AtomicLong maxTimeToFirstTokenNanos = new AtomicLong();
+    private volatile long lastTimeToFirstTokenNanos;
+
+    // Quantization steps for numeric inputs: readings that round to the same step share a cached answer
+    private final double temperatureStep;
+    private final double humidityStep;
 
-    // Injects the ChatClient that is configured by AIChatConfig (manual configuration)
+    // Injects the ChatClient that is configured by AIChatConfig (manual configuration). It is a lazy proxy:
+    // the OpenAI client and its HTTP stack are built on the first call, not at startup.
     @Autowired
-    public AIService(ChatClient chatClient) {
+    public AIService(@Lazy ChatClient chatClient, AIResultCache resultCache, AIRequestLimiter requestLimiter,
+                     @Value("${watana.ai.cache.temperature-step:0.5}") double temperatureStep,
+                     @Value("${watana.ai.cache.humidity-step:1.0}") double humidityStep,
+                     MeterRegistry meterRegistry) {
         this.chatClient = chatClient;
+        this.resultCache = resultCache;
+        this.requestLimiter = requestLimiter;
+        this.temperatureStep = temperatureStep;
+        this.humidityStep = humidityStep;
+        this.meterRegistry = meterRegistry;
     }
 
     // Prompt template for sensor data analysis
@@ -27,6 +71,22 @@ public class AIService {
 
     // Method to analyze sensor data and generate insights/predictions
     public String analyzeSensorData(double temperature, double humidity, String location, String deviceType) {
+        // The prompt uses the quantized values, so the cached answer matches every input that shares the key
+        double t = AIResultCache.quantize(temperature, temperatureStep);
+        double h = AIResultCache.quantize(humidity, humidityStep);
+        String key = cacheKey("analyze", t, h, location, deviceType);
+        return call("analyze", key, sensorAnalysisPrompt(t, h, location, deviceType));
+    }
+
+    // Streaming variant of analyzeSensorData: emits the answer as the model generates it
+    public Flux<String> streamAnalyzeSensorData(double temperature, double humidity, String location, String deviceType) {
+        double t = AIResultCache.quantize(temperature, temperatureStep);
+        double h = AIResultCache.quantize(humidity, humidityStep);
+        String key = cacheKey("analyze", t, h, location, deviceType);
+        return stream("analyze", key, () -> sensorAnalysisPrompt(t, h, location, deviceType));
+    }
+
+    private Prompt sensorAnalysisPrompt(double temperature, double humidity, String location, String deviceType) {
         // Creates a prompt template from the loaded resource
         PromptTemplate promptTemplate = new PromptTemplate(sensorAnalysisPromptResource);
 
@@ -39,15 +99,26 @@ public class AIService {
         );
 
         // Creates the prompt with variable data
-        Prompt prompt = promptTemplate.create(model);
-
-        // Sends the prompt to the AI model and gets the response
-        // Using the fluent API of ChatClient
-        return this.chatClient.prompt(prompt).call().content();
+        return promptTemplate.create(model);
     }
 
     // Method to predict forest fires
     public String predictWildfire(double temperature, double humidity, String location, String recentRainfall, String windConditions) {
+        double t = AIResultCache.quantize(temperature, temperatureStep);
+        double h = AIResultCache.quantize(humidity, humidityStep);
+        String key = cacheKey("wildfire", t, h, location, recentRainfall, windConditions);
+        return call("wildfire", key, wildfirePrompt(t, h, location, recentRainfall, windConditions));
+    }
+
+    // Streaming variant of predictWildfire
+    public Flux<String> streamPredictWildfire(double temperature, double humidity, String location, String recentRainfall, String windConditions) {
+        double t = AIResultCache.quantize(temperature, temperatureStep);
+        double h = AIResultCache.quantize(humidity, humidityStep);
+        String key = cacheKey("wildfire", t, h, location, recentRainfall, windConditions);
+        return stream("wildfire", key, () -> wildfirePrompt(t, h, location, recentRainfall, windConditions));
+    }
+
+    private Prompt wildfirePrompt(double temperature, double humidity, String location, String recentRainfall, String windConditions) {
         // Specific prompt for fire prediction
         String promptText = String.format(
             "Analiza los siguientes datos para predecir el riesgo de incendio forestal: " +
@@ -56,12 +127,56 @@ public class AIService {
             "Sugiere acciones preventivas.",
             temperature, humidity, location, recentRainfall, windConditions
         );
-        // Using the fluent API for a simple text prompt
-        return chatClient.prompt(promptText).call().content();
+        return new Prompt(promptText);
+    }
+
+    /**
+     * Evaluates several locations in a single model call and returns one assessment per device.
+     * The model is asked for a JSON array, which Spring AI maps back to {@link WildfireAssessment}.
+     */
+    public List<WildfireAssessment> assessWildfireRiskBatch(List<WildfireRiskCandidate> candidates) {
+        StringBuilder locations = new StringBuilder();
+        for (WildfireRiskCandidate candidate : candidates) {
+            locations.append(String.format(Locale.ROOT,
+                    "- deviceId: %s, Ubicación: %s, Temperatura: %.1f°C, Humedad: %.1f%%, Índice local: %.0f%n",
+                    candidate.deviceId(), candidate.location(), candidate.temperature(), candidate.humidity(),
+                    candidate.localIndex()));
+        }
+        String promptText =
+            "Evalúa el riesgo de incendio forestal para cada una de las siguientes ubicaciones monitoreadas. " +
+            "El índice local es un Chandler Burning Index ya calculado (>75 alto, >97.5 extremo).\n" +
+            locations +
+            "Para cada deviceId devuelve el nivel de riesgo (Bajo, Moderado, Alto, Crítico), el motivo en una frase " +
+            "y acciones preventivas breves. Devuelve exactamente un elemento por deviceId.";
+        long start = System.nanoTime();
+        ResponseEntity<ChatResponse, List<WildfireAssessment>> result;
+        try {
+            result = chatClient.prompt(new Prompt(promptText))
+                    .call()
+                    .responseEntity(new ParameterizedTypeReference<List<WildfireAssessment>>() {});
+        } catch (RuntimeException e) {
+            recordCall("wildfire-batch", "call", start, false);
+            throw e;
+        }
+        recordCall("wildfire-batch", "call", start, true);
+        recordUsage("wildfire-batch", result.response());
+        List<WildfireAssessment> assessments = result.entity();
+        return assessments != null ? assessments : List.of();
     }
 
     // Method to detect overgrazing or illegal logging
     public String detectEnvironmentalImpact(String deviceType, String droneImageryAnalysis, String sensorData, String location) {
+        String key = cacheKey("impact", deviceType, droneImageryAnalysis, sensorData, location);
+        return call("impact", key, environmentalImpactPrompt(deviceType, droneImageryAnalysis, sensorData, location));
+    }
+
+    // Streaming variant of detectEnvironmentalImpact
+    public Flux<String> streamDetectEnvironmentalImpact(String deviceType, String droneImageryAnalysis, String sensorData, String location) {
+        String key = cacheKey("impact", deviceType, droneImageryAnalysis, sensorData, location);
+        return stream("impact", key, () -> environmentalImpactPrompt(deviceType, droneImageryAnalysis, sensorData, location));
+    }
+
+    private Prompt environmentalImpactPrompt(String deviceType, String droneImageryAnalysis, String sensorData, String location) {
         // Prompt to detect environmental impact
         String promptText = String.format(
             "Analiza el informe de monitoreo ambiental para detectar sobrepastoreo o tala ilegal. " +
@@ -69,12 +184,22 @@ public class AIService {
             "Identifica si hay signos de sobrepastoreo o tala, y sugiere posibles acciones o confirmación en terreno.",
             deviceType, droneImageryAnalysis, sensorData, location
         );
-        // Using the fluent API for a simple text prompt
-        return chatClient.prompt(promptText).call().content();
+        return new Prompt(promptText);
     }
 
     // Method to provide reforestation/drought guidance
     public String provideReforestationGuidance(String location, String soilType, String waterAvailability, String climateData, String currentVegetation) {
+        String key = cacheKey("reforestation", location, soilType, waterAvailability, climateData, currentVegetation);
+        return call("reforestation", key, reforestationPrompt(location, soilType, waterAvailability, climateData, currentVegetation));
+    }
+
+    // Streaming variant of provideReforestationGuidance
+    public Flux<String> streamReforestationGuidance(String location, String soilType, String waterAvailability, String climateData, String currentVegetation) {
+        String key = cacheKey("reforestation", location, soilType, waterAvailability, climateData, currentVegetation);
+        return stream("reforestation", key, () -> reforestationPrompt(location, soilType, waterAvailability, climateData, currentVegetation));
+    }
+
+    private Prompt reforestationPrompt(String location, String soilType, String waterAvailability, String climateData, String currentVegetation) {
         // Prompt for reforestation/drought guidance
         String promptText = String.format(
             "Basado en los siguientes datos geográficos y ambientales, proporciona recomendaciones para reforestación o mitigación de sequía. " +
@@ -82,7 +207,143 @@ public class AIService {
             "Sugiere especies de plantas adecuadas, técnicas de conservación de agua o estrategias de manejo de sequía.",
             location, soilType, waterAvailability, climateData, currentVegetation
         );
-        // Using the fluent API for a simple text prompt
-        return chatClient.prompt(promptText).call().content();
+        return new Prompt(promptText);
+    }
+
+    // Cache key: operation name plus its inputs, with free text normalized. Each input is length-prefixed so a '|'
+    // inside free text cannot shift it into the next field ("a|b","c" vs "a","b|c"); null has its own marker.
+    static String cacheKey(String operation, Object... inputs) {
+        StringBuilder key = new StringBuilder(operation);
+        for (Object input : inputs) {
+            if (input == null) {
+                key.append("|-");
+                continue;
+            }
+            String part = input instanceof String text ? AIResultCache.normalize(text) : String.valueOf(input);
+            key.append('|').append(part.length()).append(':').append(part);
+        }
+        return key.toString();
+    }
+
+    // Blocking call through the result cache
+    private String call(String operation, String key, Prompt prompt) {
+        return resultCache.get(key, () -> {
+            long start = System.nanoTime();
+            ChatResponse response;
+            try {
+                // Using the fluent API of ChatClient
+                response = chatClient.prompt(prompt).call().chatResponse();
+            } catch (RuntimeException e) {
+                recordCall(operation, "call", start, false);
+                throw e;
+            }
+            recordCall(operation, "call", start, true);
+            recordUsage(operation, response);
+            return contentOf(response);
+        });
+    }
+
+    /**
+     * Streams the model's answer through the concurrency limiter. A cached answer is replayed as a single chunk;
+     * a complete streamed answer is stored in the cache for later calls.
+     */
+    private Flux<String> stream(String operation, String key, Supplier<Prompt> prompt) {
+        String cached = resultCache.peek(key);
+        if (cached != null) {
+            return Flux.just(cached);
+        }
+        return requestLimiter.limit(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean firstToken = new AtomicBoolean();
+            StringBuilder answer = new StringBuilder();
+            AtomicReference<ChatResponse> lastResponse = new AtomicReference<>();
+            return chatClient.prompt(prompt.get()).stream().chatResponse()
+                    .doOnNext(lastResponse::set) // The usage of a streamed call arrives with its last chunk
+                    .mapNotNull(AIService::contentOf)
+                    .filter(chunk -> !chunk.isEmpty())
+                    .doOnNext(chunk -> {
+                        if (firstToken.compareAndSet(false, true)) {
+                            recordTimeToFirstToken(System.nanoTime() - start);
+                        }
+                        answer.append(chunk);
+                    })
+                    .doOnComplete(() -> {
+                        recordCall(operation, "stream", start, true);
+                        recordUsage(operation, lastResponse.get());
+                        resultCache.put(key, answer.toString());
+                    })
+                    .doOnError(error -> {
+                        recordCall(operation, "stream", start, false);
+                        log.warn("Streaming AI call failed: {}", error.getMessage());
+                    });
+        });
+    }
+
+    private static String contentOf(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return null;
+        }
+        return response.getResult().getOutput().getContent();
+    }
+
+    // Model call latency, by operation, blocking or streaming call, and outcome
+    private void recordCall(String operation, String mode, long startNanos, boolean success) {
+        Timer.builder("watana.ai.calls")
+                .description("Calls to the language model")
+                .tag("operation", operation)
+                .tag("mode", mode)
+                .tag("outcome", success ? "success" : "error")
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Prompt and generated tokens reported by the model, when the provider includes usage in the response
+    private void recordUsage(String operation, ChatResponse response) {
+        if (response == null || response.getMetadata() == null || response.getMetadata().getUsage() == null) {
+            return;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        countTokens(operation, "prompt", usage.getPromptTokens());
+        countTokens(operation, "generation", usage.getGenerationTokens());
+    }
+
+    private void countTokens(String operation, String type, Long tokens) {
+        if (tokens != null && tokens > 0) {
+            Counter.builder("watana.ai.tokens")
+                    .description("Tokens used by calls to the language model")
+                    .tag("operation", operation)
+                    .tag("type", type)
+                    .register(meterRegistry)
+                    .increment(tokens);
+        }
+    }
+
+    private void recordTimeToFirstToken(long nanos) {
+        Timer.builder("watana.ai.time-to-first-token")
+                .description("Time from a streaming model call to its first chunk")
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        streamsStarted.incrementAndGet();
+        totalTimeToFirstTokenNanos.addAndGet(nanos);
+        lastTimeToFirstTokenNanos = nanos;
+        maxTimeToFirstTokenNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    // Time from the model call to the first streamed chunk, in milliseconds (queue wait excluded)
+    public long getLastTimeToFirstTokenMs() {
+        return TimeUnit.NANOSECONDS.toMillis(lastTimeToFirstTokenNanos);
+    }
+
+    public long getAvgTimeToFirstTokenMs() {
+        long streams = streamsStarted.get();
+        return streams == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalTimeToFirstTokenNanos.get() / streams);
+    }
+
+    public long getMaxTimeToFirstTokenMs() {
+        return TimeUnit.NANOSECONDS.toMillis(maxTimeToFirstTokenNanos.get());
+    }
+
+    public long getStreamsStartedCount() {
+        return streamsStarted.get();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,298 @@
+package com.watana.backend.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.watana.backend.model.Device;
+import com.watana.backend.model.DeviceImportItem;
+import com.watana.backend.model.DeviceImportResult;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Importación y exportación masiva de dispositivos en JSON (array), NDJSON o CSV.
+ * <p>
+ * La importación lee la entrada en streaming, de a {@code watana.devices.bulk.chunk-size} elementos: valida cada
+ * uno con las anotaciones de Bean Validation de {@link Device} y escribe los válidos del trozo con la escritura masiva del repositorio (en
+ * Firestore, un {@code BulkWriter}) antes de leer el siguiente, así la memoria no crece con el tamaño del archivo.
+ * Devuelve el resultado de cada elemento. La exportación escribe desde la caché de dispositivos en el mismo formato
+ * que acepta la importación.
+ */
+@Service
+public class DeviceBulkService {
+
+    // Columnas del CSV, en el orden en que se exportan
+    static final List<String> CSV_COLUMNS = List.of("id", "name", "type", "location", "active", "lastSeen", "batteryLevel",
+            "latitude", "longitude");
+
+    public enum Format {
+        JSON, NDJSON, CSV;
+
+        public static Format fromName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final DeviceService deviceService;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader deviceReader;
+    private final ObjectReader csvRowReader; // Filas del CSV como mapas columna -> valor, según la cabecera
+    private final CsvMapper csvMapper;
+    private final CsvSchema csvExportSchema;
+    private final int chunkSize;
+    private final int maxItems;
+
+    public DeviceBulkService(DeviceService deviceService, Validator validator, ObjectMapper objectMapper,
+                             @Value("${watana.devices.bulk.chunk-size:500}") int chunkSize,
+                             @Value("${watana.devices.bulk.max-items:10000}") int maxItems) {
+        this.deviceService = deviceService;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.deviceReader = objectMapper.readerFor(Device.class);
+        this.csvMapper = new CsvMapper();
+        this.csvRowReader = csvMapper.readerFor(new TypeReference<Map<String, String>>() {})
+                .with(CsvSchema.emptySchema().withHeader())
+                .with(CsvParser.Feature.FAIL_ON_MISSING_COLUMNS)
+                .with(CsvParser.Feature.SKIP_EMPTY_LINES);
+        CsvSchema.Builder schema = CsvSchema.builder().setUseHeader(true);
+        CSV_COLUMNS.forEach(schema::addColumn);
+        this.csvExportSchema = schema.build();
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxItems = maxItems;
+    }
+
+    // Un elemento leído de la entrada: el dispositivo, o el error que impidió leerlo
+    private record Parsed(Device device, String error) {
+    }
+
+    @FunctionalInterface
+    private interface ItemSource {
+        Parsed next() throws IOException; // null al terminar la entrada
+    }
+
+    /**
+     * Importa los dispositivos de la entrada. Los elementos inválidos se informan y no detienen la importación;
+     * un error de sintaxis que impide seguir leyendo (JSON mal formado) termina la lectura en ese punto.
+     */
+    public DeviceImportResult importDevices(InputStream input, Format format) throws IOException, InterruptedException {
+        ItemSource source = switch (format) {
+            case JSON -> jsonSource(input);
+            case NDJSON -> ndjsonSource(input);
+            case CSV -> csvSource(input);
+        };
+        List<DeviceImportItem> results = new ArrayList<>();
+        List<Device> chunk = new ArrayList<>(chunkSize);
+        List<Integer> chunkIndexes = new ArrayList<>(chunkSize);
+        boolean truncated = false;
+        int index = 0;
+        Parsed parsed;
+        while ((parsed = source.next()) != null) {
+            if (index == maxItems) {
+                truncated = true;
+                break;
+            }
+            if (parsed.error() != null) {
+                results.add(new DeviceImportItem(index, null, DeviceImportItem.INVALID, List.of(parsed.error())));
+            } else {
+                List<String> errors = validate(parsed.device());
+                if (errors.isEmpty()) {
+                    chunk.add(parsed.device());
+                    chunkIndexes.add(index);
+                } else {
+                    results.add(new DeviceImportItem(index, parsed.device().getId(), DeviceImportItem.INVALID, errors));
+                }
+            }
+            index++;
+            if (chunk.size() == chunkSize) {
+                writeChunk(chunk, chunkIndexes, results);
+            }
+        }
+        writeChunk(chunk, chunkIndexes, results);
+
+        results.sort((a, b) -> Integer.compare(a.index(), b.index()));
+        int saved = 0;
+        int invalid = 0;
+        for (DeviceImportItem item : results) {
+            if (DeviceImportItem.SAVED.equals(item.status())) {
+                saved++;
+            } else if (DeviceImportItem.INVALID.equals(item.status())) {
+                invalid++;
+            }
+        }
+        return new DeviceImportResult(index, saved, invalid, results.size() - saved - invalid, truncated, results);
+    }
+
+    // Mensajes de las restricciones incumplidas; vacío si el dispositivo es válido
+    private List<String> validate(Device device) {
+        List<String> errors = new ArrayList<>();
+        for (ConstraintViolation<Device> violation : validator.validate(device)) {
+            errors.add(violation.getMessage());
+        }
+        return errors;
+    }
+
+    // Escribe el trozo y espera a que termine antes de seguir leyendo (contrapresión hacia el cliente)
+    private void writeChunk(List<Device> chunk, List<Integer> indexes, List<DeviceImportItem> results)
+            throws InterruptedException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<Device>> writes = deviceService.saveDevices(chunk);
+        for (int i = 0; i < writes.size(); i++) {
+            Device device = chunk.get(i);
+            try {
+                Device saved = writes.get(i).get();
+                results.add(new DeviceImportItem(indexes.get(i), saved.getId(), DeviceImportItem.SAVED, List.of()));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                        ? e.getCause().getCause() : e.getCause();
+                results.add(new DeviceImportItem(indexes.get(i), device.getId(), DeviceImportItem.FAILED,
+                        List.of(String.valueOf(cause.getMessage()))));
+            }
+        }
+        chunk.clear();
+        indexes.clear();
+    }
+
+    // Array JSON (o valores JSON consecutivos); un elemento con tipos incorrectos se informa y se sigue leyendo
+    private ItemSource jsonSource(InputStream input) throws IOException {
+        MappingIterator<Device> iterator = deviceReader.readValues(input);
+        boolean[] broken = {false};
+        return () -> {
+            if (broken[0]) {
+                return null;
+            }
+            try {
+                return iterator.hasNextValue() ? new Parsed(iterator.nextValue(), null) : null;
+            } catch (JsonParseException e) {
+                broken[0] = true; // JSON mal formado: no se puede ubicar el siguiente elemento
+                return new Parsed(null, "JSON mal formado: " + e.getOriginalMessage());
+            } catch (JsonMappingException e) {
+                return new Parsed(null, "Elemento inválido: " + e.getOriginalMessage());
+            }
+        };
+    }
+
+    // Un objeto JSON por línea; las líneas vacías se ignoran
+    private ItemSource ndjsonSource(InputStream input) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        return () -> {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (line.isBlank());
+            try {
+                return new Parsed(deviceReader.readValue(line), null);
+            } catch (IOException e) {
+                return new Parsed(null, "Línea inválida: " + e.getMessage().lines().findFirst().orElse(""));
+            }
+        };
+    }
+
+    // CSV con cabecera (columnas de CSV_COLUMNS, en cualquier orden); los valores vacíos se toman como null.
+    // Una fila con columnas de más o de menos se informa y se sigue leyendo
+    private ItemSource csvSource(InputStream input) throws IOException {
+        MappingIterator<Map<String, String>> iterator = csvRowReader.readValues(input);
+        boolean[] broken = {false};
+        return () -> {
+            if (broken[0]) {
+                return null;
+            }
+            Map<String, String> values;
+            try {
+                if (!iterator.hasNextValue()) {
+                    return null;
+                }
+                values = iterator.nextValue();
+            } catch (JsonMappingException e) {
+                return new Parsed(null, "Fila inválida: " + e.getOriginalMessage());
+            } catch (JsonParseException e) {
+                broken[0] = true; // CSV mal formado (por ejemplo, comillas sin cerrar): no se puede seguir
+                return new Parsed(null, "CSV mal formado: " + e.getOriginalMessage());
+            }
+            Map<String, String> row = new HashMap<>();
+            values.forEach((column, value) -> {
+                if (!value.isEmpty()) {
+                    row.put(column.trim(), value);
+                }
+            });
+            try {
+                return new Parsed(objectMapper.convertValue(row, Device.class), null);
+            } catch (IllegalArgumentException e) {
+                return new Parsed(null, "Fila inválida: " + e.getMessage().lines().findFirst().orElse(""));
+            }
+        };
+    }
+
+    /**
+     * Escribe todos los dispositivos (desde la caché) en el formato pedido, uno a uno, sin armar la respuesta
+     * completa en memoria.
+     */
+    public void exportDevices(Format format, OutputStream output) throws IOException, ExecutionException, InterruptedException {
+        List<Device> devices = deviceService.getAllDevices();
+        if (format == Format.CSV) {
+            try (SequenceWriter writer = csvMapper.writer(csvExportSchema).writeValues(output)) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (Device device : devices) {
+                    row.put("id", device.getId());
+                    row.put("name", device.getName());
+                    row.put("type", device.getType());
+                    row.put("location", device.getLocation());
+                    row.put("active", device.isActive());
+                    row.put("lastSeen", device.getLastSeen() == null ? null : device.getLastSeen().toInstant().toString());
+                    row.put("batteryLevel", device.getBatteryLevel());
+                    row.put("latitude", device.getLatitude());
+                    row.put("longitude", device.getLongitude());
+                    writer.write(row);
+                }
+            }
+            return;
+        }
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            if (format == Format.JSON) {
+                generator.writeStartArray();
+                for (Device device : devices) {
+                    generator.writeObject(device);
+                }
+                generator.writeEndArray();
+            } else {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+                for (Device device : devices) {
+                    generator.writeObject(device);
+                }
+                generator.writeRaw('\n');
+            }
+        }
+    }
+}
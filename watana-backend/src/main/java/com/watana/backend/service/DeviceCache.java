@@ -0,0 +1,201 @@
+package com.watana.backend.service;
+
+import com.watana.backend.model.Device;
+import com.watana.backend.repository.DeviceChangeListener;
+import com.watana.backend.repository.DeviceRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché en memoria de la colección {@code devices}.
+ * <p>
+ * Se carga una vez con el primer snapshot del repositorio y se mantiene al día con su listener de cambios
+ * (en Firestore, un snapshot listener), así las lecturas no hacen round-trips ni deserializan documentos.
+ * Cada cambio incrementa una versión que sirve como ETag y se refleja en {@link DeviceSpatialIndex}. Mientras la caché no está lista (arranque o error del listener) el servicio
+ * lee del repositorio y lo registra como miss.
+ */
+@Component
+public class DeviceCache implements DeviceChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceCache.class);
+
+    private final DeviceRepository deviceRepository;
+    private final DeviceSpatialIndex spatialIndex; // Se actualiza junto con la caché
+    private final long resubscribeDelayMs;
+    private final ScheduledExecutorService resubscriber = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "device-cache-resubscribe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, CachedDevice> devices = new ConcurrentHashMap<>();
+    // Distingue versiones de distintos arranques para que un ETag viejo no coincida tras reiniciar
+    private final String instanceEpoch = Long.toString(System.currentTimeMillis(), 36);
+    private volatile Versioned<List<Device>> allDevices = new Versioned<>(List.of(), etag("devices", 0)); // Lista inmutable reconstruida en cada cambio
+    private volatile boolean ready;
+    private volatile DeviceRepository.Registration registration;
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DeviceCache(DeviceRepository deviceRepository, DeviceSpatialIndex spatialIndex,
+                       @Value("${watana.device-cache.resubscribe-delay-ms:5000}") long resubscribeDelayMs) {
+        this.deviceRepository = deviceRepository;
+        this.spatialIndex = spatialIndex;
+        this.resubscribeDelayMs = resubscribeDelayMs;
+    }
+
+    // La primera suscripción se hace fuera del hilo de arranque: en Firestore crea el cliente y abre el listener
+    @PostConstruct
+    public void start() {
+        resubscriber.execute(this::subscribe);
+    }
+
+    @PreDestroy
+    public void stop() {
+        resubscriber.shutdownNow();
+        DeviceRepository.Registration current = registration;
+        if (current != null) {
+            current.remove();
+        }
+    }
+
+    private void subscribe() {
+        try {
+            registration = deviceRepository.watchAll(this);
+        } catch (RuntimeException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public synchronized void onDeviceChanges(List<Device> upserted, List<String> removedIds, boolean initialLoad) {
+        long revision = version.incrementAndGet();
+        if (initialLoad) {
+            devices.clear();
+            spatialIndex.clear();
+        }
+        for (Device device : upserted) {
+            devices.put(device.getId(), new CachedDevice(device, revision));
+            spatialIndex.put(device);
+        }
+        for (String id : removedIds) {
+            devices.remove(id);
+            spatialIndex.remove(id);
+        }
+        rebuildList(revision);
+        if (initialLoad) {
+            ready = true;
+            log.info("Device cache loaded with {} devices", devices.size());
+        }
+    }
+
+    @Override
+    public void onError(Exception error) {
+        ready = false;
+        log.error("Device snapshot listener failed, serving devices from Firestore until it recovers", error);
+        if (!resubscriber.isShutdown()) {
+            resubscriber.schedule(this::subscribe, resubscribeDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Refleja una escritura propia de inmediato, sin esperar al snapshot que la confirma
+    public synchronized void put(Device device) {
+        if (!ready || device.getId() == null) {
+            return;
+        }
+        long revision = version.incrementAndGet();
+        devices.put(device.getId(), new CachedDevice(device, revision));
+        spatialIndex.put(device);
+        rebuildList(revision);
+    }
+
+    public synchronized void evict(String id) {
+        if (!ready) {
+            return;
+        }
+        if (devices.remove(id) != null) {
+            spatialIndex.remove(id);
+            rebuildList(version.incrementAndGet());
+        }
+    }
+
+    private void rebuildList(long revision) {
+        List<Device> list = new ArrayList<>(devices.size());
+        for (CachedDevice cached : devices.values()) {
+            list.add(cached.device());
+        }
+        list.sort(Comparator.comparing(Device::getId));
+        allDevices = new Versioned<>(List.copyOf(list), etag("devices", revision));
+    }
+
+    /**
+     * Todos los dispositivos con su ETag. Solo es válido si {@link #isReady()}; los objetos son compartidos
+     * y no deben modificarse.
+     */
+    public Versioned<List<Device>> getAll() {
+        hits.incrementAndGet();
+        return allDevices;
+    }
+
+    /**
+     * Busca un dispositivo en la caché. Solo es válido si {@link #isReady()}.
+     *
+     * @return El dispositivo con su ETag, o vacío si no existe.
+     */
+    public Optional<Versioned<Device>> get(String id) {
+        hits.incrementAndGet();
+        CachedDevice cached = devices.get(id);
+        return cached == null
+                ? Optional.empty()
+                : Optional.of(new Versioned<>(cached.device(), etag(id, cached.revision())));
+    }
+
+    // Lectura que no se pudo servir desde memoria y fue a Firestore
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // ETag fuerte entre comillas, como exige HTTP
+    private String etag(String prefix, long revision) {
+        return "\"" + prefix + "-" + instanceEpoch + "-" + revision + "\"";
+    }
+
+    public record Versioned<T>(T value, String etag) {
+    }
+
+    private record CachedDevice(Device device, long revision) {
+    }
+}
@@ -0,0 +1,290 @@
+package com.watana.backend.service;
+
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.ingest.SensorDataListener;
+import com.watana.backend.model.DeviceLiveness;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.util.DeviceIndex;
+import com.watana.backend.util.HashedTimerWheel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Seguimiento en memoria de la actividad de cada dispositivo a partir de las lecturas ingeridas.
+ * <p>
+ * Cada lectura actualiza {@code lastSeen} (y la batería si es una lectura de batería) en arreglos primitivos.
+ * La detección de offline usa una {@link HashedTimerWheel}: en cada tick solo se revisan los dispositivos cuyo
+ * plazo vence en ese tick, en lugar de recorrer todos. Los cambios se escriben en Firestore de forma agrupada
+ * cada {@code watana.liveness.persist-interval-seconds}: como mucho una escritura por dispositivo por intervalo.
+ * <p>
+ * El estado se reparte en un fragmento por carril de ingesta ({@code watana.ingest.lanes}) con la misma
+ * partición que {@link PartitionedExecutor}, así los carriles no compiten por un único monitor.
+ */
+@Component
+public class DeviceLivenessTracker implements SensorDataListener {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceLivenessTracker.class);
+
+    private static final int INITIAL_DEVICES = 1024;
+    private static final int WHEEL_SIZE = 512;
+
+    private final DeviceService deviceService;
+    private final String batteryType;
+    private final long offlineTimeoutMs;
+    private final long tickMs;
+    private final long persistIntervalMs;
+    private final Shard[] shards;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "device-liveness");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Estadísticas
+    private final AtomicLong wentOffline = new AtomicLong();
+    private final AtomicLong livenessWrites = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    public DeviceLivenessTracker(DeviceService deviceService,
+                                 @Value("${watana.liveness.battery-type:battery_percent}") String batteryType,
+                                 @Value("${watana.liveness.offline-timeout-seconds:120}") long offlineTimeoutSeconds,
+                                 @Value("${watana.liveness.tick-ms:1000}") long tickMs,
+                                 @Value("${watana.liveness.persist-interval-seconds:60}") long persistIntervalSeconds,
+                                 @Value("${watana.ingest.lanes:0}") int lanes) {
+        this.deviceService = deviceService;
+        this.batteryType = batteryType;
+        this.offlineTimeoutMs = TimeUnit.SECONDS.toMillis(offlineTimeoutSeconds);
+        this.tickMs = tickMs;
+        this.persistIntervalMs = TimeUnit.SECONDS.toMillis(persistIntervalSeconds);
+        this.shards = new Shard[PartitionedExecutor.laneCount(lanes)];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(Math.max(16, INITIAL_DEVICES / shards.length), now);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::flush, persistIntervalMs, persistIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        flush(); // Último lastSeen conocido antes de apagar
+    }
+
+    @Override
+    public void onSensorData(SensorData sensorData) {
+        if (sensorData.getDeviceId() == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Shard shard = shardFor(sensorData.getDeviceId());
+        synchronized (shard) {
+            shard.record(sensorData, now);
+        }
+    }
+
+    private Shard shardFor(String deviceId) {
+        return shards[PartitionedExecutor.partitionFor(deviceId, shards.length)];
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Shard shard : shards) {
+                synchronized (shard) {
+                    shard.expire(now);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Liveness tick failed", e); // Una excepción cancelaría la tarea programada
+        }
+    }
+
+    // Escribe lastSeen/batería de los dispositivos que cambiaron desde la última vez
+    private void flush() {
+        List<DeviceLiveness> updates = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.drainDirty(updates);
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        try {
+            livenessWrites.addAndGet(deviceService.updateLiveness(updates).size());
+        } catch (ExecutionException | RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            remarkDirty(updates);
+            log.warn("Could not persist lastSeen for {} devices, retrying next interval: {}", updates.size(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            remarkDirty(updates);
+        }
+    }
+
+    private void remarkDirty(List<DeviceLiveness> updates) {
+        for (DeviceLiveness update : updates) {
+            Shard shard = shardFor(update.deviceId());
+            synchronized (shard) {
+                shard.dirty[shard.devices.indexOf(update.deviceId())] = true;
+            }
+        }
+    }
+
+    /**
+     * Estado de un dispositivo, o vacío si nunca envió datos desde que arrancó el servicio.
+     */
+    public Optional<DeviceLiveness> getLiveness(String deviceId) {
+        Shard shard = shardFor(deviceId);
+        synchronized (shard) {
+            int device = shard.devices.find(deviceId);
+            return device < 0 ? Optional.empty() : Optional.of(shard.snapshot(device));
+        }
+    }
+
+    // Estado de todos los dispositivos que enviaron datos desde el arranque
+    public List<DeviceLiveness> getAll() {
+        List<DeviceLiveness> all = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (int device = 0; device < shard.devices.size(); device++) {
+                    all.add(shard.snapshot(device));
+                }
+            }
+        }
+        return all;
+    }
+
+    public int getOnlineCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.onlineCount;
+            }
+        }
+        return count;
+    }
+
+    public int getTrackedCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.devices.size();
+            }
+        }
+        return count;
+    }
+
+    public long getWentOfflineCount() {
+        return wentOffline.get();
+    }
+
+    public long getLivenessWriteCount() {
+        return livenessWrites.get();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushes.get();
+    }
+
+    // Dispositivos de una partición; todos los campos se guardan por el propio fragmento
+    private final class Shard {
+        private final DeviceIndex devices;
+        private final HashedTimerWheel wheel;
+        private long[] lastSeenMs;
+        private double[] batteryLevel; // NaN si el dispositivo no reporta batería
+        private boolean[] online;
+        private boolean[] dirty; // Cambió desde la última escritura a Firestore
+        private int onlineCount;
+
+        Shard(int initialDevices, long startMs) {
+            this.devices = new DeviceIndex(initialDevices);
+            this.wheel = new HashedTimerWheel(tickMs, WHEEL_SIZE, initialDevices, startMs);
+            this.lastSeenMs = new long[initialDevices];
+            this.batteryLevel = new double[initialDevices];
+            this.online = new boolean[initialDevices];
+            this.dirty = new boolean[initialDevices];
+            Arrays.fill(batteryLevel, Double.NaN);
+        }
+
+        void record(SensorData sensorData, long now) {
+            int device = slot(sensorData.getDeviceId());
+            lastSeenMs[device] = now;
+            dirty[device] = true;
+            if (batteryType.equals(sensorData.getType())) {
+                batteryLevel[device] = sensorData.getValue();
+            }
+            if (!online[device]) {
+                online[device] = true;
+                onlineCount++;
+            }
+            if (!wheel.isScheduled(device)) {
+                wheel.schedule(device, now + offlineTimeoutMs); // Si ya hay plazo, se corrige al vencer
+            }
+        }
+
+        void expire(long now) {
+            wheel.advance(now, device -> {
+                long deadline = lastSeenMs[device] + offlineTimeoutMs;
+                if (deadline > now) {
+                    wheel.schedule(device, deadline); // Llegaron lecturas después de programar el plazo
+                } else if (online[device]) {
+                    online[device] = false;
+                    onlineCount--;
+                    wentOffline.incrementAndGet();
+                    log.debug("Device {} is offline (no data for {} ms)", devices.deviceId(device), now - lastSeenMs[device]);
+                }
+            });
+        }
+
+        void drainDirty(List<DeviceLiveness> updates) {
+            for (int device = 0; device < devices.size(); device++) {
+                if (dirty[device]) {
+                    dirty[device] = false;
+                    updates.add(snapshot(device));
+                }
+            }
+        }
+
+        private int slot(String deviceId) {
+            int device = devices.indexOf(deviceId);
+            if (devices.capacity() > lastSeenMs.length) {
+                int capacity = devices.capacity();
+                int oldLength = batteryLevel.length;
+                lastSeenMs = Arrays.copyOf(lastSeenMs, capacity);
+                batteryLevel = Arrays.copyOf(batteryLevel, capacity);
+                Arrays.fill(batteryLevel, oldLength, capacity, Double.NaN);
+                online = Arrays.copyOf(online, capacity);
+                dirty = Arrays.copyOf(dirty, capacity);
+            }
+            return device;
+        }
+
+        DeviceLiveness snapshot(int device) {
+            double battery = batteryLevel[device];
+            return new DeviceLiveness(devices.deviceId(device), new Date(lastSeenMs[device]),
+                    Double.isNaN(battery) ? null : battery, online[device]);
+        }
+    }
+}
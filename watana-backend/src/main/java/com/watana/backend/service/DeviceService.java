@@ -1,40 +1,163 @@
 package com.watana.backend.service;
 
 import com.watana.backend.model.Device;
+import com.watana.backend.model.DeviceDistance;
+import com.watana.backend.model.DeviceLiveness;
+import com.watana.backend.model.DevicePage;
+import com.watana.backend.model.DeviceQuery;
 import com.watana.backend.repository.DeviceRepository;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 @Service // Marca esta clase como un componente de Spring para la capa de servicio
 public class DeviceService {
 
     private final DeviceRepository deviceRepository; // Inyecta el repositorio
+    private final DeviceCache deviceCache; // Copia en memoria mantenida por el snapshot listener
+    private final DeviceSpatialIndex spatialIndex; // Índice por geohash, mantenido por la caché
 
     // Constructor para inyección de dependencia
-    public DeviceService(DeviceRepository deviceRepository) {
+    public DeviceService(DeviceRepository deviceRepository, DeviceCache deviceCache, DeviceSpatialIndex spatialIndex) {
         this.deviceRepository = deviceRepository;
+        this.deviceCache = deviceCache;
+        this.spatialIndex = spatialIndex;
     }
 
     // Guarda o actualiza un dispositivo
     public Device saveDevice(Device device) throws ExecutionException, InterruptedException {
-        return deviceRepository.save(device);
+        Device saved = deviceRepository.save(device);
+        deviceCache.put(saved);
+        return saved;
+    }
+
+    // Versión no bloqueante de saveDevice: el hilo que llama queda libre mientras el almacenamiento responde
+    public CompletableFuture<Device> saveDeviceAsync(Device device) {
+        return deviceRepository.saveAsync(device).thenApply(saved -> {
+            deviceCache.put(saved);
+            return saved;
+        });
+    }
+
+    // Guarda muchos dispositivos con la escritura masiva del repositorio; un futuro por dispositivo, en orden
+    public List<CompletableFuture<Device>> saveDevices(List<Device> devices) {
+        List<CompletableFuture<Device>> results = new ArrayList<>(devices.size());
+        for (CompletableFuture<Device> result : deviceRepository.saveAll(devices)) {
+            results.add(result.thenApply(saved -> {
+                deviceCache.put(saved);
+                return saved;
+            }));
+        }
+        return results;
     }
 
     // Obtiene un dispositivo por ID
     public Optional<Device> getDeviceById(String id) throws ExecutionException, InterruptedException {
-        return deviceRepository.findById(id);
+        return getDeviceWithETag(id).map(DeviceCache.Versioned::value);
+    }
+
+    // Obtiene un dispositivo por ID junto con su ETag (null si no se sirvió desde la caché)
+    public Optional<DeviceCache.Versioned<Device>> getDeviceWithETag(String id) throws ExecutionException, InterruptedException {
+        if (deviceCache.isReady()) {
+            return deviceCache.get(id);
+        }
+        deviceCache.recordMiss();
+        return deviceRepository.findById(id).map(device -> new DeviceCache.Versioned<>(device, null));
+    }
+
+    // Versión no bloqueante de getDeviceWithETag: con la caché lista el futuro ya viene completado
+    public CompletableFuture<Optional<DeviceCache.Versioned<Device>>> getDeviceWithETagAsync(String id) {
+        if (deviceCache.isReady()) {
+            return CompletableFuture.completedFuture(deviceCache.get(id));
+        }
+        deviceCache.recordMiss();
+        return deviceRepository.findByIdAsync(id)
+                .thenApply(device -> device.map(found -> new DeviceCache.Versioned<>(found, null)));
     }
 
     // Obtiene todos los dispositivos
     public List<Device> getAllDevices() throws ExecutionException, InterruptedException {
-        return deviceRepository.findAll();
+        return getAllDevicesWithETag().value();
+    }
+
+    // Obtiene todos los dispositivos junto con el ETag de la versión de la caché (null si no se sirvió desde ella)
+    public DeviceCache.Versioned<List<Device>> getAllDevicesWithETag() throws ExecutionException, InterruptedException {
+        if (deviceCache.isReady()) {
+            return deviceCache.getAll();
+        }
+        deviceCache.recordMiss();
+        return new DeviceCache.Versioned<>(deviceRepository.findAll(), null);
+    }
+
+    // Dispositivos con coordenadas dentro del rectángulo (minLon > maxLon si cruza el antimeridiano)
+    public List<Device> findDevicesWithin(double minLat, double minLon, double maxLat, double maxLon)
+            throws ExecutionException, InterruptedException {
+        if (deviceCache.isReady()) {
+            return spatialIndex.within(minLat, minLon, maxLat, maxLon);
+        }
+        deviceCache.recordMiss();
+        List<Device> found = new ArrayList<>();
+        for (Device device : deviceRepository.findAll()) {
+            if (DeviceSpatialIndex.isInBox(device, minLat, minLon, maxLat, maxLon)) {
+                found.add(device);
+            }
+        }
+        return found;
+    }
+
+    // Los dispositivos más cercanos al punto dentro del radio, ordenados por distancia
+    public List<DeviceDistance> findDevicesNear(double latitude, double longitude, double radiusKm, int limit)
+            throws ExecutionException, InterruptedException {
+        if (deviceCache.isReady()) {
+            return spatialIndex.near(latitude, longitude, radiusKm, limit);
+        }
+        deviceCache.recordMiss();
+        return DeviceSpatialIndex.nearest(deviceRepository.findAll(), latitude, longitude, radiusKm, limit);
+    }
+
+    // Obtiene una página de dispositivos con filtros y proyección resueltos en Firestore
+    public DevicePage getDevicePage(DeviceQuery query) throws ExecutionException, InterruptedException {
+        return deviceRepository.findPage(query);
+    }
+
+    // Recorre los dispositivos que cumplen la consulta sin cargarlos todos en memoria
+    public void streamDevices(DeviceQuery query, Consumer<Map<String, Object>> consumer) throws ExecutionException, InterruptedException {
+        deviceRepository.streamAll(query, consumer);
+    }
+
+    /**
+     * Persiste lastSeen/batería de los dispositivos registrados; los IDs que no corresponden a un dispositivo
+     * conocido se descartan para no crear documentos incompletos.
+     *
+     * @return Las actualizaciones que se escribieron.
+     */
+    public List<DeviceLiveness> updateLiveness(List<DeviceLiveness> updates) throws ExecutionException, InterruptedException {
+        List<DeviceLiveness> toWrite = new ArrayList<>(updates.size());
+        for (DeviceLiveness update : updates) {
+            if (getDeviceById(update.deviceId()).isPresent()) { // Desde la caché cuando está lista
+                toWrite.add(update);
+            }
+        }
+        if (!toWrite.isEmpty()) {
+            deviceRepository.updateLiveness(toWrite);
+        }
+        return toWrite;
     }
 
     // Elimina un dispositivo por ID
     public void deleteDevice(String id) throws ExecutionException, InterruptedException {
         deviceRepository.deleteById(id);
+        deviceCache.evict(id);
+    }
+
+    // Versión no bloqueante de deleteDevice
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return deviceRepository.deleteByIdAsync(id).thenRun(() -> deviceCache.evict(id));
     }
 }
\ No newline at end of file
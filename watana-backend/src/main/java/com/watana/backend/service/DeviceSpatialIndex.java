@@ -0,0 +1,166 @@
+package com.watana.backend.service;
+
+import com.watana.backend.model.Device;
+import com.watana.backend.model.DeviceDistance;
+import com.watana.backend.util.GeoHash;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Índice espacial en memoria de los dispositivos con coordenadas, por celda {@link GeoHash}.
+ * <p>
+ * Las celdas se ordenan por su valor numérico; como las celdas hijas de una celda ocupan un rango contiguo, una
+ * celda de cualquier precisión menor se consulta con un solo rango del mapa ordenado. Un rectángulo se cubre con
+ * unas pocas celdas ({@link GeoHash#cover}) y los candidatos se filtran con las coordenadas exactas.
+ * <p>
+ * Lo mantiene {@link DeviceCache} con cada cambio de dispositivos (snapshot, alta, edición o baja), así que solo es
+ * válido mientras la caché está lista. Las escrituras se serializan; las consultas no toman locks.
+ */
+@Component
+public class DeviceSpatialIndex {
+
+    /** Celda de un dispositivo sin coordenadas o desconocido. */
+    public static final long NO_CELL = -1;
+
+    private final int precision;
+    private final int maxCoverCells;
+    private final ConcurrentSkipListMap<Long, Map<String, Device>> cells = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> cellById = new ConcurrentHashMap<>();
+
+    public DeviceSpatialIndex(@Value("${watana.geo.index-precision:7}") int precision,
+                              @Value("${watana.geo.max-cover-cells:64}") int maxCoverCells) {
+        this.precision = Math.max(1, Math.min(GeoHash.MAX_PRECISION, precision));
+        this.maxCoverCells = Math.max(4, maxCoverCells);
+    }
+
+    /** Agrega, mueve o (si ya no tiene coordenadas válidas) quita el dispositivo. */
+    public synchronized void put(Device device) {
+        remove(device.getId());
+        if (!hasPosition(device)) {
+            return;
+        }
+        long cell = GeoHash.encode(device.getLatitude(), device.getLongitude(), precision);
+        cells.computeIfAbsent(cell, key -> new ConcurrentHashMap<>()).put(device.getId(), device);
+        cellById.put(device.getId(), cell);
+    }
+
+    public synchronized void remove(String id) {
+        Long cellId = cellById.remove(id);
+        if (cellId == null) {
+            return;
+        }
+        Map<String, Device> cell = cells.get(cellId);
+        if (cell != null) {
+            cell.remove(id);
+            if (cell.isEmpty()) {
+                cells.remove(cellId);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        cells.clear();
+        cellById.clear();
+    }
+
+    /**
+     * Celda del dispositivo en la precisión pedida (no mayor que la del índice), o {@link #NO_CELL} si no está
+     * indexado. No crea objetos (los {@code Long} ya están en el mapa): lo usa el mapa de calor por cada lectura.
+     */
+    public long cellOf(String deviceId, int cellPrecision) {
+        Long cell = deviceId == null ? null : cellById.get(deviceId);
+        return cell == null ? NO_CELL : GeoHash.parent(cell, precision, cellPrecision);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public int size() {
+        return cellById.size();
+    }
+
+    /**
+     * Dispositivos dentro del rectángulo, ordenados por ID. Si {@code minLon > maxLon} el rectángulo cruza el
+     * antimeridiano.
+     */
+    public List<Device> within(double minLat, double minLon, double maxLat, double maxLon) {
+        Map<String, Device> found = new LinkedHashMap<>();
+        if (minLon <= maxLon) {
+            collect(minLat, minLon, maxLat, maxLon, found);
+        } else {
+            collect(minLat, minLon, maxLat, 180, found);
+            collect(minLat, -180, maxLat, maxLon, found);
+        }
+        List<Device> devices = new ArrayList<>(found.values());
+        devices.sort(Comparator.comparing(Device::getId));
+        return devices;
+    }
+
+    /** Los {@code limit} dispositivos más cercanos dentro del radio, del más cercano al más lejano. */
+    public List<DeviceDistance> near(double latitude, double longitude, double radiusKm, int limit) {
+        double[] box = GeoHash.boundingBox(latitude, longitude, radiusKm);
+        return nearest(within(box[0], box[1], box[2], box[3]), latitude, longitude, radiusKm, limit);
+    }
+
+    private void collect(double minLat, double minLon, double maxLat, double maxLon, Map<String, Device> found) {
+        GeoHash.Cover cover = GeoHash.cover(minLat, minLon, maxLat, maxLon, precision, maxCoverCells);
+        int shift = 5 * (precision - cover.precision());
+        for (long prefix : cover.cells()) {
+            // Las celdas del índice que empiezan con el prefijo: [prefix << shift, (prefix + 1) << shift)
+            for (Map<String, Device> cell : cells.subMap(prefix << shift, (prefix + 1) << shift).values()) {
+                for (Device device : cell.values()) {
+                    if (isInBox(device, minLat, minLon, maxLat, maxLon)) {
+                        found.putIfAbsent(device.getId(), device);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Filtro exacto, también para recorrer todos los dispositivos cuando la caché no está lista. */
+    public static boolean isInBox(Device device, double minLat, double minLon, double maxLat, double maxLon) {
+        if (!hasPosition(device)) {
+            return false;
+        }
+        double latitude = device.getLatitude();
+        double longitude = device.getLongitude();
+        if (latitude < minLat || latitude > maxLat) {
+            return false;
+        }
+        return minLon <= maxLon
+                ? longitude >= minLon && longitude <= maxLon
+                : longitude >= minLon || longitude <= maxLon;
+    }
+
+    /** Los {@code limit} dispositivos de {@code candidates} más cercanos dentro del radio. */
+    public static List<DeviceDistance> nearest(Collection<Device> candidates, double latitude, double longitude,
+                                               double radiusKm, int limit) {
+        List<DeviceDistance> result = new ArrayList<>();
+        for (Device device : candidates) {
+            if (!hasPosition(device)) {
+                continue;
+            }
+            double distance = GeoHash.distanceKm(latitude, longitude, device.getLatitude(), device.getLongitude());
+            if (distance <= radiusKm) {
+                result.add(new DeviceDistance(device, distance));
+            }
+        }
+        result.sort(Comparator.comparingDouble(DeviceDistance::distanceKm));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private static boolean hasPosition(Device device) {
+        return device.getId() != null && device.getLatitude() != null && device.getLongitude() != null
+                && GeoHash.isValid(device.getLatitude(), device.getLongitude());
+    }
+}
@@ -0,0 +1,77 @@
+package com.watana.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watana.backend.model.Notification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publica las notificaciones generadas por el backend (evaluación de riesgo, reglas, etc.) a los clientes SSE.
+ * <p>
+ * Igual que {@link SensorDataBroadcaster}: un único {@link SseReplayLog}; cada notificación se serializa una vez,
+ * con su ID, y se comparte entre todas las conexiones. Sin suscriptores recientes, las notificaciones se descartan.
+ */
+@Service
+public class NotificationBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(NotificationBroadcaster.class);
+
+    private final ObjectMapper objectMapper;
+    private final SseReplayLog<Notification> events;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public NotificationBroadcaster(ObjectMapper objectMapper,
+                                   @Value("${watana.sse.replay.notifications-capacity:512}") int replayCapacity,
+                                   @Value("${watana.sse.replay.idle-seconds:300}") long replayIdleSeconds) {
+        this.objectMapper = objectMapper;
+        this.events = new SseReplayLog<>(replayCapacity, replayIdleSeconds * 1000);
+    }
+
+    public void publish(Notification notification) {
+        if (events.isIdle()) {
+            events.skip();
+            return;
+        }
+        try {
+            // Mismo formato que espera el dashboard: evento "notification" con el JSON en 'data'
+            events.publish(notification, "notification", objectMapper.writeValueAsString(notification));
+            published.incrementAndGet();
+        } catch (JsonProcessingException e) {
+            log.error("Could not serialize notification for device {}", notification.getDeviceId(), e);
+        }
+    }
+
+    // Flujo compartido de notificaciones con un buffer acotado por cliente: un navegador lento pierde sus
+    // notificaciones más antiguas en lugar de frenar el flujo. Con lastEventId, primero las que se perdió.
+    public Flux<ServerSentEvent<String>> stream(int clientBufferSize, String lastEventId) {
+        return events.events(lastEventId)
+                .map(SseReplayLog.Event::sse)
+                .onBackpressureBuffer(clientBufferSize, droppedEvent -> dropped.incrementAndGet(),
+                        BufferOverflowStrategy.DROP_OLDEST)
+                .doOnSubscribe(subscription -> subscribers.incrementAndGet())
+                .doFinally(signal -> subscribers.decrementAndGet());
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
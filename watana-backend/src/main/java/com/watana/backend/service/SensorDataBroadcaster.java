@@ -0,0 +1,130 @@
+package com.watana.backend.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.watana.backend.ingest.SensorDataListener;
+import com.watana.backend.model.SensorData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publicador compartido (hot) de las lecturas reales que llegan por MQTT hacia los clientes SSE.
+ * <p>
+ * Cada lectura se serializa a JSON una sola vez y el mismo evento se entrega a todos los
+ * suscriptores. Cada cliente tiene su propio buffer acotado con política drop-oldest, así un navegador
+ * lento pierde eventos antiguos en lugar de frenar el flujo de los demás o la ingesta.
+ * Los eventos llevan ID y quedan en un {@link SseReplayLog}, así un cliente que se reconecta con
+ * {@code Last-Event-ID} recibe solo lo que se perdió.
+ */
+@Service
+public class SensorDataBroadcaster implements SensorDataListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorDataBroadcaster.class);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final SseReplayLog<LiveReading> events;
+    private final int clientBufferSize;
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public SensorDataBroadcaster(@Value("${watana.sse.client-buffer-size:256}") int clientBufferSize,
+                                 @Value("${watana.sse.replay.sensor-data-capacity:2048}") int replayCapacity,
+                                 @Value("${watana.sse.replay.idle-seconds:300}") long replayIdleSeconds) {
+        this.clientBufferSize = clientBufferSize;
+        this.events = new SseReplayLog<>(replayCapacity, replayIdleSeconds * 1000);
+    }
+
+    @Override
+    public void onSensorData(SensorData sensorData) {
+        if (events.isIdle()) {
+            events.skip(); // Nadie escuchando ni por reconectarse: no vale la pena serializar
+            return;
+        }
+        String json;
+        try {
+            json = toJson(sensorData);
+        } catch (IOException e) {
+            log.warn("Could not serialize reading from device {} for SSE", sensorData.getDeviceId(), e);
+            return;
+        }
+        events.publish(new LiveReading(sensorData.getDeviceId(), sensorData.getType(), sensorData.getLocation()),
+                null, json);
+        published.incrementAndGet();
+    }
+
+    /**
+     * Flujo de lecturas en vivo para un cliente, ya serializadas como JSON.
+     * Los filtros nulos o vacíos no se aplican.
+     *
+     * @param lastEventId ID del último evento recibido, para reanudar; {@code null} para empezar desde ahora.
+     */
+    public Flux<ServerSentEvent<String>> stream(String deviceId, String type, String location, String lastEventId) {
+        return events.events(lastEventId)
+                .filter(event -> event.source() == null // reset: va a todos los clientes
+                        || matches(deviceId, event.source().deviceId())
+                        && matches(type, event.source().type())
+                        && matches(location, event.source().location()))
+                .map(SseReplayLog.Event::sse)
+                .onBackpressureBuffer(clientBufferSize, droppedEvent -> dropped.incrementAndGet(),
+                        BufferOverflowStrategy.DROP_OLDEST)
+                .doOnSubscribe(subscription -> subscribers.incrementAndGet())
+                .doFinally(signal -> subscribers.decrementAndGet());
+    }
+
+    private static boolean matches(String filter, String value) {
+        return filter == null || filter.isEmpty() || filter.equals(value);
+    }
+
+    private String toJson(SensorData sensorData) throws IOException {
+        StringWriter writer = new StringWriter(160);
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+            generator.writeStartObject();
+            if (sensorData.getTimestamp() != null) {
+                // 'time' es el campo que el dashboard usa como eje X
+                generator.writeStringField("time", TIME_FORMAT.format(sensorData.getTimestamp()));
+                generator.writeStringField("timestamp", sensorData.getTimestamp().toString());
+            }
+            generator.writeNumberField("value", sensorData.getValue());
+            generator.writeStringField("deviceId", sensorData.getDeviceId());
+            generator.writeStringField("type", sensorData.getType());
+            generator.writeStringField("unit", sensorData.getUnit());
+            generator.writeStringField("location", sensorData.getLocation());
+            if (sensorData.getLatitude() != null && sensorData.getLongitude() != null) {
+                generator.writeNumberField("latitude", sensorData.getLatitude());
+                generator.writeNumberField("longitude", sensorData.getLongitude());
+            }
+            generator.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.get();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Campos por los que se puede filtrar cada lectura
+    private record LiveReading(String deviceId, String type, String location) {
+    }
+}
@@ -1,9 +1,12 @@
 package com.watana.backend.service;
 
+import com.watana.backend.model.SensorAnomaly;
 import com.watana.backend.model.SensorData;
+import com.watana.backend.model.SensorRollup;
 import com.watana.backend.repository.SensorDataRepository;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 @Service // Marca esta clase como un componente Spring para la capa de servicio
@@ -21,6 +24,27 @@ public class SensorDataService {
         return sensorDataRepository.save(sensorData);
     }
 
+    // Guarda un lote de lecturas en Firestore con escrituras agrupadas
+    public void saveAllSensorData(List<SensorData> sensorDataList) throws ExecutionException, InterruptedException {
+        sensorDataRepository.saveAll(sensorDataList);
+    }
+
+    // Guarda los agregados por ventana en la colección sensor_rollups
+    public void saveRollups(List<SensorRollup> rollups) throws ExecutionException, InterruptedException {
+        sensorDataRepository.saveRollups(rollups);
+    }
+
+    // Guarda las anotaciones del detector de anomalías en la colección sensor_anomalies
+    public void saveAnomalies(List<SensorAnomaly> anomalies) throws ExecutionException, InterruptedException {
+        sensorDataRepository.saveAnomalies(anomalies);
+    }
+
+    // Últimas anotaciones de anomalías de un dispositivo guardadas en sensor_anomalies, más recientes primero
+    public List<SensorAnomaly> findAnomalies(String deviceId, String type, int limit)
+            throws ExecutionException, InterruptedException {
+        return sensorDataRepository.findAnomalies(deviceId, type, limit);
+    }
+
     // Aquí puedes añadir más métodos de lógica de negocio relacionados con los datos de los sensores si es necesario,
     // como métodos para obtener los últimos N datos, filtrar por tipo de sensor, etc.
 }
@@ -0,0 +1,446 @@
+package com.watana.backend.service;
+
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.ingest.SensorDataListener;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.util.DeviceIndex;
+import com.watana.backend.util.GeoHash;
+import com.watana.backend.util.SensorTimestamps;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mapa de calor de las últimas lecturas: por celda {@link GeoHash} y tipo, cuántos dispositivos reportan y el
+ * promedio de su último valor.
+ * <p>
+ * Se mantiene de forma incremental con cada lectura: la serie dispositivo + tipo guarda su último valor y su
+ * celda, y la celda guarda count/sum de las series que contiene. Una lectura nueva de la misma serie solo ajusta la
+ * suma con la diferencia; si el dispositivo cambió de celda, se resta de la vieja y se suma a la nueva. La posición
+ * es la de la lectura si trae coordenadas (drones) y si no la del dispositivo en {@link DeviceSpatialIndex}, sin
+ * calcular geohash por lectura. Las series sin lecturas durante {@code watana.geo.heatmap.max-age-seconds} salen
+ * del mapa.
+ * <p>
+ * Las celdas se guardan con {@code watana.geo.heatmap.precision}; las consultas de menor precisión agrupan por
+ * prefijo.
+ * <p>
+ * Las series se reparten en particiones por dispositivo, tantas como carriles de ingesta y con el mismo reparto
+ * ({@link PartitionedExecutor#partitionFor}), cada una con su propio lock y sus propias celdas parciales: una celda
+ * con dispositivos de varias particiones se suma al consultar.
+ */
+@Component
+public class SensorHeatmap implements SensorDataListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorHeatmap.class);
+
+    private static final int MAX_PRECISION = 9; // 45 bits de celda + 16 de tipo caben en la clave long
+    private static final int MAX_TYPES = 1 << 16;
+    private static final int INITIAL_SERIES = 1024; // Entre todas las particiones
+    private static final int NO_SLOT = -1;
+
+    private final DeviceSpatialIndex spatialIndex;
+    private final int precision;
+    private final long maxAgeMs;
+    private final long sweepIntervalMs;
+    private final int maxSeries;
+
+    private final Shard[] shards;
+    private final AtomicInteger totalSeries = new AtomicInteger(); // Entre todas las particiones, hasta maxSeries
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sensor-heatmap");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Estadísticas
+    private final AtomicLong readingsApplied = new AtomicLong();
+    private final AtomicLong unlocatedReadings = new AtomicLong();
+    private final AtomicLong staleReadings = new AtomicLong();
+    private final AtomicLong rejectedSeries = new AtomicLong();
+    private final AtomicLong expiredSeries = new AtomicLong();
+
+    public SensorHeatmap(DeviceSpatialIndex spatialIndex,
+                         @Value("${watana.geo.heatmap.precision:5}") int precision,
+                         @Value("${watana.geo.heatmap.max-age-seconds:900}") long maxAgeSeconds,
+                         @Value("${watana.geo.heatmap.sweep-seconds:30}") long sweepSeconds,
+                         @Value("${watana.geo.heatmap.max-series:20000}") int maxSeries,
+                         @Value("${watana.ingest.lanes:0}") int lanes) {
+        if (precision < 1 || maxAgeSeconds <= 0 || sweepSeconds <= 0) {
+            throw new IllegalArgumentException("Configuración del mapa de calor inválida: precision=" + precision
+                    + ", maxAge=" + maxAgeSeconds + "s, sweep=" + sweepSeconds + "s");
+        }
+        this.spatialIndex = spatialIndex;
+        // La celda del dispositivo se toma del índice, que debe ser al menos igual de preciso
+        int effective = Math.min(precision, Math.min(MAX_PRECISION, spatialIndex.getPrecision()));
+        if (effective != precision) {
+            log.warn("Heatmap precision {} reduced to {} (index precision {}, max {})", precision, effective,
+                    spatialIndex.getPrecision(), MAX_PRECISION);
+        }
+        this.precision = effective;
+        this.maxAgeMs = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+        this.sweepIntervalMs = TimeUnit.SECONDS.toMillis(sweepSeconds);
+        this.maxSeries = maxSeries;
+        this.shards = new Shard[PartitionedExecutor.laneCount(lanes)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(Math.max(16, INITIAL_SERIES / shards.length));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public void onSensorData(SensorData sensorData) {
+        if (sensorData.getDeviceId() == null || sensorData.getType() == null || sensorData.getTimestamp() == null) {
+            return;
+        }
+        long timestamp = SensorTimestamps.toEpochMillis(sensorData.getTimestamp());
+        if (timestamp < System.currentTimeMillis() - maxAgeMs) {
+            staleReadings.incrementAndGet(); // Ya habría expirado del mapa
+            return;
+        }
+        long cell;
+        Double latitude = sensorData.getLatitude();
+        Double longitude = sensorData.getLongitude();
+        if (latitude != null && longitude != null && GeoHash.isValid(latitude, longitude)) {
+            cell = GeoHash.encode(latitude, longitude, precision);
+        } else {
+            cell = spatialIndex.cellOf(sensorData.getDeviceId(), precision);
+            if (cell == DeviceSpatialIndex.NO_CELL) {
+                unlocatedReadings.incrementAndGet();
+                return;
+            }
+        }
+        String deviceId = sensorData.getDeviceId();
+        Shard shard = shards[PartitionedExecutor.partitionFor(deviceId, shards.length)];
+        boolean applied;
+        synchronized (shard) {
+            applied = shard.apply(deviceId, sensorData.getType(), cell, sensorData.getValue(), timestamp);
+        }
+        if (applied) {
+            readingsApplied.incrementAndGet();
+        }
+    }
+
+    /**
+     * Celdas con lecturas recientes del tipo, ordenadas por geohash.
+     *
+     * @param cellPrecision Precisión de las celdas devueltas, entre 1 y {@link #getPrecision()}.
+     * @param bounds        {@code [minLat, minLon, maxLat, maxLon]} para devolver solo las celdas que se cruzan con
+     *                      el rectángulo, o {@code null} para todas.
+     */
+    public List<HeatmapCell> query(String type, int cellPrecision, double[] bounds) {
+        if (cellPrecision < 1 || cellPrecision > precision) {
+            throw new IllegalArgumentException("Precisión fuera de rango (1-" + precision + "): " + cellPrecision);
+        }
+        Map<Long, long[]> counts = new HashMap<>(); // Celda -> {count, latest}
+        Map<Long, double[]> sums = new HashMap<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.collect(type, cellPrecision, counts, sums);
+            }
+        }
+        List<HeatmapCell> cells = new ArrayList<>(counts.size());
+        for (Map.Entry<Long, long[]> entry : counts.entrySet()) {
+            double[] box = GeoHash.bounds(entry.getKey(), cellPrecision);
+            if (bounds != null && !intersects(box, bounds)) {
+                continue;
+            }
+            long count = entry.getValue()[0];
+            cells.add(new HeatmapCell(GeoHash.toString(entry.getKey(), cellPrecision), (box[0] + box[2]) / 2,
+                    (box[1] + box[3]) / 2, type, (int) count, sums.get(entry.getKey())[0] / count,
+                    SensorTimestamps.fromEpochMillis(entry.getValue()[1])));
+        }
+        cells.sort(Comparator.comparing(HeatmapCell::geohash));
+        return cells;
+    }
+
+    // Cruce de rectángulos; si el de la consulta tiene minLon > maxLon, cruza el antimeridiano
+    private static boolean intersects(double[] cell, double[] bounds) {
+        if (cell[2] < bounds[0] || cell[0] > bounds[2]) {
+            return false;
+        }
+        if (bounds[1] <= bounds[3]) {
+            return cell[3] >= bounds[1] && cell[1] <= bounds[3];
+        }
+        return cell[3] >= bounds[1] || cell[1] <= bounds[3];
+    }
+
+    /**
+     * Quita las series sin lecturas recientes y recalcula las sumas desde los últimos valores, para que el error de
+     * redondeo de los ajustes incrementales no se acumule.
+     */
+    void sweep() {
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        int expired = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                expired += shard.sweep(cutoff);
+            }
+        }
+        expiredSeries.addAndGet(expired);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public Stats getStats() {
+        Set<String> cells = new HashSet<>(); // Una celda con dispositivos de varias particiones cuenta una vez
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.collectCells(cells);
+            }
+        }
+        return new Stats(precision, totalSeries.get(), cells.size(), readingsApplied.get(), unlocatedReadings.get(),
+                staleReadings.get(), expiredSeries.get(), rejectedSeries.get());
+    }
+
+    /**
+     * Celda del mapa de calor.
+     *
+     * @param geohash   Celda en base32.
+     * @param latitude  Centro de la celda.
+     * @param longitude Centro de la celda.
+     * @param devices   Series (dispositivos) con lectura reciente del tipo en la celda.
+     * @param mean      Promedio de su último valor.
+     * @param latest    Hora de la lectura más reciente.
+     */
+    public record HeatmapCell(String geohash, double latitude, double longitude, String type, int devices, double mean,
+                              LocalDateTime latest) {
+    }
+
+    public record Stats(int precision, int series, int cells, long readingsApplied, long unlocatedReadings,
+                        long staleReadings, long expiredSeries, long rejectedSeries) {
+    }
+
+    /**
+     * Series de los dispositivos de una partición y sus celdas parciales; guardada por el lock de la propia
+     * partición.
+     */
+    private final class Shard {
+        private final DeviceIndex devices;
+        private final DeviceIndex types = new DeviceIndex(16);
+        private int[][] seriesByDeviceType; // [dispositivo][tipo] -> serie + 1 (0 = sin serie)
+        private int seriesCount;
+        private int[] seriesType;
+        private int[] seriesSlot; // Celda en la que cuenta la serie, o NO_SLOT
+        private double[] seriesValue;
+        private long[] seriesTime;
+
+        // Celdas: (celda << 16 | tipo) -> hueco de los arreglos de estadísticas; los huecos libres se reutilizan
+        private final Map<Long, Integer> slotByKey = new HashMap<>();
+        private long[] slotKey;
+        private int[] slotCount;
+        private double[] slotSum;
+        private long[] slotLatest;
+        private int[] freeSlots;
+        private int freeCount;
+        private int slotsUsed;
+
+        Shard(int initialSeries) {
+            devices = new DeviceIndex(initialSeries);
+            seriesByDeviceType = new int[initialSeries][];
+            seriesType = new int[initialSeries];
+            seriesSlot = new int[initialSeries];
+            Arrays.fill(seriesSlot, NO_SLOT);
+            seriesValue = new double[initialSeries];
+            seriesTime = new long[initialSeries];
+            slotKey = new long[initialSeries];
+            slotCount = new int[initialSeries];
+            slotSum = new double[initialSeries];
+            slotLatest = new long[initialSeries];
+            freeSlots = new int[initialSeries];
+        }
+
+        // false si la lectura no se aplicó (serie rechazada o lectura desordenada)
+        boolean apply(String deviceId, String type, long cell, double value, long timestamp) {
+            int series = seriesFor(deviceId, type);
+            if (series < 0) {
+                return false;
+            }
+            if (timestamp < seriesTime[series]) {
+                staleReadings.incrementAndGet(); // Llegó desordenada: el mapa muestra solo la última
+                return false;
+            }
+            long key = cell << 16 | seriesType[series];
+            int slot = seriesSlot[series];
+            if (slot != NO_SLOT && slotKey[slot] == key) {
+                slotSum[slot] += value - seriesValue[series];
+            } else {
+                if (slot != NO_SLOT) {
+                    leave(series);
+                }
+                slot = slotFor(key);
+                slotCount[slot]++;
+                slotSum[slot] += value;
+                seriesSlot[series] = slot;
+            }
+            slotLatest[slot] = Math.max(slotLatest[slot], timestamp);
+            seriesValue[series] = value;
+            seriesTime[series] = timestamp;
+            return true;
+        }
+
+        // Suma las celdas del tipo de esta partición, agrupadas con cellPrecision: celda -> {count, latest} y {sum}
+        void collect(String type, int cellPrecision, Map<Long, long[]> counts, Map<Long, double[]> sums) {
+            int typeIndex = types.find(type);
+            if (typeIndex < 0) {
+                return;
+            }
+            for (int slot = 0; slot < slotsUsed; slot++) {
+                if (slotCount[slot] == 0 || (slotKey[slot] & 0xFFFF) != typeIndex) {
+                    continue;
+                }
+                long cell = GeoHash.parent(slotKey[slot] >>> 16, precision, cellPrecision);
+                long[] count = counts.computeIfAbsent(cell, key -> new long[2]);
+                count[0] += slotCount[slot];
+                count[1] = Math.max(count[1], slotLatest[slot]);
+                sums.computeIfAbsent(cell, key -> new double[1])[0] += slotSum[slot];
+            }
+        }
+
+        void collectCells(Set<String> cells) {
+            for (long key : slotByKey.keySet()) {
+                cells.add((key >>> 16) + "/" + types.deviceId((int) (key & 0xFFFF)));
+            }
+        }
+
+        /**
+         * Quita las series sin lecturas recientes y recalcula las sumas desde los últimos valores, para que el
+         * error de redondeo de los ajustes incrementales no se acumule.
+         *
+         * @return Las series que expiraron.
+         */
+        int sweep(long cutoff) {
+            int expired = 0;
+            for (int series = 0; series < seriesCount; series++) {
+                if (seriesSlot[series] != NO_SLOT && seriesTime[series] < cutoff) {
+                    leave(series);
+                    expired++;
+                }
+            }
+            Arrays.fill(slotSum, 0, slotsUsed, 0.0);
+            for (int series = 0; series < seriesCount; series++) {
+                if (seriesSlot[series] != NO_SLOT) {
+                    slotSum[seriesSlot[series]] += seriesValue[series];
+                }
+            }
+            return expired;
+        }
+
+        // Resta la serie de su celda; la celda vacía vuelve a la lista de huecos libres
+        private void leave(int series) {
+            int slot = seriesSlot[series];
+            seriesSlot[series] = NO_SLOT;
+            if (--slotCount[slot] == 0) {
+                slotByKey.remove(slotKey[slot]);
+                slotSum[slot] = 0;
+                slotLatest[slot] = 0;
+                if (freeCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+                }
+                freeSlots[freeCount++] = slot;
+            } else {
+                slotSum[slot] -= seriesValue[series];
+            }
+        }
+
+        private int slotFor(long key) {
+            Integer existing = slotByKey.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                slot = slotsUsed++;
+                if (slot == slotKey.length) {
+                    int capacity = slotKey.length * 2;
+                    slotKey = Arrays.copyOf(slotKey, capacity);
+                    slotCount = Arrays.copyOf(slotCount, capacity);
+                    slotSum = Arrays.copyOf(slotSum, capacity);
+                    slotLatest = Arrays.copyOf(slotLatest, capacity);
+                }
+            }
+            slotKey[slot] = key;
+            slotByKey.put(key, slot);
+            return slot;
+        }
+
+        // Índice de la serie dispositivo + tipo, creándola si no existe; -1 si se alcanzó maxSeries
+        private int seriesFor(String deviceId, String type) {
+            int device = devices.indexOf(deviceId);
+            if (device >= seriesByDeviceType.length) {
+                seriesByDeviceType = Arrays.copyOf(seriesByDeviceType, devices.capacity());
+            }
+            int[] byType = seriesByDeviceType[device];
+            int typeIndex = types.find(type);
+            if (typeIndex >= 0 && byType != null && typeIndex < byType.length && byType[typeIndex] != 0) {
+                return byType[typeIndex] - 1;
+            }
+            if (typeIndex < 0 && types.size() >= MAX_TYPES) {
+                return reject();
+            }
+            if (totalSeries.incrementAndGet() > maxSeries) {
+                totalSeries.decrementAndGet();
+                return reject();
+            }
+            if (typeIndex < 0) {
+                typeIndex = types.indexOf(type);
+            }
+            if (byType == null || typeIndex >= byType.length) {
+                int length = Math.max(typeIndex + 1, byType == null ? 8 : byType.length * 2);
+                byType = byType == null ? new int[length] : Arrays.copyOf(byType, length);
+                seriesByDeviceType[device] = byType;
+            }
+            int series = seriesCount++;
+            if (series == seriesType.length) {
+                int capacity = seriesType.length * 2;
+                seriesType = Arrays.copyOf(seriesType, capacity);
+                seriesSlot = Arrays.copyOf(seriesSlot, capacity);
+                Arrays.fill(seriesSlot, series, capacity, NO_SLOT);
+                seriesValue = Arrays.copyOf(seriesValue, capacity);
+                seriesTime = Arrays.copyOf(seriesTime, capacity);
+            }
+            seriesType[series] = typeIndex;
+            seriesTime[series] = Long.MIN_VALUE;
+            byType[typeIndex] = series + 1;
+            return series;
+        }
+
+        private int reject() {
+            if (rejectedSeries.getAndIncrement() == 0) {
+                log.warn("Sensor heatmap reached {} series; new series are not mapped", maxSeries);
+            }
+            return -1;
+        }
+    }
+}
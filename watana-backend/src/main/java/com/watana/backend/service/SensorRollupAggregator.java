@@ -0,0 +1,448 @@
+package com.watana.backend.service;
+
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.ingest.SensorDataListener;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.model.SensorRollup;
+import com.watana.backend.util.DeviceIndex;
+import com.watana.backend.util.SensorTimestamps;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Agregación continua de las lecturas ingeridas en ventanas fijas consecutivas (tumbling) por dispositivo y tipo.
+ * <p>
+ * Cada serie acumula count/min/max/sum/sumOfSquares/last en arreglos primitivos; la ventana de una lectura se
+ * decide por su timestamp, no por la hora de llegada. Una ventana sigue abierta hasta que el reloj pasa su fin más
+ * {@code watana.rollup.grace-seconds}, así que las lecturas atrasadas dentro de ese margen cuentan en su ventana.
+ * Al cerrarse se escribe un único documento en {@code sensor_rollups}; lo que llega después se descarta del agregado
+ * y se cuenta como lectura tardía. Una lectura cuya ventana empieza más de una ventana después del reloj del servidor
+ * (reloj del dispositivo adelantado) se descarta antes de ocupar un hueco y se cuenta aparte.
+ * <p>
+ * Las series se reparten en particiones por dispositivo, tantas como carriles de ingesta y con el mismo reparto
+ * ({@link PartitionedExecutor#partitionFor}); cada partición tiene su propio lock.
+ * <p>
+ * {@code watana.rollup.keep-raw} decide si además se guarda cada lectura cruda en {@code sensor_data}: {@code all}
+ * (por defecto), {@code none}, o una lista de tipos que conservan sus lecturas crudas.
+ */
+@Component
+public class SensorRollupAggregator implements SensorDataListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorRollupAggregator.class);
+
+    private static final long EMPTY = Long.MIN_VALUE; // Hueco sin ventana abierta
+    private static final int INITIAL_SERIES = 1024; // Entre todas las particiones
+    private static final int MAX_PENDING_WINDOWS = 100_000; // Ventanas cerradas esperando escritura si el repositorio falla
+
+    private final SensorDataService sensorDataService;
+    private final boolean enabled;
+    private final long windowMs;
+    private final long graceMs;
+    private final long flushIntervalMs;
+    private final int maxSeries;
+    private final boolean keepAllRaw;
+    private final Set<String> rawTypes;
+    private final int windowsPerSeries; // Ventanas que pueden estar abiertas a la vez en una serie
+
+    private final Shard[] shards;
+    private final AtomicInteger totalSeries = new AtomicInteger(); // Entre todas las particiones, hasta maxSeries
+    private final Object pendingLock = new Object(); // Se toma después del lock de una partición, nunca antes
+    private List<SensorRollup> pending = new ArrayList<>(); // Guardada por pendingLock
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sensor-rollups");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Estadísticas
+    private final AtomicLong readingsAggregated = new AtomicLong();
+    private final AtomicLong lateReadings = new AtomicLong();
+    private final AtomicLong futureReadings = new AtomicLong();
+    private final AtomicLong rejectedSeries = new AtomicLong();
+    private final AtomicLong windowsFlushed = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong droppedWindows = new AtomicLong();
+
+    public SensorRollupAggregator(SensorDataService sensorDataService,
+                                  @Value("${watana.rollup.enabled:true}") boolean enabled,
+                                  @Value("${watana.rollup.window-seconds:60}") long windowSeconds,
+                                  @Value("${watana.rollup.grace-seconds:10}") long graceSeconds,
+                                  @Value("${watana.rollup.flush-interval-ms:1000}") long flushIntervalMs,
+                                  @Value("${watana.rollup.max-series:20000}") int maxSeries,
+                                  @Value("${watana.rollup.keep-raw:all}") String[] keepRaw,
+                                  @Value("${watana.ingest.lanes:0}") int lanes) {
+        if (windowSeconds <= 0 || graceSeconds < 0 || flushIntervalMs <= 0) {
+            throw new IllegalArgumentException("Configuración de agregados inválida: window=" + windowSeconds
+                    + "s, grace=" + graceSeconds + "s, flushInterval=" + flushIntervalMs + "ms");
+        }
+        this.sensorDataService = sensorDataService;
+        this.enabled = enabled;
+        this.windowMs = TimeUnit.SECONDS.toMillis(windowSeconds);
+        this.graceMs = TimeUnit.SECONDS.toMillis(graceSeconds);
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxSeries = maxSeries;
+        // La ventana actual, las que siguen en periodo de gracia y una más por relojes de dispositivo adelantados
+        this.windowsPerSeries = (int) (2 + (graceMs + windowMs - 1) / windowMs);
+
+        Set<String> rawTypes = new HashSet<>();
+        boolean keepAll = false;
+        for (String value : keepRaw) {
+            String policy = value.trim();
+            if (policy.equalsIgnoreCase("all")) {
+                keepAll = true;
+            } else if (!policy.isEmpty() && !policy.equalsIgnoreCase("none")) {
+                rawTypes.add(policy);
+            }
+        }
+        this.keepAllRaw = keepAll;
+        this.rawTypes = Set.copyOf(rawTypes);
+
+        this.shards = new Shard[PartitionedExecutor.laneCount(lanes)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(Math.max(16, INITIAL_SERIES / shards.length));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::flushClosedWindows, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+            log.info("Sensor rollups every {} s (grace {} s), raw readings kept: {}", windowMs / 1000, graceMs / 1000,
+                    keepAllRaw ? "all" : rawTypes.isEmpty() ? "none" : rawTypes);
+        }
+    }
+
+    /**
+     * Cierra y escribe todas las ventanas abiertas, aunque no haya terminado su periodo de gracia.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        if (enabled) {
+            flush(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Indica si la lectura cruda debe guardarse además de su agregado, según {@code watana.rollup.keep-raw}.
+     * Con los agregados desactivados, o si la lectura no tiene tipo (no se puede agregar), siempre se guarda.
+     */
+    public boolean keepRaw(SensorData sensorData) {
+        return !enabled || keepAllRaw || sensorData.getType() == null || rawTypes.contains(sensorData.getType());
+    }
+
+    @Override
+    public void onSensorData(SensorData sensorData) {
+        if (!enabled || sensorData.getDeviceId() == null || sensorData.getType() == null
+                || sensorData.getTimestamp() == null) {
+            return;
+        }
+        long timestamp = SensorTimestamps.toEpochMillis(sensorData.getTimestamp());
+        long windowNumber = Math.floorDiv(timestamp, windowMs);
+        long start = windowNumber * windowMs;
+        long now = System.currentTimeMillis();
+        if (start + windowMs + graceMs <= now) {
+            lateReadings.incrementAndGet(); // Su ventana ya se cerró (o se cerrará en el próximo flush)
+            return;
+        }
+        if (start > now + windowMs) {
+            // Reloj del dispositivo adelantado: su hueco es el de una ventana que aún no empezó y la desplazaría
+            if (futureReadings.getAndIncrement() == 0) {
+                log.warn("Reading from {} is ahead of the server clock ({}); future readings are not aggregated",
+                        sensorData.getDeviceId(), sensorData.getTimestamp());
+            }
+            return;
+        }
+        Shard shard = shards[PartitionedExecutor.partitionFor(sensorData.getDeviceId(), shards.length)];
+        boolean aggregated;
+        synchronized (shard) {
+            aggregated = shard.add(sensorData, windowNumber, start, timestamp);
+        }
+        if (aggregated) {
+            readingsAggregated.incrementAndGet();
+        }
+    }
+
+    private void flushClosedWindows() {
+        try {
+            flush(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.error("Rollup flush failed", e); // Una excepción cancelaría la tarea programada
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Cierra las ventanas cuyo fin + gracia ya pasó a 'now' y escribe las pendientes en un solo lote
+    private void flush(long now) throws InterruptedException {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.closeExpired(now);
+            }
+        }
+        List<SensorRollup> batch;
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        try {
+            sensorDataService.saveRollups(batch);
+            windowsFlushed.addAndGet(batch.size());
+            log.debug("Flushed {} rollup windows", batch.size());
+        } catch (ExecutionException | RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            log.error("Error saving {} rollup windows, retrying on the next flush", batch.size(), e);
+            requeue(batch);
+        } catch (InterruptedException e) {
+            requeue(batch);
+            throw e;
+        }
+    }
+
+    private void requeue(List<SensorRollup> batch) {
+        synchronized (pendingLock) {
+            int room = MAX_PENDING_WINDOWS - pending.size();
+            if (room < batch.size()) {
+                droppedWindows.addAndGet(batch.size() - Math.max(room, 0));
+            }
+            if (room > 0) {
+                pending.addAll(0, batch.subList(0, Math.min(room, batch.size())));
+            }
+        }
+    }
+
+    // Pasa una ventana cerrada a la lista de pendientes, salvo que ya esté llena
+    private void enqueue(SensorRollup rollup) {
+        synchronized (pendingLock) {
+            if (pending.size() >= MAX_PENDING_WINDOWS) {
+                if (droppedWindows.getAndIncrement() == 0) {
+                    log.warn("{} rollup windows pending; dropping closed windows until the repository recovers",
+                            pending.size());
+                }
+            } else {
+                pending.add(rollup);
+            }
+        }
+    }
+
+    public Stats getStats() {
+        int open = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                open += shard.openWindows();
+            }
+        }
+        int pendingWindows;
+        synchronized (pendingLock) {
+            pendingWindows = pending.size();
+        }
+        return new Stats(enabled, windowMs / 1000, totalSeries.get(), open, pendingWindows, readingsAggregated.get(),
+                lateReadings.get(), futureReadings.get(), rejectedSeries.get(), windowsFlushed.get(),
+                failedFlushes.get(), droppedWindows.get());
+    }
+
+    // Instantánea de las estadísticas de los agregados
+    public record Stats(boolean enabled, long windowSeconds, int series, int openWindows, int pendingWindows,
+                        long readingsAggregated, long lateReadings, long futureReadings, long rejectedSeries,
+                        long windowsFlushed, long failedFlushes, long droppedWindows) {
+    }
+
+    /**
+     * Series de los dispositivos de una partición; guardada por el lock de la propia partición. La serie s usa los
+     * huecos [s * windowsPerSeries, (s + 1) * windowsPerSeries).
+     */
+    private final class Shard {
+        private final DeviceIndex devices;
+        private final DeviceIndex types = new DeviceIndex(16);
+        private int[][] seriesByDeviceType; // [dispositivo][tipo] -> serie + 1 (0 = sin serie)
+        private int seriesCount;
+        private int[] seriesDevice;
+        private int[] seriesType;
+        private String[] seriesUnit;
+        private String[] seriesLocation;
+        private long[] windowStart;
+        private long[] count;
+        private double[] min;
+        private double[] max;
+        private double[] sum;
+        private double[] sumOfSquares;
+        private double[] last;
+        private long[] lastTimestamp;
+
+        Shard(int initialSeries) {
+            devices = new DeviceIndex(initialSeries);
+            seriesByDeviceType = new int[initialSeries][];
+            seriesDevice = new int[initialSeries];
+            seriesType = new int[initialSeries];
+            seriesUnit = new String[initialSeries];
+            seriesLocation = new String[initialSeries];
+            int slots = initialSeries * windowsPerSeries;
+            windowStart = new long[slots];
+            Arrays.fill(windowStart, EMPTY);
+            count = new long[slots];
+            min = new double[slots];
+            max = new double[slots];
+            sum = new double[slots];
+            sumOfSquares = new double[slots];
+            last = new double[slots];
+            lastTimestamp = new long[slots];
+        }
+
+        // false si la lectura no se agregó (serie rechazada o hueco ocupado por una ventana posterior)
+        boolean add(SensorData sensorData, long windowNumber, long start, long timestamp) {
+            int series = seriesFor(sensorData.getDeviceId(), sensorData.getType());
+            if (series < 0) {
+                return false;
+            }
+            int slot = series * windowsPerSeries + (int) Math.floorMod(windowNumber, windowsPerSeries);
+            if (windowStart[slot] != start) {
+                if (windowStart[slot] != EMPTY) {
+                    if (windowStart[slot] > start) {
+                        lateReadings.incrementAndGet(); // El hueco ya lo ocupa una ventana posterior
+                        return false;
+                    }
+                    close(series, slot); // Ventana anterior que aún no recogió el flush: ya terminó
+                }
+                windowStart[slot] = start;
+                count[slot] = 0;
+                min[slot] = Double.POSITIVE_INFINITY;
+                max[slot] = Double.NEGATIVE_INFINITY;
+                sum[slot] = 0;
+                sumOfSquares[slot] = 0;
+                lastTimestamp[slot] = EMPTY;
+            }
+            double value = sensorData.getValue();
+            count[slot]++;
+            min[slot] = Math.min(min[slot], value);
+            max[slot] = Math.max(max[slot], value);
+            sum[slot] += value;
+            sumOfSquares[slot] += value * value;
+            if (timestamp >= lastTimestamp[slot]) {
+                last[slot] = value;
+                lastTimestamp[slot] = timestamp;
+            }
+            seriesUnit[series] = sensorData.getUnit();
+            seriesLocation[series] = sensorData.getLocation();
+            return true;
+        }
+
+        // Índice de la serie dispositivo + tipo, creándola si no existe; -1 si se alcanzó maxSeries
+        private int seriesFor(String deviceId, String type) {
+            int device = devices.indexOf(deviceId);
+            int typeIndex = types.indexOf(type);
+            if (device >= seriesByDeviceType.length) {
+                seriesByDeviceType = Arrays.copyOf(seriesByDeviceType, devices.capacity());
+            }
+            int[] byType = seriesByDeviceType[device];
+            if (byType == null || typeIndex >= byType.length) {
+                int length = Math.max(typeIndex + 1, byType == null ? 8 : byType.length * 2);
+                byType = byType == null ? new int[length] : Arrays.copyOf(byType, length);
+                seriesByDeviceType[device] = byType;
+            }
+            if (byType[typeIndex] != 0) {
+                return byType[typeIndex] - 1;
+            }
+            if (totalSeries.incrementAndGet() > maxSeries) {
+                totalSeries.decrementAndGet();
+                if (rejectedSeries.getAndIncrement() == 0) {
+                    log.warn("Sensor rollups reached {} series; new series are not aggregated", maxSeries);
+                }
+                return -1;
+            }
+            int series = seriesCount++;
+            if (series == seriesDevice.length) {
+                grow(seriesDevice.length * 2);
+            }
+            seriesDevice[series] = device;
+            seriesType[series] = typeIndex;
+            byType[typeIndex] = series + 1;
+            return series;
+        }
+
+        private void grow(int seriesCapacity) {
+            seriesDevice = Arrays.copyOf(seriesDevice, seriesCapacity);
+            seriesType = Arrays.copyOf(seriesType, seriesCapacity);
+            seriesUnit = Arrays.copyOf(seriesUnit, seriesCapacity);
+            seriesLocation = Arrays.copyOf(seriesLocation, seriesCapacity);
+            int slots = seriesCapacity * windowsPerSeries;
+            int oldSlots = windowStart.length;
+            windowStart = Arrays.copyOf(windowStart, slots);
+            Arrays.fill(windowStart, oldSlots, slots, EMPTY);
+            count = Arrays.copyOf(count, slots);
+            min = Arrays.copyOf(min, slots);
+            max = Arrays.copyOf(max, slots);
+            sum = Arrays.copyOf(sum, slots);
+            sumOfSquares = Arrays.copyOf(sumOfSquares, slots);
+            last = Arrays.copyOf(last, slots);
+            lastTimestamp = Arrays.copyOf(lastTimestamp, slots);
+        }
+
+        // Cierra las ventanas cuyo fin + gracia ya pasó a 'now' (todas con Long.MAX_VALUE)
+        void closeExpired(long now) {
+            for (int series = 0; series < seriesCount; series++) {
+                for (int slot = series * windowsPerSeries, end = slot + windowsPerSeries; slot < end; slot++) {
+                    if (windowStart[slot] != EMPTY
+                            && (now == Long.MAX_VALUE || windowStart[slot] + windowMs + graceMs <= now)) {
+                        close(series, slot);
+                    }
+                }
+            }
+        }
+
+        int openWindows() {
+            int open = 0;
+            for (int slot = 0, end = seriesCount * windowsPerSeries; slot < end; slot++) {
+                if (windowStart[slot] != EMPTY) {
+                    open++;
+                }
+            }
+            return open;
+        }
+
+        // Pasa la ventana del hueco a la lista de pendientes y libera el hueco
+        private void close(int series, int slot) {
+            String deviceId = devices.deviceId(seriesDevice[series]);
+            String type = types.deviceId(seriesType[series]);
+            SensorRollup rollup = new SensorRollup();
+            rollup.setId((deviceId + "_" + type + "_" + windowStart[slot]).replace('/', '_'));
+            rollup.setDeviceId(deviceId);
+            rollup.setType(type);
+            rollup.setUnit(seriesUnit[series]);
+            rollup.setLocation(seriesLocation[series]);
+            rollup.setWindowStart(new Date(windowStart[slot]));
+            rollup.setWindowEnd(new Date(windowStart[slot] + windowMs));
+            rollup.setCount(count[slot]);
+            rollup.setMin(min[slot]);
+            rollup.setMax(max[slot]);
+            rollup.setSum(sum[slot]);
+            rollup.setSumOfSquares(sumOfSquares[slot]);
+            rollup.setLast(last[slot]);
+            rollup.setLastTimestamp(new Date(lastTimestamp[slot]));
+            enqueue(rollup);
+            windowStart[slot] = EMPTY;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.watana.backend.service;
+
+import com.watana.backend.ingest.SensorDataListener;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.util.SensorTimestamps;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Almacén en memoria del historial reciente de lecturas, por {@code deviceId} + {@code type}.
+ * <p>
+ * Cada serie es un buffer circular de {@code long[]} (epoch millis) y {@code double[]} (valores) que
+ * crece bajo demanda hasta {@code capacityPerSeries} y descarta lo que supera la retención configurada.
+ * Así los dashboards consultan el historial reciente sin ir a Firestore.
+ * <p>
+ * La retención se mide contra el reloj del servidor, no contra la lectura más nueva: las lecturas con fecha más
+ * de {@code max-future-skew-seconds} en el futuro (reloj del dispositivo desajustado) se rechazan, y un barrido
+ * periódico vacía y quita las series que dejaron de recibir lecturas.
+ */
+@Service
+public class SensorTimeSeriesStore implements SensorDataListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorTimeSeriesStore.class);
+    private static final int INITIAL_SERIES_CAPACITY = 64;
+
+    private final Map<String, Map<String, Series>> seriesByDevice = new ConcurrentHashMap<>();
+    private final int capacityPerSeries;
+    private final long retentionMillis;
+    private final int maxSeries;
+    private final long maxFutureSkewMillis;
+    private final long sweepIntervalMillis;
+
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final AtomicLong rejectedSeries = new AtomicLong();
+    private final AtomicLong futureReadings = new AtomicLong();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sensor-timeseries-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SensorTimeSeriesStore(@Value("${watana.timeseries.capacity-per-series:8192}") int capacityPerSeries,
+                                 @Value("${watana.timeseries.retention-hours:6}") long retentionHours,
+                                 @Value("${watana.timeseries.max-series:20000}") int maxSeries,
+                                 @Value("${watana.timeseries.max-future-skew-seconds:300}") long maxFutureSkewSeconds,
+                                 @Value("${watana.timeseries.sweep-seconds:60}") long sweepSeconds) {
+        if (maxFutureSkewSeconds < 0 || sweepSeconds <= 0) {
+            throw new IllegalArgumentException("Configuración del historial inválida: maxFutureSkew="
+                    + maxFutureSkewSeconds + "s, sweep=" + sweepSeconds + "s");
+        }
+        this.capacityPerSeries = capacityPerSeries;
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+        this.maxSeries = maxSeries;
+        this.maxFutureSkewMillis = TimeUnit.SECONDS.toMillis(maxFutureSkewSeconds);
+        this.sweepIntervalMillis = TimeUnit.SECONDS.toMillis(sweepSeconds);
+    }
+
+    @PostConstruct
+    public void start() {
+        sweeper.scheduleWithFixedDelay(this::sweepSafely, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public void onSensorData(SensorData sensorData) {
+        if (sensorData.getDeviceId() == null || sensorData.getType() == null || sensorData.getTimestamp() == null) {
+            return;
+        }
+        long timestamp = toEpochMillis(sensorData.getTimestamp());
+        long now = System.currentTimeMillis();
+        if (timestamp > now + maxFutureSkewMillis) {
+            // Una lectura del futuro quedaría como la más nueva de la serie (y como latest()) hasta que el reloj la alcance
+            if (futureReadings.getAndIncrement() == 0) {
+                log.warn("Ignoring reading from {} dated {} ahead of server time; further ones are only counted",
+                        sensorData.getDeviceId(), sensorData.getTimestamp());
+            }
+            return;
+        }
+        Series series = seriesFor(sensorData.getDeviceId(), sensorData.getType());
+        // Una serie que el barrido acaba de retirar no acepta lecturas: se vuelve a buscar (y se crea otra)
+        while (series != null && !series.append(timestamp, sensorData.getValue(), now - retentionMillis)) {
+            series = seriesFor(sensorData.getDeviceId(), sensorData.getType());
+        }
+    }
+
+    private Series seriesFor(String deviceId, String type) {
+        Map<String, Series> byType = seriesByDevice.get(deviceId);
+        Series series = byType == null ? null : byType.get(type);
+        if (series != null && !series.isRetired()) {
+            return series;
+        }
+        // Alta de serie bajo el lock del dispositivo en el mapa, el mismo que toma el barrido al quitarlas
+        Series[] created = new Series[1];
+        seriesByDevice.compute(deviceId, (id, current) -> {
+            Map<String, Series> types = current != null ? current : new ConcurrentHashMap<>();
+            Series existing = types.get(type);
+            if (existing != null && !existing.isRetired()) {
+                created[0] = existing;
+            } else if (seriesCount.get() < maxSeries) {
+                created[0] = new Series(Math.min(INITIAL_SERIES_CAPACITY, capacityPerSeries), capacityPerSeries);
+                types.put(type, created[0]);
+                seriesCount.incrementAndGet();
+            }
+            return types.isEmpty() ? null : types;
+        });
+        if (created[0] == null && rejectedSeries.getAndIncrement() == 0) {
+            log.warn("Time-series store reached {} series; new series are ignored", maxSeries);
+        }
+        return created[0];
+    }
+
+    private void sweepSafely() {
+        try {
+            sweep(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.error("Time-series sweep failed", e); // Una excepción cancelaría la tarea programada
+        }
+    }
+
+    // Descarta lo que superó la retención en todas las series y quita las que quedaron vacías
+    void sweep(long now) {
+        long cutoff = now - retentionMillis;
+        for (String deviceId : seriesByDevice.keySet()) {
+            seriesByDevice.computeIfPresent(deviceId, (id, types) -> {
+                types.values().removeIf(series -> {
+                    if (series.retireIfEmpty(cutoff)) {
+                        seriesCount.decrementAndGet();
+                        return true;
+                    }
+                    return false;
+                });
+                return types.isEmpty() ? null : types;
+            });
+        }
+    }
+
+    public long toEpochMillis(LocalDateTime timestamp) {
+        return SensorTimestamps.toEpochMillis(timestamp);
+    }
+
+    /**
+     * Lecturas crudas de una serie en el rango {@code [fromMillis, toMillis]}.
+     *
+     * @return La serie en formato columnar; vacía si no existe.
+     */
+    public RawSeries queryRaw(String deviceId, String type, long fromMillis, long toMillis) {
+        Series series = find(deviceId, type);
+        if (series == null) {
+            return new RawSeries(deviceId, type, new long[0], new double[0]);
+        }
+        return series.range(deviceId, type, fromMillis, toMillis);
+    }
+
+    /**
+     * Agregados min/max/avg/last por ventana de {@code bucket} en el rango {@code [fromMillis, toMillis]}.
+     * Las ventanas sin lecturas se omiten.
+     */
+    public List<Bucket> queryAggregates(String deviceId, String type, Resolution bucket, long fromMillis, long toMillis) {
+        Series series = find(deviceId, type);
+        if (series == null) {
+            return List.of();
+        }
+        return series.aggregate(bucket.millis, fromMillis, toMillis);
+    }
+
+    /**
+     * Última lectura conocida de una serie.
+     *
+     * @return La lectura, o {@code null} si la serie está vacía o no existe.
+     */
+    public Point latest(String deviceId, String type) {
+        Series series = find(deviceId, type);
+        return series == null ? null : series.last();
+    }
+
+    // Tipos de lectura con historial para un dispositivo
+    public List<String> typesFor(String deviceId) {
+        Map<String, Series> byType = seriesByDevice.get(deviceId);
+        return byType == null ? List.of() : new ArrayList<>(byType.keySet());
+    }
+
+    public List<String> deviceIds() {
+        return new ArrayList<>(seriesByDevice.keySet());
+    }
+
+    public int getSeriesCount() {
+        return seriesCount.get();
+    }
+
+    // Lecturas ignoradas por venir con fecha en el futuro
+    public long getFutureReadings() {
+        return futureReadings.get();
+    }
+
+    private Series find(String deviceId, String type) {
+        Map<String, Series> byType = seriesByDevice.get(deviceId);
+        return byType == null ? null : byType.get(type);
+    }
+
+    // Tamaños de ventana soportados para la agregación
+    public enum Resolution {
+        ONE_MINUTE("1m", TimeUnit.MINUTES.toMillis(1)),
+        FIVE_MINUTES("5m", TimeUnit.MINUTES.toMillis(5)),
+        ONE_HOUR("1h", TimeUnit.HOURS.toMillis(1));
+
+        private final String label;
+        private final long millis;
+
+        Resolution(String label, long millis) {
+            this.label = label;
+            this.millis = millis;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public static Resolution fromLabel(String label) {
+            for (Resolution resolution : values()) {
+                if (resolution.label.equalsIgnoreCase(label)) {
+                    return resolution;
+                }
+            }
+            throw new IllegalArgumentException("Resolución no soportada: " + label + " (use 1m, 5m o 1h)");
+        }
+    }
+
+    public record Point(long timestamp, double value) {
+    }
+
+    // Lecturas en formato columnar: timestamps[i] corresponde a values[i]
+    public record RawSeries(String deviceId, String type, long[] timestamps, double[] values) {
+    }
+
+    public record Bucket(long start, int count, double min, double max, double avg, double last) {
+    }
+
+    /**
+     * Buffer circular de una serie. Los timestamps se mantienen ordenados: una lectura tardía se inserta
+     * en su posición (caso raro, desplaza solo las lecturas más nuevas que ella).
+     */
+    static final class Series {
+
+        private final int maxCapacity;
+        private long[] timestamps;
+        private double[] values;
+        private int head; // Índice de la lectura más antigua
+        private int size;
+        private volatile boolean retired; // Quitada del almacén por el barrido
+
+        Series(int initialCapacity, int maxCapacity) {
+            this.maxCapacity = maxCapacity;
+            this.timestamps = new long[initialCapacity];
+            this.values = new double[initialCapacity];
+        }
+
+        boolean isRetired() {
+            return retired;
+        }
+
+        /**
+         * Agrega una lectura y descarta las anteriores a {@code cutoff}.
+         *
+         * @return {@code false} si la serie ya fue retirada y la lectura no se guardó.
+         */
+        synchronized boolean append(long timestamp, double value, long cutoff) {
+            if (retired) {
+                return false;
+            }
+            if (size == timestamps.length) {
+                if (timestamps.length < maxCapacity) {
+                    grow();
+                } else {
+                    head = (head + 1) % timestamps.length; // Lleno: descarta la más antigua
+                    size--;
+                }
+            }
+            int capacity = timestamps.length;
+            int pos = size;
+            // Inserción ordenada: normalmente el bucle no itera porque las lecturas llegan en orden
+            while (pos > 0 && timestamps[(head + pos - 1) % capacity] > timestamp) {
+                int from = (head + pos - 1) % capacity;
+                int to = (head + pos) % capacity;
+                timestamps[to] = timestamps[from];
+                values[to] = values[from];
+                pos--;
+            }
+            int slot = (head + pos) % capacity;
+            timestamps[slot] = timestamp;
+            values[slot] = value;
+            size++;
+            evictExpired(cutoff);
+            return true;
+        }
+
+        // Llamado por el barrido con el lock del dispositivo tomado; una serie retirada ya no acepta lecturas
+        synchronized boolean retireIfEmpty(long cutoff) {
+            evictExpired(cutoff);
+            if (size == 0) {
+                retired = true;
+                timestamps = new long[0];
+                values = new double[0];
+            }
+            return retired;
+        }
+
+        private void grow() {
+            int newCapacity = Math.min(timestamps.length * 2, maxCapacity);
+            long[] newTimestamps = new long[newCapacity];
+            double[] newValues = new double[newCapacity];
+            for (int i = 0; i < size; i++) {
+                int idx = (head + i) % timestamps.length;
+                newTimestamps[i] = timestamps[idx];
+                newValues[i] = values[idx];
+            }
+            timestamps = newTimestamps;
+            values = newValues;
+            head = 0;
+        }
+
+        private void evictExpired(long cutoff) {
+            while (size > 0 && timestamps[head] < cutoff) {
+                head = (head + 1) % timestamps.length;
+                size--;
+            }
+        }
+
+        // Primer índice lógico con timestamp >= t (búsqueda binaria sobre el anillo)
+        private int lowerBound(long t) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timestamps[(head + mid) % timestamps.length] < t) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        synchronized RawSeries range(String deviceId, String type, long from, long to) {
+            int start = lowerBound(from);
+            int end = lowerBound(to == Long.MAX_VALUE ? to : to + 1);
+            int count = Math.max(0, end - start);
+            long[] ts = new long[count];
+            double[] vs = new double[count];
+            for (int i = 0; i < count; i++) {
+                int idx = (head + start + i) % timestamps.length;
+                ts[i] = timestamps[idx];
+                vs[i] = values[idx];
+            }
+            return new RawSeries(deviceId, type, ts, vs);
+        }
+
+        synchronized List<Bucket> aggregate(long bucketMillis, long from, long to) {
+            int start = lowerBound(from);
+            int end = lowerBound(to == Long.MAX_VALUE ? to : to + 1);
+            List<Bucket> buckets = new ArrayList<>();
+            long bucketStart = Long.MIN_VALUE;
+            int count = 0;
+            double min = 0;
+            double max = 0;
+            double sum = 0;
+            double last = 0;
+            for (int i = start; i < end; i++) {
+                int idx = (head + i) % timestamps.length;
+                long t = timestamps[idx];
+                double v = values[idx];
+                long bs = Math.floorDiv(t, bucketMillis) * bucketMillis;
+                if (bs != bucketStart) {
+                    if (count > 0) {
+                        buckets.add(new Bucket(bucketStart, count, min, max, sum / count, last));
+                    }
+                    bucketStart = bs;
+                    count = 0;
+                    min = Double.POSITIVE_INFINITY;
+                    max = Double.NEGATIVE_INFINITY;
+                    sum = 0;
+                }
+                count++;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                sum += v;
+                last = v;
+            }
+            if (count > 0) {
+                buckets.add(new Bucket(bucketStart, count, min, max, sum / count, last));
+            }
+            return buckets;
+        }
+
+        synchronized Point last() {
+            if (size == 0) {
+                return null;
+            }
+            int idx = (head + size - 1) % timestamps.length;
+            return new Point(timestamps[idx], values[idx]);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.watana.backend.service;
+
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flujo SSE compartido con IDs monótonos y un anillo acotado de los últimos eventos, para reanudar conexiones.
+ * <p>
+ * Cada evento se arma una sola vez, con su {@code id}, y se comparte entre todos los clientes. Un cliente que se
+ * reconecta con {@code Last-Event-ID} recibe primero los eventos posteriores que siguen en el anillo y luego los
+ * nuevos, sin duplicados ni huecos: la emisión y la suscripción se ordenan con el mismo lock. Si el ID ya salió
+ * del anillo (o es de otra ejecución del backend), no se puede saber qué se perdió: el cliente recibe un evento
+ * {@code reset} y debe recargar su estado.
+ * <p>
+ * Los IDs arrancan en el epoch del arranque en microsegundos, así siguen siendo crecientes entre reinicios y un ID
+ * de una ejecución anterior se detecta como demasiado viejo. Sin clientes durante {@code idleMillis}, los
+ * publicadores pueden omitir la serialización ({@link #isIdle()}, {@link #skip()}); el ID avanza igual, así nadie
+ * reanuda por encima de un hueco.
+ * <p>
+ * Los publicadores (los carriles de ingesta, en paralelo) no esperan ese lock: dejan el evento en una cola y un
+ * solo hilo a la vez, el que encuentra la cola sin drenar, le asigna el ID y lo emite. Un carril que publica mientras
+ * otro drena sigue de inmediato.
+ *
+ * @param <T> Dato de origen de cada evento, para que el publicador filtre por cliente (dispositivo, tipo...).
+ */
+public class SseReplayLog<T> {
+
+    /** Evento publicado; en el evento {@code reset} el origen es {@code null}. */
+    public record Event<T>(long id, T source, ServerSentEvent<String> sse) {
+    }
+
+    // Evento aún sin ID; con data null solo avanza el ID (skip)
+    private record Pending<T>(T source, String eventType, String data) {
+    }
+
+    private final Object lock = new Object();
+    private final Queue<Pending<T>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger drainRequests = new AtomicInteger(); // Distinto de 0 mientras un hilo drena
+    private final Sinks.Many<Event<T>> sink = Sinks.many().multicast().directBestEffort();
+    private final Event<T>[] ring; // Protegido por lock
+    private final long idleMillis;
+    private final long firstId; // ID del primer evento de esta ejecución
+    private long lastId; // Protegido por lock
+    private volatile long lastSubscriberSeen = System.currentTimeMillis();
+
+    @SuppressWarnings("unchecked")
+    public SseReplayLog(int capacity, long idleMillis) {
+        this.ring = (Event<T>[]) new Event[Math.max(1, capacity)];
+        this.idleMillis = idleMillis;
+        this.lastId = System.currentTimeMillis() * 1000;
+        this.firstId = lastId + 1;
+    }
+
+    /**
+     * Publica un evento con el siguiente ID.
+     *
+     * @param source    Dato de origen, para filtrar por cliente.
+     * @param eventType Campo {@code event} del SSE; {@code null} para el tipo por defecto ({@code message}).
+     * @param data      Datos ya serializados.
+     */
+    public void publish(T source, String eventType, String data) {
+        queue.offer(new Pending<>(source, eventType, data));
+        drain();
+    }
+
+    /** Sin clientes conectados ni recientes: no hace falta guardar eventos. */
+    public boolean isIdle() {
+        if (sink.currentSubscriberCount() > 0) {
+            lastSubscriberSeen = System.currentTimeMillis();
+            return false;
+        }
+        return System.currentTimeMillis() - lastSubscriberSeen > idleMillis;
+    }
+
+    /** Avanza el ID sin guardar el evento (flujo inactivo). */
+    public void skip() {
+        queue.offer(new Pending<>(null, null, null));
+        drain();
+    }
+
+    // Solo un hilo drena a la vez; si otro publica mientras tanto, este hilo da otra vuelta y emite su evento
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Pending<T> pending;
+            while ((pending = queue.poll()) != null) {
+                emit(pending);
+            }
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit(Pending<T> pending) {
+        synchronized (lock) {
+            long id = ++lastId;
+            if (pending.data() == null) {
+                return;
+            }
+            Event<T> event = new Event<>(id, pending.source(),
+                    ServerSentEvent.builder(pending.data()).id(Long.toString(id)).event(pending.eventType()).build());
+            ring[(int) (id % ring.length)] = event;
+            // Emisión bajo el lock: los suscriptores solo encolan en su buffer, y así el orden de los IDs se mantiene
+            sink.emitNext(event, Sinks.EmitFailureHandler.FAIL_FAST);
+        }
+    }
+
+    /**
+     * Eventos para un cliente: los perdidos desde {@code lastEventId} (si viene) y luego los nuevos.
+     *
+     * @param lastEventId Cabecera {@code Last-Event-ID} o parámetro equivalente; {@code null} o vacío para empezar
+     *                    desde ahora.
+     */
+    public Flux<Event<T>> events(String lastEventId) {
+        Long resumeFrom = parseId(lastEventId);
+        return Flux.<Event<T>>create(emitter -> {
+            Disposable live;
+            synchronized (lock) {
+                if (resumeFrom != null) {
+                    replay(resumeFrom, emitter);
+                }
+                live = sink.asFlux().subscribe(emitter::next, emitter::error, emitter::complete);
+            }
+            emitter.onDispose(() -> {
+                live.dispose();
+                lastSubscriberSeen = System.currentTimeMillis();
+            });
+        }, FluxSink.OverflowStrategy.BUFFER);
+    }
+
+    // Llamado con el lock tomado
+    private void replay(long resumeFrom, FluxSink<Event<T>> emitter) {
+        if (resumeFrom == lastId) {
+            return; // No se perdió nada
+        }
+        long oldestKept = Math.max(firstId, lastId - ring.length + 1);
+        if (resumeFrom < oldestKept - 1 || resumeFrom > lastId) {
+            emitter.next(reset());
+            return;
+        }
+        List<Event<T>> missed = new ArrayList<>((int) (lastId - resumeFrom));
+        for (long id = resumeFrom + 1; id <= lastId; id++) {
+            Event<T> event = ring[(int) (id % ring.length)];
+            if (event == null || event.id() != id) {
+                // Evento omitido mientras el flujo estaba inactivo
+                emitter.next(reset());
+                return;
+            }
+            missed.add(event);
+        }
+        missed.forEach(emitter::next);
+    }
+
+    // Lleva el último ID, así el cliente reanuda desde aquí en la próxima reconexión
+    private Event<T> reset() {
+        return new Event<>(lastId, null, ServerSentEvent.builder("").id(Long.toString(lastId)).event("reset").build());
+    }
+
+    private static Long parseId(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return -1L; // ID ajeno: se trata como demasiado viejo
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.watana.backend.service;
+
+import com.watana.backend.model.Device;
+import com.watana.backend.model.Notification;
+import com.watana.backend.model.WildfireAssessment;
+import com.watana.backend.model.WildfireRiskCandidate;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluación periódica del riesgo de incendio de toda la flota.
+ * <p>
+ * Toma la última temperatura y humedad de cada dispositivo del historial en memoria y calcula un índice
+ * local barato (Chandler Burning Index). Solo las ubicaciones que superan {@code watana.wildfire.local-index-threshold}
+ * se envían al modelo, agrupadas de a {@code watana.wildfire.batch-size} por prompt con respuesta en JSON.
+ * Cada evaluación se publica como notificación.
+ */
+@Component
+public class WildfireRiskAssessmentJob {
+
+    private static final Logger log = LoggerFactory.getLogger(WildfireRiskAssessmentJob.class);
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final SensorTimeSeriesStore timeSeriesStore;
+    private final DeviceService deviceService;
+    private final AIService aiService;
+    private final NotificationBroadcaster notificationBroadcaster;
+
+    private final boolean enabled;
+    private final long intervalMinutes;
+    private final double localIndexThreshold;
+    private final int batchSize;
+    private final int maxCandidates;
+    private final long maxReadingAgeMs;
+    private final String temperatureType;
+    private final String humidityType;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wildfire-risk-assessment");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Estadísticas de las ejecuciones
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong devicesScored = new AtomicLong();
+    private final AtomicLong candidatesSent = new AtomicLong();
+    private final AtomicLong modelCalls = new AtomicLong();
+
+    public WildfireRiskAssessmentJob(SensorTimeSeriesStore timeSeriesStore, DeviceService deviceService,
+                                     AIService aiService, NotificationBroadcaster notificationBroadcaster,
+                                     @Value("${watana.wildfire.enabled:true}") boolean enabled,
+                                     @Value("${watana.wildfire.interval-minutes:15}") long intervalMinutes,
+                                     @Value("${watana.wildfire.local-index-threshold:75}") double localIndexThreshold,
+                                     @Value("${watana.wildfire.batch-size:10}") int batchSize,
+                                     @Value("${watana.wildfire.max-candidates-per-run:50}") int maxCandidates,
+                                     @Value("${watana.wildfire.max-reading-age-minutes:30}") long maxReadingAgeMinutes,
+                                     @Value("${watana.wildfire.temperature-type:temperature}") String temperatureType,
+                                     @Value("${watana.wildfire.humidity-type:humidity}") String humidityType) {
+        this.timeSeriesStore = timeSeriesStore;
+        this.deviceService = deviceService;
+        this.aiService = aiService;
+        this.notificationBroadcaster = notificationBroadcaster;
+        this.enabled = enabled;
+        this.intervalMinutes = intervalMinutes;
+        this.localIndexThreshold = localIndexThreshold;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxCandidates = maxCandidates;
+        this.maxReadingAgeMs = TimeUnit.MINUTES.toMillis(maxReadingAgeMinutes);
+        this.temperatureType = temperatureType;
+        this.humidityType = humidityType;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::runSafely, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void runSafely() {
+        try {
+            assessFleet();
+        } catch (RuntimeException e) {
+            log.error("Wildfire risk assessment run failed", e); // Una ejecución fallida no cancela las siguientes
+        }
+    }
+
+    /**
+     * Ejecuta una evaluación completa: índice local para todos los dispositivos y modelo solo para los de riesgo.
+     *
+     * @return Las evaluaciones obtenidas del modelo.
+     */
+    public List<WildfireAssessment> assessFleet() {
+        runs.incrementAndGet();
+        List<WildfireRiskCandidate> candidates = findCandidates();
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        candidatesSent.addAndGet(candidates.size());
+
+        List<WildfireAssessment> assessments = new ArrayList<>(candidates.size());
+        for (int from = 0; from < candidates.size(); from += batchSize) {
+            List<WildfireRiskCandidate> batch = candidates.subList(from, Math.min(from + batchSize, candidates.size()));
+            Map<String, WildfireRiskCandidate> byDevice = new HashMap<>();
+            for (WildfireRiskCandidate candidate : batch) {
+                byDevice.put(candidate.deviceId(), candidate);
+            }
+            try {
+                modelCalls.incrementAndGet();
+                for (WildfireAssessment assessment : aiService.assessWildfireRiskBatch(batch)) {
+                    // Ignora dispositivos que el modelo no recibió (respuesta inventada o mal copiada)
+                    WildfireRiskCandidate candidate = byDevice.remove(assessment.deviceId());
+                    if (candidate != null) {
+                        assessments.add(assessment);
+                        publish(candidate, assessment);
+                    }
+                }
+                if (!byDevice.isEmpty()) {
+                    log.warn("Model returned no assessment for devices {}", byDevice.keySet());
+                }
+            } catch (RuntimeException e) {
+                log.error("Wildfire risk batch of {} locations failed", batch.size(), e);
+            }
+        }
+        return assessments;
+    }
+
+    // Dispositivos con lecturas recientes cuyo índice local supera el umbral, de mayor a menor riesgo
+    private List<WildfireRiskCandidate> findCandidates() {
+        Map<String, String> locations = deviceLocations();
+        long oldest = System.currentTimeMillis() - maxReadingAgeMs;
+        List<WildfireRiskCandidate> candidates = new ArrayList<>();
+        for (String deviceId : timeSeriesStore.deviceIds()) {
+            SensorTimeSeriesStore.Point temperature = timeSeriesStore.latest(deviceId, temperatureType);
+            SensorTimeSeriesStore.Point humidity = timeSeriesStore.latest(deviceId, humidityType);
+            if (temperature == null || humidity == null
+                    || temperature.timestamp() < oldest || humidity.timestamp() < oldest) {
+                continue;
+            }
+            devicesScored.incrementAndGet();
+            double index = chandlerBurningIndex(temperature.value(), humidity.value());
+            if (index >= localIndexThreshold) {
+                candidates.add(new WildfireRiskCandidate(deviceId, locations.getOrDefault(deviceId, deviceId),
+                        temperature.value(), humidity.value(), index));
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(WildfireRiskCandidate::localIndex).reversed());
+        return candidates.size() > maxCandidates ? candidates.subList(0, maxCandidates) : candidates;
+    }
+
+    private Map<String, String> deviceLocations() {
+        Map<String, String> locations = new HashMap<>();
+        try {
+            for (Device device : deviceService.getAllDevices()) {
+                locations.put(device.getId(), device.getLocation());
+            }
+        } catch (ExecutionException e) {
+            log.warn("Could not load device locations, using device IDs: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return locations;
+    }
+
+    /**
+     * Chandler Burning Index a partir de temperatura (°C) y humedad relativa (%).
+     * Referencia: menos de 50 bajo, 50–75 moderado, 75–90 alto, 90–97.5 muy alto, más de 97.5 extremo.
+     */
+    static double chandlerBurningIndex(double temperatureC, double relativeHumidity) {
+        double rh = Math.max(0, Math.min(100, relativeHumidity));
+        double index = ((110 - 1.373 * rh) - 0.54 * (10.20 - temperatureC)) * (124 * Math.pow(10, -0.0142 * rh)) / 60;
+        return Math.max(0, index);
+    }
+
+    private void publish(WildfireRiskCandidate candidate, WildfireAssessment assessment) {
+        String level = assessment.riskLevel() == null ? "Desconocido" : assessment.riskLevel();
+        String normalized = level.toLowerCase(Locale.ROOT);
+        boolean alert = normalized.startsWith("alto") || normalized.startsWith("crít") || normalized.startsWith("crit");
+        String message = String.format(Locale.ROOT, "%s (%.1f°C, %.0f%% HR): %s %s",
+                candidate.location(), candidate.temperature(), candidate.humidity(),
+                assessment.reason() == null ? "" : assessment.reason(),
+                assessment.recommendedActions() == null ? "" : assessment.recommendedActions()).trim();
+        notificationBroadcaster.publish(new Notification("Riesgo de incendio " + level, message,
+                alert ? "alert" : "info", candidate.deviceId(), LocalTime.now().format(TIME_FORMAT)));
+    }
+
+    public long getRunCount() {
+        return runs.get();
+    }
+
+    public long getDevicesScoredCount() {
+        return devicesScored.get();
+    }
+
+    public long getCandidatesSentCount() {
+        return candidatesSent.get();
+    }
+
+    public long getModelCallCount() {
+        return modelCalls.get();
+    }
+}
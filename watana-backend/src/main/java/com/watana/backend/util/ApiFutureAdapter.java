@@ -0,0 +1,41 @@
+package com.watana.backend.util;
+
+import com.google.api.core.ApiFuture;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Convierte los {@link ApiFuture} del SDK de Google en {@link CompletableFuture} sin bloquear ningún hilo.
+ * <p>
+ * El resultado se completa desde el hilo del cliente gRPC que resuelve la operación, así que las etapas
+ * encadenadas con {@code thenApply} deben ser cortas. Cancelar el {@code CompletableFuture} cancela la llamada.
+ */
+public final class ApiFutureAdapter {
+
+    private ApiFutureAdapter() {
+    }
+
+    public static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.addListener(() -> {
+            try {
+                result.complete(future.get()); // Ya terminó: get() no espera
+            } catch (ExecutionException e) {
+                result.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+            } catch (CancellationException e) {
+                result.cancel(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+            }
+        }, Runnable::run);
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+        return result;
+    }
+}
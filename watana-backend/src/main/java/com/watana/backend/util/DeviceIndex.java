@@ -0,0 +1,94 @@
+package com.watana.backend.util;
+
+import java.util.Arrays;
+
+/**
+ * Asigna a cada deviceId un índice denso (0, 1, 2...) para guardar el estado de las reglas en arreglos
+ * primitivos en lugar de mapas de objetos. Tabla de direccionamiento abierto; no es thread-safe.
+ */
+public final class DeviceIndex {
+
+    private String[] keys;
+    private int[] slots;
+    private String[] byIndex;
+    private int size;
+
+    public DeviceIndex(int expectedDevices) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedDevices * 2 - 1)) << 1;
+        keys = new String[capacity];
+        slots = new int[capacity];
+        byIndex = new String[Math.max(16, expectedDevices)];
+    }
+
+    // Índice del dispositivo, asignando uno nuevo si no existía
+    public int indexOf(String deviceId) {
+        int mask = keys.length - 1;
+        int pos = mix(deviceId.hashCode()) & mask;
+        while (keys[pos] != null) {
+            if (keys[pos].equals(deviceId)) {
+                return slots[pos];
+            }
+            pos = (pos + 1) & mask;
+        }
+        int index = size++;
+        keys[pos] = deviceId;
+        slots[pos] = index;
+        if (index == byIndex.length) {
+            byIndex = Arrays.copyOf(byIndex, byIndex.length * 2);
+        }
+        byIndex[index] = deviceId;
+        if (size * 2 > keys.length) {
+            rehash();
+        }
+        return index;
+    }
+
+    // Índice del dispositivo sin asignarlo, o -1 si no se conoce
+    public int find(String deviceId) {
+        int mask = keys.length - 1;
+        int pos = mix(deviceId.hashCode()) & mask;
+        while (keys[pos] != null) {
+            if (keys[pos].equals(deviceId)) {
+                return slots[pos];
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    public String deviceId(int index) {
+        return byIndex[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Capacidad actual de los arreglos de estado indexados por dispositivo
+    public int capacity() {
+        return byIndex.length;
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new String[oldKeys.length * 2];
+        slots = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+            int pos = mix(oldKeys[i].hashCode()) & mask;
+            while (keys[pos] != null) {
+                pos = (pos + 1) & mask;
+            }
+            keys[pos] = oldKeys[i];
+            slots[pos] = oldSlots[i];
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,174 @@
+package com.watana.backend.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geohash: divide el mundo en celdas anidadas, alternando bits de longitud y latitud; cada carácter base32 agrega
+ * 5 bits. Dos puntos cercanos comparten prefijo, así una celda de precisión {@code p} contiene exactamente a las
+ * celdas de mayor precisión que empiezan con ella.
+ * <p>
+ * Las celdas se manejan como {@code long} (los {@code 5 * precision} bits del geohash), sin crear cadenas en el
+ * camino de ingesta; {@link #toString(long, int)} da la forma de texto habitual. Precisión máxima: 12 caracteres.
+ */
+public final class GeoHash {
+
+    public static final int MAX_PRECISION = 12;
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private GeoHash() {
+    }
+
+    /** Celda de precisión {@code precision} que contiene al punto. */
+    public static long encode(double latitude, double longitude, int precision) {
+        double minLat = -90;
+        double maxLat = 90;
+        double minLon = -180;
+        double maxLon = 180;
+        long bits = 0;
+        for (int i = 0; i < precision * 5; i++) {
+            bits <<= 1;
+            if ((i & 1) == 0) { // Los bits pares son de longitud
+                double mid = (minLon + maxLon) / 2;
+                if (longitude >= mid) {
+                    bits |= 1;
+                    minLon = mid;
+                } else {
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    bits |= 1;
+                    minLat = mid;
+                } else {
+                    maxLat = mid;
+                }
+            }
+        }
+        return bits;
+    }
+
+    /** Celda de menor precisión que contiene a {@code cell}. */
+    public static long parent(long cell, int precision, int parentPrecision) {
+        return cell >>> (5 * (precision - parentPrecision));
+    }
+
+    /** Límites de la celda: {@code [minLat, minLon, maxLat, maxLon]}. */
+    public static double[] bounds(long cell, int precision) {
+        double minLat = -90;
+        double maxLat = 90;
+        double minLon = -180;
+        double maxLon = 180;
+        int totalBits = precision * 5;
+        for (int i = 0; i < totalBits; i++) {
+            boolean set = (cell >>> (totalBits - 1 - i) & 1) == 1;
+            if ((i & 1) == 0) {
+                double mid = (minLon + maxLon) / 2;
+                if (set) {
+                    minLon = mid;
+                } else {
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (set) {
+                    minLat = mid;
+                } else {
+                    maxLat = mid;
+                }
+            }
+        }
+        return new double[] {minLat, minLon, maxLat, maxLon};
+    }
+
+    public static String toString(long cell, int precision) {
+        char[] chars = new char[precision];
+        for (int i = precision - 1; i >= 0; i--) {
+            chars[i] = BASE32[(int) (cell & 31)];
+            cell >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Celdas que cubren el rectángulo, con la mayor precisión (hasta {@code maxPrecision}) que no supere
+     * {@code maxCells} celdas. El rectángulo no debe cruzar el antimeridiano ({@code minLon <= maxLon}).
+     *
+     * @return Las celdas, todas de la precisión indicada en {@link Cover#precision()}.
+     */
+    public static Cover cover(double minLat, double minLon, double maxLat, double maxLon, int maxPrecision, int maxCells) {
+        int precision = maxPrecision;
+        while (precision > 1 && cellCount(minLat, minLon, maxLat, maxLon, precision) > maxCells) {
+            precision--;
+        }
+        double height = 180.0 / (1L << latBits(precision));
+        double width = 360.0 / (1L << lonBits(precision));
+        long firstRow = (long) Math.floor((minLat + 90) / height);
+        long lastRow = Math.min((long) Math.floor((maxLat + 90) / height), (1L << latBits(precision)) - 1);
+        long firstCol = (long) Math.floor((minLon + 180) / width);
+        long lastCol = Math.min((long) Math.floor((maxLon + 180) / width), (1L << lonBits(precision)) - 1);
+        List<Long> cells = new ArrayList<>();
+        for (long row = firstRow; row <= lastRow; row++) {
+            for (long col = firstCol; col <= lastCol; col++) {
+                // Centro de la celda, para no caer justo en un borde
+                cells.add(encode(-90 + (row + 0.5) * height, -180 + (col + 0.5) * width, precision));
+            }
+        }
+        return new Cover(precision, cells);
+    }
+
+    public record Cover(int precision, List<Long> cells) {
+    }
+
+    private static long cellCount(double minLat, double minLon, double maxLat, double maxLon, int precision) {
+        double height = 180.0 / (1L << latBits(precision));
+        double width = 360.0 / (1L << lonBits(precision));
+        long rows = (long) Math.floor((maxLat + 90) / height) - (long) Math.floor((minLat + 90) / height) + 1;
+        long cols = (long) Math.floor((maxLon + 180) / width) - (long) Math.floor((minLon + 180) / width) + 1;
+        return rows * cols;
+    }
+
+    private static int lonBits(int precision) {
+        return (precision * 5 + 1) / 2;
+    }
+
+    private static int latBits(int precision) {
+        return precision * 5 / 2;
+    }
+
+    /** Distancia de círculo máximo (haversine) en kilómetros. */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Rectángulo que contiene al círculo: {@code [minLat, minLon, maxLat, maxLon]}. Si el círculo llega a un polo
+     * o cruza el antimeridiano, la longitud cubre todo el rango.
+     */
+    public static double[] boundingBox(double latitude, double longitude, double radiusKm) {
+        double dLat = Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+        double minLat = latitude - dLat;
+        double maxLat = latitude + dLat;
+        if (minLat <= -90 || maxLat >= 90) {
+            return new double[] {Math.max(minLat, -90), -180, Math.min(maxLat, 90), 180};
+        }
+        double dLon = Math.toDegrees(Math.asin(Math.min(1, Math.sin(radiusKm / EARTH_RADIUS_KM)
+                / Math.cos(Math.toRadians(latitude)))));
+        double minLon = longitude - dLon;
+        double maxLon = longitude + dLon;
+        if (minLon < -180 || maxLon > 180) {
+            return new double[] {minLat, -180, maxLat, 180};
+        }
+        return new double[] {minLat, minLon, maxLat, maxLon};
+    }
+
+    public static boolean isValid(double latitude, double longitude) {
+        return latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180;
+    }
+}
@@ -0,0 +1,156 @@
+package com.watana.backend.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Rueda de temporizadores con hash (al estilo de Varghese y Lauck) para ids enteros densos, como los de
+ * {@link DeviceIndex}.
+ * <p>
+ * El tiempo se divide en ticks de {@code tickMs}; un temporizador vive en el bucket {@code tick % wheelSize}
+ * dentro de una lista doblemente enlazada guardada en arreglos primitivos. Programar o cancelar es O(1) y cada
+ * tick solo recorre su bucket, sin importar cuántos temporizadores haya en total. Cada id tiene como máximo un
+ * temporizador: programarlo de nuevo reemplaza el anterior. No es thread-safe.
+ */
+public final class HashedTimerWheel {
+
+    private static final int NONE = -1;
+
+    private final long tickMs;
+    private final int mask;
+    private final int[] heads;
+    private int[] next;
+    private int[] prev;
+    private long[] deadlineTick; // NONE si el id no tiene temporizador
+    private int[] expired = new int[16]; // Vencidos del bucket que se está procesando
+    private long currentTick;
+    private int scheduled;
+
+    public HashedTimerWheel(long tickMs, int wheelSize, int initialCapacity, long nowMs) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Rueda inválida: tickMs=" + tickMs + ", wheelSize=" + wheelSize);
+        }
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.tickMs = tickMs;
+        this.mask = Math.max(1, size) - 1;
+        this.heads = new int[mask + 1];
+        Arrays.fill(heads, NONE);
+        int capacity = Math.max(16, initialCapacity);
+        this.next = new int[capacity];
+        this.prev = new int[capacity];
+        this.deadlineTick = new long[capacity];
+        Arrays.fill(deadlineTick, NONE);
+        this.currentTick = nowMs / tickMs;
+    }
+
+    /**
+     * Programa (o reprograma) el temporizador del id para que venza en {@code deadlineMs}.
+     */
+    public void schedule(int id, long deadlineMs) {
+        ensureCapacity(id);
+        if (deadlineTick[id] != NONE) {
+            unlink(id);
+        }
+        long tick = Math.max(currentTick + 1, (deadlineMs + tickMs - 1) / tickMs); // Nunca en un tick ya procesado
+        int bucket = (int) (tick & mask);
+        deadlineTick[id] = tick;
+        prev[id] = NONE;
+        next[id] = heads[bucket];
+        if (heads[bucket] != NONE) {
+            prev[heads[bucket]] = id;
+        }
+        heads[bucket] = id;
+        scheduled++;
+    }
+
+    public void cancel(int id) {
+        if (id < deadlineTick.length && deadlineTick[id] != NONE) {
+            unlink(id);
+        }
+    }
+
+    public boolean isScheduled(int id) {
+        return id < deadlineTick.length && deadlineTick[id] != NONE;
+    }
+
+    /**
+     * Avanza la rueda hasta {@code nowMs} y entrega cada id vencido a {@code onExpired}, que puede programar o
+     * cancelar cualquier id. Un id reprogramado por un callback anterior del mismo tick ya no se entrega.
+     *
+     * @return Cuántos temporizadores vencieron.
+     */
+    public int advance(long nowMs, IntConsumer onExpired) {
+        long targetTick = nowMs / tickMs;
+        int fired = 0;
+        if (targetTick - currentTick > mask) {
+            // Pasó más de una vuelta: basta con revisar cada bucket una vez
+            currentTick = targetTick;
+            for (int bucket = 0; bucket <= mask; bucket++) {
+                fired += expireBucket(bucket, targetTick, onExpired);
+            }
+            return fired;
+        }
+        while (currentTick < targetTick) {
+            currentTick++;
+            fired += expireBucket((int) (currentTick & mask), currentTick, onExpired);
+        }
+        return fired;
+    }
+
+    // Primero desengancha los vencidos y luego llama a onExpired: así el callback puede programar o cancelar
+    // cualquier id (incluso uno del mismo bucket) sin romper el recorrido de la lista
+    private int expireBucket(int bucket, long tick, IntConsumer onExpired) {
+        int count = 0;
+        int id = heads[bucket];
+        while (id != NONE) {
+            int following = next[id];
+            if (deadlineTick[id] <= tick) { // Los de vueltas futuras se quedan en el bucket
+                unlink(id);
+                if (count == expired.length) {
+                    expired = Arrays.copyOf(expired, count * 2);
+                }
+                expired[count++] = id;
+            }
+            id = following;
+        }
+        int fired = 0;
+        for (int i = 0; i < count; i++) {
+            if (deadlineTick[expired[i]] == NONE) { // Un callback anterior pudo reprogramarlo
+                fired++;
+                onExpired.accept(expired[i]);
+            }
+        }
+        return fired;
+    }
+
+    private void unlink(int id) {
+        int bucket = (int) (deadlineTick[id] & mask);
+        if (prev[id] != NONE) {
+            next[prev[id]] = next[id];
+        } else {
+            heads[bucket] = next[id];
+        }
+        if (next[id] != NONE) {
+            prev[next[id]] = prev[id];
+        }
+        deadlineTick[id] = NONE;
+        scheduled--;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < deadlineTick.length) {
+            return;
+        }
+        int capacity = Math.max(id + 1, deadlineTick.length * 2);
+        int oldLength = deadlineTick.length;
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        deadlineTick = Arrays.copyOf(deadlineTick, capacity);
+        Arrays.fill(deadlineTick, oldLength, capacity, NONE);
+    }
+
+    // Temporizadores pendientes
+    public int size() {
+        return scheduled;
+    }
+}
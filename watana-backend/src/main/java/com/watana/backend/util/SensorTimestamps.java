@@ -0,0 +1,42 @@
+package com.watana.backend.util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Conversión entre el {@code LocalDateTime} de las lecturas y el tiempo absoluto.
+ * <p>
+ * Una lectura sin zona está en la hora local del servidor: es la que asigna la ingesta con {@link #now()} cuando el
+ * payload no trae timestamp, y a la que el decodificador pasa los timestamps epoch o con {@code Z}. Todo código que
+ * convierte una lectura a epoch millis (o al revés) debe pasar por aquí para que ambos sentidos usen la misma zona.
+ */
+public final class SensorTimestamps {
+
+    private SensorTimestamps() {
+    }
+
+    public static ZoneId zone() {
+        return ZoneId.systemDefault();
+    }
+
+    public static LocalDateTime now() {
+        return LocalDateTime.now(zone());
+    }
+
+    public static LocalDateTime fromInstant(Instant instant) {
+        return LocalDateTime.ofInstant(instant, zone());
+    }
+
+    public static LocalDateTime fromEpochMillis(long epochMillis) {
+        return fromInstant(Instant.ofEpochMilli(epochMillis));
+    }
+
+    public static Instant toInstant(LocalDateTime timestamp) {
+        return timestamp.atZone(zone()).toInstant();
+    }
+
+    public static long toEpochMillis(LocalDateTime timestamp) {
+        return toInstant(timestamp).toEpochMilli();
+    }
+}
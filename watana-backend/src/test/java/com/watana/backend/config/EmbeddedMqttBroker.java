@@ -0,0 +1,310 @@
+package com.watana.backend.config;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broker MQTT 3.1.1 mínimo y en memoria para pruebas locales, sin dependencias externas.
+ * <p>
+ * Soporta CONNECT, SUBSCRIBE/UNSUBSCRIBE con comodines {@code +} y {@code #}, PUBLISH con QoS 0 y 1, PING y
+ * suscripciones compartidas {@code $share/<grupo>/<filtro>} (reparto round-robin entre los miembros del grupo).
+ * No guarda sesiones ni mensajes retenidos: basta para probar el reparto de mensajes y los ACK.
+ */
+public class EmbeddedMqttBroker implements Closeable {
+
+    private static final String SHARED_PREFIX = "$share/";
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicInteger> sharedCursors = new HashMap<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong acknowledgedBySubscribers = new AtomicLong();
+    private volatile boolean running = true;
+
+    public EmbeddedMqttBroker() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::acceptLoop, "embedded-mqtt-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String url() {
+        return "tcp://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    // Mensajes recibidos de los publicadores
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    // Copias de mensajes enviadas a los suscriptores
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    // Suscripciones activas (una por filtro y sesión), registradas antes de responder el SUBACK
+    public int getSubscriptionCount() {
+        int count = 0;
+        for (Session session : sessions) {
+            count += session.subscriptions.size();
+        }
+        return count;
+    }
+
+    // PUBACK recibidos de los suscriptores (mensajes QoS 1 confirmados)
+    public long getAcknowledgedCount() {
+        return acknowledgedBySubscribers.get();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Session session = new Session(socket);
+                sessions.add(session);
+                Thread reader = new Thread(session::readLoop, "embedded-mqtt-session");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private void route(String topic, byte[] payload, int qos) {
+        published.incrementAndGet();
+        Map<Session, Integer> direct = new LinkedHashMap<>(); // Una sola copia por sesión, con el QoS más alto
+        Map<String, List<Subscription>> groups = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            for (Subscription subscription : session.subscriptions) {
+                if (!matches(subscription.filter, topic)) {
+                    continue;
+                }
+                if (subscription.group == null) {
+                    direct.merge(session, subscription.qos, Math::max);
+                } else {
+                    groups.computeIfAbsent(subscription.group + "/" + subscription.filter, k -> new ArrayList<>())
+                            .add(subscription);
+                }
+            }
+        }
+        direct.forEach((session, subscriptionQos) -> session.deliver(topic, payload, Math.min(qos, subscriptionQos)));
+        groups.forEach((key, members) -> {
+            AtomicInteger cursor;
+            synchronized (sharedCursors) {
+                cursor = sharedCursors.computeIfAbsent(key, k -> new AtomicInteger());
+            }
+            Subscription chosen = members.get(Math.floorMod(cursor.getAndIncrement(), members.size()));
+            chosen.session.deliver(topic, payload, Math.min(qos, chosen.qos));
+        });
+    }
+
+    static boolean matches(String filter, String topic) {
+        String[] f = filter.split("/", -1);
+        String[] t = topic.split("/", -1);
+        for (int i = 0; i < f.length; i++) {
+            if (f[i].equals("#")) {
+                return true;
+            }
+            if (i >= t.length || (!f[i].equals("+") && !f[i].equals(t[i]))) {
+                return false;
+            }
+        }
+        return f.length == t.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    private record Subscription(Session session, String filter, String group, int qos) {
+    }
+
+    private final class Session {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private int nextPacketId = 1;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (running) {
+                    int header = in.read();
+                    if (header < 0) {
+                        break;
+                    }
+                    byte[] body = new byte[readRemainingLength(in)];
+                    in.readFully(body);
+                    if (!handle(header, new DataInputStream(new ByteArrayInputStream(body)), body.length)) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // Conexión cerrada por el cliente
+            } finally {
+                close();
+            }
+        }
+
+        private boolean handle(int header, DataInputStream packet, int length) throws IOException {
+            switch (header >> 4) {
+                case 1 -> { // CONNECT
+                    write(0x20, new byte[] {0, 0});
+                }
+                case 3 -> { // PUBLISH
+                    int qos = (header >> 1) & 0x03;
+                    String topic = readString(packet);
+                    int consumed = 2 + topic.getBytes(StandardCharsets.UTF_8).length;
+                    int packetId = 0;
+                    if (qos > 0) {
+                        packetId = packet.readUnsignedShort();
+                        consumed += 2;
+                    }
+                    byte[] payload = new byte[length - consumed];
+                    packet.readFully(payload);
+                    route(topic, payload, Math.min(qos, 1));
+                    if (qos > 0) {
+                        write(qos == 1 ? 0x40 : 0x50, shortBytes(packetId));
+                    }
+                }
+                case 4 -> acknowledgedBySubscribers.incrementAndGet(); // PUBACK de un suscriptor
+                case 8 -> { // SUBSCRIBE
+                    int packetId = packet.readUnsignedShort();
+                    ByteArrayOutputStream granted = new ByteArrayOutputStream();
+                    granted.writeBytes(shortBytes(packetId));
+                    while (packet.available() > 0) {
+                        String filter = readString(packet);
+                        int qos = Math.min(packet.readUnsignedByte(), 1);
+                        String group = null;
+                        if (filter.startsWith(SHARED_PREFIX)) {
+                            int slash = filter.indexOf('/', SHARED_PREFIX.length());
+                            group = filter.substring(SHARED_PREFIX.length(), slash);
+                            filter = filter.substring(slash + 1);
+                        }
+                        subscriptions.add(new Subscription(this, filter, group, qos));
+                        granted.write(qos);
+                    }
+                    write(0x90, granted.toByteArray());
+                }
+                case 10 -> { // UNSUBSCRIBE
+                    int packetId = packet.readUnsignedShort();
+                    while (packet.available() > 0) {
+                        String filter = readString(packet);
+                        subscriptions.removeIf(s -> filter.equals(s.group == null ? s.filter
+                                : SHARED_PREFIX + s.group + "/" + s.filter));
+                    }
+                    write(0xB0, shortBytes(packetId));
+                }
+                case 12 -> write(0xD0, new byte[0]); // PINGREQ
+                case 14 -> { // DISCONNECT
+                    return false;
+                }
+                default -> {
+                    // PUBREC/PUBREL/PUBCOMP (QoS 2) no se usan en las pruebas
+                }
+            }
+            return true;
+        }
+
+        void deliver(String topic, byte[] payload, int qos) {
+            delivered.incrementAndGet();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+            body.writeBytes(shortBytes(topicBytes.length));
+            body.writeBytes(topicBytes);
+            synchronized (this) {
+                if (qos > 0) {
+                    body.writeBytes(shortBytes(nextPacketId));
+                    nextPacketId = nextPacketId == 0xFFFF ? 1 : nextPacketId + 1;
+                }
+                body.writeBytes(payload);
+                try {
+                    write(0x30 | (qos << 1), body.toByteArray());
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+
+        private synchronized void write(int header, byte[] body) throws IOException {
+            ByteArrayOutputStream packet = new ByteArrayOutputStream(body.length + 5);
+            packet.write(header);
+            int remaining = body.length;
+            do {
+                int digit = remaining & 0x7F;
+                remaining >>>= 7;
+                packet.write(remaining > 0 ? digit | 0x80 : digit);
+            } while (remaining > 0);
+            packet.writeBytes(body);
+            out.write(packet.toByteArray());
+            out.flush();
+        }
+
+        void close() {
+            sessions.remove(this);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Ya cerrado
+            }
+        }
+    }
+
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int digit;
+        do {
+            digit = in.read();
+            if (digit < 0) {
+                throw new EOFException();
+            }
+            value |= (digit & 0x7F) << shift;
+            shift += 7;
+        } while ((digit & 0x80) != 0);
+        return value;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] shortBytes(int value) {
+        return new byte[] {(byte) (value >> 8), (byte) value};
+    }
+}
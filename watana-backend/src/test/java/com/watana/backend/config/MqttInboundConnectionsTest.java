@@ -0,0 +1,176 @@
+package com.watana.backend.config;
+
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.integration.StaticMessageHeaderAccessor;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.context.IntegrationContextUtils;
+import org.springframework.integration.mqtt.core.DefaultMqttPahoClientFactory;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueba el reparto de mensajes entre conexiones y réplicas contra {@link EmbeddedMqttBroker}, sin levantar el
+ * contexto completo de la aplicación (no necesita Firebase ni un Mosquitto local).
+ */
+class MqttInboundConnectionsTest {
+
+    private EmbeddedMqttBroker broker;
+    private ThreadPoolTaskScheduler taskScheduler;
+    private DefaultListableBeanFactory beanFactory;
+    private final List<MqttInboundConnections> started = new ArrayList<>();
+
+    @BeforeEach
+    void startBroker() throws Exception {
+        broker = new EmbeddedMqttBroker();
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+        beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton(IntegrationContextUtils.TASK_SCHEDULER_BEAN_NAME, taskScheduler);
+    }
+
+    @AfterEach
+    void stopBroker() throws Exception {
+        started.forEach(MqttInboundConnections::stop);
+        taskScheduler.shutdown();
+        broker.close();
+    }
+
+    @Test
+    void sharedSubscriptionSplitsMessagesAcrossReplicas() throws Exception {
+        int messages = 200;
+        CountDownLatch received = new CountDownLatch(messages);
+        Queue<String> replicaA = new ConcurrentLinkedQueue<>();
+        Queue<String> replicaB = new ConcurrentLinkedQueue<>();
+        start("replica-a", List.of("watana/sensor/+/data"), "watana", 2, replicaA, received);
+        start("replica-b", List.of("watana/sensor/+/data"), "watana", 2, replicaB, received);
+
+        publish(4, messages, i -> "watana/sensor/device-" + (i % 20) + "/data");
+
+        assertTrue(received.await(10, TimeUnit.SECONDS), "Faltan mensajes: " + received.getCount());
+        awaitAcks(messages);
+        // El broker entrega de forma síncrona al publicar: sin copias de más no puede llegar ningún duplicado
+        assertEquals(messages, broker.getDeliveredCount());
+        assertEquals(messages, replicaA.size() + replicaB.size());
+        assertFalse(replicaA.isEmpty());
+        assertFalse(replicaB.isEmpty());
+    }
+
+    @Test
+    void withoutSharedGroupEachFilterHasOneConnection() throws Exception {
+        CountDownLatch received = new CountDownLatch(3);
+        Queue<String> topics = new ConcurrentLinkedQueue<>();
+        MqttInboundConnections connections =
+                start("single", List.of("a/#", "b/#", "c/#"), "", 2, topics, received);
+        assertEquals(List.of(List.of("a/#", "c/#"), List.of("b/#")), connections.getTopicsPerConnection());
+
+        publish(3, 3, i -> List.of("a/1", "b/1", "c/1").get(i));
+
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        awaitAcks(3);
+        assertEquals(3, broker.getDeliveredCount());
+        assertEquals(3, topics.size());
+    }
+
+    @Test
+    void stopDoesNotWaitForUnackedMessagesNorKeepReconnecting() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        DirectChannel channel = new DirectChannel();
+        channel.subscribe(message -> received.countDown()); // Nunca envía el ACK
+        MqttInboundConnections connections = start("stopper", List.of("watana/#"), "", 1, channel, true);
+
+        publish(1, 1, i -> "watana/sensor/data");
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        long begin = System.nanoTime();
+        connections.stop();
+        assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(3), "stop() esperó a los mensajes en vuelo");
+
+        // Sin broker, un cliente que sigue vivo reintentaría desde el hilo de reconexión de Paho
+        broker.close();
+        Thread.sleep(200);
+        assertFalse(Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().startsWith("MQTT Reconnect: stopper")));
+        assertEquals(0, connections.getConnectedCount());
+    }
+
+    @Test
+    void assignsTopicsToConnections() {
+        assertEquals(List.of(List.of("x/y")), MqttInboundConnections.assignTopics(List.of("x/y", " x/y "), null, 4));
+        assertEquals(List.of(List.of("$share/g/x/#", "$share/other/y"), List.of("$share/g/x/#", "$share/other/y")),
+                MqttInboundConnections.assignTopics(List.of("x/#", "$share/other/y"), "g", 2));
+    }
+
+    private MqttInboundConnections start(String clientId, List<String> filters, String sharedGroup, int poolSize,
+                                         Queue<String> sink, CountDownLatch received) {
+        DirectChannel channel = new DirectChannel();
+        channel.subscribe(message -> {
+            sink.add(message.getHeaders().get(MqttHeaders.RECEIVED_TOPIC, String.class));
+            StaticMessageHeaderAccessor.getAcknowledgment(message).acknowledge();
+            received.countDown();
+        });
+        return start(clientId, filters, sharedGroup, poolSize, channel, false);
+    }
+
+    private MqttInboundConnections start(String clientId, List<String> filters, String sharedGroup, int poolSize,
+                                         DirectChannel channel, boolean automaticReconnect) {
+        DefaultMqttPahoClientFactory factory = new DefaultMqttPahoClientFactory();
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setServerURIs(new String[] {broker.url()});
+        options.setAutomaticReconnect(automaticReconnect);
+        factory.setConnectionOptions(options);
+
+        MqttInboundConnections connections =
+                new MqttInboundConnections(clientId, factory, channel, filters, sharedGroup, poolSize);
+        connections.setBeanFactory(beanFactory);
+        connections.start();
+        started.add(connections);
+        return connections;
+    }
+
+    // Las suscripciones se completan de forma asíncrona tras start(): se publica cuando el broker las tiene todas
+    private void publish(int subscriptions, int messages, IntFunction<String> topic) throws Exception {
+        awaitCount(subscriptions, broker::getSubscriptionCount);
+        MqttClient publisher = new MqttClient(broker.url(), "publisher", new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        // Paho puede recibir el PUBACK antes de liberar su cupo de envíos en vuelo (10 por defecto)
+        options.setMaxInflight(Math.max(messages, 10));
+        publisher.connect(options);
+        for (int i = 0; i < messages; i++) {
+            byte[] payload = ("{\"deviceId\":\"device-" + i + "\",\"value\":" + i + "}").getBytes(StandardCharsets.UTF_8);
+            publisher.publish(topic.apply(i), payload, 1, false);
+        }
+        publisher.disconnect();
+        publisher.close();
+    }
+
+    private void awaitAcks(long expected) throws InterruptedException {
+        awaitCount(expected, broker::getAcknowledgedCount);
+    }
+
+    private static void awaitCount(long expected, LongSupplier count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (count.getAsLong() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, count.getAsLong());
+    }
+}
@@ -0,0 +1,158 @@
+package com.watana.backend.config;
+
+import com.watana.backend.ingest.SensorDataDecoder;
+import com.watana.backend.ingest.SensorDataIngestPipeline;
+import com.watana.backend.ingest.SensorDataWriteAheadLog;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.service.SensorRollupAggregator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.acks.SimpleAcknowledgment;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * ACK de los mensajes MQTT según el resultado de sus lecturas, sin broker: el mensaje se entrega directamente al
+ * manejador con un ACK que cuenta sus llamadas.
+ */
+class MqttIntegrationConfigTest {
+
+    private SensorDataIngestPipeline pipeline;
+    private SensorRollupAggregator rollupAggregator;
+    private ObjectProvider<SensorDataWriteAheadLog> noWriteAheadLog;
+    private SimpleMeterRegistry meterRegistry;
+    private MqttIntegrationConfig config;
+    private final AtomicInteger acks = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        pipeline = mock(SensorDataIngestPipeline.class);
+        rollupAggregator = mock(SensorRollupAggregator.class);
+        when(rollupAggregator.keepRaw(any())).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        ObjectProvider<SensorDataWriteAheadLog> provider = mock(ObjectProvider.class);
+        noWriteAheadLog = provider;
+        meterRegistry = new SimpleMeterRegistry();
+        config = newConfig(2, 100);
+    }
+
+    private MqttIntegrationConfig newConfig(int lanes, int laneQueueCapacity) {
+        return new MqttIntegrationConfig(pipeline, new SensorDataDecoder(4096, 1000), List.of(), noWriteAheadLog,
+                rollupAggregator, meterRegistry, lanes, laneQueueCapacity);
+    }
+
+    @Test
+    void acknowledgesWhenEveryReadingIsQueued() {
+        when(pipeline.submit(any())).thenReturn(true);
+
+        config.handleMqttMessage(message(batch("device-1", "device-2", "device-3")));
+        config.ingestLanes().shutdown(); // Espera a que los carriles procesen todo
+
+        assertEquals(1, acks.get());
+        assertEquals(0, rejectedMessages());
+    }
+
+    @Test
+    void withholdsAckWhenAReadingIsDropped() {
+        when(pipeline.submit(any())).thenAnswer(invocation ->
+                !"device-2".equals(invocation.<SensorData>getArgument(0).getDeviceId())); // Cola llena para device-2
+
+        config.handleMqttMessage(message(batch("device-1", "device-2", "device-3")));
+        config.ingestLanes().shutdown();
+
+        assertEquals(0, acks.get());
+        assertEquals(1, rejectedMessages());
+    }
+
+    @Test
+    void withholdsAckWhenProcessingThrows() {
+        when(pipeline.submit(any())).thenThrow(new IllegalStateException("falla"));
+
+        config.handleMqttMessage(message(batch("device-1")));
+        config.ingestLanes().shutdown();
+
+        assertEquals(0, acks.get());
+        assertEquals(1, rejectedMessages());
+    }
+
+    @Test
+    void partialBatchRejectedOnShutdownIsNotAcknowledged() throws Exception {
+        // Un carril con cola de 1: la primera lectura ocupa el hilo, la segunda la cola y la tercera espera espacio
+        config = newConfig(1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger submitted = new AtomicInteger();
+        when(pipeline.submit(any())).thenAnswer(invocation -> {
+            if (submitted.incrementAndGet() == 1) {
+                running.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return true;
+        });
+
+        Thread handler = new Thread(() -> config.handleMqttMessage(message(batch("device-1", "device-1", "device-1"))));
+        handler.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        awaitBlocked(handler);
+
+        Thread stopper = new Thread(config.ingestLanes()::shutdown); // Espera a que se vacíen los carriles
+        stopper.start();
+        handler.join(5000);
+        assertFalse(handler.isAlive(), "El manejador siguió esperando espacio después del shutdown");
+        assertEquals(1, rejectedMessages());
+
+        release.countDown();
+        stopper.join(5000);
+        assertEquals(2, submitted.get()); // Las lecturas encoladas antes del rechazo se procesan
+        assertEquals(0, acks.get()); // Pero el mensaje no se confirma: el broker lo entregará de nuevo
+        assertEquals(1, rejectedMessages()); // Y no se cuenta dos veces al terminar las encoladas
+    }
+
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.TIMED_WAITING, thread.getState());
+    }
+
+    private double rejectedMessages() {
+        return meterRegistry.get("watana.mqtt.messages").tag("outcome", "rejected").counter().count();
+    }
+
+    private Message<byte[]> message(String json) {
+        SimpleAcknowledgment ack = acks::incrementAndGet;
+        return MessageBuilder.withPayload(json.getBytes(StandardCharsets.UTF_8))
+                .setHeader(MqttHeaders.RECEIVED_TOPIC, "watana/sensor/data")
+                .setHeader(IntegrationMessageHeaderAccessor.ACKNOWLEDGMENT_CALLBACK, ack)
+                .build();
+    }
+
+    static String batch(String... deviceIds) {
+        StringBuilder json = new StringBuilder("[");
+        for (String deviceId : deviceIds) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"deviceId\":\"").append(deviceId).append("\",\"type\":\"temperature\",\"value\":21.5}");
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,232 @@
+package com.watana.backend.controller;
+
+import com.watana.backend.model.Device;
+import com.watana.backend.model.DeviceLiveness;
+import com.watana.backend.model.DevicePage;
+import com.watana.backend.model.DeviceQuery;
+import com.watana.backend.repository.DeviceChangeListener;
+import com.watana.backend.repository.DeviceRepository;
+import com.watana.backend.rules.AnomalyProperties;
+import com.watana.backend.rules.SensorAnomalyMonitor;
+import com.watana.backend.service.DeviceBulkService;
+import com.watana.backend.service.DeviceCache;
+import com.watana.backend.service.DeviceLivenessTracker;
+import com.watana.backend.service.DeviceService;
+import com.watana.backend.service.DeviceSpatialIndex;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.ManagementWebSecurityAutoConfiguration;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.SecurityFilterAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.UserDetailsServiceAutoConfiguration;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueba de carga de los endpoints de escritura de dispositivos contra un Firestore falso con latencia fija.
+ * <p>
+ * Con Tomcat limitado a {@value #TOMCAT_THREADS} hilos, el modo bloqueante (como el antiguo {@code ApiFuture.get()})
+ * atiende como mucho {@value #TOMCAT_THREADS} escrituras a la vez; el modo asíncrono libera el hilo mientras la
+ * escritura está en vuelo y atiende todas las peticiones concurrentes en paralelo. Se comprueba el máximo de
+ * escrituras en vuelo que ve el repositorio, no el tiempo total: no depende de la velocidad de la máquina.
+ */
+@SpringBootTest(classes = DeviceControllerLoadTest.TestApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "server.tomcat.threads.max=" + DeviceControllerLoadTest.TOMCAT_THREADS,
+                "server.tomcat.threads.min-spare=" + DeviceControllerLoadTest.TOMCAT_THREADS
+        })
+class DeviceControllerLoadTest {
+
+    static final int TOMCAT_THREADS = 8;
+    private static final long LATENCY_MS = 100;
+    private static final int CONCURRENT_REQUESTS = 200;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private LatencyInjectingDeviceRepository repository;
+
+    @Test
+    void asyncWritesAreNotBoundByTomcatThreads() throws Exception {
+        HttpClient client = HttpClient.newBuilder().executor(Executors.newFixedThreadPool(16)).build();
+        runLoad(client, 20); // Calentamiento
+
+        repository.blocking = true;
+        int blockingPeak = runLoad(client, CONCURRENT_REQUESTS);
+        repository.blocking = false;
+        int asyncPeak = runLoad(client, CONCURRENT_REQUESTS);
+
+        // Bloqueante: cada escritura ocupa un hilo de Tomcat; asíncrono: el hilo vuelve antes de que termine
+        assertTrue(blockingPeak <= TOMCAT_THREADS, "blocking peak in flight=" + blockingPeak);
+        assertTrue(asyncPeak > TOMCAT_THREADS, "async peak in flight=" + asyncPeak);
+    }
+
+    // Devuelve el máximo de escrituras en vuelo a la vez durante la ronda
+    private int runLoad(HttpClient client, int requests) {
+        repository.peakInFlight.set(0);
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/devices"))
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(30))
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"name\":\"Sensor " + i + "\",\"type\":\"temperature\",\"location\":\"Arequipa\",\"active\":true}"))
+                    .build();
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(201, response.join().statusCode());
+        }
+        return repository.peakInFlight.get();
+    }
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class, SecurityFilterAutoConfiguration.class,
+            UserDetailsServiceAutoConfiguration.class, ManagementWebSecurityAutoConfiguration.class})
+    @Import({DeviceController.class, DeviceService.class, DeviceCache.class, DeviceSpatialIndex.class,
+            DeviceBulkService.class})
+    static class TestApplication {
+
+        @Bean
+        LatencyInjectingDeviceRepository deviceRepository() {
+            return new LatencyInjectingDeviceRepository(LATENCY_MS);
+        }
+
+        @Bean
+        DeviceLivenessTracker deviceLivenessTracker(DeviceService deviceService) {
+            return new DeviceLivenessTracker(deviceService, "battery_percent", 120, 1000, 60, 0);
+        }
+
+        // Desactivado: esta prueba no recibe lecturas
+        @Bean
+        SensorAnomalyMonitor sensorAnomalyMonitor() {
+            AnomalyProperties properties = new Binder(new MapConfigurationPropertySource(
+                    Map.of("watana.anomaly.enabled", false))).bindOrCreate("watana.anomaly", AnomalyProperties.class);
+            return new SensorAnomalyMonitor(null, properties, 1);
+        }
+    }
+
+    /**
+     * Firestore falso: cada escritura tarda {@code latencyMs}. En modo bloqueante la espera ocupa el hilo que
+     * llama; en modo asíncrono el futuro se completa desde un temporizador, como hace el cliente gRPC. Lleva la
+     * cuenta de las escrituras en vuelo y de su máximo.
+     */
+    static class LatencyInjectingDeviceRepository implements DeviceRepository {
+
+        private final long latencyMs;
+        private final Map<String, Device> devices = new ConcurrentHashMap<>();
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+        volatile boolean blocking;
+
+        LatencyInjectingDeviceRepository(long latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public Device save(Device device) throws InterruptedException {
+            begin();
+            try {
+                Thread.sleep(latencyMs);
+                return store(device);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public CompletableFuture<Device> saveAsync(Device device) {
+            if (blocking) {
+                return DeviceRepository.super.saveAsync(device);
+            }
+            CompletableFuture<Device> result = new CompletableFuture<>();
+            begin();
+            timer.schedule(() -> {
+                inFlight.decrementAndGet();
+                result.complete(store(device));
+            }, latencyMs, TimeUnit.MILLISECONDS);
+            return result;
+        }
+
+        private void begin() {
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        }
+
+        @Override
+        public List<CompletableFuture<Device>> saveAll(List<Device> batch) {
+            return batch.stream().map(this::saveAsync).toList();
+        }
+
+        private Device store(Device device) {
+            if (device.getId() == null) {
+                device.setId(Long.toString(System.nanoTime(), 36));
+            }
+            devices.put(device.getId(), device);
+            return device;
+        }
+
+        @Override
+        public Optional<Device> findById(String id) {
+            return Optional.ofNullable(devices.get(id));
+        }
+
+        @Override
+        public List<Device> findAll() {
+            return new ArrayList<>(devices.values());
+        }
+
+        @Override
+        public void deleteById(String id) {
+            devices.remove(id);
+        }
+
+        @Override
+        public DevicePage findPage(DeviceQuery query) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void streamAll(DeviceQuery query, Consumer<Map<String, Object>> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateLiveness(List<DeviceLiveness> updates) {
+        }
+
+        @Override
+        public Registration watchAll(DeviceChangeListener listener) {
+            listener.onDeviceChanges(List.of(), List.of(), true);
+            return () -> { };
+        }
+    }
+}
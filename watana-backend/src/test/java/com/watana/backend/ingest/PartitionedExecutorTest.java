@@ -0,0 +1,158 @@
+package com.watana.backend.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartitionedExecutorTest {
+
+    @Test
+    void keepsArrivalOrderPerDeviceOnASingleLane() {
+        int devices = 20;
+        int tasksPerDevice = 500;
+        // Cola pequeña: el productor se bloquea a menudo esperando espacio
+        PartitionedExecutor executor = new PartitionedExecutor("test-lane", 4, 4);
+        Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+        Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+        for (int i = 0; i < tasksPerDevice; i++) {
+            for (int d = 0; d < devices; d++) {
+                String deviceId = "device-" + d;
+                int sequence = i;
+                executor.execute(deviceId, () -> {
+                    // Sin sincronizar a propósito: solo el hilo del carril del dispositivo toca su lista
+                    seen.computeIfAbsent(deviceId, k -> new ArrayList<>()).add(sequence);
+                    threads.computeIfAbsent(deviceId, k -> ConcurrentHashMap.newKeySet())
+                            .add(Thread.currentThread().getName());
+                });
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(devices, seen.size());
+        for (int d = 0; d < devices; d++) {
+            String deviceId = "device-" + d;
+            List<Integer> order = seen.get(deviceId);
+            assertEquals(tasksPerDevice, order.size());
+            for (int i = 0; i < tasksPerDevice; i++) {
+                assertEquals(i, order.get(i), "Fuera de orden en " + deviceId);
+            }
+            assertEquals(Set.of("test-lane-" + executor.laneFor(deviceId)), threads.get(deviceId));
+        }
+        assertEquals((long) devices * tasksPerDevice, executor.getCompletedTaskCount());
+    }
+
+    @Test
+    void rejectsTasksAfterShutdown() {
+        PartitionedExecutor executor = new PartitionedExecutor("test-lane", 2, 4);
+        executor.shutdown();
+
+        assertThrows(RejectedExecutionException.class, () -> executor.execute("device-1", () -> { }));
+    }
+
+    @Test
+    void rejectsAProducerWaitingForSpaceWhenTheLaneShutsDown() throws Exception {
+        PartitionedExecutor executor = new PartitionedExecutor("test-lane", 1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        executor.execute("device-1", () -> {
+            running.countDown();
+            await(release);
+            ran.incrementAndGet();
+        });
+        executor.execute("device-1", ran::incrementAndGet); // Llena la cola
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        AtomicReference<Throwable> producerError = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            try {
+                executor.execute("device-1", ran::incrementAndGet); // Bloqueado esperando espacio
+            } catch (Throwable e) {
+                producerError.set(e);
+            }
+        });
+        producer.start();
+        awaitWaiting(producer);
+
+        Thread stopper = new Thread(executor::shutdown);
+        stopper.start();
+        producer.join(5000);
+        assertFalse(producer.isAlive(), "El productor siguió esperando después del shutdown");
+        assertInstanceOf(RejectedExecutionException.class, producerError.get());
+
+        release.countDown();
+        stopper.join(5000);
+        assertEquals(2, ran.get()); // Las tareas aceptadas antes del shutdown sí se ejecutan
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    @Test
+    void rejectsAProducerInterruptedWhileWaitingForSpace() throws Exception {
+        PartitionedExecutor executor = new PartitionedExecutor("test-lane", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute("device-1", () -> await(release));
+        executor.execute("device-1", () -> { });
+
+        AtomicReference<Throwable> producerError = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            try {
+                executor.execute("device-1", () -> { });
+            } catch (Throwable e) {
+                producerError.set(e);
+            }
+        });
+        producer.start();
+        awaitWaiting(producer);
+        producer.interrupt();
+        producer.join(5000);
+
+        assertInstanceOf(RejectedExecutionException.class, producerError.get());
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    void partitionMatchesTheLaneOfTheKey() {
+        PartitionedExecutor executor = new PartitionedExecutor("test-lane", 3, 1);
+        for (int d = 0; d < 100; d++) {
+            String deviceId = "device-" + d;
+            int partition = PartitionedExecutor.partitionFor(deviceId, 3);
+            assertEquals(executor.laneFor(deviceId), partition);
+            assertTrue(partition >= 0 && partition < 3);
+        }
+        assertEquals(0, PartitionedExecutor.partitionFor(null, 3));
+        executor.shutdown();
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.TIMED_WAITING && thread.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(thread.isAlive(), "El productor no llegó a bloquearse");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
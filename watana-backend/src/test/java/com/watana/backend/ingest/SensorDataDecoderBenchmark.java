@@ -0,0 +1,95 @@
+package com.watana.backend.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.watana.backend.model.SensorData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara el camino anterior (bytes -> String -> ObjectMapper reflexivo) con {@link SensorDataDecoder}.
+ * <p>
+ * Ejecutar con {@code mvn test-compile} y luego el método {@link #main(String[])} desde el IDE,
+ * o con {@code java -cp target/test-classes:<classpath de test> org.openjdk.jmh.Main SensorDataDecoderBenchmark}.
+ * Añadir {@code -prof gc} para ver la asignación por operación.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SensorDataDecoderBenchmark {
+
+    private static final String[] DEVICES = {"sensor-temp-001", "sensor-temp-002", "sensor-hum-001", "drone-alpha-001"};
+    private static final String[] LOCATIONS = {"Arequipa", "Cusco", "Puno", "Tacna"};
+
+    private byte[][] payloads;
+    private int next;
+    private ObjectMapper objectMapper;
+    private SensorDataDecoder decoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        decoder = new SensorDataDecoder(4096, 1000);
+
+        payloads = new byte[1024][];
+        for (int i = 0; i < payloads.length; i++) {
+            String json = String.format(java.util.Locale.ROOT,
+                    "{\"deviceId\":\"%s\",\"type\":\"temperature\",\"value\":%.2f,\"unit\":\"C\","
+                            + "\"location\":\"%s\",\"timestamp\":\"2025-06-01T12:%02d:%02d.%03d\"}",
+                    DEVICES[i % DEVICES.length], 15 + (i % 200) / 10.0, LOCATIONS[i % LOCATIONS.length],
+                    i % 60, (i * 7) % 60, i % 1000);
+            payloads[i] = json.getBytes(StandardCharsets.UTF_8);
+        }
+
+        // Ambos caminos deben producir la misma lectura
+        for (byte[] payload : payloads) {
+            SensorData expected = objectMapper.readValue(new String(payload, StandardCharsets.UTF_8), SensorData.class);
+            SensorData actual = decoder.decode(payload);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Decodificación distinta: " + expected + " vs " + actual);
+            }
+        }
+    }
+
+    private byte[] nextPayload() {
+        byte[] payload = payloads[next];
+        next = (next + 1) & (payloads.length - 1);
+        return payload;
+    }
+
+    @Benchmark
+    public SensorData stringAndObjectMapper() throws Exception {
+        // Lo que hacían DefaultPahoMessageConverter + ObjectMapper.readValue(String, ...)
+        String payload = new String(nextPayload(), StandardCharsets.UTF_8);
+        return objectMapper.readValue(payload, SensorData.class);
+    }
+
+    @Benchmark
+    public SensorData streamingDecoder() throws Exception {
+        return decoder.decode(nextPayload());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SensorDataDecoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,218 @@
+package com.watana.backend.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.watana.backend.ingest.proto.SensorMessage;
+import com.watana.backend.ingest.proto.SensorReading;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.util.SensorTimestamps;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Payloads JSON, CBOR y Protobuf. Los bien formados pero con valores inválidos deben terminar en
+ * {@link IOException} (mensaje descartado y confirmado), nunca en una excepción de runtime que corte la conexión MQTT.
+ */
+class SensorDataDecoderTest {
+
+    private final SensorDataDecoder decoder = new SensorDataDecoder(64, 10);
+
+    @Test
+    void decodesAllTimestampFormats() throws IOException {
+        LocalDateTime expected = LocalDateTime.of(2025, 6, 1, 12, 30, 15, 500_000_000);
+        assertEquals(expected, decode("{\"timestamp\":\"2025-06-01T12:30:15.5\"}").getTimestamp());
+        assertEquals(expected, decode("{\"timestamp\":[2025,6,1,12,30,15,500000000]}").getTimestamp());
+        // Con zona (Z o epoch) se pasa a la hora local del servidor
+        LocalDateTime utc = SensorTimestamps.fromInstant(Instant.parse("2025-06-01T12:30:15.500Z"));
+        assertEquals(utc, decode("{\"timestamp\":\"2025-06-01T12:30:15.500Z\"}").getTimestamp());
+        assertEquals(utc, decode("{\"timestamp\":1748781015500}").getTimestamp());
+        assertNull(decode("{\"timestamp\":null}").getTimestamp());
+    }
+
+    @Test
+    void decodesNumericStrings() throws IOException {
+        SensorData reading = decode("{\"deviceId\":\"d-1\",\"value\":\" 21.5 \",\"latitude\":\"-16.4\"}");
+        assertEquals("d-1", reading.getDeviceId());
+        assertEquals(21.5, reading.getValue());
+        assertEquals(-16.4, reading.getLatitude());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"value\":\"abc\"}",
+            "{\"value\":\"\"}",
+            "{\"latitude\":\"norte\"}",
+            "{\"timestampOffset\":\"x\",\"readings\":[]}",
+            "{\"value\":{}}",
+            "{\"timestamp\":[2025,13,1,0,0]}",
+            "{\"timestamp\":[2025,2,30,0,0,0,0]}",
+            "{\"timestamp\":[2025,1,1,25,0]}",
+            "{\"timestamp\":[2025,1,1]}",
+            "{\"timestamp\":\"2025-13-01T00:00:00\"}",
+            "{\"timestamp\":\"2025-02-30T00:00:00Z\"}",
+            "{\"timestamp\":\"ayer\"}",
+            "{\"timestamp\":\"+10000-01-01T00:00:00\"}",
+            "{\"timestamp\":[10000,1,1,0,0]}",
+            "{\"timestamp\":\"0000-01-01T00:00:00\"}",
+            "{\"timestamp\":9223372036854775807}",
+            "{\"timestamp\":-9223372036854775808}",
+            "{\"timestamp\":99999999999999999999}",
+            "{\"timestamp\":true}",
+            "[{\"value\":1},{\"value\":\"abc\"}]",
+            "{\"readings\":[{\"timestamp\":[2025,0,1,0,0]}]}",
+            "{\"timestamp\":\"9999-12-31T23:59:59\",\"readings\":[{\"timestampOffset\":1000}]}",
+            "{\"timestamp\":\"2025-01-01T00:00:00\",\"readings\":[{\"timestampOffset\":9223372036854775807}]}",
+            "[1]",
+            "\"texto\"",
+            "{\"value\":",
+    })
+    void invalidValuesThrowIOException(String json) {
+        assertThrows(IOException.class,
+                () -> decoder.decodeAll("watana/sensor/d-1/data", json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void fromEpochMillisRejectsOutOfRange() throws IOException {
+        assertEquals(SensorTimestamps.fromInstant(Instant.EPOCH), SensorDataDecoder.fromEpochMillis(0));
+        assertEquals(SensorTimestamps.fromEpochMillis(253402128000000L), // 9999-12-30, en rango en cualquier zona
+                SensorDataDecoder.fromEpochMillis(253402128000000L));
+        assertThrows(IOException.class, () -> SensorDataDecoder.fromEpochMillis(253402300800000L));
+        assertThrows(IOException.class, () -> SensorDataDecoder.fromEpochMillis(Long.MAX_VALUE));
+        assertThrows(IOException.class, () -> SensorDataDecoder.fromEpochMillis(Long.MIN_VALUE));
+    }
+
+    @Test
+    void decodesCborWithFieldNumbersAndTags() throws IOException {
+        byte[] payload = hex("d9d9f7" // Etiqueta auto-descriptiva: el decodificador detecta CBOR por el primer byte
+                + "bf" // Mapa de longitud indefinida
+                + "01" + "63642d31" // 1 (deviceId): "d-1"
+                + "03" + "f94d60" // 3 (value): 21.5 en flotante de 16 bits
+                + "04" + "f7" // 4 (unit): undefined
+                + "06" + "c11a683c47d7" // 6 (timestamp): etiqueta 1, epoch en segundos
+                + "ff");
+        List<SensorData> readings = decoder.decodeAll(null, payload);
+
+        assertEquals(1, readings.size());
+        SensorData reading = readings.get(0);
+        assertEquals("d-1", reading.getDeviceId());
+        assertEquals(21.5, reading.getValue());
+        assertNull(reading.getUnit());
+        assertEquals(SensorTimestamps.fromInstant(Instant.ofEpochSecond(1748781015)), reading.getTimestamp());
+    }
+
+    @Test
+    void decodesCborBatchWithFieldNames() throws IOException {
+        byte[] payload = new ObjectMapper(new CBORFactory()).writeValueAsBytes(Map.of(
+                "deviceId", "d-1",
+                "type", "temperature",
+                "timestamp", "2025-06-01T12:00:00",
+                "readings", List.of(Map.of("value", 20.5), Map.of("value", 21, "timestampOffset", 1500))));
+        List<SensorData> readings = decoder.decodeAll("watana/sensor/d-1/data/cbor", payload);
+
+        assertEquals(2, readings.size());
+        assertEquals("d-1", readings.get(1).getDeviceId());
+        assertEquals(21.0, readings.get(1).getValue());
+        assertEquals(LocalDateTime.of(2025, 6, 1, 12, 0), readings.get(0).getTimestamp());
+        assertEquals(LocalDateTime.of(2025, 6, 1, 12, 0, 1, 500_000_000), readings.get(1).getTimestamp());
+        assertSame(readings.get(0).getType(), readings.get(1).getType());
+    }
+
+    @Test
+    void decodesProtobufBatch() throws IOException {
+        long start = SensorTimestamps.toEpochMillis(LocalDateTime.of(2025, 6, 1, 12, 0));
+        byte[] payload = SensorMessage.newBuilder()
+                .setDeviceId("d-1")
+                .setType("temperature")
+                .setTimestampMs(start)
+                .setLatitude(0.0)
+                .setLongitude(-71.5)
+                .addReadings(SensorReading.newBuilder().setValue(20.5).setId("r-1"))
+                .addReadings(SensorReading.newBuilder().setValue(21).setTimestampOffsetMs(1500)
+                        .setDeviceId("d-2").setLatitude(-16.4).setLongitude(-71.5))
+                .build().toByteArray();
+        List<SensorData> readings = decoder.decodeAll("watana/sensor/d-1/data/pb", payload);
+
+        assertEquals(2, readings.size());
+        SensorData first = readings.get(0);
+        assertEquals("r-1", first.getId());
+        assertEquals("d-1", first.getDeviceId());
+        assertEquals(20.5, first.getValue());
+        assertNull(first.getUnit()); // Cadena vacía en proto3: ausente
+        assertEquals(0.0, first.getLatitude()); // optional: 0.0 es un valor
+        assertEquals(LocalDateTime.of(2025, 6, 1, 12, 0), first.getTimestamp());
+        SensorData second = readings.get(1);
+        assertNull(second.getId());
+        assertEquals("d-2", second.getDeviceId());
+        assertEquals(-16.4, second.getLatitude());
+        assertEquals(LocalDateTime.of(2025, 6, 1, 12, 0, 1, 500_000_000), second.getTimestamp());
+        assertSame(first.getType(), second.getType());
+    }
+
+    @Test
+    void decodesProtobufSingleReadingWithFormatByte() throws IOException {
+        byte[] message = SensorMessage.newBuilder().setDeviceId("d-1").setValue(21.5).build().toByteArray();
+        byte[] payload = new byte[message.length + 1];
+        payload[0] = SensorPayloadFormat.PROTOBUF.marker();
+        System.arraycopy(message, 0, payload, 1, message.length);
+
+        SensorData reading = decoder.decodeAll(null, payload).get(0);
+        assertEquals("d-1", reading.getDeviceId());
+        assertEquals(21.5, reading.getValue());
+        assertNull(reading.getTimestamp()); // timestamp_ms = 0: sin timestamp
+        assertNull(reading.getLatitude());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "a1016364", // Texto truncado
+            "a203", // Mapa incompleto
+            "a1036161", // value de texto no numérico ("a")
+            "a106c11bffffffffffffffff", // Epoch en segundos fuera de rango
+            "820102", // Arreglo de escalares
+            "a10f8101", // Lectura del lote que no es un mapa
+    })
+    void invalidCborThrowsIOException(String payload) {
+        byte[] cbor = hex(payload);
+        assertThrows(IOException.class, () -> decoder.decodeAll(SensorPayloadFormat.CBOR, cbor, 0, cbor.length));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "0a05642d31", // Cadena truncada
+            "19", // Etiqueta de campo sin valor
+            "30bc84b9f1b3cbff7f", // timestamp_ms fuera de rango
+            "7a", // readings con longitud truncada
+    })
+    void invalidProtobufThrowsIOException(String payload) {
+        byte[] bytes = hex(payload);
+        assertThrows(IOException.class,
+                () -> decoder.decodeAll(SensorPayloadFormat.PROTOBUF, bytes, 0, bytes.length));
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private SensorData decode(String json) throws IOException {
+        List<SensorData> readings = decoder.decodeAll(null, json.getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, readings.size());
+        return readings.get(0);
+    }
+}
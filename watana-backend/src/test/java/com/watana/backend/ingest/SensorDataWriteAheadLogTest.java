@@ -0,0 +1,127 @@
+package com.watana.backend.ingest;
+
+import com.watana.backend.model.SensorData;
+import com.watana.backend.service.SensorDataService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class SensorDataWriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    private final Queue<SensorData> saved = new ConcurrentLinkedQueue<>();
+    private SensorDataService sensorDataService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        sensorDataService = mock(SensorDataService.class);
+        doAnswer(invocation -> saved.addAll(invocation.getArgument(0))).when(sensorDataService).saveAllSensorData(anyList());
+    }
+
+    @Test
+    void resumesReplayFromCommittedOffsetAfterRestart() throws Exception {
+        SensorDataWriteAheadLog wal = open();
+        wal.start();
+        for (int i = 0; i < 3; i++) {
+            wal.append(reading("d-" + i));
+        }
+        awaitCount(3, saved::size);
+        awaitCount(0, wal::getPendingBytes);
+        long committed = wal.getCommittedOffset();
+        wal.stop();
+
+        // El offset se escribe en un temporal y se mueve encima del confirmado
+        assertEquals(Long.toString(committed), Files.readString(directory.resolve("committed.offset")));
+        assertFalse(Files.exists(directory.resolve("committed.offset.tmp")));
+
+        // Lecturas anexadas sin que el replay alcance a escribirlas (el hilo no arranca)
+        wal = open();
+        wal.append(reading("d-3"));
+        wal.append(reading("d-4"));
+        wal.stop();
+
+        wal = open();
+        assertEquals(committed, wal.getCommittedOffset());
+        assertTrue(wal.getPendingBytes() > 0);
+        wal.start();
+        awaitCount(5, saved::size);
+        awaitCount(0, wal::getPendingBytes);
+        wal.stop();
+
+        List<SensorData> all = new ArrayList<>(saved);
+        assertEquals(List.of("d-0", "d-1", "d-2", "d-3", "d-4"), all.stream().map(SensorData::getDeviceId).toList());
+        // IDs derivados del log y el offset: distintos entre sí y con el mismo prefijo tras reiniciar
+        assertEquals(5, new HashSet<>(all.stream().map(SensorData::getId).toList()).size());
+        String prefix = all.get(0).getId().substring(0, all.get(0).getId().indexOf('-'));
+        assertTrue(all.stream().allMatch(sensorData -> sensorData.getId().startsWith(prefix + "-")));
+    }
+
+    @Test
+    void concurrentAppendsShareForcesAndAllSurviveRestart() throws Exception {
+        int threads = 8;
+        int perThread = 200;
+        SensorDataWriteAheadLog wal = open();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String deviceId = "d-" + t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    wal.append(reading(deviceId));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(threads * perThread, wal.getAppendedCount());
+        assertTrue(wal.getForceCount() > 0 && wal.getForceCount() <= threads * perThread,
+                "forces=" + wal.getForceCount());
+        wal.stop();
+
+        SensorDataWriteAheadLog reopened = open();
+        reopened.start();
+        awaitCount(threads * perThread, saved::size);
+        reopened.stop();
+    }
+
+    private SensorDataWriteAheadLog open() throws Exception {
+        return new SensorDataWriteAheadLog(sensorDataService, directory.toString(), 1, true, 100, 1, 10, 100);
+    }
+
+    private static SensorData reading(String deviceId) {
+        return new SensorData(deviceId, "temperature", 21.5, "C", "Cusco", LocalDateTime.now());
+    }
+
+    private static void awaitCount(long expected, LongSupplier count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (count.getAsLong() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, count.getAsLong());
+    }
+}
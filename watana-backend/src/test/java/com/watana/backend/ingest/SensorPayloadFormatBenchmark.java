@@ -0,0 +1,315 @@
+package com.watana.backend.ingest;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.watana.backend.ingest.proto.SensorMessage;
+import com.watana.backend.ingest.proto.SensorReading;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.util.SensorTimestamps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara JSON, CBOR y Protobuf, con una lectura por mensaje y en lotes de {@link #BATCH_SIZE} lecturas:
+ * bytes por lectura (impresos por {@link #main(String[])} antes de medir) y lecturas decodificadas por milisegundo.
+ * <p>
+ * Las variantes por lote usan {@code @OperationsPerInvocation}, así todas las cifras son por lectura. CBOR usa
+ * claves enteras y flotantes de 32 bits cuando conservan el valor; Protobuf, las clases generadas del esquema.
+ * Ejecutar con {@code mvn test-compile} y luego el método {@link #main(String[])} desde el IDE,
+ * o con {@code java -cp target/test-classes:<classpath de test> org.openjdk.jmh.Main SensorPayloadFormatBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SensorPayloadFormatBenchmark {
+
+    static final int BATCH_SIZE = 50;
+    private static final int READINGS = 1000; // Múltiplo de BATCH_SIZE
+    private static final String[] DEVICES = {"sensor-temp-001", "sensor-temp-002", "sensor-hum-001", "drone-alpha-001"};
+    private static final String[] LOCATIONS = {"Arequipa", "Cusco", "Puno", "Tacna"};
+    private static final LocalDateTime START = LocalDateTime.of(2025, 6, 1, 12, 0);
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+
+    /** Mensajes ya codificados en cada formato, para todas las lecturas de prueba. */
+    record Payloads(List<SensorData> readings, byte[][] jsonSingle, byte[][] cborSingle, byte[][] protobufSingle,
+                    byte[][] jsonBatch, byte[][] cborBatch, byte[][] protobufBatch) {
+
+        static Payloads generate() throws IOException {
+            List<SensorData> readings = new ArrayList<>(READINGS);
+            for (int i = 0; i < READINGS; i++) {
+                int series = i / BATCH_SIZE; // Cada lote es de un dispositivo, con una lectura por segundo
+                readings.add(new SensorData(DEVICES[series % DEVICES.length], "temperature",
+                        15 + (i % 80) * 0.25, "C", LOCATIONS[series % LOCATIONS.length],
+                        START.plusMinutes(series).plusSeconds(i % BATCH_SIZE)));
+            }
+            int batches = READINGS / BATCH_SIZE;
+            Payloads payloads = new Payloads(readings, new byte[READINGS][], new byte[READINGS][],
+                    new byte[READINGS][], new byte[batches][], new byte[batches][], new byte[batches][]);
+            for (int i = 0; i < READINGS; i++) {
+                payloads.jsonSingle[i] = encodeJson(readings.get(i));
+                payloads.cborSingle[i] = encodeCbor(readings.get(i));
+                payloads.protobufSingle[i] = encodeProtobuf(readings.get(i));
+            }
+            for (int b = 0; b < batches; b++) {
+                List<SensorData> batch = readings.subList(b * BATCH_SIZE, (b + 1) * BATCH_SIZE);
+                payloads.jsonBatch[b] = encodeJsonBatch(batch);
+                payloads.cborBatch[b] = encodeCborBatch(batch);
+                payloads.protobufBatch[b] = encodeProtobufBatch(batch);
+            }
+            return payloads;
+        }
+
+        // Todos los formatos deben producir exactamente las mismas lecturas
+        void verify(SensorDataDecoder decoder) throws IOException {
+            for (int i = 0; i < READINGS; i++) {
+                check(decoder, SensorPayloadFormat.JSON, jsonSingle[i], readings.subList(i, i + 1));
+                check(decoder, SensorPayloadFormat.CBOR, cborSingle[i], readings.subList(i, i + 1));
+                check(decoder, SensorPayloadFormat.PROTOBUF, protobufSingle[i], readings.subList(i, i + 1));
+            }
+            for (int b = 0; b < jsonBatch.length; b++) {
+                List<SensorData> expected = readings.subList(b * BATCH_SIZE, (b + 1) * BATCH_SIZE);
+                check(decoder, SensorPayloadFormat.JSON, jsonBatch[b], expected);
+                check(decoder, SensorPayloadFormat.CBOR, cborBatch[b], expected);
+                check(decoder, SensorPayloadFormat.PROTOBUF, protobufBatch[b], expected);
+            }
+        }
+
+        private static void check(SensorDataDecoder decoder, SensorPayloadFormat format, byte[] payload,
+                                  List<SensorData> expected) throws IOException {
+            List<SensorData> actual = decoder.decodeAll(format, payload, 0, payload.length);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException(format + ": se esperaba " + expected + " y se obtuvo " + actual);
+            }
+        }
+
+        void printSizes() {
+            System.out.printf(Locale.ROOT, "%-10s %12s %12s%n", "Formato", "1 por msg", BATCH_SIZE + " por msg");
+            print("JSON", jsonSingle, jsonBatch);
+            print("CBOR", cborSingle, cborBatch);
+            print("Protobuf", protobufSingle, protobufBatch);
+            System.out.println("(bytes de payload por lectura)");
+        }
+
+        private static void print(String name, byte[][] single, byte[][] batch) {
+            System.out.printf(Locale.ROOT, "%-10s %12.1f %12.1f%n", name,
+                    totalBytes(single) / (double) READINGS, totalBytes(batch) / (double) READINGS);
+        }
+
+        private static long totalBytes(byte[][] payloads) {
+            long total = 0;
+            for (byte[] payload : payloads) {
+                total += payload.length;
+            }
+            return total;
+        }
+    }
+
+    private Payloads payloads;
+    private SensorDataDecoder decoder;
+    private int next;
+    private int nextBatch;
+
+    @Setup
+    public void setUp() throws IOException {
+        payloads = Payloads.generate();
+        decoder = new SensorDataDecoder(4096, 1000);
+        payloads.verify(decoder);
+    }
+
+    private byte[] single(byte[][] messages) {
+        byte[] payload = messages[next];
+        next = (next + 1) % messages.length;
+        return payload;
+    }
+
+    private byte[] batch(byte[][] messages) {
+        byte[] payload = messages[nextBatch];
+        nextBatch = (nextBatch + 1) % messages.length;
+        return payload;
+    }
+
+    @Benchmark
+    public List<SensorData> jsonSingle() throws IOException {
+        return decode(SensorPayloadFormat.JSON, single(payloads.jsonSingle()));
+    }
+
+    @Benchmark
+    public List<SensorData> cborSingle() throws IOException {
+        return decode(SensorPayloadFormat.CBOR, single(payloads.cborSingle()));
+    }
+
+    @Benchmark
+    public List<SensorData> protobufSingle() throws IOException {
+        return decode(SensorPayloadFormat.PROTOBUF, single(payloads.protobufSingle()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<SensorData> jsonBatch() throws IOException {
+        return decode(SensorPayloadFormat.JSON, batch(payloads.jsonBatch()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<SensorData> cborBatch() throws IOException {
+        return decode(SensorPayloadFormat.CBOR, batch(payloads.cborBatch()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<SensorData> protobufBatch() throws IOException {
+        return decode(SensorPayloadFormat.PROTOBUF, batch(payloads.protobufBatch()));
+    }
+
+    private List<SensorData> decode(SensorPayloadFormat format, byte[] payload) throws IOException {
+        return decoder.decodeAll(format, payload, 0, payload.length);
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Payloads.generate().printSizes();
+        new Runner(new OptionsBuilder()
+                .include(SensorPayloadFormatBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    // --- Codificadores, como los usaría un dispositivo ---
+
+    private static long epochMillis(LocalDateTime timestamp) {
+        return SensorTimestamps.toEpochMillis(timestamp);
+    }
+
+    private static byte[] encodeJson(SensorData reading) {
+        return String.format(Locale.ROOT,
+                "{\"deviceId\":\"%s\",\"type\":\"%s\",\"value\":%s,\"unit\":\"%s\",\"location\":\"%s\",\"timestamp\":\"%s\"}",
+                reading.getDeviceId(), reading.getType(), reading.getValue(), reading.getUnit(),
+                reading.getLocation(), reading.getTimestamp()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodeJsonBatch(List<SensorData> batch) {
+        SensorData first = batch.get(0);
+        StringBuilder json = new StringBuilder(String.format(Locale.ROOT,
+                "{\"deviceId\":\"%s\",\"type\":\"%s\",\"unit\":\"%s\",\"location\":\"%s\",\"timestamp\":\"%s\",\"readings\":[",
+                first.getDeviceId(), first.getType(), first.getUnit(), first.getLocation(), first.getTimestamp()));
+        for (int i = 0; i < batch.size(); i++) {
+            SensorData reading = batch.get(i);
+            json.append(i == 0 ? "" : ",").append("{\"value\":").append(reading.getValue())
+                    .append(",\"timestampOffset\":")
+                    .append(epochMillis(reading.getTimestamp()) - epochMillis(first.getTimestamp())).append('}');
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodeCbor(SensorData reading) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CBORGenerator cbor = CBOR_FACTORY.createGenerator(bytes)) {
+            cbor.writeStartObject(6);
+            writeCommon(cbor, reading);
+            cbor.writeFieldId(SensorMessage.VALUE_FIELD_NUMBER);
+            writeNumber(cbor, reading.getValue());
+            cbor.writeFieldId(SensorMessage.TIMESTAMP_MS_FIELD_NUMBER);
+            cbor.writeNumber(epochMillis(reading.getTimestamp()));
+            cbor.writeEndObject();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeCborBatch(List<SensorData> batch) throws IOException {
+        SensorData first = batch.get(0);
+        long start = epochMillis(first.getTimestamp());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CBORGenerator cbor = CBOR_FACTORY.createGenerator(bytes)) {
+            cbor.writeStartObject(6);
+            writeCommon(cbor, first);
+            cbor.writeFieldId(SensorMessage.TIMESTAMP_MS_FIELD_NUMBER);
+            cbor.writeNumber(start);
+            cbor.writeFieldId(SensorMessage.READINGS_FIELD_NUMBER);
+            cbor.writeStartArray(null, batch.size());
+            for (SensorData reading : batch) {
+                long offset = epochMillis(reading.getTimestamp()) - start;
+                cbor.writeStartObject(offset == 0 ? 1 : 2);
+                cbor.writeFieldId(SensorMessage.VALUE_FIELD_NUMBER);
+                writeNumber(cbor, reading.getValue());
+                if (offset != 0) {
+                    cbor.writeFieldId(SensorMessage.TIMESTAMP_OFFSET_MS_FIELD_NUMBER);
+                    cbor.writeNumber(offset);
+                }
+                cbor.writeEndObject();
+            }
+            cbor.writeEndArray();
+            cbor.writeEndObject();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeCommon(CBORGenerator cbor, SensorData reading) throws IOException {
+        cbor.writeFieldId(SensorMessage.DEVICE_ID_FIELD_NUMBER);
+        cbor.writeString(reading.getDeviceId());
+        cbor.writeFieldId(SensorMessage.TYPE_FIELD_NUMBER);
+        cbor.writeString(reading.getType());
+        cbor.writeFieldId(SensorMessage.UNIT_FIELD_NUMBER);
+        cbor.writeString(reading.getUnit());
+        cbor.writeFieldId(SensorMessage.LOCATION_FIELD_NUMBER);
+        cbor.writeString(reading.getLocation());
+    }
+
+    // Flotante de 32 bits cuando conserva el valor exacto
+    private static void writeNumber(CBORGenerator cbor, double value) throws IOException {
+        if ((float) value == value) {
+            cbor.writeNumber((float) value);
+        } else {
+            cbor.writeNumber(value);
+        }
+    }
+
+    private static byte[] encodeProtobuf(SensorData reading) {
+        return common(reading)
+                .setValue(reading.getValue())
+                .setTimestampMs(epochMillis(reading.getTimestamp()))
+                .build()
+                .toByteArray();
+    }
+
+    private static byte[] encodeProtobufBatch(List<SensorData> batch) {
+        SensorData first = batch.get(0);
+        long start = epochMillis(first.getTimestamp());
+        SensorMessage.Builder message = common(first).setTimestampMs(start);
+        for (SensorData reading : batch) {
+            message.addReadings(SensorReading.newBuilder()
+                    .setValue(reading.getValue())
+                    .setTimestampOffsetMs(epochMillis(reading.getTimestamp()) - start));
+        }
+        return message.build().toByteArray();
+    }
+
+    private static SensorMessage.Builder common(SensorData reading) {
+        return SensorMessage.newBuilder()
+                .setDeviceId(reading.getDeviceId())
+                .setType(reading.getType())
+                .setUnit(reading.getUnit())
+                .setLocation(reading.getLocation());
+    }
+}
@@ -0,0 +1,41 @@
+package com.watana.backend.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class StringInternerTest {
+
+    @Test
+    void internsUntilSaturatedThenReturnsPlainStrings() {
+        StringInterner interner = new StringInterner(100);
+        String first = intern(interner, "device-0");
+        for (int i = 0; i < 200; i++) {
+            assertEquals("device-" + i, intern(interner, "device-" + i));
+        }
+        assertSame(first, intern(interner, "device-0"));
+        assertSame(intern(interner, "device-99"), internBytes(interner, "device-99"));
+        assertSame(first, interner.intern(new String("device-0")));
+
+        // Fuera del vocabulario: mismo contenido, sin internar
+        String unknown = intern(interner, "device-150");
+        assertEquals("device-150", unknown);
+        assertNotSame(unknown, intern(interner, "device-150"));
+        assertEquals("device-151", internBytes(interner, "device-151"));
+        assertEquals("device-152", interner.intern("device-152"));
+    }
+
+    private static String intern(StringInterner interner, String value) {
+        char[] chars = ("xx" + value).toCharArray();
+        return interner.intern(chars, 2, value.length());
+    }
+
+    private static String internBytes(StringInterner interner, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return interner.intern(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,56 @@
+package com.watana.backend.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watana.backend.model.Device;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalDeviceRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresLogMovedAsideByInterruptedCompaction() throws Exception {
+        saveDevice("a");
+        Path devices = directory.resolve("devices");
+        // Caída entre apartar el log vigente y poner el compactado en su lugar
+        Files.move(devices, directory.resolve("devices.old"));
+        Files.createDirectories(directory.resolve("devices.compact"));
+
+        LocalDeviceRepository repository = open();
+        assertTrue(repository.findById("a").isPresent());
+        repository.close();
+        assertFalse(Files.exists(directory.resolve("devices.old")));
+        assertFalse(Files.exists(directory.resolve("devices.compact")));
+    }
+
+    @Test
+    void removesBackupLeftAfterCompactedLogWasInPlace() throws Exception {
+        saveDevice("a");
+        Files.createDirectories(directory.resolve("devices.old"));
+        Files.writeString(directory.resolve("devices.old").resolve("00000000000000000000.seg"), "viejo");
+
+        LocalDeviceRepository repository = open();
+        assertEquals(1, repository.findAll().size());
+        repository.close();
+        assertFalse(Files.exists(directory.resolve("devices.old")));
+    }
+
+    private void saveDevice(String id) throws Exception {
+        LocalDeviceRepository repository = open();
+        repository.save(new Device(id, "Sensor " + id, "sensor", "Cusco", true, null, null, null, null));
+        repository.close();
+    }
+
+    private LocalDeviceRepository open() throws Exception {
+        return new LocalDeviceRepository(new ObjectMapper(), directory.toString(), 1);
+    }
+}
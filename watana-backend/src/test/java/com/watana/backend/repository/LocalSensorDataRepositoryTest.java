@@ -0,0 +1,80 @@
+package com.watana.backend.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watana.backend.model.SensorAnomaly;
+import com.watana.backend.model.SensorData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LocalSensorDataRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void walReplayAfterRestartDoesNotDuplicateReadings() throws Exception {
+        LocalSensorDataRepository repository = open();
+        repository.saveAll(List.of(reading("wal-1-0"), reading("wal-1-40"), reading(null)));
+        repository.close();
+
+        // El WAL reenvía el lote que no alcanzó a confirmar antes de la caída
+        repository = open();
+        repository.saveAll(List.of(reading("wal-1-0"), reading("wal-1-40"), reading("wal-1-80")));
+        List<String> ids = new ArrayList<>();
+        repository.forEach(sensorData -> ids.add(sensorData.getId()));
+        repository.close();
+
+        assertEquals(4, ids.size());
+        assertEquals(List.of("wal-1-0", "wal-1-40"), ids.subList(0, 2));
+        assertEquals("wal-1-80", ids.get(3));
+    }
+
+    @Test
+    void findsAnomaliesByDeviceAndTypeNewestFirst() throws Exception {
+        LocalSensorDataRepository repository = open();
+        List<SensorAnomaly> batch = List.of(anomaly("d-1", "temperature", 1), anomaly("d-2", "temperature", 2),
+                anomaly("d-1", "humidity", 3), anomaly("d-1", "temperature", 4));
+        repository.saveAnomalies(batch);
+        repository.saveAnomalies(batch.subList(0, 1)); // Lote reintentado: misma anotación dos veces
+        repository.close();
+
+        repository = open();
+        assertEquals(List.of("d-1_temperature_4", "d-1_humidity_3", "d-1_temperature_1"),
+                ids(repository.findAnomalies("d-1", null, 10)));
+        assertEquals(List.of("d-1_temperature_4"), ids(repository.findAnomalies("d-1", "temperature", 1)));
+        assertEquals(List.of(), repository.findAnomalies("d-3", null, 10));
+        repository.close();
+    }
+
+    private static SensorAnomaly anomaly(String deviceId, String type, long timestamp) {
+        SensorAnomaly anomaly = new SensorAnomaly();
+        anomaly.setId(deviceId + "_" + type + "_" + timestamp);
+        anomaly.setDeviceId(deviceId);
+        anomaly.setType(type);
+        anomaly.setKind(SensorAnomaly.Kind.SPIKE);
+        anomaly.setTimestamp(new Date(timestamp));
+        return anomaly;
+    }
+
+    private static List<String> ids(List<SensorAnomaly> anomalies) {
+        return anomalies.stream().map(SensorAnomaly::getId).toList();
+    }
+
+    private LocalSensorDataRepository open() throws Exception {
+        return new LocalSensorDataRepository(new ObjectMapper(), directory.toString(), 1, false, 1000);
+    }
+
+    private static SensorData reading(String id) {
+        SensorData sensorData = new SensorData("d-1", "temperature", 21.5, "C", "Cusco", LocalDateTime.now());
+        sensorData.setId(id);
+        return sensorData;
+    }
+}
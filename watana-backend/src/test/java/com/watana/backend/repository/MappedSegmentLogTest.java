@@ -0,0 +1,107 @@
+package com.watana.backend.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedSegmentLogTest {
+
+    // Registros de 8 + 20 bytes: caben dos por segmento de 64
+    private static final int SEGMENT_SIZE = 64;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rollsOverSegmentsAndReadsAcrossThem() throws Exception {
+        long[] offsets = new long[5];
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = log.append(record(i));
+            }
+            assertArrayEquals(new long[] {0, 28, 64, 92, 128}, offsets);
+            assertEquals(3, segmentFiles().size());
+            assertEquals(List.of("record-0000000000000", "record-0000000000001", "record-0000000000002",
+                    "record-0000000000003", "record-0000000000004"), readFrom(log, 0));
+            assertEquals(List.of("record-0000000000003", "record-0000000000004"), readFrom(log, offsets[3]));
+
+            // El primer segmento ya está confirmado completo; el segundo no
+            log.deleteSegmentsBefore(offsets[3]);
+            assertEquals(2, segmentFiles().size());
+        }
+
+        // Al reabrir se sigue anexando en el último segmento
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE)) {
+            assertEquals(156, log.endOffset());
+            assertEquals(156, log.append(record(5)));
+            assertEquals(4, readFrom(log, offsets[2]).size());
+        }
+    }
+
+    @Test
+    void discardsTornTailRecordOnOpen() throws Exception {
+        long torn;
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE * 4)) {
+            log.append(record(0));
+            log.append(record(1));
+            torn = log.append(record(2));
+        }
+        // Simula una caída a mitad de la escritura del último registro: el cuerpo no coincide con su CRC
+        try (FileChannel channel = FileChannel.open(segmentFiles().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'X'}), torn + 8 + 3);
+        }
+
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE * 4)) {
+            assertEquals(torn, log.endOffset());
+            assertEquals(List.of("record-0000000000000", "record-0000000000001"), readFrom(log, 0));
+            assertEquals(torn, log.append(record(3))); // El registro roto se sobrescribe
+            assertEquals("record-0000000000003", readFrom(log, torn).get(0));
+        }
+    }
+
+    @Test
+    void forceReportsTheOffsetItCovers() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE)) {
+            log.append(record(0));
+            log.append(record(1));
+            log.append(record(2)); // Rota: el primer segmento se forzó al cerrarse
+            assertEquals(log.endOffset(), log.force());
+            assertFalse(segmentFiles().isEmpty());
+            assertTrue(Files.size(segmentFiles().get(0)) >= SEGMENT_SIZE);
+        }
+    }
+
+    private static byte[] record(int i) {
+        return String.format("record-%013d", i).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static List<String> readFrom(MappedSegmentLog log, long offset) throws Exception {
+        List<String> records = new ArrayList<>();
+        log.read(offset, (recordOffset, next, record) -> {
+            byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            records.add(new String(bytes, StandardCharsets.US_ASCII));
+            return true;
+        });
+        return records;
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.watana.backend.rules;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watana.backend.model.Notification;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.service.NotificationBroadcaster;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class AlertRuleEngineTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 6, 1, 12, 0);
+
+    private final MutableClock clock = new MutableClock();
+    private final List<Notification> published = new ArrayList<>();
+    private NotificationBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        broadcaster = mock(NotificationBroadcaster.class);
+        doAnswer(invocation -> published.add(invocation.getArgument(0))).when(broadcaster).publish(any());
+    }
+
+    @Test
+    void thresholdFiresOnlyWhenCrossed() throws Exception {
+        AlertRuleEngine engine = engine("""
+                {"id": "hot", "kind": "THRESHOLD", "type": "temperature", "operator": "above", "threshold": 30,
+                 "title": "Calor", "message": "{deviceId}: {value} > {threshold}"}""");
+
+        engine.onSensorData(reading("d-1", "temperature", 30.0, T0));
+        engine.onSensorData(reading("d-1", "humidity", 90.0, T0)); // Otro tipo: la regla no aplica
+        assertEquals(0, published.size());
+
+        engine.onSensorData(reading("d-1", "temperature", 31.5, T0));
+        assertEquals(1, published.size());
+        assertEquals("d-1: 31.5 > 30.0", published.get(0).getMessage());
+        assertEquals("alert", published.get(0).getType());
+        assertEquals(1, engine.getAlertsFiredCount());
+    }
+
+    @Test
+    void debounceSuppressesRepeatsUntilItElapses() throws Exception {
+        AlertRuleEngine engine = engine("""
+                {"id": "cold", "kind": "THRESHOLD", "type": "temperature", "operator": "below", "threshold": 0,
+                 "debounceSeconds": 60, "title": "Helada"}""");
+
+        engine.onSensorData(reading("d-1", "temperature", -1, T0));
+        clock.advance(59_000);
+        engine.onSensorData(reading("d-1", "temperature", -2, T0.plusSeconds(59)));
+        engine.onSensorData(reading("d-2", "temperature", -2, T0.plusSeconds(59))); // Debounce por dispositivo
+        assertEquals(2, published.size());
+        assertEquals(1, engine.getAlertsDebouncedCount());
+
+        clock.advance(1_000);
+        engine.onSensorData(reading("d-1", "temperature", -3, T0.plusSeconds(60)));
+        assertEquals(3, published.size());
+    }
+
+    @Test
+    void rateOfChangeComparesConsecutiveReadingsPerMinute() throws Exception {
+        AlertRuleEngine engine = engine("""
+                {"id": "jump", "kind": "RATE_OF_CHANGE", "type": "temperature", "threshold": 2,
+                 "title": "Salto", "message": "{value}/min"}""");
+
+        engine.onSensorData(reading("d-1", "temperature", 10, T0));
+        engine.onSensorData(reading("d-1", "temperature", 11, T0.plusSeconds(60))); // 1 por minuto
+        engine.onSensorData(reading("d-1", "temperature", 50, T0.plusSeconds(30))); // Desordenada: se ignora
+        assertEquals(0, published.size());
+
+        engine.onSensorData(reading("d-1", "temperature", 9, T0.plusSeconds(90))); // -2 en 30 s
+        assertEquals(1, published.size());
+        assertEquals("-4.0/min", published.get(0).getMessage());
+    }
+
+    @Test
+    void noDataFiresAfterTimeoutAndReportsRecovery() throws Exception {
+        AlertRuleEngine engine = engine("""
+                {"id": "offline", "kind": "NO_DATA", "timeoutSeconds": 10, "title": "Sin datos",
+                 "message": "{deviceId} sin datos hace {seconds} s"}""");
+
+        engine.onSensorData(reading("d-1", "temperature", 20, T0));
+        clock.advance(5_000);
+        engine.onSensorData(reading("d-1", "temperature", 20, T0.plusSeconds(5)));
+        clock.advance(6_000);
+        engine.checkOffline(); // Vence el primer plazo, pero hubo datos después: se reprograma
+        assertEquals(0, published.size());
+
+        clock.advance(5_000);
+        engine.checkOffline();
+        assertEquals(1, published.size());
+        assertEquals("d-1 sin datos hace 11 s", published.get(0).getMessage());
+        clock.advance(5_000);
+        engine.checkOffline(); // Ya se avisó: no se repite
+        assertEquals(1, published.size());
+
+        engine.onSensorData(reading("d-1", "temperature", 20, T0.plusSeconds(21)));
+        assertEquals(2, published.size());
+        assertEquals("info", published.get(1).getType());
+    }
+
+    private AlertRuleEngine engine(String rule) throws Exception {
+        ByteArrayResource rules = new ByteArrayResource(("[" + rule + "]").getBytes(StandardCharsets.UTF_8));
+        return new AlertRuleEngine(broadcaster, new ObjectMapper(), rules, 1000, 2, clock);
+    }
+
+    private static SensorData reading(String deviceId, String type, double value, LocalDateTime timestamp) {
+        return new SensorData(deviceId, type, value, "u", "Cusco", timestamp);
+    }
+
+    private static final class MutableClock extends Clock {
+        private long millis = 1_700_000_000_000L;
+
+        void advance(long deltaMs) {
+            millis += deltaMs;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.watana.backend.rules;
+
+import com.watana.backend.model.SensorData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Actualizaciones por segundo del detector de anomalías con 100.000 series (25.000 dispositivos x 4 tipos),
+ * visitadas en orden aleatorio para que el estado no quepa en la caché de la CPU.
+ * <p>
+ * {@code detectorUpdate} mide solo {@link AnomalyDetector#update}; {@code monitorOnSensorData} el camino completo de
+ * ingesta ({@link SensorAnomalyMonitor#onSensorData}: índice de la serie, lock y detector). Los valores siguen un
+ * ciclo diario con ruido, con un pico cada tanto para que también se anoten anomalías.
+ * <p>
+ * Ejecutar con {@code mvn test-compile} y luego el método {@link #main(String[])} desde el IDE,
+ * o con {@code java -cp target/test-classes:<classpath de test> org.openjdk.jmh.Main AnomalyDetectorBenchmark}.
+ * Con {@code -prof gc} se ve que {@code detectorUpdate} no asigna memoria por lectura.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class AnomalyDetectorBenchmark {
+
+    private static final int DEVICES = 25_000;
+    private static final String[] TYPES = {"temperature", "humidity", "battery_percent", "wind_speed"};
+    private static final int SERIES = DEVICES * TYPES.length;
+    private static final int ORDER_LENGTH = 1 << 20;
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private AnomalyDetector detector;
+    private SensorAnomalyMonitor monitor;
+    private SensorData[] readings; // Una lectura reutilizable por serie, para el camino del monitor
+    private int[] order; // Secuencia aleatoria de series
+    private double[] noise;
+    private int next;
+    private long clock; // Avanza una hora por cada vuelta de SERIES lecturas
+
+    @Setup
+    public void setUp() {
+        detector = new AnomalyDetector(settings(), SERIES);
+        // El resto de la configuración, con los valores por defecto de AnomalyProperties
+        AnomalyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "watana.anomaly.max-series", SERIES, "watana.anomaly.recent-per-device", 20)))
+                .bindOrCreate("watana.anomaly", AnomalyProperties.class);
+        monitor = new SensorAnomalyMonitor(null, properties, 0);
+
+        Random random = new Random(42);
+        order = new int[ORDER_LENGTH];
+        for (int i = 0; i < ORDER_LENGTH; i++) {
+            order[i] = random.nextInt(SERIES);
+        }
+        noise = new double[ORDER_LENGTH];
+        for (int i = 0; i < ORDER_LENGTH; i++) {
+            noise[i] = random.nextGaussian() * 0.5 + (random.nextInt(10_000) == 0 ? 25 : 0);
+        }
+        readings = new SensorData[SERIES];
+        LocalDateTime start = LocalDateTime.of(2025, 6, 1, 0, 0);
+        for (int series = 0; series < SERIES; series++) {
+            readings[series] = new SensorData("sensor-" + (series / TYPES.length), TYPES[series % TYPES.length], 0,
+                    "u", "Arequipa", start);
+        }
+
+        // Todas las series pasan el calentamiento antes de medir: cuatro días de lecturas horarias
+        for (int hour = 0; hour < 96; hour++) {
+            for (int series = 0; series < SERIES; series++) {
+                double value = valueAt(series, hour * HOUR_MS, noise[(series + hour) & (ORDER_LENGTH - 1)]);
+                detector.update(series, hour * HOUR_MS, value);
+                readings[series].setValue(value);
+                readings[series].setTimestamp(start.plusHours(hour));
+                monitor.onSensorData(readings[series]);
+            }
+        }
+        clock = 96 * HOUR_MS;
+        System.out.printf("%n%d series, %d bytes de estado por serie (%.1f MB)%n", SERIES, detector.bytesPerSeries(),
+                (double) SERIES * detector.bytesPerSeries() / (1 << 20));
+    }
+
+    static AnomalyDetector.Settings settings() {
+        return new AnomalyDetector.Settings(0.05, 0.2, 4.0, 4.0, 30, 3, 24, TimeUnit.HOURS.toMillis(24), 60, 0.01,
+                TimeUnit.SECONDS.toMillis(300));
+    }
+
+    // Ciclo diario distinto por serie más ruido
+    private static double valueAt(int series, long millis, double noise) {
+        double phase = 2 * Math.PI * (millis % (24 * HOUR_MS)) / (24 * HOUR_MS);
+        return 20 + (series % 7) + 5 * Math.sin(phase + series) + noise;
+    }
+
+    @Benchmark
+    public int detectorUpdate() {
+        int i = next;
+        next = (i + 1) & (ORDER_LENGTH - 1);
+        if (next == 0) {
+            clock += HOUR_MS;
+        }
+        int series = order[i];
+        return detector.update(series, clock, valueAt(series, clock, noise[i]));
+    }
+
+    @Benchmark
+    public void monitorOnSensorData() {
+        int i = next;
+        next = (i + 1) & (ORDER_LENGTH - 1);
+        int series = order[i];
+        SensorData reading = readings[series];
+        reading.setValue(valueAt(series, clock, noise[i]));
+        monitor.onSensorData(reading);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AnomalyDetectorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,101 @@
+package com.watana.backend.rules;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Entradas conocidas, con los valores esperados calculados a mano a partir de las fórmulas de la EWMA.
+ */
+class AnomalyDetectorTest {
+
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    @Test
+    void spikeUsesEwmaZScoreAndClipsTheSpikeIntoTheMean() {
+        AnomalyDetector detector = new AnomalyDetector(settings(0.1, 4, 2, 0, 0, 0), 1);
+
+        assertEquals(AnomalyDetector.NONE, detector.update(0, 0, 10)); // media 10, varianza 0
+        assertEquals(AnomalyDetector.NONE, detector.update(0, 1, 12)); // media 10.2, varianza 0.9 * 0.1 * 4 = 0.36
+
+        // z = (13.2 - 10.2) / 0.6 = 5
+        assertEquals(AnomalyDetector.SPIKE, detector.update(0, 2, 13.2));
+        assertEquals(5.0, detector.score(), 1e-9);
+        assertEquals(10.2, detector.expected(), 1e-9);
+
+        // La EWMA tomó 10.2 + 4 * 0.6 = 12.6 (recortado al umbral), no 13.2: media 10.44, varianza 0.8424
+        double stddev = Math.sqrt(0.9 * (0.36 + 0.1 * 2.4 * 2.4));
+        assertEquals(AnomalyDetector.SPIKE, detector.update(0, 3, 10.44 - 6 * stddev));
+        assertEquals(-6.0, detector.score(), 1e-9);
+        assertEquals(10.44, detector.expected(), 1e-9);
+    }
+
+    @Test
+    void nothingIsFlaggedDuringWarmupNorWithinTheCooldown() {
+        AnomalyDetector detector = new AnomalyDetector(settings(0.1, 4, 3, 0, 0, MINUTE), 1);
+
+        assertEquals(AnomalyDetector.NONE, detector.update(0, 0, 10));
+        assertEquals(AnomalyDetector.NONE, detector.update(0, 1000, 12));
+        assertEquals(AnomalyDetector.NONE, detector.update(0, 2000, 100)); // Tercera lectura: todavía calentando
+        assertEquals(AnomalyDetector.SPIKE, detector.update(0, 3000, 1000));
+        assertEquals(AnomalyDetector.NONE, detector.update(0, 4000, 10_000)); // Dentro del minuto de espera
+        assertEquals(AnomalyDetector.SPIKE, detector.update(0, 3000 + MINUTE, 100_000));
+    }
+
+    @Test
+    void flatlineNeedsASeriesThatWasVarying() {
+        AnomalyDetector detector = new AnomalyDetector(settings(0.1, 4, 10, 0, 5, 0), 2);
+        for (int i = 0; i < 40; i++) {
+            assertEquals(AnomalyDetector.NONE, detector.update(0, i, i % 2 == 0 ? 9 : 11));
+            assertEquals(AnomalyDetector.NONE, detector.update(1, i, 10)); // Constante desde el inicio
+        }
+
+        // Cinco repeticiones del mismo valor después del primero
+        for (int i = 0; i < 5; i++) {
+            assertEquals(AnomalyDetector.NONE, detector.update(0, 40 + i, 10));
+        }
+        assertEquals(AnomalyDetector.FLATLINE, detector.update(0, 45, 10));
+        assertEquals(5.0, detector.score());
+        assertEquals(10.0, detector.expected(), 0.1);
+        assertEquals(AnomalyDetector.NONE, detector.update(0, 46, 10)); // Solo al llegar a la cantidad exacta
+
+        for (int i = 40; i < 100; i++) {
+            assertEquals(AnomalyDetector.NONE, detector.update(1, i, 10));
+        }
+    }
+
+    @Test
+    void seasonalComparesAgainstTheHourlyBucket() {
+        // Umbral de la EWMA alto: solo interesa la franja horaria
+        AnomalyDetector detector = new AnomalyDetector(new AnomalyDetector.Settings(0.5, 0.2, 50, 3, 1, 2, 24, DAY,
+                0, 0.01, 0), 1);
+
+        // Noche a 20 (0 a 11 h) y día a 30 (12 a 23 h), una lectura cada 10 minutos
+        for (int day = 0; day < 3; day++) {
+            for (long t = day * DAY; t < (day + 1) * DAY; t += 10 * MINUTE) {
+                double value = (t % DAY) < 12 * HOUR ? 20 : 30;
+                if (day == 0 && t == 2 * HOUR) {
+                    // La franja de las 2 h todavía no tiene visitas: no hay línea base con qué comparar
+                    assertEquals(AnomalyDetector.NONE, detector.update(0, t, 25));
+                } else {
+                    detector.update(0, t, value);
+                }
+            }
+        }
+
+        // 25 a las 2 h del cuarto día: z = 25 contra la EWMA (bajo el umbral de 50), pero la noche es 20
+        assertEquals(AnomalyDetector.NONE, detector.update(0, 3 * DAY + HOUR + 50 * MINUTE, 20));
+        assertEquals(AnomalyDetector.SEASONAL, detector.update(0, 3 * DAY + 2 * HOUR, 25));
+        assertEquals(20.0, detector.expected(), 0.1);
+        assertTrue(detector.score() >= 3, "z contra la franja: " + detector.score());
+    }
+
+    private static AnomalyDetector.Settings settings(double alpha, double zThreshold, int warmupReadings,
+                                                     int seasonBuckets, int flatlineReadings, long cooldownMs) {
+        return new AnomalyDetector.Settings(alpha, 0.2, zThreshold, 4, warmupReadings, 3, seasonBuckets, DAY,
+                flatlineReadings, 0.01, cooldownMs);
+    }
+}
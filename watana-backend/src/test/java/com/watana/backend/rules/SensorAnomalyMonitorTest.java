@@ -0,0 +1,124 @@
+package com.watana.backend.rules;
+
+import com.watana.backend.model.SensorAnomaly;
+import com.watana.backend.model.SensorData;
+import com.watana.backend.service.SensorDataService;
+import com.watana.backend.util.SensorTimestamps;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Consultas de anomalías: el repositorio es la fuente y las últimas de cada dispositivo quedan en memoria como caché.
+ */
+class SensorAnomalyMonitorTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 6, 1, 12, 0);
+
+    private SensorDataService sensorDataService;
+    private SensorAnomalyMonitor monitor;
+
+    @BeforeEach
+    void setUp() {
+        sensorDataService = mock(SensorDataService.class);
+        AnomalyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "watana.anomaly.warmup-readings", 2,
+                "watana.anomaly.season-buckets", 0,
+                "watana.anomaly.cooldown-seconds", 0,
+                "watana.anomaly.recent-per-device", 3))).bindOrCreate("watana.anomaly", AnomalyProperties.class);
+        monitor = new SensorAnomalyMonitor(sensorDataService, properties, 1);
+    }
+
+    @Test
+    void afterRestartServesFromTheRepositoryThenFromTheCache() throws Exception {
+        List<SensorAnomaly> stored = List.of(stored("d-1", "temperature", 2), stored("d-1", "humidity", 1));
+        when(sensorDataService.findAnomalies(eq("d-1"), isNull(), anyInt())).thenReturn(stored);
+
+        assertEquals(stored, monitor.getRecent("d-1", null, 10));
+        assertEquals(List.of(stored.get(1)), monitor.getRecent("d-1", "humidity", 10));
+        assertEquals(stored, monitor.getRecent("d-1", null, 50));
+
+        // Cargada y con todo el historial del dispositivo: una sola consulta
+        verify(sensorDataService, times(1)).findAnomalies(eq("d-1"), isNull(), eq(10));
+        assertEquals(1, monitor.getStats().repositoryQueries());
+        assertEquals(2, monitor.getStats().queryCacheHits());
+    }
+
+    @Test
+    void newAnomaliesAreServedBeforeTheyAreSaved() throws Exception {
+        spike("d-1", 0);
+        spike("d-1", 10);
+
+        List<SensorAnomaly> recent = monitor.getRecent("d-1", null, 2);
+        assertEquals(2, recent.size());
+        assertEquals(SensorAnomaly.Kind.SPIKE, recent.get(0).getKind());
+        assertEquals(recent.get(0).getTimestamp(), date(START.plusMinutes(13)));
+        verify(sensorDataService, never()).findAnomalies(eq("d-1"), isNull(), anyInt());
+
+        // Más de las que hay en memoria: se suman las guardadas antes del arranque
+        SensorAnomaly older = stored("d-1", "temperature", -60);
+        when(sensorDataService.findAnomalies(eq("d-1"), isNull(), anyInt())).thenReturn(List.of(older));
+        List<SensorAnomaly> all = monitor.getRecent("d-1", null, 10);
+        assertEquals(3, all.size());
+        assertEquals(recent, all.subList(0, 2));
+        assertEquals(older, all.get(2));
+    }
+
+    @Test
+    void cacheKeepsTheLatestAndQueriesTheRepositoryForOlderOnes() throws Exception {
+        when(sensorDataService.findAnomalies(eq("d-1"), isNull(), anyInt())).thenReturn(List.of());
+        monitor.getRecent("d-1", null, 3);
+        for (int i = 0; i < 4; i++) {
+            spike("d-1", i * 10); // La cuarta desplaza a la primera de la caché
+        }
+
+        assertEquals(3, monitor.getRecent("d-1", null, 3).size());
+        verify(sensorDataService, times(1)).findAnomalies(eq("d-1"), isNull(), anyInt());
+
+        List<SensorAnomaly> saved = new ArrayList<>(monitor.getRecent("d-1", null, 3));
+        saved.add(stored("d-1", "temperature", 3));
+        when(sensorDataService.findAnomalies(eq("d-1"), isNull(), anyInt())).thenReturn(saved);
+        assertEquals(4, monitor.getRecent("d-1", null, 10).size());
+        verify(sensorDataService, times(2)).findAnomalies(eq("d-1"), isNull(), anyInt());
+    }
+
+    // Dos lecturas normales y una de 100: SPIKE, fechada en START + minutes + 3
+    private void spike(String deviceId, int minutes) {
+        for (int i = 0; i < 3; i++) {
+            SensorData reading = new SensorData(deviceId, "temperature", i == 2 ? 100 : 10 + i * 2, "C", "Cusco",
+                    START.plusMinutes(minutes + i + 1));
+            monitor.onSensorData(reading);
+        }
+    }
+
+    private static SensorAnomaly stored(String deviceId, String type, int minutes) {
+        SensorAnomaly anomaly = new SensorAnomaly();
+        anomaly.setId(deviceId + "_" + type + "_" + minutes);
+        anomaly.setDeviceId(deviceId);
+        anomaly.setType(type);
+        anomaly.setKind(SensorAnomaly.Kind.SPIKE);
+        anomaly.setTimestamp(date(START.plusMinutes(minutes)));
+        return anomaly;
+    }
+
+    private static Date date(LocalDateTime timestamp) {
+        return Date.from(SensorTimestamps.toInstant(timestamp));
+    }
+}
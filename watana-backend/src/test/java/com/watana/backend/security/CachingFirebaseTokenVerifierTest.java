@@ -0,0 +1,166 @@
+package com.watana.backend.security;
+
+import com.google.firebase.ErrorCode;
+import com.google.firebase.auth.AuthErrorCode;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingFirebaseTokenVerifierTest {
+
+    private static final long START_MS = 1_700_000_000_000L;
+
+    private final MutableClock clock = new MutableClock();
+    private final Map<String, Long> expByToken = new HashMap<>(); // Token -> exp in seconds
+    private FirebaseAuth firebaseAuth;
+    private ObjectProvider<FirebaseAuth> provider;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        firebaseAuth = mock(FirebaseAuth.class);
+        provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(firebaseAuth);
+        when(firebaseAuth.verifyIdToken(anyString(), anyBoolean())).thenAnswer(invocation -> {
+            String token = invocation.getArgument(0);
+            FirebaseToken decoded = mock(FirebaseToken.class);
+            when(decoded.getUid()).thenReturn("uid-" + token);
+            when(decoded.getClaims()).thenReturn(Map.of("exp", expByToken.get(token)));
+            return decoded;
+        });
+    }
+
+    @Test
+    void servesFromCacheUntilExpClaim() throws Exception {
+        CachingFirebaseTokenVerifier verifier = verifier(100, 0);
+        issue("t1", 60);
+
+        assertEquals("uid-t1", verifier.verify("t1").getUsername());
+        clock.advance(59_999);
+        assertEquals("uid-t1", verifier.verify("t1").getUsername());
+        verify(firebaseAuth, times(1)).verifyIdToken("t1", false);
+        assertEquals(1, verifier.getHitCount());
+
+        clock.advance(1); // Exactly at exp: no longer served from the cache
+        issue("t1", 60);
+        verifier.verify("t1");
+        verify(firebaseAuth, times(2)).verifyIdToken("t1", false);
+    }
+
+    @Test
+    void rechecksRevocationAfterIntervalAndDropsRejectedToken() throws Exception {
+        CachingFirebaseTokenVerifier verifier = verifier(100, 30);
+        issue("t1", 3600);
+
+        verifier.verify("t1");
+        clock.advance(TimeUnit.SECONDS.toMillis(29));
+        verifier.verify("t1");
+        verify(firebaseAuth, times(1)).verifyIdToken("t1", true);
+
+        clock.advance(TimeUnit.SECONDS.toMillis(2));
+        when(firebaseAuth.verifyIdToken(eq("t1"), eq(true))).thenThrow(revoked());
+        assertThrows(FirebaseAuthException.class, () -> verifier.verify("t1"));
+        assertEquals(0, verifier.size()); // The failure drops the entry: the next attempt goes back to Firebase
+        assertThrows(FirebaseAuthException.class, () -> verifier.verify("t1"));
+        verify(firebaseAuth, times(3)).verifyIdToken("t1", true);
+    }
+
+    @Test
+    void evictsExpiredFirstThenLeastRecentlyUsedAtMaxSize() throws Exception {
+        CachingFirebaseTokenVerifier verifier = verifier(3, 0);
+        issue("short", 5);
+        issue("t1", 3600);
+        issue("t2", 3600);
+        issue("t3", 3600);
+        issue("t4", 3600);
+
+        verifier.verify("short");
+        verifier.verify("t1");
+        clock.advance(TimeUnit.SECONDS.toMillis(10)); // "short" has expired
+        verifier.verify("t2");
+        assertEquals(3, verifier.size());
+        clock.advance(1);
+        verifier.verify("t3"); // Makes room by dropping the expired one, not counted as an eviction
+        assertEquals(0, verifier.getEvictionCount());
+        assertEquals(3, verifier.size());
+
+        clock.advance(1000);
+        verifier.verify("t1"); // t2 is now the least recently used
+        clock.advance(1000);
+        verifier.verify("t4");
+        assertEquals(1, verifier.getEvictionCount());
+        assertEquals(3, verifier.size());
+
+        verifier.verify("t1");
+        verifier.verify("t3");
+        verify(firebaseAuth, times(1)).verifyIdToken("t1", false);
+        verify(firebaseAuth, times(1)).verifyIdToken("t3", false);
+        verifier.verify("t2");
+        verify(firebaseAuth, times(2)).verifyIdToken("t2", false);
+    }
+
+    private CachingFirebaseTokenVerifier verifier(int maxSize, long revocationCheckIntervalSeconds) {
+        return new CachingFirebaseTokenVerifier(provider, maxSize, revocationCheckIntervalSeconds,
+                new SimpleMeterRegistry(), clock);
+    }
+
+    // The token expires ttlSeconds after the clock's current time
+    private void issue(String token, long ttlSeconds) {
+        expByToken.put(token, TimeUnit.MILLISECONDS.toSeconds(clock.millis()) + ttlSeconds);
+    }
+
+    private static FirebaseAuthException revoked() {
+        return new FirebaseAuthException(ErrorCode.INVALID_ARGUMENT, "Token revoked", null, null,
+                AuthErrorCode.REVOKED_ID_TOKEN);
+    }
+
+    private static final class MutableClock extends Clock {
+        private long millis = START_MS;
+
+        void advance(long deltaMs) {
+            millis += deltaMs;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
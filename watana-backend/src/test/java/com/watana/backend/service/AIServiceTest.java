@@ -0,0 +1,16 @@
+package com.watana.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class AIServiceTest {
+
+    @Test
+    void cacheKeyKeepsInputsApart() {
+        assertNotEquals(AIService.cacheKey("wildfire", "a|b", "c"), AIService.cacheKey("wildfire", "a", "b|c"));
+        assertNotEquals(AIService.cacheKey("analyze", 20.0, null), AIService.cacheKey("analyze", 20.0, "null"));
+        assertEquals(AIService.cacheKey("analyze", 20.0, "Cusco"), AIService.cacheKey("analyze", 20.0, "Cusco"));
+    }
+}
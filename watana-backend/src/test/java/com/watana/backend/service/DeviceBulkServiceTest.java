@@ -0,0 +1,85 @@
+package com.watana.backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watana.backend.model.Device;
+import com.watana.backend.model.DeviceImportItem;
+import com.watana.backend.model.DeviceImportResult;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DeviceBulkServiceTest {
+
+    private final List<Device> saved = new ArrayList<>();
+    private DeviceService deviceService;
+    private DeviceBulkService bulkService;
+
+    @BeforeEach
+    void setUp() {
+        deviceService = mock(DeviceService.class);
+        when(deviceService.saveDevices(anyList())).thenAnswer(invocation -> {
+            List<Device> chunk = invocation.getArgument(0);
+            saved.addAll(chunk);
+            return chunk.stream().map(CompletableFuture::completedFuture).toList();
+        });
+        bulkService = new DeviceBulkService(deviceService,
+                Validation.buildDefaultValidatorFactory().getValidator(), new ObjectMapper(), 2, 100);
+    }
+
+    @Test
+    void importsCsvWithQuotedFieldsAndReportsInvalidRows() throws Exception {
+        String csv = "﻿name,type,location,active,latitude\n"
+                + "\"Sensor, norte\",temperature,\"Cusco \"\"centro\"\"\",true,-13.5\n"
+                + "\n"
+                + "ab,temperature,Cusco,true,\n"
+                + "Sensor sur,temperature,Arequipa,true,-16.4,extra\n"
+                + "Sensor este,humidity,Puno,false,\n";
+
+        DeviceImportResult result = bulkService.importDevices(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), DeviceBulkService.Format.CSV);
+
+        assertEquals(4, result.received());
+        assertEquals(2, result.saved());
+        assertEquals(2, result.invalid());
+        assertEquals("Sensor, norte", saved.get(0).getName());
+        assertEquals("Cusco \"centro\"", saved.get(0).getLocation());
+        assertEquals(-13.5, saved.get(0).getLatitude());
+        assertEquals("Sensor este", saved.get(1).getName());
+        assertEquals(List.of("El nombre debe tener entre 3 y 100 caracteres."), result.items().get(1).errors());
+        assertEquals(DeviceImportItem.INVALID, result.items().get(2).status());
+    }
+
+    @Test
+    void exportedCsvCanBeImportedAgain() throws Exception {
+        Device device = new Device();
+        device.setId("d-1");
+        device.setName("Sensor, \"norte\"");
+        device.setType("temperature");
+        device.setLocation("Cusco");
+        device.setActive(true);
+        when(deviceService.getAllDevices()).thenReturn(List.of(device));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bulkService.exportDevices(DeviceBulkService.Format.CSV, out);
+        assertFalse(out.toString(StandardCharsets.UTF_8).isEmpty());
+
+        DeviceImportResult result = bulkService.importDevices(
+                new ByteArrayInputStream(out.toByteArray()), DeviceBulkService.Format.CSV);
+        assertEquals(1, result.saved());
+        assertEquals("d-1", saved.get(0).getId());
+        assertEquals("Sensor, \"norte\"", saved.get(0).getName());
+    }
+}
@@ -0,0 +1,44 @@
+package com.watana.backend.service;
+
+import com.watana.backend.ingest.PartitionedExecutor;
+import com.watana.backend.model.SensorData;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SensorHeatmapTest {
+
+    @Test
+    void mergesCellsSharedByDevicesOfDifferentPartitions() {
+        SensorHeatmap heatmap = new SensorHeatmap(new DeviceSpatialIndex(7, 64), 7, 3600, 60, 1000, 4);
+        String first = "d-1";
+        String second = "d-2";
+        assertNotEquals(PartitionedExecutor.partitionFor(first, 4), PartitionedExecutor.partitionFor(second, 4));
+
+        LocalDateTime now = LocalDateTime.now();
+        heatmap.onSensorData(reading(first, 20.0, now));
+        heatmap.onSensorData(reading(second, 30.0, now));
+        heatmap.onSensorData(reading(second, 24.0, now.plusSeconds(1)));
+
+        List<SensorHeatmap.HeatmapCell> cells = heatmap.query("temperature", 7, null);
+        assertEquals(1, cells.size());
+        assertEquals(2, cells.get(0).devices());
+        assertEquals(22.0, cells.get(0).mean(), 1e-9);
+
+        SensorHeatmap.Stats stats = heatmap.getStats();
+        assertEquals(2, stats.series());
+        assertEquals(1, stats.cells());
+        assertEquals(3, stats.readingsApplied());
+    }
+
+    private static SensorData reading(String deviceId, double value, LocalDateTime timestamp) {
+        SensorData reading = new SensorData(deviceId, "temperature", value, "°C", "Cusco", timestamp);
+        reading.setLatitude(-13.5319);
+        reading.setLongitude(-71.9675);
+        return reading;
+    }
+}
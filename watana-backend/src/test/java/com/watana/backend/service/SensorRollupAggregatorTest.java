@@ -0,0 +1,47 @@
+package com.watana.backend.service;
+
+import com.watana.backend.model.SensorData;
+import com.watana.backend.model.SensorRollup;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class SensorRollupAggregatorTest {
+
+    @Test
+    void rejectsReadingsFromWindowsThatHaveNotStarted() throws Exception {
+        SensorDataService sensorDataService = mock(SensorDataService.class);
+        List<SensorRollup> flushed = new ArrayList<>();
+        doAnswer(invocation -> flushed.addAll(invocation.getArgument(0))).when(sensorDataService).saveRollups(anyList());
+        SensorRollupAggregator aggregator =
+                new SensorRollupAggregator(sensorDataService, true, 60, 10, 1000, 100, new String[] {"all"}, 4);
+
+        LocalDateTime now = LocalDateTime.now();
+        aggregator.onSensorData(reading("d-1", 20.0, now));
+        aggregator.onSensorData(reading("d-2", 21.0, now));
+        aggregator.onSensorData(reading("d-1", 99.0, now.plusMinutes(5))); // Reloj del dispositivo adelantado
+
+        SensorRollupAggregator.Stats stats = aggregator.getStats();
+        assertEquals(2, stats.readingsAggregated());
+        assertEquals(1, stats.futureReadings());
+        assertEquals(2, stats.series());
+        assertEquals(2, stats.openWindows());
+
+        aggregator.stop(); // Cierra y escribe todas las ventanas abiertas
+        assertEquals(2, flushed.size());
+        SensorRollup first = flushed.stream().filter(r -> r.getDeviceId().equals("d-1")).findFirst().orElseThrow();
+        assertEquals(1, first.getCount());
+        assertEquals(20.0, first.getMax());
+    }
+
+    private static SensorData reading(String deviceId, double value, LocalDateTime timestamp) {
+        return new SensorData(deviceId, "temperature", value, "°C", "Cusco", timestamp);
+    }
+}
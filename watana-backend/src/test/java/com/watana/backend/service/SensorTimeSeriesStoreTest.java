@@ -0,0 +1,88 @@
+package com.watana.backend.service;
+
+import com.watana.backend.ingest.SensorDataDecoder;
+import com.watana.backend.model.SensorData;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SensorTimeSeriesStoreTest {
+
+    private final SensorTimeSeriesStore store = new SensorTimeSeriesStore(64, 1, 100, 60, 60);
+
+    @Test
+    void futureDatedReadingDoesNotFreezeSeries() {
+        LocalDateTime now = LocalDateTime.now();
+        store.onSensorData(reading(now.minusSeconds(10), 1.0));
+        store.onSensorData(reading(now.plusYears(100), 99.0));
+        store.onSensorData(reading(now, 2.0));
+
+        assertEquals(2.0, store.latest("d-1", "temperature").value());
+        assertEquals(1, store.getFutureReadings());
+        long from = store.toEpochMillis(now.minusMinutes(1));
+        assertEquals(2, store.queryRaw("d-1", "temperature", from, Long.MAX_VALUE).values().length);
+    }
+
+    @Test
+    void sweepRemovesSeriesWithoutRecentReadings() {
+        LocalDateTime now = LocalDateTime.now();
+        store.onSensorData(reading(now, 1.0));
+        assertEquals(1, store.getSeriesCount());
+
+        store.sweep(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(2));
+        assertNull(store.latest("d-1", "temperature"));
+        assertEquals(0, store.getSeriesCount());
+
+        // La serie se vuelve a crear con la siguiente lectura
+        store.onSensorData(reading(now, 3.0));
+        assertEquals(3.0, store.latest("d-1", "temperature").value());
+        assertEquals(1, store.getSeriesCount());
+    }
+
+    @Test
+    void decodedReadingsKeepTheirInstantOutsideUtc() throws IOException {
+        TimeZone original = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Lima")); // UTC-5: un desfase de zona se vería como 5 h
+        try {
+            long now = System.currentTimeMillis() - 10_000;
+            LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(now + 2), ZoneId.of("America/Lima"));
+            String json = "[" + reading(1, String.valueOf(now)) // Epoch millis
+                    + "," + reading(2, "\"" + Instant.ofEpochMilli(now + 1) + "\"") // ISO con Z
+                    + "," + reading(3, "\"" + local + "\"") + "]"; // Hora local sin zona
+            List<SensorData> decoded = new SensorDataDecoder(64, 10)
+                    .decodeAll("watana/sensor/d-1/data", json.getBytes(StandardCharsets.UTF_8));
+            decoded.forEach(store::onSensorData);
+
+            SensorTimeSeriesStore.RawSeries raw = store.queryRaw("d-1", "temperature", now - 60_000, now + 60_000);
+            assertArrayEquals(new long[] {now, now + 1, now + 2}, raw.timestamps());
+            assertArrayEquals(new double[] {1, 2, 3}, raw.values());
+            assertEquals(0, store.getFutureReadings());
+        } finally {
+            TimeZone.setDefault(original);
+        }
+    }
+
+    private static String reading(double value, String timestamp) {
+        return "{\"deviceId\":\"d-1\",\"type\":\"temperature\",\"value\":" + value + ",\"timestamp\":" + timestamp + "}";
+    }
+
+    private static SensorData reading(LocalDateTime timestamp, double value) {
+        SensorData sensorData = new SensorData();
+        sensorData.setDeviceId("d-1");
+        sensorData.setType("temperature");
+        sensorData.setValue(value);
+        sensorData.setTimestamp(timestamp);
+        return sensorData;
+    }
+}
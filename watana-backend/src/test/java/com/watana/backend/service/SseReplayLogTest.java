@@ -0,0 +1,62 @@
+package com.watana.backend.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SseReplayLogTest {
+
+    @Test
+    void concurrentPublishersKeepIdsConsecutiveAndResumable() throws Exception {
+        int threads = 8;
+        int perThread = 2_000;
+        SseReplayLog<String> log = new SseReplayLog<>(threads * perThread, 60_000);
+        Queue<SseReplayLog.Event<String>> received = new ConcurrentLinkedQueue<>();
+        Disposable subscription = log.events(null).subscribe(received::add);
+
+        ExecutorService publishers = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            String device = "device-" + t;
+            publishers.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    log.publish(device, null, device + ":" + i);
+                }
+            });
+        }
+        start.countDown();
+        publishers.shutdown();
+        assertTrue(publishers.awaitTermination(30, TimeUnit.SECONDS));
+        subscription.dispose();
+
+        List<SseReplayLog.Event<String>> events = List.copyOf(received);
+        assertEquals(threads * perThread, events.size());
+        for (int i = 1; i < events.size(); i++) {
+            assertEquals(events.get(i - 1).id() + 1, events.get(i).id());
+        }
+
+        // Reanudar desde la mitad devuelve exactamente los eventos que siguen, en el mismo orden
+        SseReplayLog.Event<String> middle = events.get(events.size() / 2);
+        List<SseReplayLog.Event<String>> replayed = log.events(Long.toString(middle.id()))
+                .take(events.size() - events.size() / 2 - 1)
+                .collectList()
+                .block();
+        assertEquals(events.subList(events.size() / 2 + 1, events.size()), replayed);
+    }
+}
@@ -0,0 +1,114 @@
+package com.watana.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedTimerWheelTest {
+
+    private static final long TICK_MS = 100;
+
+    @Test
+    void firesOnlyOnceTheDeadlineTickIsReached() {
+        HashedTimerWheel wheel = new HashedTimerWheel(TICK_MS, 8, 4, 0);
+        List<Integer> fired = new ArrayList<>();
+        wheel.schedule(0, 250); // Tick 3
+        wheel.schedule(1, 250 + 8 * TICK_MS); // Mismo bucket, una vuelta después
+
+        assertEquals(0, wheel.advance(299, fired::add));
+        assertEquals(1, wheel.advance(300, fired::add));
+        assertEquals(List.of(0), fired);
+        assertTrue(wheel.isScheduled(1));
+
+        assertEquals(1, wheel.advance(1100, fired::add));
+        assertEquals(List.of(0, 1), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void callbackCanRescheduleTheExpiredIdAndOthersInTheSameBucket() {
+        HashedTimerWheel wheel = new HashedTimerWheel(TICK_MS, 8, 4, 0);
+        List<Integer> fired = new ArrayList<>();
+        wheel.schedule(0, 200);
+        wheel.schedule(1, 200);
+        wheel.schedule(2, 200 + 8 * TICK_MS); // Sigue en el bucket de los otros dos
+
+        assertEquals(1, wheel.advance(200, id -> {
+            fired.add(id);
+            wheel.schedule(id, 500); // Se reprograma a sí mismo
+            wheel.schedule(id == 0 ? 1 : 0, 700); // Y reprograma al otro vencido antes de que se entregue
+            wheel.cancel(2);
+        }));
+        assertEquals(1, fired.size());
+        assertFalse(wheel.isScheduled(2));
+        assertEquals(2, wheel.size());
+
+        fired.clear();
+        wheel.advance(500, fired::add);
+        assertEquals(1, fired.size());
+        wheel.advance(700, fired::add);
+        assertEquals(2, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void rescheduleIntoTheCurrentTickMovesToTheNextOne() {
+        HashedTimerWheel wheel = new HashedTimerWheel(TICK_MS, 8, 4, 0);
+        List<Integer> fired = new ArrayList<>();
+        wheel.schedule(0, 100);
+
+        wheel.advance(100, id -> {
+            fired.add(id);
+            wheel.schedule(id, 0); // Plazo ya pasado: nunca en un tick procesado
+        });
+        assertEquals(List.of(0), fired);
+        assertTrue(wheel.isScheduled(0));
+
+        wheel.advance(200, fired::add);
+        assertEquals(List.of(0, 0), fired);
+    }
+
+    @Test
+    void jumpPastMoreThanOneTurnExpiresEverythingDueAndKeepsTheRest() {
+        HashedTimerWheel wheel = new HashedTimerWheel(TICK_MS, 8, 4, 0);
+        List<Integer> fired = new ArrayList<>();
+        wheel.schedule(0, 3 * TICK_MS);
+        wheel.schedule(1, 10 * TICK_MS); // Segunda vuelta
+        wheel.schedule(2, 20 * TICK_MS); // Tercera vuelta
+        wheel.schedule(3, 40 * TICK_MS); // Después del salto
+
+        assertEquals(3, wheel.advance(25 * TICK_MS, id -> {
+            fired.add(id);
+            if (id == 0) {
+                wheel.schedule(id, 26 * TICK_MS); // Reprogramado durante el recorrido completo
+            }
+        }));
+        assertEquals(List.of(0, 1, 2), fired.stream().sorted().toList());
+        assertTrue(wheel.isScheduled(0));
+        assertTrue(wheel.isScheduled(3));
+
+        fired.clear();
+        wheel.advance(26 * TICK_MS, fired::add);
+        assertEquals(List.of(0), fired);
+        wheel.advance(39 * TICK_MS, fired::add);
+        assertEquals(List.of(0), fired);
+        wheel.advance(40 * TICK_MS, fired::add);
+        assertEquals(List.of(0, 3), fired);
+    }
+
+    @Test
+    void growsBeyondTheInitialCapacity() {
+        HashedTimerWheel wheel = new HashedTimerWheel(TICK_MS, 8, 1, 0);
+        for (int id = 0; id < 100; id++) {
+            wheel.schedule(id, (id % 5 + 1) * TICK_MS);
+        }
+        assertEquals(100, wheel.size());
+        assertEquals(100, wheel.advance(5 * TICK_MS, id -> { }));
+        assertEquals(0, wheel.size());
+    }
+}